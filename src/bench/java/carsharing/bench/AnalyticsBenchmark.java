@@ -0,0 +1,113 @@
+package carsharing.bench;
+
+import carsharing.dao.H2Database;
+import carsharing.dao.RentalTable;
+import carsharing.dao.SchemaMigrations;
+import carsharing.metrics.Metrics;
+import carsharing.model.FleetReport;
+import carsharing.service.FleetAnalytics;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+/**
+ * The AnalyticsBenchmark class measures how long the fleet utilization report takes as the rental history grows.
+ * For every history size it fills the RENTAL table with rentals of 10 minutes to 4 hours spread over the last
+ * 90 days, then builds the 90-day report in weekly windows a few times and prints the time of the first and
+ * the fastest run, followed by the metrics of the last run's queries.
+ * <p>
+ * Run with {@code gradle analyticsBenchmark -PbenchArgs="1000000 10000000"}.
+ */
+public class AnalyticsBenchmark {
+    private static final int COMPANIES = 100;
+    private static final int CARS = 10_000;
+    private static final int CUSTOMERS = 10_000;
+    private static final int DAYS = 90;
+    private static final int RUNS = 3;
+
+    public static void main(String[] args) throws SQLException {
+        int[] sizes = BenchSupport.intArgs(args, 1_000_000);
+
+        // Filling the history holds one connection for minutes, which is not a leak here
+        H2Database.configurePool(2, 10, 5_000, 0);
+
+        System.out.printf("%-12s %14s %12s %12s %16s%n", "rentals", "fill (rows/s)", "first (s)", "best (s)", "best (rentals/s)");
+
+        for (int size : sizes) {
+            BenchSupport.freshDatabase("bench-analytics-" + size);
+            BenchSupport.populate(COMPANIES, CARS, CUSTOMERS);
+            SchemaMigrations.migrate();
+
+            long start = System.nanoTime();
+            fillHistory(size);
+            double fillSeconds = (System.nanoTime() - start) / 1e9;
+
+            LocalDateTime to = LocalDateTime.now().withNano(0);
+            LocalDateTime from = LocalDate.now().minusDays(DAYS - 1).atStartOfDay();
+
+            double first = 0;
+            double best = Double.MAX_VALUE;
+            long rentals = 0;
+
+            for (int run = 0; run < RUNS; run++) {
+                Metrics.reset();
+                start = System.nanoTime();
+
+                FleetReport report = FleetAnalytics.report(from, to, Duration.ofDays(7), 3);
+
+                double seconds = (System.nanoTime() - start) / 1e9;
+                first = run == 0 ? seconds : first;
+                best = Math.min(best, seconds);
+                rentals = Arrays.stream(report.rentals()).sum();
+            }
+
+            System.out.printf("%-12d %14.0f %12.2f %12.2f %16.0f%n",
+                    size, size / fillSeconds, first, best, rentals / best);
+            System.out.print(Metrics.report());
+        }
+
+        H2Database.close();
+    }
+
+    /**
+     * Inserts finished rentals with pseudo-random cars, customers, start times and durations, generated by H2
+     * in chunks of 50,000 rows per transaction. The RENTAL indexes are dropped during the fill and built again
+     * afterwards, since random inserts into them grow the database file by gigabytes.
+     */
+    private static void fillHistory(int rows) throws SQLException {
+        String sqlQuery = "INSERT INTO RENTAL (CUSTOMER_ID, CAR_ID, STARTED_AT, ENDED_AT) " +
+                "SELECT CUSTOMER_ID, CAR_ID, STARTED_AT, DATEADD('MINUTE', MINUTES, STARTED_AT) FROM (" +
+                "SELECT MOD(X * 7919, ?) + 1 AS CUSTOMER_ID, MOD(X * 104729, ?) + 1 AS CAR_ID, " +
+                "DATEADD('SECOND', -MOD(X * 15485863, ?) - 14400, LOCALTIMESTAMP(0)) AS STARTED_AT, " +
+                "MOD(X * 31, 231) + 10 AS MINUTES " +
+                "FROM SYSTEM_RANGE(?, ?))";
+
+        int chunk = 50_000;
+
+        try (Connection connection = H2Database.connect();
+             Statement statement = connection.createStatement();
+             PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery)) {
+            statement.executeUpdate("DROP INDEX IF EXISTS IDX_RENTAL_CAR");
+            statement.executeUpdate("DROP INDEX IF EXISTS IDX_RENTAL_CUSTOMER");
+            connection.setAutoCommit(false);
+
+            for (long first = 1; first <= rows; first += chunk) {
+                preparedStatement.setInt(1, CUSTOMERS);
+                preparedStatement.setInt(2, CARS);
+                preparedStatement.setInt(3, DAYS * 86_400 - 14_400);
+                preparedStatement.setLong(4, first);
+                preparedStatement.setLong(5, Math.min(rows, first + chunk - 1));
+                preparedStatement.executeUpdate();
+                connection.commit();
+            }
+        }
+
+        RentalTable.create();
+    }
+}
@@ -0,0 +1,107 @@
+package carsharing.bench;
+
+import carsharing.dao.H2Database;
+import carsharing.dao.SchemaMigrations;
+import carsharing.model.Car;
+import carsharing.model.RentalStatus;
+import carsharing.service.AsyncService;
+import carsharing.service.CustomerService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The AsyncBenchmark class compares the blocking service calls with the {@link AsyncService} futures.
+ * Every customer rents its own car and returns it again, first one after the other on a single thread and
+ * then as independent future chains that all run at once. The same is done for listing the available cars
+ * of every company. Reports operations per second for both styles.
+ * <p>
+ * Run with {@code gradle asyncBenchmark -PbenchArgs="customers companies rounds"}, for example "256 100 5".
+ */
+public class AsyncBenchmark {
+    public static void main(String[] args) throws Exception {
+        int[] values = BenchSupport.intArgs(args, 256, 100, 5);
+        int customers = values[0];
+        int companies = values[1];
+        int rounds = values[2];
+
+        BenchSupport.freshDatabase("bench-async");
+        BenchSupport.populate(companies, customers, customers);
+        SchemaMigrations.migrate();
+        CustomerService.loadAvailableCars();
+
+        AtomicLong failures = new AtomicLong();
+
+        for (int round = 0; round <= rounds; round++) {
+            String label = round == 0 ? "warm-up" : "round " + round;
+
+            long start = System.nanoTime();
+
+            for (int id = 1; id <= customers; id++) {
+                if (CustomerService.tryRentCar(id, id) != RentalStatus.RENTED || CustomerService.tryReturnCar(id) != id) {
+                    failures.incrementAndGet();
+                }
+            }
+
+            double blocking = (System.nanoTime() - start) / 1e9;
+            start = System.nanoTime();
+
+            List<CompletableFuture<Void>> chains = new ArrayList<>(customers);
+
+            for (int id = 1; id <= customers; id++) {
+                int customerID = id;
+
+                chains.add(AsyncService.rentCarAsync(customerID, customerID)
+                        .thenCompose(result -> result.rented()
+                                ? AsyncService.returnCarAsync(customerID)
+                                : CompletableFuture.completedFuture(0))
+                        .thenAccept(carID -> {
+                            if (carID != customerID) {
+                                failures.incrementAndGet();
+                            }
+                        }));
+            }
+
+            CompletableFuture.allOf(chains.toArray(new CompletableFuture<?>[0])).join();
+
+            double async = (System.nanoTime() - start) / 1e9;
+            start = System.nanoTime();
+
+            long listed = 0;
+
+            for (int id = 1; id <= companies; id++) {
+                List<Car> cars = new ArrayList<>();
+                CustomerService.forEachAvailableCar(id, 0, Integer.MAX_VALUE, (carID, name) -> cars.add(new Car(carID, name, 0)));
+                listed += cars.size();
+            }
+
+            double blockingList = (System.nanoTime() - start) / 1e9;
+            start = System.nanoTime();
+
+            List<CompletableFuture<List<Car>>> lists = new ArrayList<>(companies);
+
+            for (int id = 1; id <= companies; id++) {
+                lists.add(AsyncService.availableCarsAsync(id));
+            }
+
+            CompletableFuture.allOf(lists.toArray(new CompletableFuture<?>[0])).join();
+
+            double asyncList = (System.nanoTime() - start) / 1e9;
+
+            System.out.printf("%s: rent+return blocking %.0f/s, async %.0f/s; list blocking %.0f/s, async %.0f/s (%d cars)%n",
+                    label, customers / blocking, customers / async, companies / blockingList, companies / asyncList, listed);
+        }
+
+        System.out.println(H2Database.getPool().stats());
+
+        AsyncService.shutdown();
+        H2Database.close();
+
+        if (failures.get() > 0) {
+            System.out.println("failures=" + failures.get());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package carsharing.bench;
+
+import carsharing.dao.DatabaseConfig;
+import carsharing.dao.H2Database;
+import carsharing.service.CustomerService;
+import carsharing.service.ManagerService;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.stream.Stream;
+
+/**
+ * The BenchSupport class holds the helpers shared by the benchmark programs:
+ * fresh database setup, bulk data generation and simple wall-clock timing.
+ */
+public class BenchSupport {
+    private static final PrintStream NULL_OUT = new PrintStream(OutputStream.nullOutputStream());
+
+    /**
+     * Deletes any previous database with the given name and creates a fresh one with all tables.
+     * Files are looked up in the directory of the current {@link DatabaseConfig}, which is where an H2 TCP
+     * server started in the same working directory keeps them too, and the files of every shard share the name.
+     * An in-memory database is emptied instead, shard by shard.
+     *
+     * @param fileName the database file name
+     */
+    public static void freshDatabase(String fileName) {
+        Path dir = Path.of(H2Database.getConfig().directory());
+
+        if (Files.isDirectory(dir)) {
+            try (Stream<Path> files = Files.list(dir)) {
+                files.filter(file -> file.getFileName().toString().startsWith(fileName + "."))
+                        .forEach(file -> file.toFile().delete());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        if (H2Database.getConfig().mode() == DatabaseConfig.Mode.MEM) {
+            try {
+                H2Database.create(fileName).close();
+
+                for (int shard = 0; shard < H2Database.getShardCount(); shard++) {
+                    try (Connection connection = H2Database.connect(shard);
+                         Statement statement = connection.createStatement()) {
+                        statement.execute("DROP ALL OBJECTS");
+                    }
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+
+        ManagerService.createCompany(fileName);
+        ManagerService.createCar();
+        CustomerService.createCustomer();
+    }
+
+    /**
+     * Inserts the given number of companies and spreads the given number of cars evenly across them.
+     * Car IDs are assigned in insertion order, so car {@code i} belongs to company {@code (i - 1) % companies + 1}.
+     *
+     * @param companies the number of companies
+     * @param cars      the number of cars
+     * @param customers the number of customers
+     * @throws SQLException if the data cannot be inserted
+     */
+    public static void populate(int companies, int cars, int customers) throws SQLException {
+        try (Connection connection = H2Database.connect()) {
+            connection.setAutoCommit(false);
+
+            try (PreparedStatement company = connection.prepareStatement("INSERT INTO COMPANY (NAME) VALUES (?)");
+                 PreparedStatement car = connection.prepareStatement("INSERT INTO CAR (NAME, COMPANY_ID) VALUES (?,?)");
+                 PreparedStatement customer = connection.prepareStatement("INSERT INTO CUSTOMER (NAME) VALUES (?)")) {
+
+                for (int i = 1; i <= companies; i++) {
+                    company.setString(1, "Company " + i);
+                    company.addBatch();
+                }
+                company.executeBatch();
+
+                for (int i = 1; i <= cars; i++) {
+                    car.setString(1, "Car " + i);
+                    car.setInt(2, (i - 1) % companies + 1);
+                    car.addBatch();
+
+                    if (i % 5_000 == 0) {
+                        car.executeBatch();
+                    }
+                }
+                car.executeBatch();
+
+                for (int i = 1; i <= customers; i++) {
+                    customer.setString(1, "Customer " + i);
+                    customer.addBatch();
+                }
+                customer.executeBatch();
+            }
+
+            connection.commit();
+        }
+    }
+
+    /**
+     * Runs an operation for a warm-up period and then measures its average latency.
+     *
+     * @param iterations the number of measured iterations
+     * @param operation  the operation to measure
+     * @return the average latency in microseconds
+     */
+    public static double averageMicros(int iterations, Runnable operation) {
+        PrintStream out = System.out;
+        System.setOut(NULL_OUT);
+
+        try {
+            for (int i = 0; i < Math.max(10, iterations / 5); i++) {
+                operation.run();
+            }
+
+            long start = System.nanoTime();
+
+            for (int i = 0; i < iterations; i++) {
+                operation.run();
+            }
+
+            return (System.nanoTime() - start) / 1_000.0 / iterations;
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    /**
+     * Parses integer arguments, or returns the defaults if none are given.
+     *
+     * @param args     the program arguments
+     * @param defaults the values used when no arguments are given
+     * @return the parsed values
+     */
+    public static int[] intArgs(String[] args, int... defaults) {
+        if (args.length == 0) {
+            return defaults;
+        }
+
+        int[] values = new int[args.length];
+
+        for (int i = 0; i < args.length; i++) {
+            values[i] = Integer.parseInt(args[i].replace("_", ""));
+        }
+
+        return values;
+    }
+}
@@ -0,0 +1,71 @@
+package carsharing.bench;
+
+import carsharing.dao.BulkImporter;
+import carsharing.dao.H2Database;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * The ImportBenchmark class compares the CSV bulk importer with H2's native CSVREAD on the same fleet.
+ * CSVREAD gets company IDs already resolved, so it is the upper bound for loading the CAR table.
+ * <p>
+ * Run with {@code gradle importBenchmark -PbenchArgs="cars companies chunkSize"}, for example "50000 20 5000".
+ */
+public class ImportBenchmark {
+    public static void main(String[] args) throws IOException, SQLException {
+        int[] values = BenchSupport.intArgs(args, 50_000, 20, 5_000);
+        int cars = values[0];
+        int companies = values[1];
+        int chunkSize = values[2];
+
+        Path fleet = Path.of("fleet-" + cars + ".csv");
+        Path native_ = Path.of("fleet-" + cars + "-native.csv");
+
+        try (BufferedWriter writer = Files.newBufferedWriter(fleet);
+             BufferedWriter nativeWriter = Files.newBufferedWriter(native_)) {
+            writer.write("type,name,company\n");
+            nativeWriter.write("NAME,COMPANY_ID\n");
+
+            for (int i = 1; i <= companies; i++) {
+                writer.write("COMPANY,Company " + i + "\n");
+            }
+
+            for (int i = 1; i <= cars; i++) {
+                int company = (i - 1) % companies + 1;
+
+                writer.write("CAR,Car " + i + ",Company " + company + "\n");
+                nativeWriter.write("Car " + i + "," + company + "\n");
+            }
+        }
+
+        BenchSupport.freshDatabase("bench-import");
+        BulkImporter.Result result = BulkImporter.importCsv(fleet, chunkSize);
+        System.out.printf("BulkImporter: %d rows in %.2f s (%.0f rows/s)%n",
+                result.rows(), result.elapsedNanos() / 1e9, result.rowsPerSecond());
+        H2Database.close();
+
+        BenchSupport.freshDatabase("bench-import-native");
+        BenchSupport.populate(companies, 0, 0);
+
+        long start = System.nanoTime();
+
+        // CSVREAD needs the file name as a literal, not a parameter
+        String path = native_.toAbsolutePath().toString().replace("'", "''");
+
+        try (Connection connection = H2Database.connect();
+             Statement statement = connection.createStatement()) {
+            statement.executeUpdate("INSERT INTO CAR (NAME, COMPANY_ID) " +
+                    "SELECT NAME, CAST(COMPANY_ID AS INT) FROM CSVREAD('" + path + "')");
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("CSVREAD:      %d rows in %.2f s (%.0f rows/s)%n", cars, seconds, cars / seconds);
+        H2Database.close();
+    }
+}
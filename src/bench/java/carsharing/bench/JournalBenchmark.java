@@ -0,0 +1,306 @@
+package carsharing.bench;
+
+import carsharing.dao.CustomerTable;
+import carsharing.dao.H2Database;
+import carsharing.dao.RentalJournal;
+import carsharing.dao.SchemaMigrations;
+import carsharing.metrics.Metrics;
+import carsharing.model.RentalStatus;
+import carsharing.service.CustomerService;
+import carsharing.service.JournaledRentals;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The JournalBenchmark class compares the rent throughput without the rental journal, with the journal
+ * acknowledging events once they are in the mapped file, and with group commits, then checks that the journal
+ * recovers the state after a crash.
+ * <p>
+ * The throughput part measures all modes in turn for a number of rounds and prints the best round of each, since
+ * the JIT keeps warming up for several rounds. Each thread rents and returns its own cars. The apply lag is how
+ * long the database still takes to catch up with the journal after the last call.
+ * <p>
+ * The crash part starts this class again in a child process, which rents and returns with group commits for a
+ * while, prints the car every customer holds after its last acknowledged call and halts without closing anything.
+ * The database is then opened again, the journal replayed, and the CUSTOMER table and the open rentals compared
+ * with what the child printed.
+ * <p>
+ * Run with {@code gradle journalBenchmark -PbenchArgs="threads cars seconds rounds"}, for example "4 1000 5 3".
+ */
+public class JournalBenchmark {
+    private static final int COMPANIES = 10;
+    private static final String CRASH_DATABASE = "bench-journal-crash";
+    private static final String CHILD_FLAG = "--crash-child";
+    private static final String STATE_PREFIX = "STATE ";
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals(CHILD_FLAG)) {
+            crashChild(Integer.parseInt(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+            return;
+        }
+
+        int[] values = BenchSupport.intArgs(args, 4, 1_000, 5, 3);
+        int threads = values[0];
+        int cars = values[1];
+        int seconds = values[2];
+        int rounds = values[3];
+
+        RentalJournal.Settings defaults = RentalJournal.Settings.fromSystemProperties();
+
+        Map<String, RentalJournal.Settings> modes = new LinkedHashMap<>();
+        modes.put("off", defaults.withDurability(RentalJournal.Durability.OFF));
+        modes.put("async", defaults.withDurability(RentalJournal.Durability.ASYNC));
+        modes.put("group", defaults.withDurability(RentalJournal.Durability.GROUP));
+
+        H2Database.configurePool(threads + 1, threads + 1, 5_000, 0);
+
+        Map<String, Double> bestRate = new LinkedHashMap<>();
+        Map<String, Double> eventsPerForce = new HashMap<>();
+        Map<String, Double> applyLag = new HashMap<>();
+
+        for (int round = 0; round < rounds; round++) {
+            for (Map.Entry<String, RentalJournal.Settings> mode : modes.entrySet()) {
+                String fileName = "bench-journal-" + mode.getKey();
+
+                BenchSupport.freshDatabase(fileName);
+                BenchSupport.populate(COMPANIES, cars, threads);
+                SchemaMigrations.migrate();
+                JournaledRentals.open(fileName, mode.getValue());
+                CustomerService.loadAvailableCars();
+                Metrics.reset();
+
+                long rentStart = System.nanoTime();
+                long rents = rentForAWhile(threads, cars, seconds, null);
+                // A full journal blocks appends until it is applied, which can run past the deadline
+                double rate = rents / ((System.nanoTime() - rentStart) / 1e9);
+
+                long drainStart = System.nanoTime();
+                JournaledRentals.awaitApplied();
+                double drainMillis = (System.nanoTime() - drainStart) / 1e6;
+
+                long events = Metrics.counter("RentalJournal.events").sum();
+                long forces = Metrics.counter("RentalJournal.groupCommits").sum();
+
+                JournaledRentals.close();
+                H2Database.close();
+
+                if (rate > bestRate.getOrDefault(mode.getKey(), 0.0)) {
+                    bestRate.put(mode.getKey(), rate);
+                    eventsPerForce.put(mode.getKey(), forces == 0 ? 0 : events / (double) forces);
+                    applyLag.put(mode.getKey(), drainMillis);
+                }
+            }
+        }
+
+        System.out.printf("threads=%d cars=%d seconds=%d rounds=%d groupCommitMicros=%d applyBatch=%d%n",
+                threads, cars, seconds, rounds, defaults.groupCommitMicros(), defaults.applyBatch());
+        System.out.printf("%-8s %12s %18s %18s %16s%n", "journal", "rents/s", "rent+return (us)", "events per force",
+                "apply lag (ms)");
+
+        for (String mode : modes.keySet()) {
+            double rate = bestRate.get(mode);
+
+            System.out.printf("%-8s %12.0f %18.1f %18.1f %16.1f%n", mode, rate, 1e6 * threads / rate,
+                    eventsPerForce.get(mode), applyLag.get(mode));
+        }
+
+        if (!checkCrashRecovery(threads, cars, seconds)) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Lets every thread rent and return cars with its own customer, thread {@code i} taking cars {@code i + 1},
+     * {@code i + 1 + threads}, and so on, so no two threads want the same car.
+     *
+     * @param held if not null, receives the car each customer holds after each acknowledged call, 0 for none
+     * @return the number of successful rents
+     */
+    private static long rentForAWhile(int threads, int cars, int seconds, AtomicIntegerArray held)
+            throws InterruptedException {
+        LongAdder rents = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+
+        for (int t = 0; t < threads; t++) {
+            int customerID = t + 1;
+
+            Thread worker = new Thread(() -> {
+                int carID = customerID;
+
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                while (System.nanoTime() < deadline) {
+                    if (CustomerService.tryRentCar(customerID, carID) == RentalStatus.RENTED) {
+                        rents.increment();
+
+                        if (held != null) {
+                            held.set(customerID, carID);
+                        }
+                    }
+
+                    // Stop half of the time with a car rented, so the crash leaves open rentals behind
+                    if (held != null && System.nanoTime() >= deadline && customerID % 2 == 0) {
+                        break;
+                    }
+
+                    if (CustomerService.tryReturnCar(customerID) > 0 && held != null) {
+                        held.set(customerID, 0);
+                    }
+
+                    carID += threads;
+
+                    if (carID > cars) {
+                        carID = customerID;
+                    }
+                }
+            }, "renter-" + t);
+
+            workers.add(worker);
+            worker.start();
+        }
+
+        start.countDown();
+
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        return rents.sum();
+    }
+
+    /**
+     * Runs in the child process: rents with group commits, prints the acknowledged state and halts.
+     */
+    private static void crashChild(int threads, int cars, int seconds) throws Exception {
+        H2Database.configurePool(threads + 1, threads + 1, 5_000, 0);
+        BenchSupport.freshDatabase(CRASH_DATABASE);
+        BenchSupport.populate(COMPANIES, cars, threads);
+        SchemaMigrations.migrate();
+        JournaledRentals.open(CRASH_DATABASE, RentalJournal.Settings.fromSystemProperties()
+                .withDurability(RentalJournal.Durability.GROUP));
+        CustomerService.loadAvailableCars();
+
+        AtomicIntegerArray held = new AtomicIntegerArray(threads + 1);
+        long rents = rentForAWhile(threads, cars, seconds, held);
+
+        StringBuilder out = new StringBuilder();
+
+        for (int customerID = 1; customerID <= threads; customerID++) {
+            out.append(STATE_PREFIX).append(customerID).append(' ').append(held.get(customerID)).append('\n');
+        }
+
+        out.append("RENTS ").append(rents).append('\n');
+        System.out.print(out);
+        System.out.flush();
+
+        // No shutdown hooks, no journal close, no database close: the applier is stopped mid-batch
+        Runtime.getRuntime().halt(0);
+    }
+
+    /**
+     * Runs the child process, replays its journal and compares the database with its acknowledged state.
+     *
+     * @return true if the database matches
+     */
+    private static boolean checkCrashRecovery(int threads, int cars, int seconds)
+            throws IOException, InterruptedException, SQLException {
+        Process child = new ProcessBuilder(ProcessHandle.current().info().command().orElse("java"),
+                "-cp", System.getProperty("java.class.path"), JournalBenchmark.class.getName(),
+                CHILD_FLAG, String.valueOf(threads), String.valueOf(cars), String.valueOf(seconds))
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+
+        Map<Integer, Integer> expected = new HashMap<>();
+        long rents = 0;
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(child.getInputStream()))) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (line.startsWith(STATE_PREFIX)) {
+                    String[] fields = line.substring(STATE_PREFIX.length()).split(" ");
+                    expected.put(Integer.parseInt(fields[0]), Integer.parseInt(fields[1]));
+                } else if (line.startsWith("RENTS ")) {
+                    rents = Long.parseLong(line.substring(6));
+                }
+            }
+        }
+
+        child.waitFor();
+
+        // Open the crashed database the way the application does, without recreating it
+        H2Database.create(CRASH_DATABASE).close();
+        SchemaMigrations.migrate();
+
+        long appliedBefore = CustomerTable.findAppliedSequence();
+        long start = System.nanoTime();
+
+        JournaledRentals.open(CRASH_DATABASE, RentalJournal.Settings.fromSystemProperties()
+                .withDurability(RentalJournal.Durability.GROUP));
+
+        double replayMillis = (System.nanoTime() - start) / 1e6;
+        long appliedAfter = CustomerTable.findAppliedSequence();
+
+        Map<Integer, Integer> actual = rentedCars();
+        long openRentals = openRentals();
+        long expectedOpen = expected.values().stream().filter(carID -> carID > 0).count();
+
+        JournaledRentals.close();
+        H2Database.close();
+
+        boolean matches = expected.equals(actual) && openRentals == expectedOpen;
+
+        System.out.printf("crash: %d rents acknowledged, %d events replayed in %.1f ms, %d customers holding a car, " +
+                        "%d open rentals: %s%n", rents, appliedAfter - appliedBefore, replayMillis, expectedOpen,
+                openRentals, matches ? "recovered" : "MISMATCH expected " + expected + " found " + actual);
+
+        return matches;
+    }
+
+    private static Map<Integer, Integer> rentedCars() throws SQLException {
+        String sqlQuery = "SELECT ID, COALESCE(RENTED_CAR_ID, 0) FROM CUSTOMER ORDER BY ID";
+
+        Map<Integer, Integer> cars = new HashMap<>();
+
+        try (Connection connection = H2Database.connect();
+             PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery);
+             ResultSet resultSet = preparedStatement.executeQuery()) {
+
+            while (resultSet.next()) {
+                cars.put(resultSet.getInt(1), resultSet.getInt(2));
+            }
+        }
+
+        return cars;
+    }
+
+    private static long openRentals() throws SQLException {
+        String sqlQuery = "SELECT COUNT(*) FROM RENTAL WHERE ENDED_AT IS NULL";
+
+        try (Connection connection = H2Database.connect();
+             PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery);
+             ResultSet resultSet = preparedStatement.executeQuery()) {
+
+            return resultSet.next() ? resultSet.getLong(1) : 0;
+        }
+    }
+}
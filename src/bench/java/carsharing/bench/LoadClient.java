@@ -0,0 +1,132 @@
+package carsharing.bench;
+
+import carsharing.metrics.Histogram;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The LoadClient class drives a running server ({@code -serve <port>}) with many concurrent customers.
+ * It creates its own company, cars and one customer per thread through the HTTP API, then every thread
+ * rents a random car of that company and returns it again until the time is up.
+ * Reports requests per second, rents per second and request latency percentiles.
+ * <p>
+ * Run with {@code gradle loadClient -PbenchArgs="http://localhost:8080 threads cars seconds"},
+ * for example "http://localhost:8080 32 200 20".
+ */
+public class LoadClient {
+    public static void main(String[] args) throws Exception {
+        String baseUrl = args.length > 0 ? args[0] : "http://localhost:8080";
+        int[] values = BenchSupport.intArgs(Arrays.copyOfRange(args, Math.min(1, args.length), args.length), 32, 200, 20);
+        int threads = values[0];
+        int cars = values[1];
+        int seconds = values[2];
+
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        String run = Long.toString(System.currentTimeMillis(), 36);
+
+        int companyID = Integer.parseInt(send(client, "POST", baseUrl + "/companies?name=" + encode("Load " + run)).body().trim());
+        int[] carIDs = new int[cars];
+
+        for (int i = 0; i < cars; i++) {
+            carIDs[i] = Integer.parseInt(send(client, "POST",
+                    baseUrl + "/companies/" + companyID + "/cars?name=" + encode("Load " + run + " car " + i)).body().trim());
+        }
+
+        Histogram latency = new Histogram();
+        AtomicLong requests = new AtomicLong();
+        AtomicLong rents = new AtomicLong();
+        AtomicLong conflicts = new AtomicLong();
+        AtomicLong failures = new AtomicLong();
+
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+            int customerID = Integer.parseInt(send(client, "POST",
+                    baseUrl + "/customers?name=" + encode("Load " + run + " customer " + t)).body().trim());
+
+            Thread worker = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+
+                try {
+                    start.await();
+
+                    while (System.nanoTime() < deadline) {
+                        int carID = carIDs[random.nextInt(cars)];
+                        long before = System.nanoTime();
+                        int status = send(client, "POST", baseUrl + "/customers/" + customerID + "/rent?car=" + carID).statusCode();
+                        latency.record(System.nanoTime() - before);
+                        requests.incrementAndGet();
+
+                        if (status == 409) {
+                            conflicts.incrementAndGet();
+                            continue;
+                        }
+
+                        if (status != 200) {
+                            failures.incrementAndGet();
+                            continue;
+                        }
+
+                        rents.incrementAndGet();
+
+                        before = System.nanoTime();
+                        status = send(client, "POST", baseUrl + "/customers/" + customerID + "/return").statusCode();
+                        latency.record(System.nanoTime() - before);
+                        requests.incrementAndGet();
+
+                        if (status != 200) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                } catch (IOException | InterruptedException e) {
+                    e.printStackTrace();
+                }
+            });
+
+            workers.add(worker);
+            worker.start();
+        }
+
+        long began = System.nanoTime();
+        start.countDown();
+
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        double elapsed = (System.nanoTime() - began) / 1e9;
+
+        System.out.printf("%d threads, %d cars, %.1f s%n", threads, cars, elapsed);
+        System.out.printf("requests: %d (%.0f/s), rents: %d (%.0f/s), conflicts: %d, failures: %d%n",
+                requests.get(), requests.get() / elapsed, rents.get(), rents.get() / elapsed, conflicts.get(), failures.get());
+        System.out.printf("latency: p50 %.2f ms, p99 %.2f ms, max %.2f ms%n",
+                latency.getValueAtPercentile(50) / 1e6, latency.getValueAtPercentile(99) / 1e6, latency.getMax() / 1e6);
+    }
+
+    private static HttpResponse<String> send(HttpClient client, String method, String url)
+            throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                .method(method, HttpRequest.BodyPublishers.noBody())
+                .build();
+
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+}
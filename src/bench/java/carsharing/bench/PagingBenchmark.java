@@ -0,0 +1,91 @@
+package carsharing.bench;
+
+import carsharing.dao.CustomerTable;
+import carsharing.dao.H2Database;
+import carsharing.dao.SchemaMigrations;
+import carsharing.model.PageCursor;
+import carsharing.service.CustomerService;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * The PagingBenchmark class measures how the cost of reading one page grows with its depth into a listing.
+ * For every depth it times the former OFFSET query next to the keyset query behind
+ * {@link CustomerTable#findPage(PageCursor, int)}, and the former walk from the first available car of the
+ * availability index next to the keyset walk of {@link CustomerService#getAvailableCarPage(int, PageCursor, int)}.
+ * The database has one company owning every car, so a deep car page is as deep as a customer page.
+ * <p>
+ * Run with {@code gradle pagingBenchmark -PbenchArgs="rows pageSize"}, for example "200000 20".
+ */
+public class PagingBenchmark {
+    private static final double[] DEPTHS = {0, 0.01, 0.1, 0.5, 0.99};
+
+    public static void main(String[] args) throws SQLException {
+        int[] values = BenchSupport.intArgs(args, 200_000, 20);
+        int rows = values[0];
+        int pageSize = values[1];
+
+        BenchSupport.freshDatabase("bench-paging");
+        BenchSupport.populate(1, rows, rows);
+        SchemaMigrations.migrate();
+        CustomerService.loadAvailableCars();
+
+        System.out.printf("rows=%d pageSize=%d%n", rows, pageSize);
+        System.out.printf("%-10s %-24s %12s %12s%n", "depth", "listing", "offset (us)", "keyset (us)");
+
+        for (double fraction : DEPTHS) {
+            int depth = (int) (rows * fraction);
+            int iterations = 500;
+
+            // H2 returns the last result again for a repeated query, so every call reads a slightly different page
+            int[] shift = new int[1];
+            IntUnaryOperator at = base -> Math.min(base + shift[0]++ % 64, rows - pageSize);
+
+            // IDs start at 1 and have no gaps, so the row at a depth has the depth as its ID
+            report(depth, "customers",
+                    BenchSupport.averageMicros(iterations, () -> offsetPage(at.applyAsInt(depth), pageSize)),
+                    BenchSupport.averageMicros(iterations, () -> {
+                        int offset = at.applyAsInt(depth);
+                        CustomerTable.findPage(new PageCursor(offset, 0, offset), pageSize);
+                    }));
+            report(depth, "available cars (index)",
+                    BenchSupport.averageMicros(iterations, () -> CustomerService.forEachAvailableCar(1, 0,
+                            at.applyAsInt(depth) + pageSize, (id, name) -> { })),
+                    BenchSupport.averageMicros(iterations, () -> {
+                        int offset = at.applyAsInt(depth);
+                        CustomerService.getAvailableCarPage(1, new PageCursor(offset, 0, offset), pageSize);
+                    }));
+        }
+
+        H2Database.close();
+    }
+
+    private static void report(int depth, String listing, double offsetMicros, double keysetMicros) {
+        System.out.printf("%-10d %-24s %12.1f %12.1f%n", depth, listing, offsetMicros, keysetMicros);
+    }
+
+    private static int offsetPage(int offset, int limit) {
+        int count = 0;
+
+        try (Connection connection = H2Database.connect();
+             PreparedStatement preparedStatement = connection.prepareStatement(
+                     "SELECT ID, NAME, RENTED_CAR_ID FROM CUSTOMER ORDER BY ID LIMIT ? OFFSET ?")) {
+
+            preparedStatement.setInt(1, limit + 1);
+            preparedStatement.setInt(2, offset);
+
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    count++;
+                }
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,126 @@
+package carsharing.bench;
+
+import carsharing.dao.CarTable;
+import carsharing.dao.CompanyTable;
+import carsharing.dao.H2Database;
+import carsharing.dao.SchemaMigrations;
+import carsharing.model.PageCursor;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * The QueryBenchmark class measures how the company and car lookups scale with the size of the CAR table.
+ * For every table size it times the original full-scan queries next to the indexed, filtered ones.
+ * <p>
+ * Run with {@code gradle queryBenchmark -PbenchArgs="1000 10000 100000"}.
+ */
+public class QueryBenchmark {
+    private static final int COMPANIES = 100;
+
+    public static void main(String[] args) throws SQLException {
+        int[] sizes = BenchSupport.intArgs(args, 1_000, 10_000, 50_000);
+
+        System.out.printf("%-10s %-32s %12s %12s%n", "cars", "operation", "scan (us)", "indexed (us)");
+
+        for (int cars : sizes) {
+            BenchSupport.freshDatabase("bench-query-" + cars);
+            BenchSupport.populate(COMPANIES, cars, 0);
+            SchemaMigrations.migrate();
+
+            int iterations = Math.max(20, 2_000_000 / cars);
+
+            // The last company has cars; an ID past the last company has none, which is the worst case for a scan
+            int companyID = COMPANIES;
+            int missingCompanyID = COMPANIES + 1;
+
+            report(cars, "isCompanyCarListEmpty (hit)",
+                    BenchSupport.averageMicros(iterations, () -> legacyIsCompanyCarListEmpty(companyID)),
+                    BenchSupport.averageMicros(iterations, () -> CarTable.isCompanyCarListEmpty(companyID)));
+            report(cars, "isCompanyCarListEmpty (miss)",
+                    BenchSupport.averageMicros(iterations, () -> legacyIsCompanyCarListEmpty(missingCompanyID)),
+                    BenchSupport.averageMicros(iterations, () -> CarTable.isCompanyCarListEmpty(missingCompanyID)));
+            report(cars, "findPage(companyID)",
+                    BenchSupport.averageMicros(iterations, () -> legacyPrint(companyID)),
+                    BenchSupport.averageMicros(iterations, () -> CarTable.findPage(companyID, PageCursor.FIRST, cars)));
+            report(cars, "getCompany",
+                    BenchSupport.averageMicros(iterations, () -> legacyGetCompany(companyID)),
+                    BenchSupport.averageMicros(iterations, () -> CompanyTable.getCompany(companyID)));
+            report(cars, "CarTable.isEmpty",
+                    BenchSupport.averageMicros(iterations, QueryBenchmark::legacyIsCarTableEmpty),
+                    BenchSupport.averageMicros(iterations, CarTable::isEmpty));
+
+            H2Database.close();
+        }
+    }
+
+    private static void report(int cars, String operation, double scanMicros, double indexedMicros) {
+        System.out.printf("%-10d %-32s %12.1f %12.1f%n", cars, operation, scanMicros, indexedMicros);
+    }
+
+    private static boolean legacyIsCompanyCarListEmpty(int companyID) {
+        try (Connection connection = H2Database.connect();
+             PreparedStatement preparedStatement = connection.prepareStatement("SELECT * FROM CAR");
+             ResultSet resultSet = preparedStatement.executeQuery()) {
+
+            while (resultSet.next()) {
+                if (resultSet.getInt("COMPANY_ID") == companyID) {
+                    return false;
+                }
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+        return true;
+    }
+
+    private static void legacyPrint(int companyID) {
+        try (Connection connection = H2Database.connect();
+             PreparedStatement preparedStatement = connection.prepareStatement("SELECT * FROM CAR");
+             ResultSet resultSet = preparedStatement.executeQuery()) {
+
+            int count = 0;
+
+            while (resultSet.next()) {
+                String car = resultSet.getString("NAME");
+
+                if (resultSet.getInt("COMPANY_ID") == companyID) {
+                    System.out.println(++count + ". " + car);
+                }
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String legacyGetCompany(int companyID) {
+        String company = "";
+
+        try (Connection connection = H2Database.connect();
+             PreparedStatement preparedStatement = connection.prepareStatement("SELECT * FROM COMPANY");
+             ResultSet resultSet = preparedStatement.executeQuery()) {
+
+            while (resultSet.next()) {
+                if (resultSet.getInt("ID") == companyID) {
+                    company = resultSet.getString("NAME");
+                }
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+        return company;
+    }
+
+    private static boolean legacyIsCarTableEmpty() {
+        try (Connection connection = H2Database.connect();
+             PreparedStatement preparedStatement = connection.prepareStatement("SELECT * FROM CAR");
+             ResultSet resultSet = preparedStatement.executeQuery()) {
+
+            return !resultSet.next();
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
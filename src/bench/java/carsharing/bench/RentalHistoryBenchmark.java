@@ -0,0 +1,91 @@
+package carsharing.bench;
+
+import carsharing.dao.H2Database;
+import carsharing.dao.SchemaMigrations;
+import carsharing.service.CustomerService;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+
+/**
+ * The RentalHistoryBenchmark class checks that renting and returning a car does not get slower as the
+ * RENTAL history grows. For every history size it fills the history with finished rentals spread over
+ * all cars and customers, then measures the average latency of a rent followed by a return.
+ * <p>
+ * Run with {@code gradle rentalHistoryBenchmark -PbenchArgs="0 100000 1000000"}.
+ */
+public class RentalHistoryBenchmark {
+    private static final int COMPANIES = 10;
+    private static final int CARS = 1_000;
+    private static final int CUSTOMERS = 1_000;
+
+    public static void main(String[] args) throws SQLException {
+        int[] sizes = BenchSupport.intArgs(args, 0, 100_000, 1_000_000);
+
+        // Filling the history holds one connection for minutes, which is not a leak here
+        H2Database.configurePool(2, 10, 5_000, 0);
+
+        System.out.printf("%-12s %16s %16s%n", "history", "fill (rows/s)", "rent+return (us)");
+
+        for (int size : sizes) {
+            BenchSupport.freshDatabase("bench-history-" + size);
+            BenchSupport.populate(COMPANIES, CARS, CUSTOMERS);
+            SchemaMigrations.migrate();
+            CustomerService.loadAvailableCars();
+
+            long start = System.nanoTime();
+            fillHistory(size);
+            double fillSeconds = (System.nanoTime() - start) / 1e9;
+
+            int[] next = {0};
+
+            double micros = BenchSupport.averageMicros(20_000, () -> {
+                int customerID = next[0] % CUSTOMERS + 1;
+                int carID = next[0] % CARS + 1;
+                next[0]++;
+
+                CustomerService.rentCar(customerID, carID);
+                CustomerService.returnCar(customerID);
+            });
+
+            System.out.printf("%-12d %16.0f %16.1f%n", size, size == 0 ? 0 : size / fillSeconds, micros);
+        }
+
+        H2Database.close();
+    }
+
+    /**
+     * Inserts finished rentals, one minute each, ending before the current time.
+     */
+    private static void fillHistory(int rows) throws SQLException {
+        String sqlQuery = "INSERT INTO RENTAL (CUSTOMER_ID, CAR_ID, STARTED_AT, ENDED_AT) VALUES (?, ?, ?, ?)";
+
+        LocalDateTime first = LocalDateTime.now().minusMinutes(rows + 1L);
+
+        try (Connection connection = H2Database.connect();
+             PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery)) {
+            connection.setAutoCommit(false);
+
+            for (int i = 0; i < rows; i++) {
+                LocalDateTime startedAt = first.plusMinutes(i);
+
+                preparedStatement.setInt(1, i % CUSTOMERS + 1);
+                preparedStatement.setInt(2, i % CARS + 1);
+                preparedStatement.setTimestamp(3, Timestamp.valueOf(startedAt));
+                preparedStatement.setTimestamp(4, Timestamp.valueOf(startedAt.plusMinutes(1)));
+                preparedStatement.addBatch();
+
+                if ((i + 1) % 10_000 == 0) {
+                    preparedStatement.executeBatch();
+                    connection.commit();
+                }
+            }
+
+            preparedStatement.executeBatch();
+            connection.commit();
+        }
+    }
+}
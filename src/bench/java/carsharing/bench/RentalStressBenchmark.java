@@ -0,0 +1,135 @@
+package carsharing.bench;
+
+import carsharing.dao.FleetStatistics;
+import carsharing.dao.H2Database;
+import carsharing.dao.SchemaMigrations;
+import carsharing.model.CompanyUsage;
+import carsharing.service.CustomerService;
+import carsharing.service.FleetCounters;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The RentalStressBenchmark class has many threads rent and return a small set of popular cars at the same time.
+ * Every successful rent is checked against the cars the other threads currently hold, and the CUSTOMER table
+ * is checked at the end, so a double booking fails the run. The in-memory fleet counters must also match the tables
+ * at the end. Reports rent attempts and successful rents per second.
+ * <p>
+ * Run with {@code gradle rentalStressBenchmark -PbenchArgs="threads cars seconds"}, for example "16 4 10".
+ */
+public class RentalStressBenchmark {
+    private static final int CUSTOMERS_PER_THREAD = 4;
+
+    public static void main(String[] args) throws Exception {
+        int[] values = BenchSupport.intArgs(args, 16, 4, 10);
+        int threads = values[0];
+        int cars = values[1];
+        int seconds = values[2];
+
+        H2Database.configurePool(threads, threads, 30_000, 0);
+        BenchSupport.freshDatabase("bench-rental");
+        BenchSupport.populate(1, cars, threads * CUSTOMERS_PER_THREAD);
+        SchemaMigrations.migrate();
+
+        Map<Integer, Integer> holders = new ConcurrentHashMap<>();
+        AtomicLong attempts = new AtomicLong();
+        AtomicLong rents = new AtomicLong();
+        AtomicLong doubleBookings = new AtomicLong();
+
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+            int firstCustomer = t * CUSTOMERS_PER_THREAD + 1;
+
+            Thread worker = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                while (System.nanoTime() < deadline) {
+                    // Each thread owns its customers, so contention is only on the cars
+                    int customerID = firstCustomer + random.nextInt(CUSTOMERS_PER_THREAD);
+                    int carID = random.nextInt(cars) + 1;
+
+                    attempts.incrementAndGet();
+
+                    if (CustomerService.rentCar(customerID, carID)) {
+                        rents.incrementAndGet();
+
+                        if (holders.putIfAbsent(carID, customerID) != null) {
+                            doubleBookings.incrementAndGet();
+                        }
+
+                        holders.remove(carID, customerID);
+                        CustomerService.returnCar(customerID);
+                    }
+                }
+            }, "renter-" + t);
+
+            workers.add(worker);
+            worker.start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        double elapsed = (System.nanoTime() - begin) / 1e9;
+        System.setOut(out);
+
+        long duplicates = duplicateRentalsInDatabase();
+        CompanyUsage stored = FleetStatistics.findCompanyUsage().get(0);
+        CompanyUsage counted = FleetCounters.summary(stored.company());
+        boolean countersMatch = counted.cars() == stored.cars() && counted.rented() == stored.rented();
+
+        System.out.printf("threads=%d cars=%d seconds=%.1f%n", threads, cars, elapsed);
+        System.out.printf("attempts=%d (%.0f/s), rents=%d (%.0f/s)%n",
+                attempts.get(), attempts.get() / elapsed, rents.get(), rents.get() / elapsed);
+        System.out.printf("double bookings observed=%d, duplicate rows in CUSTOMER=%d%n", doubleBookings.get(), duplicates);
+        System.out.printf("fleet counters cars=%d rented=%d, tables cars=%d rented=%d%n",
+                counted.cars(), counted.rented(), stored.cars(), stored.rented());
+        System.out.println(H2Database.getPool().stats());
+
+        H2Database.close();
+
+        if (doubleBookings.get() > 0 || duplicates > 0 || !countersMatch) {
+            System.exit(1);
+        }
+    }
+
+    private static long duplicateRentalsInDatabase() throws SQLException {
+        String sqlQuery = "SELECT COUNT(*) FROM (SELECT RENTED_CAR_ID FROM CUSTOMER " +
+                "WHERE RENTED_CAR_ID IS NOT NULL GROUP BY RENTED_CAR_ID HAVING COUNT(*) > 1)";
+
+        try (Connection connection = H2Database.connect();
+             PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery);
+             ResultSet resultSet = preparedStatement.executeQuery()) {
+
+            return resultSet.next() ? resultSet.getLong(1) : 0;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package carsharing.bench;
+
+import carsharing.dao.H2Database;
+import carsharing.dao.SchemaMigrations;
+import carsharing.model.Car;
+import carsharing.service.CustomerService;
+import carsharing.service.NameSearch;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * The SearchBenchmark class measures searches for available cars by name with the in-memory name search index,
+ * next to the same prefix and substring searches as LIKE queries on the database.
+ * <p>
+ * Cars get names such as "Toyota Corolla Blue 2017 48213" and every tenth car is rented. Every query is first
+ * checked against a plain scan over all names, so the index returns exactly the first matching available cars.
+ * <p>
+ * Run with {@code gradle searchBenchmark -PbenchArgs="cars iterations"}, for example "1000000 2000".
+ */
+public class SearchBenchmark {
+    private static final int COMPANIES = 100;
+    private static final int LIMIT = 20;
+
+    private static final String[] MODELS = {
+            "Toyota Corolla", "Toyota Yaris", "Toyota RAV4", "Honda Civic", "Honda Jazz", "BMW X5", "BMW 320d",
+            "Audi A4", "Audi Q7", "Ford Focus", "Ford Fiesta", "Kia Ceed", "Kia Sportage", "Skoda Octavia",
+            "Mercedes-Benz C200", "Volkswagen Golf", "Volkswagen Passat", "Renault Clio", "Peugeot 308", "Tesla Model 3"
+    };
+    private static final String[] COLORS = {"Black", "White", "Silver", "Blue", "Red", "Green", "Grey", "Yellow"};
+
+    private record Query(NameSearch.Mode mode, String text) {
+    }
+
+    private static final List<Query> QUERIES = List.of(
+            new Query(NameSearch.Mode.PREFIX, "toy"),
+            new Query(NameSearch.Mode.PREFIX, "Tesla Model 3 Green 2011"),
+            new Query(NameSearch.Mode.PREFIX, "Lada"),
+            new Query(NameSearch.Mode.SUBSTRING, "corolla"),
+            new Query(NameSearch.Mode.SUBSTRING, "yellow 2009 12"),
+            new Query(NameSearch.Mode.SUBSTRING, "999999"),
+            new Query(NameSearch.Mode.SUBSTRING, "zebra"),
+            new Query(NameSearch.Mode.FUZZY, "corola"),
+            new Query(NameSearch.Mode.FUZZY, "sportage yelow"),
+            new Query(NameSearch.Mode.FUZZY, "mercedez"),
+            new Query(NameSearch.Mode.FUZZY, "zebrra"));
+
+    private static boolean alternate;
+
+    public static void main(String[] args) throws SQLException {
+        int[] values = BenchSupport.intArgs(args, 1_000_000, 2_000);
+        int cars = values[0];
+        int iterations = values[1];
+
+        BenchSupport.freshDatabase("bench-search");
+        BenchSupport.populate(COMPANIES, 0, cars / 10);
+
+        String[] names = insertCars(cars);
+        BitSet rented = rentCars(cars / 10);
+
+        SchemaMigrations.migrate();
+        CustomerService.loadAvailableCars();
+
+        long start = System.nanoTime();
+        NameSearch.searchAvailableCars("", NameSearch.Mode.PREFIX, 1);
+        double buildMillis = (System.nanoTime() - start) / 1e6;
+
+        System.out.printf("cars=%d rented=%d limit=%d%n", cars, rented.cardinality(), LIMIT);
+        System.out.printf("index built in %.0f ms%n%s", buildMillis, NameSearch.stats());
+
+        for (Query query : QUERIES) {
+            check(query, names, rented);
+        }
+
+        System.out.printf("%-10s %-28s %8s %12s %12s%n", "mode", "query", "found", "index (us)", "database (us)");
+
+        for (Query query : QUERIES) {
+            int found = CustomerService.searchAvailableCars(query.text(), query.mode(), LIMIT).size();
+            double indexMicros = BenchSupport.averageMicros(iterations,
+                    () -> CustomerService.searchAvailableCars(query.text(), query.mode(), LIMIT));
+            String databaseMicros = query.mode() == NameSearch.Mode.FUZZY
+                    ? "-"
+                    : String.format("%.1f", BenchSupport.averageMicros(Math.max(5, iterations / 200),
+                    () -> like(query)));
+
+            System.out.printf("%-10s %-28s %8d %12.1f %12s%n", query.mode().name().toLowerCase(Locale.ROOT),
+                    "\"" + query.text() + "\"", found, indexMicros, databaseMicros);
+        }
+
+        H2Database.close();
+    }
+
+    private static String[] insertCars(int cars) throws SQLException {
+        String[] names = new String[cars + 1];
+        Random random = new Random(42);
+
+        try (Connection connection = H2Database.connect()) {
+            connection.setAutoCommit(false);
+
+            try (PreparedStatement insert = connection.prepareStatement("INSERT INTO CAR (NAME, COMPANY_ID) VALUES (?,?)")) {
+                for (int i = 1; i <= cars; i++) {
+                    names[i] = MODELS[random.nextInt(MODELS.length)] + " " + COLORS[random.nextInt(COLORS.length)] + " "
+                            + (2005 + random.nextInt(20)) + " " + i;
+
+                    insert.setString(1, names[i]);
+                    insert.setInt(2, (i - 1) % COMPANIES + 1);
+                    insert.addBatch();
+
+                    if (i % 5_000 == 0) {
+                        insert.executeBatch();
+                    }
+                }
+                insert.executeBatch();
+            }
+
+            connection.commit();
+        }
+
+        return names;
+    }
+
+    private static BitSet rentCars(int customers) throws SQLException {
+        try (Connection connection = H2Database.connect();
+             Statement statement = connection.createStatement()) {
+            statement.executeUpdate("UPDATE CUSTOMER SET RENTED_CAR_ID = ID * 10 WHERE ID <= " + customers);
+        }
+
+        BitSet rented = new BitSet();
+
+        for (int customer = 1; customer <= customers; customer++) {
+            rented.set(customer * 10);
+        }
+
+        return rented;
+    }
+
+    /**
+     * Compares the result of a query with the first matching available cars found by checking every name.
+     */
+    private static void check(Query query, String[] names, BitSet rented) {
+        String text = query.text().toLowerCase(Locale.ROOT);
+        int edits = query.mode() != NameSearch.Mode.FUZZY ? 0 : text.length() < 4 ? 0 : text.length() < 9 ? 1 : 2;
+        List<Integer> expected = new ArrayList<>();
+
+        for (int id = 1; id < names.length && expected.size() < LIMIT; id++) {
+            String name = names[id].toLowerCase(Locale.ROOT);
+            boolean matches = query.mode() == NameSearch.Mode.PREFIX ? name.startsWith(text)
+                    : edits == 0 ? name.contains(text) : distance(name, text) <= edits;
+
+            if (matches && !rented.get(id)) {
+                expected.add(id);
+            }
+        }
+
+        List<Integer> actual = CustomerService.searchAvailableCars(query.text(), query.mode(), LIMIT).stream()
+                .map(Car::id)
+                .toList();
+
+        if (!actual.equals(expected)) {
+            throw new IllegalStateException(query + " found " + actual + ", expected " + expected);
+        }
+    }
+
+    /**
+     * Returns the smallest edit distance between the text and any part of the name, with a table of the
+     * distances between every prefix of the text and the parts of the name ending at every position.
+     */
+    private static int distance(String name, String text) {
+        int[][] d = new int[text.length() + 1][name.length() + 1];
+        int best = text.length();
+
+        for (int i = 1; i <= text.length(); i++) {
+            d[i][0] = i;
+
+            for (int j = 1; j <= name.length(); j++) {
+                d[i][j] = Math.min(Math.min(d[i - 1][j] + 1, d[i][j - 1] + 1),
+                        d[i - 1][j - 1] + (text.charAt(i - 1) == name.charAt(j - 1) ? 0 : 1));
+            }
+        }
+
+        for (int j = 0; j <= name.length(); j++) {
+            best = Math.min(best, d[text.length()][j]);
+        }
+
+        return best;
+    }
+
+    private static int like(Query query) {
+        String pattern = query.mode() == NameSearch.Mode.PREFIX ? query.text() + "%" : "%" + query.text() + "%";
+        int count = 0;
+
+        // H2 returns the last result again for a repeated query, so the pattern alternates with an equivalent one
+        alternate = !alternate;
+
+        try (Connection connection = H2Database.connect();
+             PreparedStatement preparedStatement = connection.prepareStatement(
+                     "SELECT ID, NAME, COMPANY_ID FROM CAR C WHERE NAME LIKE ? " +
+                             "AND NOT EXISTS (SELECT 1 FROM CUSTOMER WHERE RENTED_CAR_ID = C.ID) ORDER BY ID LIMIT ?")) {
+
+            preparedStatement.setString(1, alternate ? pattern + "%" : pattern);
+            preparedStatement.setInt(2, LIMIT);
+
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    count++;
+                }
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+        return count;
+    }
+}
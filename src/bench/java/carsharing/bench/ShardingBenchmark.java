@@ -0,0 +1,264 @@
+package carsharing.bench;
+
+import carsharing.dao.DatabaseConfig;
+import carsharing.dao.H2Database;
+import carsharing.dao.SchemaMigrations;
+import carsharing.dao.Shards;
+import carsharing.model.PageCursor;
+import carsharing.model.RentalStatus;
+import carsharing.service.CustomerService;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+
+/**
+ * The ShardingBenchmark class compares the rent throughput of a database file with the same database spread over
+ * 2 and 4 shards. For every shard count it creates a fresh database, adds one customer per thread through the
+ * service layer, so the customers land in the shards their names pick, and then runs two phases:
+ * every thread renting and returning cars no other thread wants, and every thread competing for a few popular
+ * cars. In the second phase every rent is checked against the cars the other threads hold, and the CUSTOMER
+ * tables of all shards are checked at the end, so a car rented twice across shards fails the run. So does a car
+ * claim in the CAR_CLAIM tables that does not match the customer holding the car.
+ * The time of a page of the customer listing shows the cost of querying every shard.
+ * <p>
+ * Run with {@code gradle shardingBenchmark -PbenchArgs="threads cars seconds"}, for example "8 1000 5".
+ */
+public class ShardingBenchmark {
+    private static final int COMPANIES = 10;
+    private static final int POPULAR_CARS = 4;
+    private static final int[] SHARD_COUNTS = {1, 2, 4};
+
+    public static void main(String[] args) throws Exception {
+        int[] values = BenchSupport.intArgs(args, 8, 1_000, 5);
+        int threads = values[0];
+        int cars = values[1];
+        int seconds = values[2];
+
+        H2Database.configurePool(threads, threads, 30_000, 0);
+
+        System.out.printf("threads=%d cars=%d seconds=%d%n", threads, cars, seconds);
+        System.out.printf("%-8s %-16s %14s %16s %14s %14s %16s%n", "shards", "customers", "own cars (/s)",
+                "popular cars (/s)", "double rents", "claim errors", "customer page (us)");
+
+        boolean failed = false;
+
+        for (int shards : SHARD_COUNTS) {
+            H2Database.configure(DatabaseConfig.defaults().withShards(shards));
+            BenchSupport.freshDatabase("bench-sharding-" + shards);
+            BenchSupport.populate(COMPANIES, cars, 0);
+            SchemaMigrations.migrate();
+            Shards.open();
+
+            int[] customers = addCustomers(threads);
+            int[] perShard = new int[shards];
+
+            for (int customerID : customers) {
+                perShard[Shards.ofCustomer(customerID)]++;
+            }
+
+            CustomerService.loadAvailableCars();
+
+            long ownRents = rentOwnCars(customers, cars, seconds);
+            LongAdder doubleRents = new LongAdder();
+            long popularRents = rentPopularCars(customers, seconds, doubleRents);
+            long duplicates = duplicateRentalsInDatabase();
+            long claimErrors = shards > 1 ? claimErrors() : 0;
+
+            // H2 returns the last result again for a repeated query, so every call starts after another customer
+            int[] shift = new int[1];
+            double pageMicros = BenchSupport.averageMicros(500,
+                    () -> CustomerService.getCustomerPage(new PageCursor(shift[0]++ % threads, 0, 0), 20));
+
+            H2Database.close();
+
+            System.out.printf("%-8d %-16s %14.0f %16.0f %14d %14d %16.1f%n", shards, join(perShard),
+                    ownRents / (double) seconds, popularRents / (double) seconds, doubleRents.sum() + duplicates,
+                    claimErrors, pageMicros);
+
+            failed |= doubleRents.sum() > 0 || duplicates > 0 || claimErrors > 0;
+        }
+
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    private static int[] addCustomers(int count) {
+        int[] customers = new int[count];
+
+        for (int i = 0; i < count; i++) {
+            customers[i] = CustomerService.add("Customer " + (i + 1));
+
+            if (customers[i] == 0) {
+                throw new IllegalStateException("Customer " + (i + 1) + " could not be added");
+            }
+        }
+
+        return customers;
+    }
+
+    /**
+     * Lets every thread rent and return cars with its own customer, thread {@code i} taking cars {@code i + 1},
+     * {@code i + 1 + threads}, and so on, so no two threads want the same car.
+     *
+     * @return the number of successful rents
+     */
+    private static long rentOwnCars(int[] customers, int cars, int seconds) throws InterruptedException {
+        int threads = customers.length;
+        int[] nextCars = new int[threads];
+        LongAdder rents = new LongAdder();
+
+        runEach(threads, seconds, t -> {
+            int carID = nextCars[t] + t + 1;
+
+            if (CustomerService.tryRentCar(customers[t], carID) == RentalStatus.RENTED) {
+                rents.increment();
+            }
+
+            CustomerService.tryReturnCar(customers[t]);
+
+            nextCars[t] = carID + threads > cars ? 0 : nextCars[t] + threads;
+        });
+
+        return rents.sum();
+    }
+
+    /**
+     * Lets every thread rent random cars out of a few popular ones with its own customer and return them,
+     * counting a rent of a car another thread holds as a double rent.
+     *
+     * @return the number of successful rents
+     */
+    private static long rentPopularCars(int[] customers, int seconds, LongAdder doubleRents)
+            throws InterruptedException {
+        LongAdder rents = new LongAdder();
+        Map<Integer, Integer> holders = new ConcurrentHashMap<>();
+
+        runEach(customers.length, seconds, t -> {
+            int customerID = customers[t];
+            int carID = ThreadLocalRandom.current().nextInt(POPULAR_CARS) + 1;
+
+            if (CustomerService.tryRentCar(customerID, carID) == RentalStatus.RENTED) {
+                rents.increment();
+
+                if (holders.putIfAbsent(carID, customerID) != null) {
+                    doubleRents.increment();
+                }
+
+                holders.remove(carID, customerID);
+                CustomerService.tryReturnCar(customerID);
+            }
+        });
+
+        return rents.sum();
+    }
+
+    /**
+     * Starts one thread per customer that calls the step with its index until the time is up.
+     */
+    private static void runEach(int threads, int seconds, IntConsumer step) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+
+        for (int t = 0; t < threads; t++) {
+            int index = t;
+
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                while (System.nanoTime() < deadline) {
+                    step.accept(index);
+                }
+            }, "renter-" + t);
+
+            workers.add(worker);
+            worker.start();
+        }
+
+        start.countDown();
+
+        for (Thread worker : workers) {
+            worker.join();
+        }
+    }
+
+    /**
+     * Counts the cars that are rented by more than one customer over all shards.
+     */
+    private static long duplicateRentalsInDatabase() throws SQLException {
+        String sqlQuery = "SELECT RENTED_CAR_ID FROM CUSTOMER WHERE RENTED_CAR_ID IS NOT NULL";
+        Map<Integer, Integer> renters = new ConcurrentHashMap<>();
+
+        for (int shard = 0; shard < Shards.count(); shard++) {
+            try (Connection connection = H2Database.connect(shard);
+                 PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery);
+                 ResultSet resultSet = preparedStatement.executeQuery()) {
+
+                while (resultSet.next()) {
+                    renters.merge(resultSet.getInt(1), 1, Integer::sum);
+                }
+            }
+        }
+
+        return renters.values().stream().filter(count -> count > 1).count();
+    }
+
+    /**
+     * Counts the claims over all shards that do not belong to the customer holding the car, and the rented cars
+     * without a claim.
+     */
+    private static long claimErrors() throws SQLException {
+        Map<Integer, Integer> holders = readPairs("SELECT RENTED_CAR_ID, ID FROM CUSTOMER WHERE RENTED_CAR_ID IS NOT NULL");
+        Map<Integer, Integer> claims = readPairs("SELECT CAR_ID, CUSTOMER_ID FROM CAR_CLAIM");
+
+        long errors = claims.entrySet().stream().filter(claim -> !claim.getValue().equals(holders.get(claim.getKey()))).count();
+
+        return errors + holders.keySet().stream().filter(carID -> !claims.containsKey(carID)).count();
+    }
+
+    /**
+     * Reads a query of two integer columns from every shard into one map.
+     */
+    private static Map<Integer, Integer> readPairs(String sqlQuery) throws SQLException {
+        Map<Integer, Integer> pairs = new ConcurrentHashMap<>();
+
+        for (int shard = 0; shard < Shards.count(); shard++) {
+            try (Connection connection = H2Database.connect(shard);
+                 PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery);
+                 ResultSet resultSet = preparedStatement.executeQuery()) {
+
+                while (resultSet.next()) {
+                    pairs.put(resultSet.getInt(1), resultSet.getInt(2));
+                }
+            }
+        }
+
+        return pairs;
+    }
+
+    private static String join(int[] counts) {
+        StringBuilder text = new StringBuilder();
+
+        for (int count : counts) {
+            text.append(text.isEmpty() ? "" : "/").append(count);
+        }
+
+        return text.toString();
+    }
+}
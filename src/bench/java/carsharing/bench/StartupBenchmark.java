@@ -0,0 +1,151 @@
+package carsharing.bench;
+
+import carsharing.CarSharing;
+import carsharing.dao.H2Database;
+import carsharing.dao.SchemaMigrations;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The StartupBenchmark class measures the time from launching the application to its first menu, with the
+ * availability index built from the database and with the caches read from the startup snapshot.
+ * <p>
+ * A database with the given number of cars, a tenth of them rented, is created once. The application is then
+ * started in a child process with "-script -" for a number of rounds per profile, in turn, and exits at the
+ * first menu. The time to the menu is taken by this process as the time until the menu appears on the child's
+ * output, and the child's own startup line is kept for the phase breakdown. The first start with snapshots
+ * enabled has no snapshot yet and is not counted.
+ * <p>
+ * Run with {@code gradle startupBenchmark -PbenchArgs="companies cars rounds"}, for example "10 200000 5".
+ */
+public class StartupBenchmark {
+    private static final String DATABASE = "bench-startup";
+    private static final String FIRST_MENU_LINE = "1. Log in as a manager";
+
+    public static void main(String[] args) throws Exception {
+        int[] values = BenchSupport.intArgs(args, 10, 200_000, 5);
+        int companies = values[0];
+        int cars = values[1];
+        int rounds = values[2];
+
+        BenchSupport.freshDatabase(DATABASE);
+        BenchSupport.populate(companies, cars, cars / 10);
+        SchemaMigrations.migrate();
+        rentCars(cars / 10);
+        H2Database.close();
+
+        Map<String, String> profiles = new LinkedHashMap<>();
+        profiles.put("database", "-Dcarsharing.snapshot.enabled=false");
+        profiles.put("snapshot", "-Dcarsharing.snapshot.enabled=true");
+
+        // Writes the first snapshot
+        start(profiles.get("snapshot"));
+
+        Map<String, List<Double>> millis = new LinkedHashMap<>();
+        Map<String, String> lastReport = new LinkedHashMap<>();
+
+        for (int round = 0; round < rounds; round++) {
+            for (Map.Entry<String, String> profile : profiles.entrySet()) {
+                // The database profile clears the token, so the snapshot profile needs a fresh snapshot first
+                if (profile.getKey().equals("snapshot")) {
+                    start(profile.getValue());
+                }
+
+                Result result = start(profile.getValue());
+
+                millis.computeIfAbsent(profile.getKey(), key -> new ArrayList<>()).add(result.millis());
+                lastReport.put(profile.getKey(), result.report());
+            }
+        }
+
+        System.out.printf("companies=%d cars=%d rounds=%d%n", companies, cars, rounds);
+        System.out.printf("%-10s %12s %12s  %s%n", "caches", "best (ms)", "median (ms)", "last startup line");
+
+        for (Map.Entry<String, List<Double>> profile : millis.entrySet()) {
+            List<Double> sorted = new ArrayList<>(profile.getValue());
+            Collections.sort(sorted);
+
+            System.out.printf("%-10s %12.1f %12.1f  %s%n", profile.getKey(), sorted.get(0),
+                    sorted.get(sorted.size() / 2), lastReport.get(profile.getKey()));
+        }
+    }
+
+    /**
+     * The outcome of one start of the application.
+     *
+     * @param millis the time from launch to the first menu, in milliseconds
+     * @param report the startup line printed by the application
+     */
+    private record Result(double millis, String report) {
+    }
+
+    /**
+     * Starts the application in a child process, waits for its first menu and lets it exit.
+     *
+     * @param property the system property selecting the profile
+     * @return the time to the first menu and the startup line of the child
+     */
+    private static Result start(String property) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+
+        Process child = new ProcessBuilder(ProcessHandle.current().info().command().orElse("java"),
+                "-cp", System.getProperty("java.class.path"), property, CarSharing.class.getName(),
+                "-databaseFileName", DATABASE, "-script", "-")
+                .start();
+
+        try (OutputStream input = child.getOutputStream()) {
+            input.write("0\n".getBytes(StandardCharsets.UTF_8));
+        }
+
+        CompletableFuture<String> report = CompletableFuture.supplyAsync(() -> firstLine(child, "startup:"));
+        double millis = -1;
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(child.getInputStream()))) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (millis < 0 && line.equals(FIRST_MENU_LINE)) {
+                    millis = (System.nanoTime() - start) / 1e6;
+                }
+            }
+        }
+
+        child.waitFor();
+
+        return new Result(millis, report.join());
+    }
+
+    private static String firstLine(Process child, String prefix) {
+        String found = "";
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(child.getErrorStream()))) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (found.isEmpty() && line.startsWith(prefix)) {
+                    found = line;
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        return found;
+    }
+
+    private static void rentCars(int rented) throws SQLException {
+        try (Connection connection = H2Database.connect();
+             Statement statement = connection.createStatement()) {
+            statement.executeUpdate("UPDATE CUSTOMER SET RENTED_CAR_ID = ID WHERE ID <= " + rented);
+        }
+    }
+}
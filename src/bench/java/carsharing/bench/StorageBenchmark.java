@@ -0,0 +1,158 @@
+package carsharing.bench;
+
+import carsharing.dao.DatabaseConfig;
+import carsharing.dao.H2Database;
+import carsharing.dao.SchemaMigrations;
+import carsharing.model.RentalStatus;
+import carsharing.service.CustomerService;
+import org.h2.tools.Server;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The StorageBenchmark class compares the rent throughput of the database profiles a {@link DatabaseConfig}
+ * can describe: a database file with the H2 defaults, with a larger cache and write delay, with compression,
+ * an in-memory database, and a database file served by an H2 TCP server started in this process.
+ * For every profile it creates a fresh database, lets each thread rent and return its own cars for a while,
+ * and records the rents per second and the size of the database file. The JIT keeps warming up for several
+ * rounds, which favours the profiles measured last, so all profiles are measured in turn for a number of rounds
+ * and the best round of each is printed.
+ * <p>
+ * Run with {@code gradle storageBenchmark -PbenchArgs="threads cars seconds rounds"}, for example "4 1000 5 3".
+ */
+public class StorageBenchmark {
+    private static final int COMPANIES = 10;
+
+    public static void main(String[] args) throws Exception {
+        int[] values = BenchSupport.intArgs(args, 4, 1_000, 5, 3);
+        int threads = values[0];
+        int cars = values[1];
+        int seconds = values[2];
+        int rounds = values[3];
+
+        DatabaseConfig defaults = DatabaseConfig.defaults();
+        int port = freePort();
+
+        Map<String, DatabaseConfig> profiles = new LinkedHashMap<>();
+        profiles.put("file", defaults);
+        profiles.put("file-tuned", defaults.withStorage(64 * 1024, 0, 2_000, false, 2_000));
+        profiles.put("file-compressed", defaults.withStorage(0, 0, 0, true, 0));
+        profiles.put("mem", defaults.withMode(DatabaseConfig.Mode.MEM));
+        profiles.put("tcp", defaults.withServer("localhost", port));
+
+        H2Database.configurePool(threads, threads, 5_000, 0);
+
+        Server server = Server.createTcpServer("-tcpPort", String.valueOf(port), "-ifNotExists", "-baseDir", ".");
+        server.start();
+
+        Map<String, Long> bestRents = new LinkedHashMap<>();
+        Map<String, Long> fileSizes = new LinkedHashMap<>();
+
+        try {
+            for (int round = 0; round < rounds; round++) {
+                for (Map.Entry<String, DatabaseConfig> profile : profiles.entrySet()) {
+                    String fileName = "bench-storage-" + profile.getKey();
+
+                    H2Database.configure(profile.getValue());
+                    BenchSupport.freshDatabase(fileName);
+                    BenchSupport.populate(COMPANIES, cars, threads);
+                    SchemaMigrations.migrate();
+                    CustomerService.loadAvailableCars();
+
+                    long rents = rentForAWhile(threads, cars, seconds);
+
+                    H2Database.close();
+
+                    bestRents.merge(profile.getKey(), rents, Math::max);
+                    fileSizes.put(profile.getKey(), fileSize(profile.getValue(), fileName));
+                }
+            }
+        } finally {
+            server.stop();
+        }
+
+        System.out.printf("threads=%d cars=%d seconds=%d rounds=%d%n", threads, cars, seconds, rounds);
+        System.out.printf("%-16s %12s %18s %12s%n", "profile", "rents/s", "rent+return (us)", "file (KB)");
+
+        for (String profile : profiles.keySet()) {
+            long rents = bestRents.get(profile);
+
+            System.out.printf("%-16s %12.0f %18.1f %12d%n", profile, rents / (double) seconds,
+                    seconds * 1e6 * threads / rents, fileSizes.get(profile) / 1024);
+        }
+    }
+
+    /**
+     * Lets every thread rent and return cars with its own customer, thread {@code i} taking cars {@code i + 1},
+     * {@code i + 1 + threads}, and so on, so no two threads want the same car.
+     *
+     * @return the number of successful rents
+     */
+    private static long rentForAWhile(int threads, int cars, int seconds) throws InterruptedException {
+        LongAdder rents = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+
+        for (int t = 0; t < threads; t++) {
+            int customerID = t + 1;
+
+            Thread worker = new Thread(() -> {
+                int carID = customerID;
+
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                while (System.nanoTime() < deadline) {
+                    if (CustomerService.tryRentCar(customerID, carID) == RentalStatus.RENTED) {
+                        rents.increment();
+                    }
+
+                    CustomerService.tryReturnCar(customerID);
+
+                    carID += threads;
+
+                    if (carID > cars) {
+                        carID = customerID;
+                    }
+                }
+            }, "renter-" + t);
+
+            workers.add(worker);
+            worker.start();
+        }
+
+        start.countDown();
+
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        return rents.sum();
+    }
+
+    private static long fileSize(DatabaseConfig config, String fileName) throws IOException {
+        Path file = Path.of(config.directory(), fileName + ".mv.db");
+
+        return Files.exists(file) ? Files.size(file) : 0;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package carsharing.bench.jmh;
+
+import carsharing.dao.CarTable;
+import carsharing.dao.CompanyTable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The DaoBenchmark class measures the DAO lookups and inserts that run on every menu screen.
+ * Each thread cycles through the companies, so lookups do not always hit the same row.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DaoBenchmark {
+    /**
+     * The company the next call of a thread works on.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private final String prefix = "JMH car " + Thread.currentThread().getId() + "-";
+        private int companyID;
+        private int cars;
+
+        int nextCompanyID() {
+            companyID = companyID % FleetState.COMPANIES + 1;
+            return companyID;
+        }
+
+        /**
+         * Returns a car name no other thread uses, as car names are unique.
+         */
+        String nextCarName() {
+            return prefix + ++cars;
+        }
+    }
+
+    @Benchmark
+    public String getCompany(FleetState fleet, Cursor cursor) {
+        return CompanyTable.getCompany(cursor.nextCompanyID());
+    }
+
+    @Benchmark
+    public boolean isCompanyCarListEmpty(FleetState fleet, Cursor cursor) {
+        return CarTable.isCompanyCarListEmpty(cursor.nextCompanyID());
+    }
+
+    /**
+     * Looks up a company without cars, which is the worst case for a lookup that scans the table.
+     */
+    @Benchmark
+    public boolean isCompanyCarListEmptyMiss(FleetState fleet) {
+        return CarTable.isCompanyCarListEmpty(FleetState.COMPANIES + 1);
+    }
+
+    @Benchmark
+    public int addCar(FleetState fleet, Cursor cursor) {
+        return CarTable.add(cursor.nextCarName(), cursor.nextCompanyID());
+    }
+}
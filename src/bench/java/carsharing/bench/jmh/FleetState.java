@@ -0,0 +1,86 @@
+package carsharing.bench.jmh;
+
+import carsharing.bench.BenchSupport;
+import carsharing.dao.H2Database;
+import carsharing.dao.SchemaMigrations;
+import carsharing.service.CustomerService;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The FleetState class is the database shared by all threads of a JMH trial.
+ * Every trial starts from a fresh database holding the given number of cars spread across
+ * {@link #COMPANIES} companies, plus one customer per benchmark thread.
+ * Console output of the measured code is discarded while the trial runs.
+ */
+@State(Scope.Benchmark)
+public class FleetState {
+    /**
+     * The number of companies the cars are spread across.
+     */
+    public static final int COMPANIES = 100;
+
+    /**
+     * The number of customers, which is also the highest supported thread count.
+     */
+    public static final int CUSTOMERS = 256;
+
+    /**
+     * The number of cars in the CAR table.
+     */
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int cars;
+
+    private final AtomicInteger threads = new AtomicInteger();
+    private PrintStream out;
+
+    /**
+     * Creates and fills the database for the trial.
+     *
+     * @throws SQLException if the data cannot be inserted
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        H2Database.configurePool(2, CUSTOMERS, 30_000, 0);
+        BenchSupport.freshDatabase("jmh-" + cars);
+        BenchSupport.populate(COMPANIES, cars, CUSTOMERS);
+        SchemaMigrations.migrate();
+        CustomerService.loadAvailableCars();
+
+        out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    /**
+     * Restores the console and closes the database after the trial.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.setOut(out);
+        H2Database.close();
+    }
+
+    /**
+     * Hands out a distinct, zero-based index to every benchmark thread of the trial.
+     *
+     * @return the index of the calling thread
+     */
+    public int nextThreadIndex() {
+        int index = threads.getAndIncrement();
+
+        if (index >= CUSTOMERS) {
+            throw new IllegalStateException("At most " + CUSTOMERS + " benchmark threads are supported");
+        }
+
+        return index;
+    }
+}
@@ -0,0 +1,70 @@
+package carsharing.bench.jmh;
+
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatFactory;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The JmhRunner class runs the JMH benchmarks once per thread count and writes all results to one JSON file,
+ * so runs of two commits can be compared with any JMH result viewer or a diff of the JSON.
+ * <p>
+ * Besides the usual JMH options it accepts {@code -threads 1,4,16} and {@code -json <file>}.
+ * Run with {@code gradle jmh -PbenchArgs="-threads 1,8 -p cars=1000,100000 DaoBenchmark"}.
+ */
+public class JmhRunner {
+    public static void main(String[] args) throws Exception {
+        int[] threadCounts = {1, 4, 16};
+        Path resultFile = Path.of("jmh-results.json");
+        List<String> jmhArgs = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-threads") && i + 1 < args.length) {
+                String[] counts = args[++i].split(",");
+                threadCounts = new int[counts.length];
+
+                for (int j = 0; j < counts.length; j++) {
+                    threadCounts[j] = Integer.parseInt(counts[j].trim());
+                }
+            } else if (args[i].equals("-json") && i + 1 < args.length) {
+                resultFile = Path.of(args[++i]);
+            } else if (!args[i].isEmpty()) {
+                jmhArgs.add(args[i]);
+            }
+        }
+
+        CommandLineOptions commandLine = new CommandLineOptions(jmhArgs.toArray(new String[0]));
+        List<RunResult> results = new ArrayList<>();
+
+        for (int threads : threadCounts) {
+            Options options = new OptionsBuilder()
+                    .parent(commandLine)
+                    .threads(threads)
+                    .build();
+
+            results.addAll(new Runner(options).run());
+        }
+
+        Path parent = resultFile.toAbsolutePath().getParent();
+
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+
+        try (PrintStream out = new PrintStream(Files.newOutputStream(resultFile), true, StandardCharsets.UTF_8)) {
+            ResultFormatFactory.getInstance(ResultFormatType.JSON, out).writeOut(results);
+        }
+
+        System.out.println("JMH results written to " + resultFile.toAbsolutePath());
+    }
+}
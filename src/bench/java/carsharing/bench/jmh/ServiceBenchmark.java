@@ -0,0 +1,99 @@
+package carsharing.bench.jmh;
+
+import carsharing.model.Car;
+import carsharing.model.CompanyUsage;
+import carsharing.model.Page;
+import carsharing.model.PageCursor;
+import carsharing.service.CustomerService;
+import carsharing.service.ManagerService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The ServiceBenchmark class measures the service hot paths: renting and returning a car, listing the available cars
+ * of a company, and reading the per-company fleet counters behind the emptiness checks and the company summary.
+ * Every thread rents with its own customer and only from its own share of the cars, so the rent path is measured
+ * without conflicts; {@code RentalStressBenchmark} covers threads fighting over the same cars.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServiceBenchmark {
+    /**
+     * The customer of a thread and the next car it rents.
+     * Thread {@code i} rents cars {@code i + 1}, {@code i + 1 + CUSTOMERS}, and so on.
+     */
+    @State(Scope.Thread)
+    public static class Renter {
+        private int customerID;
+        private int carID;
+        private int cars;
+
+        @Setup(Level.Trial)
+        public void setUp(FleetState fleet) {
+            customerID = fleet.nextThreadIndex() + 1;
+            carID = customerID;
+            cars = fleet.cars;
+        }
+
+        int nextCarID() {
+            int car = carID;
+
+            carID += FleetState.CUSTOMERS;
+
+            if (carID > cars) {
+                carID = customerID;
+            }
+
+            return car;
+        }
+    }
+
+    /**
+     * The company whose cars a thread lists next.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int companyID;
+
+        int nextCompanyID() {
+            companyID = companyID % FleetState.COMPANIES + 1;
+            return companyID;
+        }
+    }
+
+    @Benchmark
+    public void rentAndReturnCar(FleetState fleet, Renter renter, Blackhole blackhole) {
+        blackhole.consume(CustomerService.rentCar(renter.customerID, renter.nextCarID()));
+        blackhole.consume(CustomerService.returnCar(renter.customerID));
+    }
+
+    @Benchmark
+    public Page<Car> getAvailableCarPage(FleetState fleet, Cursor cursor) {
+        return CustomerService.getAvailableCarPage(cursor.nextCompanyID(), PageCursor.FIRST, 100);
+    }
+
+    @Benchmark
+    public boolean isCompanyCarListEmpty(FleetState fleet, Cursor cursor) {
+        return ManagerService.isCompanyCarListEmpty(cursor.nextCompanyID());
+    }
+
+    @Benchmark
+    public CompanyUsage getCompanySummary(FleetState fleet, Cursor cursor) {
+        return ManagerService.getCompanySummary(cursor.nextCompanyID());
+    }
+}
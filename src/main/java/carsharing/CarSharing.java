@@ -1,28 +1,106 @@
 package carsharing;
 
-import carsharing.service.CustomerService;
+import carsharing.dao.DatabaseConfig;
+import carsharing.dao.H2Database;
+import carsharing.dao.RentalJournal;
+import carsharing.metrics.Metrics;
+import carsharing.server.CarSharingServer;
+import carsharing.service.AsyncService;
+import carsharing.service.FleetAnalytics;
+import carsharing.service.JournaledRentals;
 import carsharing.service.ManagerService;
+import carsharing.service.NameCache;
+import carsharing.service.NameSearch;
+import carsharing.service.Startup;
+import carsharing.service.StartupSnapshot;
+import carsharing.view.CommandEngine;
+import carsharing.view.Console;
 import carsharing.view.Menu;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Locale;
+
 /**
  * The CarSharing class represents the main class of the car sharing application.
  * It provides methods for reading command line arguments and initializing the application.
  */
 public class CarSharing {
     /**
-     * Reads the command line arguments to retrieve the database file name.
-     * If the file name is not provided or empty, a default file name "temp" is used.
-     * Initializes the company, creates a car, creates a customer, and shows the main menu.
+     * Reads the command line arguments, opens the database and runs the application.
+     * Opens the database through the {@link Startup} pipeline, which creates and migrates the schema only when
+     * its version is behind, and with -Dcarsharing.snapshot.enabled=true fills the caches from the snapshot
+     * written by the last clean shutdown. The rental journal is replayed at startup either way.
+     * <p>
+     * These flags apply to every run, next to the carsharing.db.* system properties for the storage settings:
+     * <ul>
+     *     <li>{@code -databaseFileName <name>}: the database file name, "temp" if it is not provided or empty</li>
+     *     <li>{@code -databaseConfig <file>}: a properties file with the storage settings</li>
+     *     <li>{@code -databaseMode <file|mem|tcp>}: overrides where the database lives</li>
+     *     <li>{@code -databaseServer <host:port>}: the H2 TCP server, which also overrides where the database
+     *     lives</li>
+     *     <li>{@code -databaseShards <n>}: the number of database files the customers are spread over</li>
+     *     <li>{@code -journal <async|group>}: rents and returns are written to the rental journal and applied to
+     *     the database in batches</li>
+     *     <li>{@code -metrics <file>}: writes the metrics report on exit, to standard error for
+     *     {@code -metrics -}</li>
+     * </ul>
+     * These flags run a batch task, after which the application exits:
+     * <ul>
+     *     <li>{@code -import <file>}: bulk imports a CSV file</li>
+     *     <li>{@code -export <directory>}: exports the tables</li>
+     *     <li>{@code -exportFormat <csv|jsonl|csv.gz|jsonl.gz>}: the format of the export, csv by default</li>
+     *     <li>{@code -exportCompany <id>}: exports only that company</li>
+     *     <li>{@code -archiveBefore <yyyy-mm-dd>}: archives the rentals that ended before that day</li>
+     *     <li>{@code -report <days>}: prints the fleet utilization report of the last days</li>
+     * </ul>
+     * Otherwise the available cars are loaded into memory and the main menu is shown, or with these flags:
+     * <ul>
+     *     <li>{@code -script <file>}: replays the menu input from the script, or from standard input for
+     *     {@code -script -}, and prints the startup time and the time of every command to standard error</li>
+     *     <li>{@code -serve <port>}: serves the operations over HTTP instead of the menu until the process is
+     *     stopped</li>
+     * </ul>
+     * Saves the snapshot, if enabled, and closes the database connection pool when the menu exits.
      *
      * @param args the command line arguments
      */
     public static void read(String[] args) {
         String fileName = "";
+        String databaseConfig = "";
+        String databaseMode = "";
+        String databaseServer = "";
+        int databaseShards = 0;
+        String journalMode = "";
+        String importFileName = "";
+        String exportDirectory = "";
+        String exportFormat = "csv";
+        int exportCompanyID = 0;
+        String archiveBefore = "";
+        int reportDays = 0;
+        String script = "";
+        String metrics = "";
+        int port = 0;
 
-        for (int i = 0; i < args.length; i++) {
-            if (args[i].equals("-databaseFileName")) {
-                fileName = args[i + 1];
-                break;
+        for (int i = 0; i + 1 < args.length; i++) {
+            switch (args[i]) {
+                case "-databaseFileName" -> fileName = args[++i];
+                case "-databaseConfig" -> databaseConfig = args[++i];
+                case "-databaseMode" -> databaseMode = args[++i];
+                case "-databaseServer" -> databaseServer = args[++i];
+                case "-databaseShards" -> databaseShards = Integer.parseInt(args[++i]);
+                case "-journal" -> journalMode = args[++i];
+                case "-import" -> importFileName = args[++i];
+                case "-export" -> exportDirectory = args[++i];
+                case "-exportFormat" -> exportFormat = args[++i];
+                case "-exportCompany" -> exportCompanyID = Integer.parseInt(args[++i]);
+                case "-archiveBefore" -> archiveBefore = args[++i];
+                case "-report" -> reportDays = Integer.parseInt(args[++i]);
+                case "-script" -> script = args[++i];
+                case "-metrics" -> metrics = args[++i];
+                case "-serve" -> port = Integer.parseInt(args[++i]);
             }
         }
 
@@ -30,10 +108,129 @@ public class CarSharing {
             fileName = "temp";
         }
 
-        ManagerService.createCompany(fileName);
-        ManagerService.createCar();
-        CustomerService.createCustomer();
-        Menu.show();
+        H2Database.configure(readDatabaseConfig(databaseConfig, databaseMode, databaseServer, databaseShards));
+
+        boolean batch = !importFileName.isBlank() || !exportDirectory.isBlank() || !archiveBefore.isBlank()
+                || reportDays > 0;
+
+        Startup.open(fileName, readJournalSettings(journalMode), !batch);
+
+        if (batch) {
+            if (!importFileName.isBlank()) {
+                ManagerService.importFleet(importFileName);
+            }
+
+            if (!exportDirectory.isBlank()) {
+                ManagerService.exportFleet(exportDirectory, exportFormat, exportCompanyID);
+            }
+
+            if (!archiveBefore.isBlank()) {
+                ManagerService.archiveRentals(LocalDate.parse(archiveBefore));
+            }
+
+            if (reportDays > 0) {
+                FleetAnalytics.printReport(reportDays);
+            }
+        } else if (port > 0) {
+            Startup.ready();
+            CarSharingServer.serve(port);
+        } else {
+            double startupMillis = Startup.ready();
+
+            if (!script.isBlank()) {
+                Console.useScript(script);
+                CommandEngine.setTimingsEnabled(true);
+                System.err.print(Startup.report(startupMillis));
+            }
+
+            Menu.show();
+        }
+
+        if (!metrics.isBlank()) {
+            writeMetrics(metrics);
+        }
+
+        AsyncService.shutdown();
+        JournaledRentals.close();
+        StartupSnapshot.save(fileName);
+        H2Database.close();
+    }
+
+    /**
+     * Builds the database configuration from the properties file, if any, and the command line overrides.
+     * A properties file that cannot be read is reported and the system properties are used instead.
+     *
+     * @param configFile the properties file, or blank for none
+     * @param mode       the database mode, or blank to keep the configured one
+     * @param server     the H2 TCP server as "host:port", or blank for none
+     * @param shards     the number of database shards, or 0 to keep the configured one
+     * @return the database configuration
+     */
+    private static DatabaseConfig readDatabaseConfig(String configFile, String mode, String server, int shards) {
+        DatabaseConfig config = DatabaseConfig.fromSystemProperties();
+
+        if (!configFile.isBlank()) {
+            try {
+                config = DatabaseConfig.fromFile(configFile);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        if (!mode.isBlank()) {
+            config = config.withMode(DatabaseConfig.Mode.valueOf(mode.toUpperCase(Locale.ROOT)));
+        }
+
+        if (!server.isBlank()) {
+            int colon = server.lastIndexOf(':');
+
+            config = colon < 0
+                    ? config.withServer(server, config.port())
+                    : config.withServer(server.substring(0, colon), Integer.parseInt(server.substring(colon + 1)));
+        }
+
+        if (shards > 0) {
+            config = config.withShards(shards);
+        }
+
+        return config;
+    }
+
+    /**
+     * Reads the rental journal settings from the carsharing.journal.* system properties, with the mode given on
+     * the command line, if any.
+     *
+     * @param mode the journal mode, or blank to keep the configured one
+     * @return the journal settings
+     */
+    private static RentalJournal.Settings readJournalSettings(String mode) {
+        RentalJournal.Settings settings = RentalJournal.Settings.fromSystemProperties();
+
+        return mode.isBlank()
+                ? settings
+                : settings.withDurability(RentalJournal.Durability.valueOf(mode.toUpperCase(Locale.ROOT)));
+    }
+
+    /**
+     * Writes the metrics report, the connection pool statistics, the name cache statistics and the search index sizes
+     * to a file, or to standard error for "-".
+     *
+     * @param target the file name, or "-" for standard error
+     */
+    private static void writeMetrics(String target) {
+        String report = Metrics.report() + "pool: " + H2Database.getPool().stats() + "\n"
+                + NameCache.stats() + NameSearch.stats();
+
+        if (target.equals("-")) {
+            System.err.print(report);
+            return;
+        }
+
+        try {
+            Files.writeString(Path.of(target), report);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     /**
@@ -0,0 +1,275 @@
+package carsharing.dao;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The BulkExporter class writes the COMPANY, CAR and CUSTOMER tables to files for reporting.
+ * Rows are streamed from a forward-only, read-only cursor with lazy query execution enabled,
+ * so H2 never materializes the full result and memory use does not grow with the table size.
+ * Output goes through a buffered writer on a file channel and can be gzip-compressed.
+ */
+public class BulkExporter {
+    private static final int FETCH_SIZE = 1_000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The supported output formats.
+     */
+    public enum Format {
+        CSV("csv"),
+        JSON_LINES("jsonl");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        /**
+         * Returns the file extension of this format, without the dot.
+         *
+         * @return the file extension
+         */
+        public String extension() {
+            return extension;
+        }
+    }
+
+    /**
+     * Exports the fleet and rental state into one file per table in the given directory.
+     * Files are named company, car and customer, followed by the format extension and ".gz" if compressed.
+     * With several shards the customers are written shard by shard, each shard ordered by ID.
+     *
+     * @param directory the directory to write to; created if missing
+     * @param format    the output format
+     * @param gzip      true to gzip-compress the files
+     * @param companyID the ID of the only company to export, or 0 to export every company
+     * @return the number of rows written per file, in export order
+     * @throws IOException  if a file cannot be written
+     * @throws SQLException if a table cannot be read
+     */
+    public static Map<Path, Long> export(Path directory, Format format, boolean gzip, int companyID)
+            throws IOException, SQLException {
+        String filter = companyID > 0 ? " WHERE c.COMPANY_ID = ?" : "";
+
+        String sqlCompanyQuery = "SELECT c.ID, c.NAME FROM COMPANY c" +
+                (companyID > 0 ? " WHERE c.ID = ?" : "") + " ORDER BY c.ID";
+        String sqlCarQuery = "SELECT c.ID, c.NAME, c.COMPANY_ID FROM CAR c" + filter + " ORDER BY c.ID";
+        String sqlCustomerQuery = "SELECT cust.ID, cust.NAME, cust.RENTED_CAR_ID, " +
+                "c.NAME AS RENTED_CAR_NAME, c.COMPANY_ID AS RENTED_CAR_COMPANY_ID " +
+                "FROM CUSTOMER cust " +
+                (companyID > 0 ? "JOIN" : "LEFT JOIN") + " CAR c ON c.ID = cust.RENTED_CAR_ID" +
+                filter + " ORDER BY cust.ID";
+
+        Files.createDirectories(directory);
+
+        Map<String, String> queries = new LinkedHashMap<>();
+        queries.put("company", sqlCompanyQuery);
+        queries.put("car", sqlCarQuery);
+        queries.put("customer", sqlCustomerQuery);
+
+        String suffix = "." + format.extension() + (gzip ? ".gz" : "");
+        Map<Path, Long> rowCounts = new LinkedHashMap<>();
+
+        for (Map.Entry<String, String> query : queries.entrySet()) {
+            Path file = directory.resolve(query.getKey() + suffix);
+            // Every shard has the companies and cars, and each has its own customers
+            int shards = query.getKey().equals("customer") ? Shards.count() : 1;
+
+            try (Writer writer = open(file, gzip)) {
+                long rows = 0;
+
+                for (int shard = 0; shard < shards; shard++) {
+                    rows += exportQuery(shard, query.getValue(), companyID, writer, format, shard == 0);
+                }
+
+                rowCounts.put(file, rows);
+            }
+        }
+
+        return rowCounts;
+    }
+
+    /**
+     * Streams the result of one query in one shard into a writer and returns the number of rows written.
+     */
+    private static long exportQuery(int shard, String sqlQuery, int companyID, Writer writer, Format format,
+                                    boolean header) throws IOException, SQLException {
+        long rows = 0;
+
+        try (Connection connection = H2Database.connect(shard)) {
+            setLazyQueryExecution(connection, true);
+
+            try (PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+
+                preparedStatement.setFetchSize(FETCH_SIZE);
+
+                if (companyID > 0) {
+                    preparedStatement.setInt(1, companyID);
+                }
+
+                try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                    ResultSetMetaData metaData = resultSet.getMetaData();
+                    int columns = metaData.getColumnCount();
+                    String[] labels = new String[columns];
+                    boolean[] numeric = new boolean[columns];
+
+                    for (int i = 0; i < columns; i++) {
+                        labels[i] = metaData.getColumnLabel(i + 1);
+                        numeric[i] = isNumeric(metaData.getColumnType(i + 1));
+                    }
+
+                    if (format == Format.CSV && header) {
+                        for (int i = 0; i < columns; i++) {
+                            if (i > 0) {
+                                writer.write(',');
+                            }
+                            writeCsvField(writer, labels[i]);
+                        }
+                        writer.write('\n');
+                    }
+
+                    while (resultSet.next()) {
+                        if (format == Format.CSV) {
+                            writeCsvRow(writer, resultSet, columns);
+                        } else {
+                            writeJsonRow(writer, resultSet, labels, numeric);
+                        }
+                        rows++;
+                    }
+                }
+            } finally {
+                setLazyQueryExecution(connection, false);
+            }
+        }
+
+        return rows;
+    }
+
+    private static Writer open(Path file, boolean gzip) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        OutputStream out = Channels.newOutputStream(channel);
+
+        if (gzip) {
+            out = new GZIPOutputStream(out, BUFFER_SIZE);
+        }
+
+        return new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    /**
+     * Turns H2's lazy query execution on or off for the session, so results are produced while they are read.
+     */
+    private static void setLazyQueryExecution(Connection connection, boolean lazy) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("SET LAZY_QUERY_EXECUTION " + (lazy ? "TRUE" : "FALSE"));
+        }
+    }
+
+    private static boolean isNumeric(int type) {
+        return switch (type) {
+            case Types.TINYINT, Types.SMALLINT, Types.INTEGER, Types.BIGINT,
+                    Types.DECIMAL, Types.NUMERIC, Types.REAL, Types.FLOAT, Types.DOUBLE -> true;
+            default -> false;
+        };
+    }
+
+    private static void writeCsvRow(Writer writer, ResultSet resultSet, int columns) throws IOException, SQLException {
+        for (int i = 1; i <= columns; i++) {
+            if (i > 1) {
+                writer.write(',');
+            }
+
+            String value = resultSet.getString(i);
+
+            if (value != null) {
+                writeCsvField(writer, value);
+            }
+        }
+        writer.write('\n');
+    }
+
+    private static void writeCsvField(Writer writer, String value) throws IOException {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            writer.write(value);
+            return;
+        }
+
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+
+    private static void writeJsonRow(Writer writer, ResultSet resultSet, String[] labels, boolean[] numeric)
+            throws IOException, SQLException {
+        writer.write('{');
+
+        for (int i = 0; i < labels.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+
+            writeJsonString(writer, labels[i]);
+            writer.write(':');
+
+            String value = resultSet.getString(i + 1);
+
+            if (value == null) {
+                writer.write("null");
+            } else if (numeric[i]) {
+                writer.write(value);
+            } else {
+                writeJsonString(writer, value);
+            }
+        }
+
+        writer.write("}\n");
+    }
+
+    private static void writeJsonString(Writer writer, String value) throws IOException {
+        writer.write('"');
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            switch (c) {
+                case '"' -> writer.write("\\\"");
+                case '\\' -> writer.write("\\\\");
+                case '\n' -> writer.write("\\n");
+                case '\r' -> writer.write("\\r");
+                case '\t' -> writer.write("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        writer.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        writer.write(c);
+                    }
+                }
+            }
+        }
+
+        writer.write('"');
+    }
+}
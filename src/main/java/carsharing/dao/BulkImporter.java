@@ -0,0 +1,352 @@
+package carsharing.dao;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The BulkImporter class loads companies, cars and customers from a CSV file in one pass.
+ * Each line holds a record type followed by its fields:
+ * <pre>
+ * COMPANY,&lt;company name&gt;
+ * CAR,&lt;car name&gt;,&lt;company name&gt;
+ * CUSTOMER,&lt;customer name&gt;
+ * </pre>
+ * A header line starting with "type" is skipped, and fields may be quoted.
+ * Cars and customers are written with JDBC batches and committed in chunks.
+ * Company names are resolved through one in-memory map, loaded once and extended by the imported companies.
+ * Existing customers are merged by name. A car whose name already exists is skipped if it belongs to the same
+ * company and rejected otherwise, so importing the same file twice is safe and never moves a car to another
+ * company.
+ * <p>
+ * With several shards the companies and cars are written to shard 0 and copied to the other shards at the end,
+ * and every customer is merged into the shard its name belongs to.
+ */
+public class BulkImporter {
+    /**
+     * A car line waiting in the batch, kept to tell why a car was not added.
+     */
+    private record CarLine(int lineNumber, String name, int companyID) {
+    }
+
+    /**
+     * The outcome of an import.
+     *
+     * @param companies    the number of companies added
+     * @param cars         the number of car rows added
+     * @param customers    the number of customer rows written
+     * @param rejected     the number of lines skipped because they were malformed, named an unknown company or
+     *                     named a car of another company
+     * @param elapsedNanos the time the import took, in nanoseconds
+     */
+    public record Result(long companies, long cars, long customers, long rejected, long elapsedNanos) {
+        /**
+         * Returns the number of rows written.
+         *
+         * @return the row count
+         */
+        public long rows() {
+            return companies + cars + customers;
+        }
+
+        /**
+         * Returns the number of rows written per second.
+         *
+         * @return the import throughput
+         */
+        public double rowsPerSecond() {
+            return elapsedNanos == 0 ? 0 : rows() * 1e9 / elapsedNanos;
+        }
+    }
+
+    /**
+     * Imports a CSV file into the COMPANY, CAR and CUSTOMER tables.
+     *
+     * @param file      the CSV file to read
+     * @param chunkSize the number of rows written per transaction
+     * @return the import result
+     * @throws IOException  if the file cannot be read
+     * @throws SQLException if a chunk cannot be written; chunks committed before it are kept
+     */
+    public static Result importCsv(Path file, int chunkSize) throws IOException, SQLException {
+        String sqlCompanyQuery = "INSERT INTO COMPANY (NAME) VALUES (?)";
+        // A car name that exists inserts nothing, so a batch never fails on the unique index of NAME
+        String sqlCarQuery = "INSERT INTO CAR (NAME, COMPANY_ID) " +
+                "SELECT ?, ? WHERE NOT EXISTS (SELECT 1 FROM CAR WHERE NAME = ?)";
+        String sqlCarOwnerQuery = "SELECT COMPANY_ID FROM CAR WHERE NAME = ?";
+        String sqlCustomerQuery = "MERGE INTO CUSTOMER (NAME) KEY (NAME) VALUES (?)";
+
+        long start = System.nanoTime();
+        long companies = 0;
+        long cars = 0;
+        long customers = 0;
+        long rejected = 0;
+
+        try (Connection connection = H2Database.connect();
+             BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+
+            Map<String, Integer> companyIDs = loadCompanyIDs(connection);
+
+            connection.setAutoCommit(false);
+
+            try (PreparedStatement companyStatement = connection.prepareStatement(sqlCompanyQuery, Statement.RETURN_GENERATED_KEYS);
+                 PreparedStatement carStatement = connection.prepareStatement(sqlCarQuery);
+                 PreparedStatement carOwnerStatement = connection.prepareStatement(sqlCarOwnerQuery);
+                 PreparedStatement customerStatement = connection.prepareStatement(sqlCustomerQuery)) {
+
+                List<CarLine> carLines = new ArrayList<>();
+                List<List<String>> shardCustomers = new ArrayList<>();
+                int pending = 0;
+                int lineNumber = 0;
+                String line;
+
+                for (int shard = 0; shard < Shards.count(); shard++) {
+                    shardCustomers.add(new ArrayList<>());
+                }
+
+                while ((line = reader.readLine()) != null) {
+                    lineNumber++;
+
+                    if (line.isBlank()) {
+                        continue;
+                    }
+
+                    List<String> fields = parseLine(line);
+                    String type = fields.get(0).trim().toUpperCase(Locale.ROOT);
+
+                    if (lineNumber == 1 && type.equals("TYPE")) {
+                        continue;
+                    }
+
+                    switch (type) {
+                        case "COMPANY" -> {
+                            if (fields.size() < 2 || fields.get(1).isBlank()) {
+                                rejected += reject(lineNumber, "missing company name");
+                            } else if (!companyIDs.containsKey(fields.get(1).trim())) {
+                                String company = fields.get(1).trim();
+
+                                companyStatement.setString(1, company);
+                                companyStatement.executeUpdate();
+
+                                try (ResultSet generatedKeys = companyStatement.getGeneratedKeys()) {
+                                    generatedKeys.next();
+                                    companyIDs.put(company, generatedKeys.getInt(1));
+                                }
+
+                                companies++;
+                                pending++;
+                            }
+                        }
+                        case "CAR" -> {
+                            Integer companyID = fields.size() < 3 ? null : companyIDs.get(fields.get(2).trim());
+
+                            if (fields.size() < 3 || fields.get(1).isBlank()) {
+                                rejected += reject(lineNumber, "expected CAR,<name>,<company>");
+                            } else if (companyID == null) {
+                                rejected += reject(lineNumber, "unknown company '" + fields.get(2).trim() + "'");
+                            } else {
+                                String car = fields.get(1).trim();
+
+                                carStatement.setString(1, car);
+                                carStatement.setInt(2, companyID);
+                                carStatement.setString(3, car);
+                                carStatement.addBatch();
+
+                                carLines.add(new CarLine(lineNumber, car, companyID));
+                                pending++;
+                            }
+                        }
+                        case "CUSTOMER" -> {
+                            if (fields.size() < 2 || fields.get(1).isBlank()) {
+                                rejected += reject(lineNumber, "missing customer name");
+                            } else {
+                                String customer = fields.get(1).trim();
+                                int shard = Shards.ofName(customer);
+
+                                // Merged in the shard of its name, so the unique index of NAME catches the customer again
+                                if (shard == 0) {
+                                    customerStatement.setString(1, customer);
+                                    customerStatement.addBatch();
+                                } else {
+                                    shardCustomers.get(shard).add(customer);
+                                }
+
+                                customers++;
+                                pending++;
+                            }
+                        }
+                        default -> rejected += reject(lineNumber, "unknown record type '" + type + "'");
+                    }
+
+                    if (pending >= chunkSize) {
+                        long[] carCounts = flushCars(carStatement, carOwnerStatement, carLines);
+                        cars += carCounts[0];
+                        rejected += carCounts[1];
+                        flush(connection, customerStatement);
+                        flushShardCustomers(sqlCustomerQuery, shardCustomers);
+                        pending = 0;
+                    }
+                }
+
+                long[] carCounts = flushCars(carStatement, carOwnerStatement, carLines);
+                cars += carCounts[0];
+                rejected += carCounts[1];
+                flush(connection, customerStatement);
+                flushShardCustomers(sqlCustomerQuery, shardCustomers);
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+
+        // The companies and cars were written to shard 0 only
+        Shards.copyCatalogs();
+
+        return new Result(companies, cars, customers, rejected, System.nanoTime() - start);
+    }
+
+    /**
+     * Loads every company name and ID, with names compared case-insensitively like the NAME column.
+     */
+    private static Map<String, Integer> loadCompanyIDs(Connection connection) throws SQLException {
+        Map<String, Integer> companyIDs = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+        try (PreparedStatement preparedStatement = connection.prepareStatement("SELECT ID, NAME FROM COMPANY");
+             ResultSet resultSet = preparedStatement.executeQuery()) {
+
+            while (resultSet.next()) {
+                companyIDs.put(resultSet.getString("NAME"), resultSet.getInt("ID"));
+            }
+        }
+
+        return companyIDs;
+    }
+
+    /**
+     * Writes the batched cars. A car whose name was taken is skipped if it already belongs to the same company,
+     * and rejected if it belongs to another one.
+     *
+     * @return the number of cars added and the number of lines rejected
+     */
+    private static long[] flushCars(PreparedStatement carStatement, PreparedStatement carOwnerStatement,
+                                    List<CarLine> carLines) throws SQLException {
+        int[] counts = carStatement.executeBatch();
+        long added = 0;
+        long rejected = 0;
+
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] != 0) {
+                added++;
+                continue;
+            }
+
+            CarLine carLine = carLines.get(i);
+            carOwnerStatement.setString(1, carLine.name());
+
+            try (ResultSet resultSet = carOwnerStatement.executeQuery()) {
+                if (resultSet.next() && resultSet.getInt(1) != carLine.companyID()) {
+                    rejected += reject(carLine.lineNumber(), "car '" + carLine.name() + "' belongs to another company");
+                }
+            }
+        }
+
+        carLines.clear();
+
+        return new long[]{added, rejected};
+    }
+
+    /**
+     * Merges the customers collected for the shards after shard 0, one transaction per shard.
+     */
+    private static void flushShardCustomers(String sqlQuery, List<List<String>> shardCustomers) throws SQLException {
+        for (int shard = 1; shard < shardCustomers.size(); shard++) {
+            List<String> names = shardCustomers.get(shard);
+
+            if (names.isEmpty()) {
+                continue;
+            }
+
+            try (Connection connection = H2Database.connect(shard);
+                 PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery)) {
+
+                connection.setAutoCommit(false);
+
+                try {
+                    for (String name : names) {
+                        preparedStatement.setString(1, name);
+                        preparedStatement.addBatch();
+                    }
+
+                    flush(connection, preparedStatement);
+                } catch (SQLException e) {
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(true);
+                }
+            }
+
+            names.clear();
+        }
+    }
+
+    private static void flush(Connection connection, PreparedStatement... statements) throws SQLException {
+        for (PreparedStatement statement : statements) {
+            statement.executeBatch();
+        }
+
+        connection.commit();
+    }
+
+    private static int reject(int lineNumber, String reason) {
+        System.err.println("Line " + lineNumber + " skipped: " + reason);
+        return 1;
+    }
+
+    /**
+     * Splits a CSV line into fields. Quoted fields may contain commas and doubled quotes.
+     */
+    static List<String> parseLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+
+        fields.add(field.toString());
+
+        return fields;
+    }
+}
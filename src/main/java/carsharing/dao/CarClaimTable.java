@@ -0,0 +1,236 @@
+package carsharing.dao;
+
+import carsharing.metrics.Metrics;
+import carsharing.metrics.Timer;
+import carsharing.model.RentalStatus;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The CarClaimTable class provides methods for the CAR_CLAIM table, which keeps a car from being rented twice
+ * when the customers are spread over several shards. The unique index on CUSTOMER.RENTED_CAR_ID only sees the
+ * customers of its own shard, so a rent first claims the car in the CAR_CLAIM table of the shard the car belongs
+ * to, where the primary key lets only one customer hold it, and a return releases the claim after the customer
+ * let go of the car. With a single shard the table stays empty.
+ * <p>
+ * A claim whose rent failed or whose return was not finished, for example because the process stopped between
+ * the two steps, keeps the car from being rented until {@link #repair()} runs when the shards are opened. It never
+ * lets a car be rented twice.
+ */
+public class CarClaimTable {
+    private static final Timer CLAIM_TIMER = Metrics.timer("CarClaimTable.claim");
+    private static final Timer RELEASE_TIMER = Metrics.timer("CarClaimTable.release");
+    private static final Timer REPAIR_TIMER = Metrics.timer("CarClaimTable.repair");
+    private static final LongAdder REPAIRED_CLAIMS = Metrics.counter("CarClaimTable.repairedClaims");
+
+    // A claim younger than this may belong to a rent or return another process is still running
+    private static final int TCP_GRACE_SECONDS = 60;
+
+    /**
+     * Claims a car for a customer in the shard the car belongs to.
+     * Transient lock conflicts are retried with a short randomized backoff.
+     *
+     * @param carID      the ID of the car
+     * @param customerID the ID of the customer
+     * @return RENTED if the car is now claimed for the customer, CAR_TAKEN if another claim holds it, or FAILED
+     */
+    public static RentalStatus claim(int carID, int customerID) {
+        String sqlQuery = "INSERT INTO CAR_CLAIM (CAR_ID, CUSTOMER_ID) VALUES (?,?)";
+
+        long start = System.nanoTime();
+
+        try {
+            for (int attempt = 1; ; attempt++) {
+                try (Connection connection = H2Database.connect(Shards.ofCar(carID));
+                     PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery)) {
+
+                    preparedStatement.setInt(1, carID);
+                    preparedStatement.setInt(2, customerID);
+                    preparedStatement.executeUpdate();
+
+                    return RentalStatus.RENTED;
+                } catch (SQLException e) {
+                    if (CustomerTable.UNIQUE_VIOLATION.equals(e.getSQLState())) {
+                        return RentalStatus.CAR_TAKEN;
+                    }
+
+                    if (CustomerTable.isTransient(e) && attempt < CustomerTable.MAX_ATTEMPTS) {
+                        CustomerTable.backOff(attempt);
+                        continue;
+                    }
+
+                    CLAIM_TIMER.failed(e);
+                    return RentalStatus.FAILED;
+                }
+            }
+        } finally {
+            CLAIM_TIMER.stop(start);
+        }
+    }
+
+    /**
+     * Releases the claim of a customer on a car. A claim held by another customer is left alone.
+     * Transient lock conflicts are retried with a short randomized backoff; a claim that cannot be released keeps
+     * the car unavailable until {@link #repair()} runs.
+     *
+     * @param carID      the ID of the car
+     * @param customerID the ID of the customer
+     */
+    public static void release(int carID, int customerID) {
+        String sqlQuery = "DELETE FROM CAR_CLAIM WHERE CAR_ID = ? AND CUSTOMER_ID = ?";
+
+        long start = System.nanoTime();
+
+        try {
+            for (int attempt = 1; ; attempt++) {
+                try (Connection connection = H2Database.connect(Shards.ofCar(carID));
+                     PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery)) {
+
+                    preparedStatement.setInt(1, carID);
+                    preparedStatement.setInt(2, customerID);
+                    preparedStatement.executeUpdate();
+
+                    return;
+                } catch (SQLException e) {
+                    if (CustomerTable.isTransient(e) && attempt < CustomerTable.MAX_ATTEMPTS) {
+                        CustomerTable.backOff(attempt);
+                        continue;
+                    }
+
+                    RELEASE_TIMER.failed(e);
+                    return;
+                }
+            }
+        } finally {
+            RELEASE_TIMER.stop(start);
+        }
+    }
+
+    /**
+     * Makes the claims of every shard match the cars the customers hold: a car held by a customer gets its
+     * claim, and a claim of a customer that does not hold the car is removed. In tcp mode another process may be
+     * between the two steps of a rent or return, so only claims older than a minute are removed there.
+     * Does nothing with a single shard.
+     */
+    public static void repair() {
+        if (Shards.count() == 1) {
+            return;
+        }
+
+        long start = System.nanoTime();
+
+        Map<Integer, Integer> holders = new HashMap<>();
+
+        for (Map<Integer, Integer> shardHolders : Shards.map(CarClaimTable::findHolders)) {
+            // Without the cars of every customer a valid claim would look stale, so nothing is changed
+            if (shardHolders == null) {
+                REPAIR_TIMER.stop(start);
+                return;
+            }
+
+            shardHolders.forEach(holders::putIfAbsent);
+        }
+
+        int graceSeconds = H2Database.getConfig().mode() == DatabaseConfig.Mode.TCP ? TCP_GRACE_SECONDS : 0;
+
+        Shards.map(shard -> {
+            repair(shard, holders, graceSeconds);
+            return null;
+        });
+
+        REPAIR_TIMER.stop(start);
+    }
+
+    /**
+     * Retrieves the car each customer of a shard holds, keyed by car, or null if the query failed.
+     */
+    private static Map<Integer, Integer> findHolders(int shard) {
+        String sqlQuery = "SELECT RENTED_CAR_ID, ID FROM CUSTOMER WHERE RENTED_CAR_ID IS NOT NULL";
+
+        Map<Integer, Integer> holders = new HashMap<>();
+
+        try (Connection connection = H2Database.connect(shard);
+             PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery);
+             ResultSet resultSet = preparedStatement.executeQuery()) {
+
+            while (resultSet.next()) {
+                holders.put(resultSet.getInt(1), resultSet.getInt(2));
+            }
+
+            return holders;
+        } catch (SQLException e) {
+            REPAIR_TIMER.failed(e);
+            return null;
+        }
+    }
+
+    private static void repair(int shard, Map<Integer, Integer> holders, int graceSeconds) {
+        String sqlSelectQuery = "SELECT CAR_ID, CUSTOMER_ID, " +
+                "CLAIMED_AT < DATEADD(SECOND, -?, CURRENT_TIMESTAMP) FROM CAR_CLAIM";
+        String sqlDeleteQuery = "DELETE FROM CAR_CLAIM WHERE CAR_ID = ? AND CUSTOMER_ID = ?";
+        String sqlInsertQuery = "INSERT INTO CAR_CLAIM (CAR_ID, CUSTOMER_ID) " +
+                "SELECT ?, ? WHERE NOT EXISTS (SELECT 1 FROM CAR_CLAIM WHERE CAR_ID = ?)";
+
+        try (Connection connection = H2Database.connect(shard)) {
+            connection.setAutoCommit(false);
+
+            try (PreparedStatement selectStatement = connection.prepareStatement(sqlSelectQuery);
+                 PreparedStatement deleteStatement = connection.prepareStatement(sqlDeleteQuery);
+                 PreparedStatement insertStatement = connection.prepareStatement(sqlInsertQuery)) {
+
+                Map<Integer, Integer> claims = new HashMap<>();
+
+                selectStatement.setInt(1, graceSeconds);
+
+                try (ResultSet resultSet = selectStatement.executeQuery()) {
+                    while (resultSet.next()) {
+                        int carID = resultSet.getInt(1);
+                        int customerID = resultSet.getInt(2);
+
+                        boolean stale = graceSeconds == 0 || resultSet.getBoolean(3);
+
+                        if (holders.getOrDefault(carID, 0) != customerID && stale) {
+                            deleteStatement.setInt(1, carID);
+                            deleteStatement.setInt(2, customerID);
+                            deleteStatement.addBatch();
+                            REPAIRED_CLAIMS.increment();
+                        } else {
+                            claims.put(carID, customerID);
+                        }
+                    }
+                }
+
+                for (Map.Entry<Integer, Integer> holder : holders.entrySet()) {
+                    int carID = holder.getKey();
+
+                    if (Shards.ofCar(carID) == shard && !claims.containsKey(carID)) {
+                        insertStatement.setInt(1, carID);
+                        insertStatement.setInt(2, holder.getValue());
+                        insertStatement.setInt(3, carID);
+                        insertStatement.addBatch();
+                        REPAIRED_CLAIMS.increment();
+                    }
+                }
+
+                // Stale claims go first, so a car they blocked can be claimed for the customer holding it
+                deleteStatement.executeBatch();
+                insertStatement.executeBatch();
+
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            REPAIR_TIMER.failed(e);
+        }
+    }
+}
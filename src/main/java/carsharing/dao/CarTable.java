@@ -1,16 +1,55 @@
 package carsharing.dao;
 
+import carsharing.metrics.Metrics;
+import carsharing.metrics.Timer;
+import carsharing.model.Car;
+import carsharing.model.Page;
+import carsharing.model.PageCursor;
+
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.BitSet;
+import java.util.List;
 
 /**
  * This class represents the data access object for the Car table in the car sharing system.
  */
 public class CarTable {
+    private static final Timer ADD_TIMER = Metrics.timer("CarTable.add");
+    private static final Timer GET_NAME_TIMER = Metrics.timer("CarTable.getName");
+    private static final Timer GET_COMPANY_ID_TIMER = Metrics.timer("CarTable.getCompanyID");
+    private static final Timer FOR_EACH_TIMER = Metrics.timer("CarTable.forEach");
+    private static final Timer IS_EMPTY_TIMER = Metrics.timer("CarTable.isEmpty");
+    private static final Timer IS_COMPANY_CAR_LIST_EMPTY_TIMER = Metrics.timer("CarTable.isCompanyCarListEmpty");
+    private static final Timer FIND_PAGE_TIMER = Metrics.timer("CarTable.findPage");
+
+    /**
+     * Maps a row selected as ID, NAME, COMPANY_ID.
+     */
+    public static final RowMapper<Car> ROW_MAPPER =
+            resultSet -> new Car(resultSet.getInt(1), resultSet.getString(2), resultSet.getInt(3));
+
+    /**
+     * Receives the rows of {@link #forEach(CarRowHandler)} one at a time.
+     */
+    @FunctionalInterface
+    public interface CarRowHandler {
+        /**
+         * Handles one car.
+         *
+         * @param id        the ID of the car
+         * @param name      the name of the car
+         * @param companyID the ID of the company owning the car
+         * @param rented    true if a customer currently rents the car
+         */
+        void accept(int id, String name, int companyID, boolean rented);
+    }
+
     /**
-     * Creates the CAR table if it doesn't already exist.
+     * Creates the CAR table in every shard if it doesn't already exist.
      */
     public static void create() {
         String sqlQuery = "CREATE TABLE IF NOT EXISTS CAR " +
@@ -20,34 +59,162 @@ public class CarTable {
                 "CONSTRAINT FK_COMPANY FOREIGN KEY (COMPANY_ID) REFERENCES COMPANY(ID)" +
                 ")";
 
-        try (Connection connection = H2Database.connect();
-             PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery)) {
+        for (int shard = 0; shard < Shards.count(); shard++) {
+            try (Connection connection = H2Database.connect(shard);
+                 PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery)) {
 
-            preparedStatement.executeUpdate();
-        } catch (SQLException e) {
-            e.printStackTrace();
+                preparedStatement.executeUpdate();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
         }
     }
 
     /**
-     * Adds a new car to the CAR table with the given name and company ID.
+     * Adds a new car to the CAR table of shard 0 with the given name and company ID, and copies it to the other
+     * shards.
      *
      * @param car       the name of the car
      * @param companyID the ID of the company
+     * @return the ID of the new car, or 0 if it could not be added
      */
-    public static void add(String car, int companyID) {
+    public static int add(String car, int companyID) {
+        long start = System.nanoTime();
+
         String sqlQuery = "INSERT INTO CAR (NAME,COMPANY_ID) VALUES (?,?)";
 
+        int id = 0;
+
         try (Connection connection = H2Database.connect();
-             PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery)) {
+             PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery, Statement.RETURN_GENERATED_KEYS)) {
 
             preparedStatement.setString(1, car);
             preparedStatement.setInt(2, companyID);
             preparedStatement.executeUpdate();
 
-            System.out.println("The car was added!\n");
+            try (ResultSet generatedKeys = preparedStatement.getGeneratedKeys()) {
+                if (generatedKeys.next()) {
+                    id = generatedKeys.getInt(1);
+                }
+            }
+
+            Shards.replicate("MERGE INTO CAR (ID, NAME, COMPANY_ID) KEY (ID) VALUES (?,?,?)", id, car, companyID);
+        } catch (SQLException e) {
+            ADD_TIMER.failed(e);
+        } finally {
+            ADD_TIMER.stop(start);
+        }
+
+        return id;
+    }
+
+    /**
+     * Retrieves the name of a car based on its ID.
+     *
+     * @param carID the ID of the car
+     * @return the name of the car, or an empty string if there is no such car
+     */
+    public static String getName(int carID) {
+        long start = System.nanoTime();
+
+        String sqlQuery = "SELECT NAME FROM CAR WHERE ID = ?";
+
+        String name = "";
+
+        try (Connection connection = H2Database.connect();
+             PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery)) {
+
+            preparedStatement.setInt(1, carID);
+
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                if (resultSet.next()) {
+                    name = resultSet.getString("NAME");
+                }
+            }
         } catch (SQLException e) {
-            e.printStackTrace();
+            GET_NAME_TIMER.failed(e);
+        } finally {
+            GET_NAME_TIMER.stop(start);
+        }
+
+        return name;
+    }
+
+    /**
+     * Retrieves the ID of the company owning a car.
+     *
+     * @param carID the ID of the car
+     * @return the ID of the company, or 0 if there is no such car
+     */
+    public static int getCompanyID(int carID) {
+        long start = System.nanoTime();
+
+        String sqlQuery = "SELECT COMPANY_ID FROM CAR WHERE ID = ?";
+
+        int companyID = 0;
+
+        try (Connection connection = H2Database.connect();
+             PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery)) {
+
+            preparedStatement.setInt(1, carID);
+
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                if (resultSet.next()) {
+                    companyID = resultSet.getInt("COMPANY_ID");
+                }
+            }
+        } catch (SQLException e) {
+            GET_COMPANY_ID_TIMER.failed(e);
+        } finally {
+            GET_COMPANY_ID_TIMER.stop(start);
+        }
+
+        return companyID;
+    }
+
+    /**
+     * Streams every car with its company and whether it is currently rented, ordered by ID.
+     *
+     * @param handler the handler called for each car
+     * @return true if every car was read, false if a query failed, in which case the handler may have seen only
+     * some of the cars
+     */
+    public static boolean forEach(CarRowHandler handler) {
+        long start = System.nanoTime();
+
+        boolean sharded = Shards.count() > 1;
+
+        // A rented car is joined in the shard of its customer, so with several shards every shard is read first
+        BitSet rented = sharded ? CustomerTable.findRentedCars() : null;
+
+        if (sharded && rented == null) {
+            FOR_EACH_TIMER.stop(start);
+            return false;
+        }
+
+        String sqlQuery = rented != null
+                ? "SELECT ID, NAME, COMPANY_ID, FALSE FROM CAR ORDER BY ID"
+                : "SELECT c.ID, c.NAME, c.COMPANY_ID, cust.ID IS NOT NULL AS RENTED " +
+                "FROM CAR c LEFT JOIN CUSTOMER cust ON cust.RENTED_CAR_ID = c.ID " +
+                "ORDER BY c.ID";
+
+        try (Connection connection = H2Database.connect();
+             PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery);
+             ResultSet resultSet = preparedStatement.executeQuery()) {
+
+            while (resultSet.next()) {
+                int id = resultSet.getInt(1);
+
+                handler.accept(id, resultSet.getString(2), resultSet.getInt(3),
+                        resultSet.getBoolean(4) || rented != null && rented.get(id));
+            }
+
+            return true;
+        } catch (SQLException e) {
+            FOR_EACH_TIMER.failed(e);
+            return false;
+        } finally {
+            FOR_EACH_TIMER.stop(start);
         }
     }
 
@@ -57,9 +224,11 @@ public class CarTable {
      * @return true if the CAR table is empty, false otherwise
      */
     public static boolean isEmpty() {
+        long start = System.nanoTime();
+
         boolean isEmpty = false;
 
-        String sqlQuery = "SELECT * FROM CAR";
+        String sqlQuery = "SELECT 1 FROM CAR LIMIT 1";
 
         try (Connection connection = H2Database.connect();
              PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery);
@@ -69,7 +238,9 @@ public class CarTable {
                 isEmpty = true;
             }
         } catch (SQLException e) {
-            e.printStackTrace();
+            IS_EMPTY_TIMER.failed(e);
+        } finally {
+            IS_EMPTY_TIMER.stop(start);
         }
         return isEmpty;
     }
@@ -81,60 +252,66 @@ public class CarTable {
      * @return true if the company's car list is empty, false otherwise
      */
     public static boolean isCompanyCarListEmpty(int companyID) {
+        long start = System.nanoTime();
+
         boolean isEmpty = true;
 
-        String sqlQuery = "SELECT * FROM CAR";
+        String sqlQuery = "SELECT EXISTS (SELECT 1 FROM CAR WHERE COMPANY_ID = ?)";
 
         try (Connection connection = H2Database.connect();
-             PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery);
-             ResultSet resultSet = preparedStatement.executeQuery()) {
+             PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery)) {
 
-            while (resultSet.next()){
-                int company_id = resultSet.getInt("COMPANY_ID");
+            preparedStatement.setInt(1, companyID);
 
-                if (companyID == company_id) {
-                    isEmpty = false;
-                    break;
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                if (resultSet.next()) {
+                    isEmpty = !resultSet.getBoolean(1);
                 }
-
             }
 
         } catch (SQLException e) {
-            e.printStackTrace();
+            IS_COMPANY_CAR_LIST_EMPTY_TIMER.failed(e);
+        } finally {
+            IS_COMPANY_CAR_LIST_EMPTY_TIMER.stop(start);
         }
         return isEmpty;
     }
 
     /**
-     * Prints the list of cars for a specific company.
+     * Retrieves one page of the cars of a company, ordered by ID.
+     * An empty first page means the company has no cars, so no separate emptiness check is needed.
+     * IDX_CAR_COMPANY_ID holds the car IDs of each company in order, so the page is read from the index
+     * starting at the cursor and deep pages cost the same as the first.
      *
      * @param companyID the ID of the company
+     * @param cursor    the page to read
+     * @param limit     the maximum number of cars to return
+     * @return the page, empty if the company has no cars or the query failed
      */
-    public static void print(int companyID) {
-        String sqlQuery = "SELECT * FROM CAR";
-
-        try (Connection connection = H2Database.connect();
-             PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery);
-             ResultSet resultSet = preparedStatement.executeQuery()) {
-
-            System.out.println("\nCar list:");
+    public static Page<Car> findPage(int companyID, PageCursor cursor, int limit) {
+        long start = System.nanoTime();
 
-            int count = 0;
+        String sqlQuery = cursor.isBackward()
+                ? "SELECT ID, NAME, COMPANY_ID FROM CAR WHERE COMPANY_ID = ? AND ID < ? ORDER BY ID DESC LIMIT ?"
+                : "SELECT ID, NAME, COMPANY_ID FROM CAR WHERE COMPANY_ID = ? AND ID > ? ORDER BY ID LIMIT ?";
 
-            while (resultSet.next()){
-                String car = resultSet.getString("NAME");
-                int company_id = resultSet.getInt("COMPANY_ID");
+        try (Connection connection = H2Database.connect();
+             PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery)) {
 
-                if (companyID == company_id) {
-                    count++;
+            // One extra row tells whether there is another page in the direction of reading
+            preparedStatement.setInt(1, companyID);
+            preparedStatement.setInt(2, cursor.boundID());
+            preparedStatement.setInt(3, limit + 1);
 
-                    System.out.println(count + ". " + car);
-                }
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                return RowMapper.page(resultSet, cursor, limit, ROW_MAPPER, Car::id);
             }
-
-            System.out.println();
         } catch (SQLException e) {
-            e.printStackTrace();
+            FIND_PAGE_TIMER.failed(e);
+        } finally {
+            FIND_PAGE_TIMER.stop(start);
         }
+
+        return new Page<>(List.of(), cursor.offset(), false);
     }
 }
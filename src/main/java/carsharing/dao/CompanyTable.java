@@ -1,32 +1,81 @@
 package carsharing.dao;
 
+import carsharing.metrics.Metrics;
+import carsharing.metrics.Timer;
+import carsharing.model.Company;
+import carsharing.model.Page;
+import carsharing.model.PageCursor;
+
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
 
 /**
  * The CompanyTable class provides methods for interacting with the COMPANY table in the database.
  * It handles the creation, retrieval, and modification of company data.
  */
 public class CompanyTable {
+    private static final Timer IS_EMPTY_TIMER = Metrics.timer("CompanyTable.isEmpty");
+    private static final Timer FIND_PAGE_TIMER = Metrics.timer("CompanyTable.findPage");
+    private static final Timer ADD_TIMER = Metrics.timer("CompanyTable.add");
+    private static final Timer CHECK_ID_TIMER = Metrics.timer("CompanyTable.checkID");
+    private static final Timer GET_COMPANY_TIMER = Metrics.timer("CompanyTable.getCompany");
+    private static final Timer FOR_EACH_TIMER = Metrics.timer("CompanyTable.forEach");
+
+    /**
+     * Maps a row selected as ID, NAME.
+     */
+    public static final RowMapper<Company> ROW_MAPPER = resultSet -> new Company(resultSet.getInt(1), resultSet.getString(2));
+
+    /**
+     * Receives the rows of {@link #forEach(CompanyRowHandler)} one at a time.
+     */
+    @FunctionalInterface
+    public interface CompanyRowHandler {
+        /**
+         * Handles one company.
+         *
+         * @param id   the ID of the company
+         * @param name the name of the company
+         */
+        void accept(int id, String name);
+    }
+
     /**
-     * Creates the COMPANY table if it doesn't exist in the database.
+     * Opens the database and creates the COMPANY table if it doesn't exist in the database.
      *
      * @param fileName the name of the database file
      */
     public static void create(String fileName) {
+        try {
+            H2Database.create(fileName).close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+
+        create();
+    }
+
+    /**
+     * Creates the COMPANY table in every shard of the open database if it doesn't exist.
+     */
+    public static void create() {
         String sqlQuery = "CREATE TABLE IF NOT EXISTS COMPANY " +
                 "(ID IDENTITY PRIMARY KEY, " +
                 "NAME VARCHAR_IGNORECASE NOT NULL UNIQUE" +
                 ")";
 
-        try (Connection connection = H2Database.create(fileName);
-             PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery)) {
+        for (int shard = 0; shard < Shards.count(); shard++) {
+            try (Connection connection = H2Database.connect(shard);
+                 PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery)) {
 
-            preparedStatement.executeUpdate();
-        } catch (SQLException e) {
-            e.printStackTrace();
+                preparedStatement.executeUpdate();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
         }
     }
 
@@ -36,9 +85,11 @@ public class CompanyTable {
      * @return true if the table is empty, false otherwise
      */
     public static boolean isEmpty() {
+        long start = System.nanoTime();
+
         boolean isEmpty = false;
 
-        String sqlQuery = "SELECT * FROM COMPANY";
+        String sqlQuery = "SELECT 1 FROM COMPANY LIMIT 1";
 
         try (Connection connection = H2Database.connect();
              PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery);
@@ -48,55 +99,80 @@ public class CompanyTable {
                 isEmpty = true;
             }
         } catch (SQLException e) {
-            e.printStackTrace();
+            IS_EMPTY_TIMER.failed(e);
+        } finally {
+            IS_EMPTY_TIMER.stop(start);
         }
         return isEmpty;
     }
 
     /**
-     * Prints the list of companies from the COMPANY table.
+     * Retrieves one page of the companies, ordered by ID.
+     * The page is read from the primary key starting at the cursor, so deep pages cost the same as the first.
+     *
+     * @param cursor the page to read
+     * @param limit  the maximum number of companies to return
+     * @return the page, empty if there are no companies or the query failed
      */
-    public static void print() {
-        String sqlQuery = "SELECT * FROM COMPANY";
+    public static Page<Company> findPage(PageCursor cursor, int limit) {
+        long start = System.nanoTime();
 
-        try (Connection connection = H2Database.connect();
-             PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery);
-             ResultSet resultSet = preparedStatement.executeQuery()) {
+        String sqlQuery = cursor.isBackward()
+                ? "SELECT ID, NAME FROM COMPANY WHERE ID < ? ORDER BY ID DESC LIMIT ?"
+                : "SELECT ID, NAME FROM COMPANY WHERE ID > ? ORDER BY ID LIMIT ?";
 
-            System.out.println("\nChoose a company:");
+        try (Connection connection = H2Database.connect();
+             PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery)) {
 
-            while (resultSet.next()) {
-                int id = resultSet.getInt("ID");
-                String company = resultSet.getString("NAME");
+            // One extra row tells whether there is another page in the direction of reading
+            preparedStatement.setInt(1, cursor.boundID());
+            preparedStatement.setInt(2, limit + 1);
 
-                System.out.println(id + ". " + company);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                return RowMapper.page(resultSet, cursor, limit, ROW_MAPPER, Company::id);
             }
-
-            System.out.println("0. Back");
-
         } catch (SQLException e) {
-            e.printStackTrace();
+            FIND_PAGE_TIMER.failed(e);
+        } finally {
+            FIND_PAGE_TIMER.stop(start);
         }
+
+        return new Page<>(List.of(), cursor.offset(), false);
     }
 
     /**
-     * Adds a new company to the COMPANY table.
+     * Adds a new company to the COMPANY table of shard 0 and copies it to the other shards.
      *
      * @param company the name of the company to add
+     * @return the ID of the new company, or 0 if it could not be added
      */
-    public static void add(String company) {
+    public static int add(String company) {
+        long start = System.nanoTime();
+
         String sqlQuery = "INSERT INTO COMPANY (NAME) VALUES (?)";
 
+        int id = 0;
+
         try (Connection connection = H2Database.connect();
-             PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery)) {
+             PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery, Statement.RETURN_GENERATED_KEYS)) {
 
             preparedStatement.setString(1, company);
             preparedStatement.executeUpdate();
 
-            System.out.println("The company was created!");
+            try (ResultSet generatedKeys = preparedStatement.getGeneratedKeys()) {
+                if (generatedKeys.next()) {
+                    id = generatedKeys.getInt(1);
+                }
+            }
+
+            Shards.replicate("MERGE INTO COMPANY (ID, NAME) KEY (ID) VALUES (?,?)", id, company);
         } catch (SQLException e) {
-            e.printStackTrace();
+            ADD_TIMER.failed(e);
+        } finally {
+            ADD_TIMER.stop(start);
         }
+
+        return id;
     }
 
     /**
@@ -105,6 +181,8 @@ public class CompanyTable {
      * @return the ID of the last company
      */
     public static int checkID() {
+        long start = System.nanoTime();
+
         String sqlQuery = "SELECT ID FROM COMPANY ORDER BY ID DESC LIMIT 1";
 
         int id = 0;
@@ -117,7 +195,9 @@ public class CompanyTable {
                 id = resultSet.getInt("ID");
             }
         } catch (SQLException e) {
-            e.printStackTrace();
+            CHECK_ID_TIMER.failed(e);
+        } finally {
+            CHECK_ID_TIMER.stop(start);
         }
 
         return id;
@@ -130,25 +210,52 @@ public class CompanyTable {
      * @return the name of the company
      */
     public static String getCompany(int companyID) {
+        long start = System.nanoTime();
+
         String company = "";
 
-        String sqlQuery = "SELECT * FROM COMPANY";
+        String sqlQuery = "SELECT NAME FROM COMPANY WHERE ID = ?";
 
         try (Connection connection = H2Database.connect();
-             PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery);
-             ResultSet resultSet = preparedStatement.executeQuery()) {
+             PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery)) {
 
-            while (resultSet.next()) {
-                int id = resultSet.getInt("ID");
+            preparedStatement.setInt(1, companyID);
 
-                if (companyID == id) {
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                if (resultSet.next()) {
                     company = resultSet.getString("NAME");
                 }
             }
         } catch (SQLException e) {
-            e.printStackTrace();
+            GET_COMPANY_TIMER.failed(e);
+        } finally {
+            GET_COMPANY_TIMER.stop(start);
         }
 
         return company;
     }
+
+    /**
+     * Streams every company, ordered by ID.
+     *
+     * @param handler the handler called for each company
+     */
+    public static void forEach(CompanyRowHandler handler) {
+        long start = System.nanoTime();
+
+        String sqlQuery = "SELECT ID, NAME FROM COMPANY ORDER BY ID";
+
+        try (Connection connection = H2Database.connect();
+             PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery);
+             ResultSet resultSet = preparedStatement.executeQuery()) {
+
+            while (resultSet.next()) {
+                handler.accept(resultSet.getInt(1), resultSet.getString(2));
+            }
+        } catch (SQLException e) {
+            FOR_EACH_TIMER.failed(e);
+        } finally {
+            FOR_EACH_TIMER.stop(start);
+        }
+    }
 }
@@ -0,0 +1,478 @@
+package carsharing.dao;
+
+import carsharing.metrics.RoundTrips;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The ConnectionPool class keeps a bounded set of open H2 sessions and hands them out to the DAO classes.
+ * Connections are opened lazily, validated when borrowed and returned to the pool when the caller closes them.
+ * Each connection keeps a {@link StatementCache}, so repeated SQL is parsed only once per session.
+ */
+public class ConnectionPool {
+    // Capturing the borrowing stack costs a full stack walk per borrow, so leak reports only carry it on request
+    private static final boolean CAPTURE_BORROW_STACKS = Boolean.getBoolean("carsharing.pool.leakStackTraces");
+
+    private final String url;
+    private final int minSize;
+    private final int maxSize;
+    private final long borrowTimeoutMillis;
+    private final long leakThresholdMillis;
+    private final int statementCacheSize;
+
+    private final BlockingDeque<Connection> idle = new LinkedBlockingDeque<>();
+    private final Map<Connection, Lease> leases = new ConcurrentHashMap<>();
+    private final Map<Connection, StatementCache> statementCaches = new ConcurrentHashMap<>();
+    private final StatementCache.Counters statementCounters = new StatementCache.Counters();
+    private final Semaphore permits;
+
+    private final AtomicInteger total = new AtomicInteger();
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong leakCount = new AtomicLong();
+
+    // The isolation level a new session starts with, restored when a borrower changed it
+    private volatile int defaultIsolation = Connection.TRANSACTION_READ_COMMITTED;
+
+    private volatile boolean warmedUp;
+    private volatile boolean closed;
+    private ScheduledExecutorService leakDetector;
+
+    /**
+     * Holds the bookkeeping for a borrowed connection.
+     */
+    private static final class Lease {
+        final long borrowedAt = System.nanoTime();
+        final String threadName = Thread.currentThread().getName();
+        final Throwable borrowStack;
+        volatile boolean reported;
+
+        Lease(boolean captureStack) {
+            this.borrowStack = captureStack ? new Throwable("Connection borrowed here") : null;
+        }
+    }
+
+    /**
+     * Creates a new pool for the given JDBC URL. No connection is opened until the first borrow.
+     *
+     * @param url                 the JDBC URL of the database
+     * @param minSize             the number of connections opened on warm-up and kept idle
+     * @param maxSize             the maximum number of connections open at the same time
+     * @param borrowTimeoutMillis how long a borrow waits for a free connection before failing
+     * @param leakThresholdMillis how long a connection may stay borrowed before it is reported as leaked, 0 to disable;
+     *                            the report shows the borrowing stack with -Dcarsharing.pool.leakStackTraces=true
+     * @param statementCacheSize  the number of prepared statements cached per connection, 0 to disable
+     */
+    public ConnectionPool(String url, int minSize, int maxSize, long borrowTimeoutMillis, long leakThresholdMillis,
+                          int statementCacheSize) {
+        if (maxSize < 1 || minSize < 0 || minSize > maxSize) {
+            throw new IllegalArgumentException("Invalid pool size: min=" + minSize + ", max=" + maxSize);
+        }
+
+        this.url = url;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.leakThresholdMillis = leakThresholdMillis;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    /**
+     * Borrows a connection from the pool. Closing the returned connection gives it back to the pool.
+     *
+     * @return a validated connection to the database
+     * @throws SQLException if no connection becomes available in time or the database cannot be reached
+     */
+    public Connection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+
+        if (!warmedUp) {
+            warmUp();
+        }
+
+        long start = System.nanoTime();
+
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("Timed out after " + borrowTimeoutMillis + " ms waiting for a connection, " + stats());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        }
+
+        long waited = System.nanoTime() - start;
+        waitNanos.addAndGet(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+        borrowCount.incrementAndGet();
+
+        try {
+            Connection physical = takeValidConnection();
+            leases.put(physical, new Lease(leakThresholdMillis > 0 && CAPTURE_BORROW_STACKS));
+
+            return wrap(physical);
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Closes all idle connections and stops handing out new ones.
+     * Borrowed connections are closed when they are given back.
+     */
+    public void close() {
+        closed = true;
+
+        synchronized (this) {
+            if (leakDetector != null) {
+                leakDetector.shutdownNow();
+            }
+        }
+
+        Connection connection;
+
+        while ((connection = idle.poll()) != null) {
+            discard(connection);
+        }
+    }
+
+    /**
+     * Returns the number of connections currently borrowed.
+     *
+     * @return the number of active connections
+     */
+    public int getActiveCount() {
+        return leases.size();
+    }
+
+    /**
+     * Returns the number of open connections waiting in the pool.
+     *
+     * @return the number of idle connections
+     */
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * Returns the number of physical connections currently open.
+     *
+     * @return the number of open connections
+     */
+    public int getTotalCount() {
+        return total.get();
+    }
+
+    /**
+     * Returns the maximum number of connections this pool will open.
+     *
+     * @return the maximum pool size
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the number of successful borrows since the pool was created.
+     *
+     * @return the borrow count
+     */
+    public long getBorrowCount() {
+        return borrowCount.get();
+    }
+
+    /**
+     * Returns the average time a borrow waited for a free connection.
+     *
+     * @return the average wait time in milliseconds
+     */
+    public double getAverageWaitMillis() {
+        long count = borrowCount.get();
+
+        return count == 0 ? 0 : waitNanos.get() / 1_000_000.0 / count;
+    }
+
+    /**
+     * Returns the longest time a borrow waited for a free connection.
+     *
+     * @return the maximum wait time in milliseconds
+     */
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1_000_000.0;
+    }
+
+    /**
+     * Returns the number of connections that were reported as leaked.
+     *
+     * @return the leak count
+     */
+    public long getLeakCount() {
+        return leakCount.get();
+    }
+
+    /**
+     * Returns the prepared statement cache counters of all connections in this pool.
+     *
+     * @return the statement cache counters
+     */
+    public StatementCache.Counters getStatementCounters() {
+        return statementCounters;
+    }
+
+    /**
+     * Returns a one-line summary of the pool metrics.
+     *
+     * @return the pool metrics as text
+     */
+    public String stats() {
+        return String.format("pool[active=%d, idle=%d, total=%d, max=%d, borrows=%d, avgWait=%.3f ms, maxWait=%.3f ms, leaks=%d] %s",
+                getActiveCount(), getIdleCount(), getTotalCount(), maxSize, getBorrowCount(),
+                getAverageWaitMillis(), getMaxWaitMillis(), getLeakCount(), statementCounters.stats());
+    }
+
+    /**
+     * Opens the minimum number of connections and starts the leak detector. Runs once, on the first borrow.
+     */
+    private synchronized void warmUp() {
+        if (warmedUp) {
+            return;
+        }
+
+        while (total.get() < minSize) {
+            try {
+                idle.offer(open());
+            } catch (SQLException e) {
+                e.printStackTrace();
+                break;
+            }
+        }
+
+        if (leakThresholdMillis > 0) {
+            leakDetector = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "connection-leak-detector");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+            long period = Math.max(leakThresholdMillis / 2, 100);
+            leakDetector.scheduleAtFixedRate(this::detectLeaks, period, period, TimeUnit.MILLISECONDS);
+        }
+
+        warmedUp = true;
+    }
+
+    /**
+     * Takes an idle connection that is still valid, or opens a new one.
+     * Must only be called while holding a permit.
+     */
+    private Connection takeValidConnection() throws SQLException {
+        Connection connection;
+
+        while ((connection = idle.poll()) != null) {
+            if (isUsable(connection)) {
+                return connection;
+            }
+
+            discard(connection);
+        }
+
+        return open();
+    }
+
+    private boolean isUsable(Connection connection) {
+        try {
+            return !connection.isClosed() && connection.isValid(1);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private Connection open() throws SQLException {
+        Connection connection = DriverManager.getConnection(url);
+        connection.setAutoCommit(true);
+        defaultIsolation = connection.getTransactionIsolation();
+        total.incrementAndGet();
+
+        if (statementCacheSize > 0) {
+            statementCaches.put(connection, new StatementCache(connection, statementCacheSize, statementCounters));
+        }
+
+        return connection;
+    }
+
+    private void discard(Connection connection) {
+        total.decrementAndGet();
+
+        StatementCache cache = statementCaches.remove(connection);
+
+        if (cache != null) {
+            cache.close();
+        }
+
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Gives a physical connection back to the pool, resetting any state the borrower changed.
+     *
+     * @param sessionChanged true if the borrower changed the isolation level or read-only flag
+     */
+    private void release(Connection physical, boolean sessionChanged) {
+        Lease lease = leases.remove(physical);
+
+        if (lease == null) {
+            return;
+        }
+
+        boolean reusable = !closed;
+
+        try {
+            if (physical.isClosed()) {
+                reusable = false;
+            } else if (!physical.getAutoCommit()) {
+                physical.rollback();
+                physical.setAutoCommit(true);
+            }
+
+            if (reusable && sessionChanged) {
+                physical.setReadOnly(false);
+                physical.setTransactionIsolation(defaultIsolation);
+            }
+        } catch (SQLException e) {
+            reusable = false;
+        }
+
+        if (reusable) {
+            idle.offerFirst(physical);
+        } else {
+            discard(physical);
+        }
+
+        permits.release();
+    }
+
+    /**
+     * Reports every connection borrowed for longer than the leak threshold, once per borrow.
+     */
+    private void detectLeaks() {
+        long now = System.nanoTime();
+
+        for (Lease lease : leases.values()) {
+            long heldMillis = TimeUnit.NANOSECONDS.toMillis(now - lease.borrowedAt);
+
+            if (!lease.reported && heldMillis > leakThresholdMillis) {
+                lease.reported = true;
+                leakCount.incrementAndGet();
+
+                System.err.println("Possible connection leak: held for " + heldMillis + " ms by thread '"
+                        + lease.threadName + "', " + stats());
+
+                if (lease.borrowStack != null) {
+                    lease.borrowStack.printStackTrace();
+                } else {
+                    System.err.println("Run with -Dcarsharing.pool.leakStackTraces=true to see where it was borrowed");
+                }
+            }
+        }
+    }
+
+    /**
+     * Wraps a physical connection so that closing it returns it to the pool instead of ending the session.
+     * Prepared statements are served from the connection's statement cache.
+     */
+    private Connection wrap(Connection physical) {
+        StatementCache cache = statementCaches.get(physical);
+
+        InvocationHandler handler = new InvocationHandler() {
+            // Read by the leak detector and by isClosed on other threads
+            private volatile boolean returned;
+            private boolean sessionChanged;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "close" -> {
+                        if (!returned) {
+                            returned = true;
+                            release(physical, sessionChanged);
+                        }
+                        return null;
+                    }
+                    case "isClosed" -> {
+                        return returned || physical.isClosed();
+                    }
+                    case "unwrap" -> {
+                        if (((Class<?>) args[0]).isInstance(physical)) {
+                            return physical;
+                        }
+                    }
+                    case "equals" -> {
+                        return proxy == args[0];
+                    }
+                    case "hashCode" -> {
+                        return System.identityHashCode(proxy);
+                    }
+                    case "toString" -> {
+                        return "Pooled" + physical;
+                    }
+                }
+
+                if (returned) {
+                    throw new SQLException("Connection has already been returned to the pool");
+                }
+
+                if (method.getName().equals("setTransactionIsolation") || method.getName().equals("setReadOnly")) {
+                    sessionChanged = true;
+                }
+
+                if (method.getName().equals("prepareStatement") || method.getName().equals("createStatement")) {
+                    RoundTrips.statementPrepared();
+                }
+
+                if (cache != null && method.getName().equals("prepareStatement")) {
+                    if (args.length == 1) {
+                        return cache.prepare((Connection) proxy, (String) args[0], Statement.NO_GENERATED_KEYS);
+                    }
+
+                    if (args.length == 2 && args[1] instanceof Integer keys) {
+                        return cache.prepare((Connection) proxy, (String) args[0], keys);
+                    }
+                }
+
+                try {
+                    return method.invoke(physical, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+        };
+
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, handler);
+    }
+}
@@ -1,19 +1,114 @@
 package carsharing.dao;
 
+import carsharing.metrics.Metrics;
+import carsharing.metrics.Timer;
+import carsharing.model.Car;
+import carsharing.model.Company;
+import carsharing.model.Customer;
+import carsharing.model.Page;
+import carsharing.model.PageCursor;
+import carsharing.model.Rental;
+import carsharing.model.RentalEvent;
+import carsharing.model.RentalPeriod;
+import carsharing.model.RentalStatus;
+
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
 
 /**
  * The CustomerTable class provides methods for interacting with the CUSTOMER table in the database.
  * It handles the creation, retrieval, and modification of customer data.
  */
 public class CustomerTable {
+    // SQL states for a duplicate key and for any constraint violation, and for lock timeouts, deadlocks and
+    // concurrent updates
+    static final String UNIQUE_VIOLATION = "23505";
+    private static final String CONSTRAINT_VIOLATION_CLASS = "23";
+    private static final Set<String> TRANSIENT_STATES = Set.of("HYT00", "40001", "90131");
+    static final int MAX_ATTEMPTS = 5;
+
+    // Taken from the commit of a rent or return until its listener has run, so the rents and returns of one car
+    // reach the listener in the order they were committed
+    private static final Object[] CAR_LOCKS = new Object[64];
+
+    static {
+        Arrays.setAll(CAR_LOCKS, i -> new Object());
+    }
+
+    private static final Timer ADD_TIMER = Metrics.timer("CustomerTable.add");
+    private static final Timer ADD_CAR_TO_CUSTOMER_TIMER = Metrics.timer("CustomerTable.addCarToCustomer");
+    private static final Timer DELETE_TIMER = Metrics.timer("CustomerTable.delete");
+    private static final Timer IS_EMPTY_TIMER = Metrics.timer("CustomerTable.isEmpty");
+    private static final Timer IS_CUSTOMER_CAR_LIST_EMPTY_TIMER = Metrics.timer("CustomerTable.isCustomerCarListEmpty");
+    private static final Timer FIND_PAGE_TIMER = Metrics.timer("CustomerTable.findPage");
+    private static final Timer FIND_RENTAL_TIMER = Metrics.timer("CustomerTable.findRental");
+    private static final Timer GET_RENTED_CAR_ID_TIMER = Metrics.timer("CustomerTable.getRentedCarID");
+    private static final Timer CHECK_ID_TIMER = Metrics.timer("CustomerTable.checkID");
+    private static final Timer FIND_RENTED_CAR_ID_TIMER = Metrics.timer("CustomerTable.findRentedCarID");
+    private static final Timer FIND_APPLIED_SEQUENCE_TIMER = Metrics.timer("CustomerTable.findAppliedSequence");
+    private static final Timer APPLY_TIMER = Metrics.timer("CustomerTable.apply");
+    private static final Timer FIND_RENTED_CARS_TIMER = Metrics.timer("CustomerTable.findRentedCars");
+    private static final LongAdder RETRIES = Metrics.counter("CustomerTable.transientRetries");
+    private static final LongAdder RENT_CONFLICTS = Metrics.counter("CustomerTable.rentConflicts");
+
+    /**
+     * The outcome of {@link #apply(List)}.
+     */
+    public enum ApplyResult {
+        /**
+         * The events were applied and committed.
+         */
+        APPLIED,
+        /**
+         * The database rejected the events because they break a constraint, and will reject them again.
+         */
+        REJECTED,
+        /**
+         * The transaction failed for another reason, such as a lock timeout, a conflicting update or no free
+         * connection, and may succeed if it is retried.
+         */
+        FAILED
+    }
+
+    /**
+     * Maps a row selected as ID, NAME, RENTED_CAR_ID.
+     */
+    public static final RowMapper<Customer> ROW_MAPPER =
+            resultSet -> new Customer(resultSet.getInt(1), resultSet.getString(2), resultSet.getInt(3));
+
     /**
-     * Creates the CUSTOMER table if it doesn't exist in the database.
+     * Maps a row selected as customer ID, NAME, RENTED_CAR_ID, car NAME, COMPANY_ID, company NAME.
+     */
+    public static final RowMapper<Rental> RENTAL_ROW_MAPPER = resultSet -> {
+        int carID = resultSet.getInt(3);
+        int companyID = resultSet.getInt(5);
+
+        return new Rental(new Customer(resultSet.getInt(1), resultSet.getString(2), carID),
+                new Car(carID, resultSet.getString(4), companyID),
+                new Company(companyID, resultSet.getString(6)));
+    };
+
+    /**
+     * Creates the CUSTOMER table in every shard if it doesn't exist in the database.
      */
     public static void create() {
         String sqlQuery = "CREATE TABLE IF NOT EXISTS CUSTOMER " +
@@ -23,112 +118,235 @@ public class CustomerTable {
                 "CONSTRAINT FK_CAR FOREIGN KEY (RENTED_CAR_ID) REFERENCES CAR(ID)" +
                 ")";
 
-        try (Connection connection = H2Database.connect();
-             PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery)) {
+        for (int shard = 0; shard < Shards.count(); shard++) {
+            try (Connection connection = H2Database.connect(shard);
+                 PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery)) {
 
-            preparedStatement.executeUpdate();
-        } catch (SQLException e) {
-            e.printStackTrace();
+                preparedStatement.executeUpdate();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
         }
     }
 
     /**
-     * Adds a new customer to the CUSTOMER table.
+     * Adds a new customer to the CUSTOMER table of the shard its name belongs to.
      *
      * @param name the name of the customer to add
+     * @return the ID of the new customer, or 0 if it could not be added
      */
-    public static void add(String name) {
+    public static int add(String name) {
+        long start = System.nanoTime();
+
         String sqlQuery = "INSERT INTO CUSTOMER (NAME) VALUES (?)";
 
-        try (Connection connection = H2Database.connect();
-             PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery)) {
+        int id = 0;
+
+        try (Connection connection = H2Database.connect(Shards.ofName(name));
+             PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery, Statement.RETURN_GENERATED_KEYS)) {
 
             preparedStatement.setString(1, name);
             preparedStatement.executeUpdate();
 
-            System.out.println("The customer was added!");
+            try (ResultSet generatedKeys = preparedStatement.getGeneratedKeys()) {
+                if (generatedKeys.next()) {
+                    id = generatedKeys.getInt(1);
+                }
+            }
         } catch (SQLException e) {
-            e.printStackTrace();
+            ADD_TIMER.failed(e);
+        } finally {
+            ADD_TIMER.stop(start);
         }
+
+        return id;
     }
 
     /**
      * Adds a rented car to a customer in the CUSTOMER table.
+     * The update runs in a READ COMMITTED transaction and only succeeds if the customer has no car yet.
+     * The unique index on RENTED_CAR_ID rejects a car that another customer rented first.
+     * The rental is recorded in the RENTAL history in the same transaction.
+     * Transient lock conflicts are retried with a short randomized backoff.
+     * Reporting the outcome to the customer is left to the caller.
      *
      * @param customerID  the ID of the customer
      * @param rentedCarID the ID of the rented car
+     * @param committed   called with the car once the rent is committed, before another rent or return of the
+     *                    car can commit
+     * @return the outcome: rented, the customer already has a car, there is no such customer, the car was taken,
+     * or failed
      */
-    public static void addCarToCustomer(int customerID, int rentedCarID) {
+    public static RentalStatus addCarToCustomer(int customerID, int rentedCarID, IntConsumer committed) {
         String sqlCustomerTableQuery = "UPDATE CUSTOMER " +
                 "SET RENTED_CAR_ID = ? " +
-                "WHERE ID = ?";
+                "WHERE ID = ? AND RENTED_CAR_ID IS NULL";
+
+        long start = System.nanoTime();
 
-        String sqlCarTableQuery = "SELECT * FROM CAR " +
-                "WHERE ID = ?";
+        try {
+            for (int attempt = 1; ; attempt++) {
+                try (Connection connection = H2Database.connect(Shards.ofCustomer(customerID))) {
+                    connection.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+                    connection.setAutoCommit(false);
 
-        try (Connection connection = H2Database.connect();
-             PreparedStatement preparedCustomerTableStatement = connection.prepareStatement(sqlCustomerTableQuery);
-             PreparedStatement preparedCarTableStatement = connection.prepareStatement(sqlCarTableQuery)) {
+                    try (PreparedStatement preparedCustomerTableStatement = connection.prepareStatement(sqlCustomerTableQuery)) {
 
-            preparedCustomerTableStatement.setInt(1, rentedCarID);
-            preparedCustomerTableStatement.setInt(2, customerID);
-            preparedCustomerTableStatement.executeUpdate();
+                        preparedCustomerTableStatement.setInt(1, rentedCarID);
+                        preparedCustomerTableStatement.setInt(2, customerID);
 
-            preparedCarTableStatement.setInt(1, rentedCarID);
-            ResultSet carTableResultSet = preparedCarTableStatement.executeQuery();
+                        if (preparedCustomerTableStatement.executeUpdate() == 0) {
+                            RentalStatus status = exists(connection, customerID)
+                                    ? RentalStatus.CUSTOMER_HAS_CAR
+                                    : RentalStatus.NOT_FOUND;
+                            connection.rollback();
+                            return status;
+                        }
 
-            if (carTableResultSet.next()) {
-                String carName = carTableResultSet.getString("NAME");
+                        RentalTable.start(connection, customerID, rentedCarID);
+
+                        commit(connection, rentedCarID, committed);
+                        return RentalStatus.RENTED;
+                    } catch (SQLException e) {
+                        connection.rollback();
+                        throw e;
+                    }
+                } catch (SQLException e) {
+                    if (UNIQUE_VIOLATION.equals(e.getSQLState())) {
+                        RENT_CONFLICTS.increment();
+                        return RentalStatus.CAR_TAKEN;
+                    }
+
+                    if (isTransient(e) && attempt < MAX_ATTEMPTS) {
+                        RETRIES.increment();
+                        backOff(attempt);
+                        continue;
+                    }
 
-                System.out.println("\nYou rented '" + carName + "'");
+                    ADD_CAR_TO_CUSTOMER_TIMER.failed(e);
+                    return RentalStatus.FAILED;
+                }
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
+        } finally {
+            ADD_CAR_TO_CUSTOMER_TIMER.stop(start);
         }
     }
 
     /**
      * Deletes the rented car from a customer in the CUSTOMER table.
+     * The update and the lookup of the returned car are a single statement, and the end of the rental
+     * is recorded in the RENTAL history in the same transaction.
+     * Reporting the outcome to the customer is left to the caller.
      *
      * @param customerID the ID of the customer
+     * @param committed  called with the returned car once the return is committed, before another rent or return
+     *                   of the car can commit
+     * @return the ID of the returned car, 0 if the customer had no car, or -1 if the update failed
      */
-    public static void delete(int customerID) {
-        String sqlQuery = "UPDATE CUSTOMER " +
+    public static int delete(int customerID, IntConsumer committed) {
+        String sqlQuery = "SELECT RENTED_CAR_ID FROM OLD TABLE (" +
+                "UPDATE CUSTOMER " +
                 "SET RENTED_CAR_ID = NULL " +
-                "WHERE ID = ?";
+                "WHERE ID = ? AND RENTED_CAR_ID IS NOT NULL)";
 
-        try (Connection connection = H2Database.connect();
-             PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery)) {
+        long start = System.nanoTime();
+
+        try {
+            for (int attempt = 1; ; attempt++) {
+                try (Connection connection = H2Database.connect(Shards.ofCustomer(customerID))) {
+                    connection.setAutoCommit(false);
+
+                    try (PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery)) {
+                        preparedStatement.setInt(1, customerID);
+
+                        int returnedCarID;
+
+                        try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                            returnedCarID = resultSet.next() ? resultSet.getInt(1) : 0;
+                        }
+
+                        if (returnedCarID > 0) {
+                            RentalTable.end(connection, returnedCarID);
+                            commit(connection, returnedCarID, committed);
+                        } else {
+                            connection.commit();
+                        }
+
+                        return returnedCarID;
+                    } catch (SQLException e) {
+                        connection.rollback();
+                        throw e;
+                    }
+                } catch (SQLException e) {
+                    if (isTransient(e) && attempt < MAX_ATTEMPTS) {
+                        RETRIES.increment();
+                        backOff(attempt);
+                        continue;
+                    }
+
+                    DELETE_TIMER.failed(e);
+                    return -1;
+                }
+            }
+        } finally {
+            DELETE_TIMER.stop(start);
+        }
+    }
+
+    private static boolean exists(Connection connection, int customerID) throws SQLException {
+        String sqlQuery = "SELECT 1 FROM CUSTOMER WHERE ID = ?";
+
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery)) {
             preparedStatement.setInt(1, customerID);
-            preparedStatement.executeUpdate();
 
-            System.out.println("\nYou've returned a rented car!");
-        } catch (SQLException e) {
-            e.printStackTrace();
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                return resultSet.next();
+            }
         }
     }
 
     /**
-     * Checks if the CUSTOMER table is empty.
+     * Commits a rent or return of a car and tells the listener while the lock of the car is held.
+     * The lock is only taken once the statements have run: a rent of a car that is being returned waits in the
+     * unique index until the return commits, and must not hold the lock the return needs to commit.
+     */
+    private static void commit(Connection connection, int carID, IntConsumer committed) throws SQLException {
+        synchronized (CAR_LOCKS[Math.floorMod(carID, CAR_LOCKS.length)]) {
+            connection.commit();
+            committed.accept(carID);
+        }
+    }
+
+    /**
+     * Checks if the CUSTOMER table is empty in every shard.
      *
      * @return true if the table is empty, false otherwise
      */
     public static boolean isEmpty() {
-        boolean isEmpty = false;
+        long start = System.nanoTime();
+
+        boolean isEmpty = !Shards.map(CustomerTable::hasCustomers).contains(true);
+
+        IS_EMPTY_TIMER.stop(start);
+
+        return isEmpty;
+    }
 
-        String sqlQuery = "SELECT * FROM CUSTOMER";
+    /**
+     * Checks if the CUSTOMER table of a shard has a row, answering true if the query failed.
+     */
+    private static boolean hasCustomers(int shard) {
+        String sqlQuery = "SELECT 1 FROM CUSTOMER LIMIT 1";
 
-        try (Connection connection = H2Database.connect();
+        try (Connection connection = H2Database.connect(shard);
              PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery);
              ResultSet resultSet = preparedStatement.executeQuery()) {
 
-            if (!resultSet.next()) {
-                isEmpty = true;
-            }
+            return resultSet.next();
         } catch (SQLException e) {
-            e.printStackTrace();
+            IS_EMPTY_TIMER.failed(e);
+            return true;
         }
-        return isEmpty;
     }
 
     /**
@@ -138,10 +356,12 @@ public class CustomerTable {
      * @return true if the customer's car list is empty, false otherwise
      */
     public static boolean isCustomerCarListEmpty(int customerID) {
-        String sqlQuery = "SELECT * FROM CUSTOMER " +
+        long start = System.nanoTime();
+
+        String sqlQuery = "SELECT 1 FROM CUSTOMER " +
                 "WHERE ID = ? AND RENTED_CAR_ID IS NULL";
 
-        try (Connection connection = H2Database.connect();
+        try (Connection connection = H2Database.connect(Shards.ofCustomer(customerID));
              PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery)) {
 
             preparedStatement.setInt(1, customerID);
@@ -153,134 +373,351 @@ public class CustomerTable {
             }
 
         } catch (SQLException e) {
-            e.printStackTrace();
+            IS_CUSTOMER_CAR_LIST_EMPTY_TIMER.failed(e);
+        } finally {
+            IS_CUSTOMER_CAR_LIST_EMPTY_TIMER.stop(start);
         }
         return false;
     }
 
     /**
-     * Prints the list of customers.
+     * Retrieves one page of the customers, ordered by ID.
+     * The page is read from the primary key starting at the cursor, so deep pages cost the same as the first.
+     * With several shards every shard reads its rows next to the cursor and the nearest ones make the page.
+     *
+     * @param cursor the page to read
+     * @param limit  the maximum number of customers to return
+     * @return the page, empty if there are no customers or the query failed
      */
-    public static void print() {
-        String sqlQuery = "SELECT * FROM CUSTOMER";
+    public static Page<Customer> findPage(PageCursor cursor, int limit) {
+        long start = System.nanoTime();
 
-        try (Connection connection = H2Database.connect();
-             PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery);
-             ResultSet resultSet = preparedStatement.executeQuery()) {
+        List<List<Customer>> rowsByShard = Shards.map(shard -> findPageRows(shard, cursor, limit));
 
-            System.out.println("\nCustomer list:");
+        FIND_PAGE_TIMER.stop(start);
 
-            while (resultSet.next()) {
-                int id = resultSet.getInt("ID");
-                String customer = resultSet.getString("NAME");
+        if (rowsByShard.contains(null)) {
+            return new Page<>(List.of(), cursor.offset(), false);
+        }
+
+        List<Customer> rows = new ArrayList<>(rowsByShard.get(0));
+
+        if (rowsByShard.size() > 1) {
+            Comparator<Customer> byID = Comparator.comparingInt(Customer::id);
+
+            rowsByShard.subList(1, rowsByShard.size()).forEach(rows::addAll);
+            rows.sort(cursor.isBackward() ? byID.reversed() : byID);
+        }
+
+        return Page.of(rows.subList(0, Math.min(rows.size(), limit + 1)), Customer::id, cursor, limit);
+    }
+
+    /**
+     * Reads the rows of a shard for a page, in the order of the cursor.
+     *
+     * @return up to {@code limit + 1} rows, or null if the query failed
+     */
+    private static List<Customer> findPageRows(int shard, PageCursor cursor, int limit) {
+        String sqlQuery = cursor.isBackward()
+                ? "SELECT ID, NAME, RENTED_CAR_ID FROM CUSTOMER WHERE ID < ? ORDER BY ID DESC LIMIT ?"
+                : "SELECT ID, NAME, RENTED_CAR_ID FROM CUSTOMER WHERE ID > ? ORDER BY ID LIMIT ?";
 
-                System.out.println(id + ". " + customer);
+        try (Connection connection = H2Database.connect(shard);
+             PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery)) {
+
+            // One extra row tells whether there is another page in the direction of reading
+            preparedStatement.setInt(1, cursor.boundID());
+            preparedStatement.setInt(2, limit + 1);
+
+            List<Customer> rows = new ArrayList<>(Math.min(limit + 1, 128));
+
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    rows.add(ROW_MAPPER.map(resultSet));
+                }
             }
 
-            System.out.println("0. Back");
+            return rows;
+        } catch (SQLException e) {
+            FIND_PAGE_TIMER.failed(e);
+            return null;
+        }
+    }
+
+    /**
+     * Retrieves the current rental of a customer with the car and its company in one query.
+     *
+     * @param customerID the ID of the customer
+     * @return the rental, or null if the customer has no car or the query failed
+     */
+    public static Rental findRental(int customerID) {
+        long start = System.nanoTime();
+
+        String sqlQuery = "SELECT cust.ID, cust.NAME, cust.RENTED_CAR_ID, car.NAME, car.COMPANY_ID, comp.NAME " +
+                "FROM CUSTOMER cust " +
+                "JOIN CAR car ON car.ID = cust.RENTED_CAR_ID " +
+                "JOIN COMPANY comp ON comp.ID = car.COMPANY_ID " +
+                "WHERE cust.ID = ?";
+
+        try (Connection connection = H2Database.connect(Shards.ofCustomer(customerID));
+             PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery)) {
+
+            preparedStatement.setInt(1, customerID);
 
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                if (resultSet.next()) {
+                    return RENTAL_ROW_MAPPER.map(resultSet);
+                }
+            }
         } catch (SQLException e) {
-            e.printStackTrace();
+            FIND_RENTAL_TIMER.failed(e);
+        } finally {
+            FIND_RENTAL_TIMER.stop(start);
         }
+
+        return null;
     }
 
     /**
-     * Prints the list of cars available for a specific company and returns a map of car IDs.
+     * Retrieves the ID of the car rented by a customer.
      *
-     * @param companyID the ID of the company
-     * @return a map of car IDs and their corresponding index in the list
+     * @param customerID the ID of the customer
+     * @return the ID of the rented car, or 0 if the customer has no car
      */
-    public static Map<Integer, Integer> printCarListOfCompany(int companyID) {
-        Map<Integer, Integer> carList = new HashMap<>();
+    public static int getRentedCarID(int customerID) {
+        long start = System.nanoTime();
+
+        String sqlQuery = "SELECT RENTED_CAR_ID FROM CUSTOMER WHERE ID = ?";
 
-        String sqlQuery = "SELECT c.ID, c.NAME FROM CAR c LEFT JOIN CUSTOMER cust ON c.ID = cust.RENTED_CAR_ID WHERE c.COMPANY_ID = ? AND cust.RENTED_CAR_ID IS NULL";
+        int rentedCarID = 0;
 
-        try (Connection connection = H2Database.connect();
+        try (Connection connection = H2Database.connect(Shards.ofCustomer(customerID));
              PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery)) {
 
-            preparedStatement.setInt(1, companyID);
-            ResultSet resultSet = preparedStatement.executeQuery();
+            preparedStatement.setInt(1, customerID);
+
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                if (resultSet.next()) {
+                    rentedCarID = resultSet.getInt("RENTED_CAR_ID");
+                }
+            }
+        } catch (SQLException e) {
+            GET_RENTED_CAR_ID_TIMER.failed(e);
+        } finally {
+            GET_RENTED_CAR_ID_TIMER.stop(start);
+        }
 
-            System.out.println("\nChoose a car:");
+        return rentedCarID;
+    }
 
-            int count = 0;
+    /**
+     * Retrieves the ID of the car rented by a customer, telling a missing customer apart from one without a car.
+     *
+     * @param customerID the ID of the customer
+     * @return the ID of the rented car, 0 if the customer has no car, or -1 if there is no such customer
+     * or the query failed
+     */
+    public static int findRentedCarID(int customerID) {
+        long start = System.nanoTime();
 
-            while (resultSet.next()) {
-                int id = resultSet.getInt("ID");
-                String car = resultSet.getString("NAME");
+        String sqlQuery = "SELECT COALESCE(RENTED_CAR_ID, 0) FROM CUSTOMER WHERE ID = ?";
 
-                count++;
+        try (Connection connection = H2Database.connect(Shards.ofCustomer(customerID));
+             PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery)) {
 
-                carList.put(count, id);
+            preparedStatement.setInt(1, customerID);
 
-                System.out.println(count + ". " + car);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                return resultSet.next() ? resultSet.getInt(1) : -1;
             }
+        } catch (SQLException e) {
+            FIND_RENTED_CAR_ID_TIMER.failed(e);
+        } finally {
+            FIND_RENTED_CAR_ID_TIMER.stop(start);
+        }
 
-            System.out.println("0. Back");
+        return -1;
+    }
 
+    /**
+     * Retrieves the sequence number of the last rental journal event applied to the database.
+     * Shards apply their events in transactions of their own, so this is the number of the shard furthest behind.
+     *
+     * @return the sequence number, 0 if no event has been applied
+     * @throws SQLException if the query failed
+     */
+    public static long findAppliedSequence() throws SQLException {
+        long start = System.nanoTime();
+
+        long applied = Long.MAX_VALUE;
+
+        try {
+            for (int shard = 0; shard < Shards.count(); shard++) {
+                try (Connection connection = H2Database.connect(shard)) {
+                    applied = Math.min(applied, findAppliedSequence(connection));
+                }
+            }
+
+            return applied;
         } catch (SQLException e) {
-            e.printStackTrace();
+            FIND_APPLIED_SEQUENCE_TIMER.failed(e);
+            throw e;
+        } finally {
+            FIND_APPLIED_SEQUENCE_TIMER.stop(start);
         }
+    }
+
+    private static long findAppliedSequence(Connection connection) throws SQLException {
+        String sqlQuery = "SELECT APPLIED_SEQUENCE FROM JOURNAL_STATE WHERE ID = 1";
+
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery);
+             ResultSet resultSet = preparedStatement.executeQuery()) {
 
-        return carList;
+            return resultSet.next() ? resultSet.getLong(1) : 0;
+        }
     }
 
     /**
-     * Prints the rented car details of a customer.
+     * Applies rental journal events to the CUSTOMER table and the RENTAL history in one transaction per shard.
+     * The events were checked when they were journaled, so only their net effect is written: every customer
+     * gets the car it holds after the last event, and a car rented and returned within the events becomes one
+     * finished rental. The sequence number of the last event is stored in JOURNAL_STATE in the same transaction,
+     * so after a crash every event is applied exactly once.
+     * Every shard stores the sequence number, also a shard without events in this batch, and with several shards
+     * a shard skips the events it applied before, since the journal is replayed from the shard furthest behind.
      *
-     * @param customerID the ID of the customer
+     * @param events the events, in journal order
+     * @return whether the events were applied; if not, every shard that failed rolled its transaction back
      */
-    public static void printCarListOfCustomer(int customerID) {
-        String sqlCustomerTableQuery = "SELECT * FROM CUSTOMER WHERE ID = ?";
-        String sqlCarTableQuery = "SELECT * FROM CAR WHERE ID = ?";
-        String sqlCompanyTableQuery = "SELECT * FROM COMPANY WHERE ID = ?";
-
-        try (Connection connection = H2Database.connect();
-             PreparedStatement preparedCustomerTableStatement = connection.prepareStatement(sqlCustomerTableQuery);
-             PreparedStatement preparedCarTableStatement = connection.prepareStatement(sqlCarTableQuery);
-             PreparedStatement preparedCompanyTableStatement = connection.prepareStatement(sqlCompanyTableQuery)) {
-
-            preparedCustomerTableStatement.setInt(1, customerID);
-            ResultSet customerTableResultSet = preparedCustomerTableStatement.executeQuery();
-
-            if (customerTableResultSet.next()) {
-                System.out.println("\nYour rented car:");
-                int rented_car_id = customerTableResultSet.getInt("RENTED_CAR_ID");
-
-                preparedCarTableStatement.setInt(1, rented_car_id);
-                ResultSet carTableResultSet = preparedCarTableStatement.executeQuery();
-
-                if (carTableResultSet.next()) {
-                    String carName = carTableResultSet.getString("NAME");
-                    System.out.println(carName);
-                    int companyID = carTableResultSet.getInt("COMPANY_ID");
-                    System.out.println("Company:");
-
-                    preparedCompanyTableStatement.setInt(1, companyID);
-                    ResultSet companyTableResultSet = preparedCompanyTableStatement.executeQuery();
-
-                    if (companyTableResultSet.next()) {
-                        String companyName = companyTableResultSet.getString("NAME");
-                        System.out.println(companyName);
+    public static ApplyResult apply(List<RentalEvent> events) {
+        long start = System.nanoTime();
+
+        long sequence = events.get(events.size() - 1).sequence();
+
+        try {
+            if (Shards.count() == 1) {
+                return apply(0, events, sequence);
+            }
+
+            List<List<RentalEvent>> eventsByShard = new ArrayList<>();
+
+            for (int shard = 0; shard < Shards.count(); shard++) {
+                eventsByShard.add(new ArrayList<>());
+            }
+
+            for (RentalEvent event : events) {
+                eventsByShard.get(Shards.ofCustomer(event.customerID())).add(event);
+            }
+
+            List<ApplyResult> results = Shards.map(shard -> apply(shard, eventsByShard.get(shard), sequence));
+
+            // A shard that may succeed on a retry decides, since the whole batch is retried then
+            return results.contains(ApplyResult.FAILED) ? ApplyResult.FAILED
+                    : results.contains(ApplyResult.REJECTED) ? ApplyResult.REJECTED
+                    : ApplyResult.APPLIED;
+        } finally {
+            APPLY_TIMER.stop(start);
+        }
+    }
+
+    private static ApplyResult apply(int shard, List<RentalEvent> events, long sequence) {
+        String sqlClearQuery = "UPDATE CUSTOMER SET RENTED_CAR_ID = NULL WHERE ID = ?";
+        String sqlRentQuery = "UPDATE CUSTOMER SET RENTED_CAR_ID = ? WHERE ID = ?";
+        String sqlSequenceQuery = "UPDATE JOURNAL_STATE SET APPLIED_SEQUENCE = GREATEST(APPLIED_SEQUENCE, ?) WHERE ID = 1";
+
+        try (Connection connection = H2Database.connect(shard)) {
+            connection.setAutoCommit(false);
+
+            try (PreparedStatement clearStatement = connection.prepareStatement(sqlClearQuery);
+                 PreparedStatement rentStatement = connection.prepareStatement(sqlRentQuery);
+                 PreparedStatement sequenceStatement = connection.prepareStatement(sqlSequenceQuery)) {
+
+                if (Shards.count() > 1) {
+                    long applied = findAppliedSequence(connection);
+
+                    events = events.stream().filter(event -> event.sequence() > applied).toList();
+                }
+
+                Map<Integer, Integer> rentedCars = new LinkedHashMap<>();
+                List<RentalPeriod> started = new ArrayList<>();
+                Map<Integer, Integer> openByCar = new HashMap<>();
+                List<RentalPeriod> ended = new ArrayList<>();
+
+                for (RentalEvent event : events) {
+                    LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(event.time()), ZoneId.systemDefault());
+
+                    if (event.type() == RentalEvent.Type.RENT) {
+                        rentedCars.put(event.customerID(), event.carID());
+                        openByCar.put(event.carID(), started.size());
+                        started.add(new RentalPeriod(0, event.customerID(), event.carID(), time, null));
+                    } else {
+                        rentedCars.put(event.customerID(), 0);
+                        Integer index = openByCar.remove(event.carID());
+
+                        if (index != null) {
+                            RentalPeriod rental = started.get(index);
+                            started.set(index, new RentalPeriod(0, rental.customerID(), rental.carID(), rental.startedAt(), time));
+                        } else {
+                            ended.add(new RentalPeriod(0, event.customerID(), event.carID(), null, time));
+                        }
+                    }
+                }
+
+                // Every customer lets go of its car first, so no car is held twice while the new ones are set
+                for (Map.Entry<Integer, Integer> customer : rentedCars.entrySet()) {
+                    clearStatement.setInt(1, customer.getKey());
+                    clearStatement.addBatch();
+
+                    if (customer.getValue() > 0) {
+                        rentStatement.setInt(1, customer.getValue());
+                        rentStatement.setInt(2, customer.getKey());
+                        rentStatement.addBatch();
                     }
                 }
+
+                clearStatement.executeBatch();
+                rentStatement.executeBatch();
+
+                // Rentals opened before these events are closed before the new ones are inserted
+                RentalTable.endAll(connection, ended);
+                RentalTable.insertAll(connection, started);
+
+                sequenceStatement.setLong(1, sequence);
+                sequenceStatement.executeUpdate();
+
+                connection.commit();
+                return ApplyResult.APPLIED;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
             }
         } catch (SQLException e) {
-            e.printStackTrace();
+            APPLY_TIMER.failed(e);
+            return isConstraintViolation(e) ? ApplyResult.REJECTED : ApplyResult.FAILED;
         }
     }
 
     /**
-     * Retrieves the highest ID in the CUSTOMER table.
+     * Retrieves the highest ID in the CUSTOMER table of every shard.
      *
      * @return the highest ID value
      */
     public static int checkID() {
+        long start = System.nanoTime();
+
+        int id = Collections.max(Shards.map(CustomerTable::checkID));
+
+        CHECK_ID_TIMER.stop(start);
+
+        return id;
+    }
+
+    private static int checkID(int shard) {
         String sqlQuery = "SELECT ID FROM CUSTOMER ORDER BY ID DESC LIMIT 1";
 
         int id = 0;
 
-        try (Connection connection = H2Database.connect();
+        try (Connection connection = H2Database.connect(shard);
              PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery);
              ResultSet resultSet = preparedStatement.executeQuery()) {
 
@@ -288,9 +725,68 @@ public class CustomerTable {
                 id = resultSet.getInt("ID");
             }
         } catch (SQLException e) {
-            e.printStackTrace();
+            CHECK_ID_TIMER.failed(e);
         }
 
         return id;
     }
+
+    /**
+     * Retrieves the IDs of the cars rented by the customers of every shard.
+     *
+     * @return the IDs of the rented cars, or null if a shard could not be read
+     */
+    static BitSet findRentedCars() {
+        BitSet rented = new BitSet();
+
+        for (BitSet shardRented : Shards.map(CustomerTable::findRentedCars)) {
+            if (shardRented == null) {
+                return null;
+            }
+
+            rented.or(shardRented);
+        }
+
+        return rented;
+    }
+
+    private static BitSet findRentedCars(int shard) {
+        long start = System.nanoTime();
+
+        String sqlQuery = "SELECT RENTED_CAR_ID FROM CUSTOMER WHERE RENTED_CAR_ID IS NOT NULL";
+
+        BitSet rented = new BitSet();
+
+        try (Connection connection = H2Database.connect(shard);
+             PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery);
+             ResultSet resultSet = preparedStatement.executeQuery()) {
+
+            while (resultSet.next()) {
+                rented.set(resultSet.getInt(1));
+            }
+        } catch (SQLException e) {
+            FIND_RENTED_CARS_TIMER.failed(e);
+            rented = null;
+        } finally {
+            FIND_RENTED_CARS_TIMER.stop(start);
+        }
+
+        return rented;
+    }
+
+    private static boolean isConstraintViolation(SQLException e) {
+        return e.getSQLState() != null && e.getSQLState().startsWith(CONSTRAINT_VIOLATION_CLASS);
+    }
+
+    static boolean isTransient(SQLException e) {
+        return TRANSIENT_STATES.contains(e.getSQLState());
+    }
+
+    static void backOff(int attempt) {
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextInt(1, 2 << attempt));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 }
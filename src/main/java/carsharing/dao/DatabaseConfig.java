@@ -0,0 +1,242 @@
+package carsharing.dao;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * The DatabaseConfig class describes where the H2 database lives and how its MVStore is tuned, and builds the
+ * JDBC URL from it. Settings left at 0 (or false) are not added to the URL, so H2 uses its own defaults.
+ * <p>
+ * Every setting is read from a {@code carsharing.db.*} key. The keys can be set in a properties file and
+ * overridden with system properties of the same name:
+ * <ul>
+ *     <li>{@code mode}: {@code file} (the default), {@code mem} for a private in-memory database, or {@code tcp}
+ *     for a database served by an H2 TCP server</li>
+ *     <li>{@code directory}: the directory of the database files, relative to the server's base directory in
+ *     {@code tcp} mode</li>
+ *     <li>{@code host} and {@code port}: the H2 TCP server</li>
+ *     <li>{@code cacheSize}: the page cache size in KB</li>
+ *     <li>{@code pageSize}: the MVStore page split size in bytes</li>
+ *     <li>{@code writeDelay}: how long committed changes may wait before they are written, in milliseconds</li>
+ *     <li>{@code compress}: whether pages are compressed on disk</li>
+ *     <li>{@code lockTimeout}: how long a statement waits for a locked row, in milliseconds</li>
+ *     <li>{@code shards}: the number of database files the customers are spread over, 1 (the default) for a
+ *     single database; see {@link Shards}</li>
+ * </ul>
+ *
+ * @param mode        where the database lives
+ * @param directory   the directory of the database files
+ * @param host        the host of the H2 TCP server
+ * @param port        the port of the H2 TCP server
+ * @param cacheSize   the page cache size in KB, 0 for the H2 default
+ * @param pageSize    the MVStore page split size in bytes, 0 for the H2 default
+ * @param writeDelay  the write delay in milliseconds, 0 for the H2 default
+ * @param compress    whether pages are compressed on disk
+ * @param lockTimeout the lock timeout in milliseconds, 0 for the H2 default
+ * @param shards      the number of database files, at least 1
+ */
+public record DatabaseConfig(Mode mode, String directory, String host, int port, int cacheSize, int pageSize,
+                             int writeDelay, boolean compress, int lockTimeout, int shards) {
+    private static final String PREFIX = "carsharing.db.";
+
+    /**
+     * Checks that the number of shards is valid.
+     *
+     * @throws IllegalArgumentException if there are no shards
+     */
+    public DatabaseConfig {
+        if (shards < 1) {
+            throw new IllegalArgumentException("The number of shards must be at least 1, not " + shards);
+        }
+    }
+
+    /**
+     * Where the database lives.
+     */
+    public enum Mode {
+        /**
+         * A database file opened inside this process.
+         */
+        FILE,
+        /**
+         * An in-memory database that lives until the process exits.
+         */
+        MEM,
+        /**
+         * A database served by an H2 TCP server, which may run in another process.
+         */
+        TCP
+    }
+
+    /**
+     * Returns the configuration of the database file in {@code ./src/carsharing/db} with the H2 defaults.
+     *
+     * @return the default configuration
+     */
+    public static DatabaseConfig defaults() {
+        return new DatabaseConfig(Mode.FILE, "./src/carsharing/db", "localhost", 9092, 0, 0, 0, false, 0, 1);
+    }
+
+    /**
+     * Reads the configuration from the {@code carsharing.db.*} system properties.
+     *
+     * @return the configuration, with the defaults for every missing key
+     */
+    public static DatabaseConfig fromSystemProperties() {
+        return defaults().with(new Properties());
+    }
+
+    /**
+     * Reads the configuration from a properties file. System properties override the keys of the file.
+     *
+     * @param fileName the path of the properties file
+     * @return the configuration, with the defaults for every missing key
+     * @throws IOException if the file cannot be read
+     */
+    public static DatabaseConfig fromFile(String fileName) throws IOException {
+        Properties properties = new Properties();
+
+        try (Reader reader = Files.newBufferedReader(Path.of(fileName))) {
+            properties.load(reader);
+        }
+
+        return defaults().with(properties);
+    }
+
+    /**
+     * Returns a copy of this configuration with the keys of the given properties and of the system properties
+     * applied, in that order.
+     *
+     * @param properties the {@code carsharing.db.*} settings
+     * @return the new configuration
+     */
+    public DatabaseConfig with(Properties properties) {
+        Properties merged = new Properties();
+
+        merged.putAll(properties);
+        System.getProperties().forEach((key, value) -> {
+            if (key.toString().startsWith(PREFIX)) {
+                merged.put(key, value);
+            }
+        });
+
+        return new DatabaseConfig(
+                Mode.valueOf(merged.getProperty(PREFIX + "mode", mode.name()).trim().toUpperCase(Locale.ROOT)),
+                merged.getProperty(PREFIX + "directory", directory).trim(),
+                merged.getProperty(PREFIX + "host", host).trim(),
+                intSetting(merged, "port", port),
+                intSetting(merged, "cacheSize", cacheSize),
+                intSetting(merged, "pageSize", pageSize),
+                intSetting(merged, "writeDelay", writeDelay),
+                Boolean.parseBoolean(merged.getProperty(PREFIX + "compress", String.valueOf(compress)).trim()),
+                intSetting(merged, "lockTimeout", lockTimeout),
+                intSetting(merged, "shards", shards));
+    }
+
+    /**
+     * Returns a copy of this configuration with another mode.
+     *
+     * @param mode the new mode
+     * @return the new configuration
+     */
+    public DatabaseConfig withMode(Mode mode) {
+        return new DatabaseConfig(mode, directory, host, port, cacheSize, pageSize, writeDelay, compress,
+                lockTimeout, shards);
+    }
+
+    /**
+     * Returns a copy of this configuration that connects to an H2 TCP server.
+     *
+     * @param host the host of the server
+     * @param port the port of the server
+     * @return the new configuration
+     */
+    public DatabaseConfig withServer(String host, int port) {
+        return new DatabaseConfig(Mode.TCP, directory, host, port, cacheSize, pageSize, writeDelay, compress,
+                lockTimeout, shards);
+    }
+
+    /**
+     * Returns a copy of this configuration with other storage settings.
+     *
+     * @param cacheSize   the page cache size in KB, 0 for the H2 default
+     * @param pageSize    the MVStore page split size in bytes, 0 for the H2 default
+     * @param writeDelay  the write delay in milliseconds, 0 for the H2 default
+     * @param compress    whether pages are compressed on disk
+     * @param lockTimeout the lock timeout in milliseconds, 0 for the H2 default
+     * @return the new configuration
+     */
+    public DatabaseConfig withStorage(int cacheSize, int pageSize, int writeDelay, boolean compress,
+                                      int lockTimeout) {
+        return new DatabaseConfig(mode, directory, host, port, cacheSize, pageSize, writeDelay, compress,
+                lockTimeout, shards);
+    }
+
+    /**
+     * Returns a copy of this configuration with another number of shards.
+     *
+     * @param shards the number of database files, at least 1
+     * @return the new configuration
+     */
+    public DatabaseConfig withShards(int shards) {
+        return new DatabaseConfig(mode, directory, host, port, cacheSize, pageSize, writeDelay, compress,
+                lockTimeout, shards);
+    }
+
+    /**
+     * Builds the JDBC URL of one shard of a database. Shard 0 is stored under the name of the database itself,
+     * so a database with one shard keeps its file, and shard {@code k} under the name followed by ".shard{@code k}".
+     *
+     * @param fileName the name of the database
+     * @param shard    the number of the shard, from 0
+     * @return the JDBC URL with the storage settings
+     */
+    public String url(String fileName, int shard) {
+        return url(shard == 0 ? fileName : fileName + ".shard" + shard);
+    }
+
+    /**
+     * Builds the JDBC URL of a database.
+     *
+     * @param fileName the name of the database
+     * @return the JDBC URL with the storage settings
+     */
+    public String url(String fileName) {
+        StringBuilder url = new StringBuilder("jdbc:h2:");
+
+        switch (mode) {
+            case FILE -> url.append(directory).append('/').append(fileName);
+            // The database is dropped with its last connection unless DB_CLOSE_DELAY says otherwise
+            case MEM -> url.append("mem:").append(fileName).append(";DB_CLOSE_DELAY=-1");
+            case TCP -> url.append("tcp://").append(host).append(':').append(port).append('/')
+                    .append(directory).append('/').append(fileName);
+        }
+
+        appendSetting(url, "CACHE_SIZE", cacheSize);
+        appendSetting(url, "PAGE_SIZE", pageSize);
+        appendSetting(url, "WRITE_DELAY", writeDelay);
+        appendSetting(url, "LOCK_TIMEOUT", lockTimeout);
+
+        if (compress) {
+            url.append(";COMPRESS=TRUE");
+        }
+
+        return url.toString();
+    }
+
+    private static int intSetting(Properties properties, String key, int defaultValue) {
+        String value = properties.getProperty(PREFIX + key);
+
+        return value == null || value.isBlank() ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    private static void appendSetting(StringBuilder url, String name, int value) {
+        if (value > 0) {
+            url.append(';').append(name).append('=').append(value);
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package carsharing.dao;
+
+import carsharing.metrics.Metrics;
+import carsharing.metrics.Timer;
+import carsharing.model.CarRanking;
+import carsharing.model.CompanyUsage;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The FleetStatistics class runs the aggregate queries behind the fleet utilization report.
+ * Counting and ranking happen in H2 with GROUP BY and window functions, so only the results cross JDBC.
+ * Rentals that have to be split into time windows are streamed as plain numbers, without creating
+ * an object per row.
+ */
+public class FleetStatistics {
+    private static final Timer FIND_RENTAL_ID_RANGE_TIMER = Metrics.timer("FleetStatistics.findRentalIDRange");
+    private static final Timer FIND_COMPANY_USAGE_TIMER = Metrics.timer("FleetStatistics.findCompanyUsage");
+    private static final Timer FIND_TOP_CARS_TIMER = Metrics.timer("FleetStatistics.findTopCars");
+    private static final Timer FIND_CAR_COMPANIES_TIMER = Metrics.timer("FleetStatistics.findCarCompanies");
+    private static final Timer FOR_EACH_RENTAL_TIMER = Metrics.timer("FleetStatistics.forEachRental");
+
+    /**
+     * Receives the rentals of {@link #forEachRental(int, LocalDateTime, LocalDateTime, long, long, RentalSpanHandler)}
+     * one at a time.
+     */
+    @FunctionalInterface
+    public interface RentalSpanHandler {
+        /**
+         * Handles one rental.
+         *
+         * @param carID       the ID of the rented car
+         * @param startSecond the second the rental started, counted from the start of the period
+         * @param endSecond   the second the rental ended, counted from the start of the period
+         */
+        void accept(int carID, long startSecond, long endSecond);
+    }
+
+    /**
+     * Counts the cars of every company and how many of them are rented, ordered by company ID.
+     * Every shard has every car but only the rentals of its own customers, so the rented cars of all shards
+     * are added up.
+     *
+     * @return the fleet usage of every company, empty if the query failed
+     */
+    public static List<CompanyUsage> findCompanyUsage() {
+        long start = System.nanoTime();
+
+        List<List<CompanyUsage>> usageByShard = Shards.map(FleetStatistics::findCompanyUsage);
+        List<CompanyUsage> companies = usageByShard.get(0);
+
+        if (usageByShard.size() > 1) {
+            Map<Integer, Integer> rented = new HashMap<>();
+
+            for (List<CompanyUsage> shardUsage : usageByShard.subList(1, usageByShard.size())) {
+                for (CompanyUsage usage : shardUsage) {
+                    rented.merge(usage.company().id(), usage.rented(), Integer::sum);
+                }
+            }
+
+            companies.replaceAll(usage -> new CompanyUsage(usage.company(), usage.cars(),
+                    usage.rented() + rented.getOrDefault(usage.company().id(), 0)));
+        }
+
+        FIND_COMPANY_USAGE_TIMER.stop(start);
+
+        return companies;
+    }
+
+    private static List<CompanyUsage> findCompanyUsage(int shard) {
+        String sqlQuery = "SELECT comp.ID, comp.NAME, COUNT(car.ID), COUNT(cust.ID) " +
+                "FROM COMPANY comp " +
+                "LEFT JOIN CAR car ON car.COMPANY_ID = comp.ID " +
+                "LEFT JOIN CUSTOMER cust ON cust.RENTED_CAR_ID = car.ID " +
+                "GROUP BY comp.ID, comp.NAME " +
+                "ORDER BY comp.ID";
+
+        List<CompanyUsage> companies = new ArrayList<>();
+
+        try (Connection connection = H2Database.connect(shard);
+             PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery);
+             ResultSet resultSet = preparedStatement.executeQuery()) {
+
+            while (resultSet.next()) {
+                companies.add(new CompanyUsage(CompanyTable.ROW_MAPPER.map(resultSet),
+                        resultSet.getInt(3), resultSet.getInt(4)));
+            }
+        } catch (SQLException e) {
+            FIND_COMPANY_USAGE_TIMER.failed(e);
+            companies.clear();
+        }
+
+        return companies;
+    }
+
+    /**
+     * Returns the lowest and highest rental ID of a shard, so a scan of its RENTAL table can be split into ID ranges.
+     *
+     * @param shard the number of the shard, from 0
+     * @return the lowest and highest ID, both 0 if the table is empty or the query failed
+     */
+    public static long[] findRentalIDRange(int shard) {
+        long start = System.nanoTime();
+
+        String sqlQuery = "SELECT COALESCE(MIN(ID), 0), COALESCE(MAX(ID), 0) FROM RENTAL";
+
+        try (Connection connection = H2Database.connect(shard);
+             PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery);
+             ResultSet resultSet = preparedStatement.executeQuery()) {
+
+            if (resultSet.next()) {
+                return new long[]{resultSet.getLong(1), resultSet.getLong(2)};
+            }
+        } catch (SQLException e) {
+            FIND_RENTAL_ID_RANGE_TIMER.failed(e);
+        } finally {
+            FIND_RENTAL_ID_RANGE_TIMER.stop(start);
+        }
+
+        return new long[]{0, 0};
+    }
+
+    /**
+     * Ranks the cars of every company by the number of rentals started in a period and returns the best ones.
+     * Ties are broken by rented time and then by car ID. Open rentals count as rented until the end of the period.
+     * With several shards the rentals per car of every shard are added up first and ranked in shard 0.
+     *
+     * @param from  the start of the period
+     * @param to    the end of the period
+     * @param limit the number of cars returned per company
+     * @return the top cars, ordered by company ID and rank, empty if the query failed
+     */
+    public static List<CarRanking> findTopCars(LocalDateTime from, LocalDateTime to, int limit) {
+        long start = System.nanoTime();
+
+        String sqlRentalsQuery = "SELECT CAR_ID, COUNT(*) AS RENTALS, " +
+                "SUM(DATEDIFF('SECOND', STARTED_AT, COALESCE(ENDED_AT, ?))) AS RENTED_SECONDS " +
+                "FROM RENTAL WHERE STARTED_AT >= ? AND STARTED_AT < ? GROUP BY CAR_ID";
+
+        // Rentals are grouped per car first, so the window function only ranks one row per car.
+        // IDX_RENTAL_CAR holds every column read here and is already ordered by car, so no table row is read
+        String rentalsPerCar = Shards.count() == 1
+                ? "(" + sqlRentalsQuery + ")"
+                : "TABLE(CAR_ID INT = ?, RENTALS BIGINT = ?, RENTED_SECONDS BIGINT = ?)";
+
+        String sqlQuery = "SELECT ID, NAME, COMPANY_ID, RANKING, RENTALS, RENTED_SECONDS FROM (" +
+                "SELECT car.ID, car.NAME, car.COMPANY_ID, r.RENTALS, r.RENTED_SECONDS, " +
+                "ROW_NUMBER() OVER (PARTITION BY car.COMPANY_ID " +
+                "ORDER BY r.RENTALS DESC, r.RENTED_SECONDS DESC, car.ID) AS RANKING " +
+                "FROM " + rentalsPerCar + " r " +
+                "JOIN CAR car ON car.ID = r.CAR_ID" +
+                ") WHERE RANKING <= ? " +
+                "ORDER BY COMPANY_ID, RANKING";
+
+        List<CarRanking> rankings = new ArrayList<>();
+
+        try (Connection connection = H2Database.connect();
+             PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery)) {
+
+            if (Shards.count() == 1) {
+                setPeriod(preparedStatement, from, to);
+            } else {
+                Map<Integer, long[]> totals = new TreeMap<>();
+
+                for (Map<Integer, long[]> shardTotals : Shards.map(shard -> findRentalsPerCar(shard, sqlRentalsQuery, from, to))) {
+                    if (shardTotals == null) {
+                        return List.of();
+                    }
+
+                    shardTotals.forEach((carID, total) -> totals.merge(carID, total,
+                            (a, b) -> new long[]{a[0] + b[0], a[1] + b[1]}));
+                }
+
+                preparedStatement.setObject(1, totals.keySet().toArray(new Integer[0]));
+                preparedStatement.setObject(2, totals.values().stream().map(total -> total[0]).toArray(Long[]::new));
+                preparedStatement.setObject(3, totals.values().stream().map(total -> total[1]).toArray(Long[]::new));
+            }
+
+            preparedStatement.setInt(4, limit);
+
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    rankings.add(new CarRanking(resultSet.getInt(4), CarTable.ROW_MAPPER.map(resultSet),
+                            resultSet.getLong(5), resultSet.getLong(6)));
+                }
+            }
+        } catch (SQLException e) {
+            FIND_TOP_CARS_TIMER.failed(e);
+            rankings.clear();
+        } finally {
+            FIND_TOP_CARS_TIMER.stop(start);
+        }
+
+        return rankings;
+    }
+
+    /**
+     * Counts the rentals and rented seconds of every car in one shard.
+     *
+     * @return the number of rentals and rented seconds by car ID, or null if the query failed
+     */
+    private static Map<Integer, long[]> findRentalsPerCar(int shard, String sqlQuery, LocalDateTime from,
+                                                          LocalDateTime to) {
+        Map<Integer, long[]> totals = new HashMap<>();
+
+        try (Connection connection = H2Database.connect(shard);
+             PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery)) {
+
+            setPeriod(preparedStatement, from, to);
+
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    totals.put(resultSet.getInt(1), new long[]{resultSet.getLong(2), resultSet.getLong(3)});
+                }
+            }
+        } catch (SQLException e) {
+            FIND_TOP_CARS_TIMER.failed(e);
+            return null;
+        }
+
+        return totals;
+    }
+
+    private static void setPeriod(PreparedStatement preparedStatement, LocalDateTime from, LocalDateTime to)
+            throws SQLException {
+        preparedStatement.setTimestamp(1, Timestamp.valueOf(to));
+        preparedStatement.setTimestamp(2, Timestamp.valueOf(from));
+        preparedStatement.setTimestamp(3, Timestamp.valueOf(to));
+    }
+
+    /**
+     * Maps every car ID to the ID of its company.
+     *
+     * @return an array indexed by car ID holding the company ID, 0 for IDs without a car
+     */
+    public static int[] findCarCompanies() {
+        long start = System.nanoTime();
+
+        String sqlQuery = "SELECT ID, COMPANY_ID FROM CAR ORDER BY ID";
+
+        int[] companies = new int[1024];
+
+        try (Connection connection = H2Database.connect();
+             PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery);
+             ResultSet resultSet = preparedStatement.executeQuery()) {
+
+            while (resultSet.next()) {
+                int carID = resultSet.getInt(1);
+
+                if (carID >= companies.length) {
+                    companies = Arrays.copyOf(companies, Math.max(carID + 1, companies.length * 2));
+                }
+
+                companies[carID] = resultSet.getInt(2);
+            }
+        } catch (SQLException e) {
+            FIND_CAR_COMPANIES_TIMER.failed(e);
+        } finally {
+            FIND_CAR_COMPANIES_TIMER.stop(start);
+        }
+
+        return companies;
+    }
+
+    /**
+     * Streams the rentals of a shard with an ID in the given range that overlap a period, in ID order.
+     * Times are passed as seconds from the start of the period and are not clipped to it.
+     * Open rentals end at the end of the period.
+     *
+     * @param shard   the number of the shard, from 0
+     * @param from    the start of the period
+     * @param to      the end of the period
+     * @param firstID the lowest rental ID to read
+     * @param lastID  the highest rental ID to read
+     * @param handler the handler called for each rental
+     */
+    public static void forEachRental(int shard, LocalDateTime from, LocalDateTime to, long firstID, long lastID,
+                                     RentalSpanHandler handler) {
+        long start = System.nanoTime();
+
+        String sqlQuery = "SELECT CAR_ID, DATEDIFF('SECOND', ?, STARTED_AT), " +
+                "DATEDIFF('SECOND', ?, COALESCE(ENDED_AT, ?)) " +
+                "FROM RENTAL WHERE ID BETWEEN ? AND ? AND STARTED_AT < ? AND (ENDED_AT IS NULL OR ENDED_AT > ?) " +
+                "ORDER BY ID";
+
+        try (Connection connection = H2Database.connect(shard);
+             PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery)) {
+
+            Timestamp fromTimestamp = Timestamp.valueOf(from);
+            Timestamp toTimestamp = Timestamp.valueOf(to);
+
+            preparedStatement.setTimestamp(1, fromTimestamp);
+            preparedStatement.setTimestamp(2, fromTimestamp);
+            preparedStatement.setTimestamp(3, toTimestamp);
+            preparedStatement.setLong(4, firstID);
+            preparedStatement.setLong(5, lastID);
+            preparedStatement.setTimestamp(6, toTimestamp);
+            preparedStatement.setTimestamp(7, fromTimestamp);
+            preparedStatement.setFetchSize(10_000);
+
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    handler.accept(resultSet.getInt(1), resultSet.getLong(2), resultSet.getLong(3));
+                }
+            }
+        } catch (SQLException e) {
+            FOR_EACH_RENTAL_TIMER.failed(e);
+        } finally {
+            FOR_EACH_RENTAL_TIMER.stop(start);
+        }
+    }
+}
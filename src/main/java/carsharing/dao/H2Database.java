@@ -1,48 +1,196 @@
 package carsharing.dao;
 
+import carsharing.metrics.Metrics;
+import carsharing.metrics.RoundTrips;
+import carsharing.metrics.Timer;
+
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 
 /**
  * This class provides utility methods to interact with the H2 database for the car sharing system.
+ * Connections are served from a bounded {@link ConnectionPool}, so DAO calls reuse open sessions.
+ * The location and storage settings of the database come from a {@link DatabaseConfig}.
+ * A database split into {@link Shards} has one pool per shard; {@link #connect()} and {@link #getPool()} serve
+ * shard 0, which holds the whole database when there is only one.
  */
 public class H2Database {
-    // JDBC driver name and database URL
+    private static final Timer CONNECT_TIMER = Metrics.timer("H2Database.connect");
+
+    // JDBC driver name
     static final String JDBC_DRIVER = "org.h2.Driver";
-    private static String DB_URL;
+
+    // Storage settings, overridable with -Dcarsharing.db.* system properties or configure
+    private static DatabaseConfig config = DatabaseConfig.fromSystemProperties();
+
+    // Pool settings, overridable with -Dcarsharing.pool.* system properties or configurePool
+    private static int minPoolSize = Integer.getInteger("carsharing.pool.minSize", 2);
+    private static int maxPoolSize = Integer.getInteger("carsharing.pool.maxSize", 10);
+    private static long borrowTimeoutMillis = Long.getLong("carsharing.pool.borrowTimeoutMillis", 5_000L);
+    private static long leakThresholdMillis = Long.getLong("carsharing.pool.leakThresholdMillis", 30_000L);
+    private static int statementCacheSize = Integer.getInteger("carsharing.pool.statementCacheSize", 64);
+
+    // One pool per shard, replaced as a whole by create
+    private static volatile ConnectionPool[] pools;
 
     /**
      * Creates and returns a connection to the H2 database with the specified file name.
+     * Replaces the current connection pools with one for each shard of the new database.
      *
      * @param fileName the name of the database file
-     * @return a connection to the H2 database
+     * @return a connection to shard 0 of the H2 database
      */
     public static Connection create(String fileName) {
+        try {
+            // Register the JDBC database driver
+            Class.forName(JDBC_DRIVER);
+        } catch (ClassNotFoundException e) {
+            e.printStackTrace();
+        }
+
+        synchronized (H2Database.class) {
+            close();
+
+            ConnectionPool[] created = new ConnectionPool[config.shards()];
 
-        DB_URL = "jdbc:h2:./src/carsharing/db/" + fileName;
+            for (int shard = 0; shard < created.length; shard++) {
+                created[shard] = new ConnectionPool(config.url(fileName, shard), minPoolSize, maxPoolSize,
+                        borrowTimeoutMillis, leakThresholdMillis, statementCacheSize);
+            }
+
+            pools = created;
+        }
 
         return connect();
     }
 
+    /**
+     * Borrows a connection to shard 0 from its pool. Closing the connection returns it to the pool.
+     *
+     * @return a connection to the H2 database, or null if none could be obtained
+     */
     public static Connection connect() {
+        return connect(0);
+    }
+
+    /**
+     * Borrows a connection to a shard from its pool. Closing the connection returns it to the pool.
+     *
+     * @param shard the number of the shard, from 0
+     * @return a connection to the shard, or null if none could be obtained
+     */
+    public static Connection connect(int shard) {
+        long start = System.nanoTime();
+
         Connection connection = null;
 
         try {
-            // Register the JDBC database driver
-            Class.forName(JDBC_DRIVER);
+            connection = getPool(shard).borrow();
+            RoundTrips.connectionBorrowed();
+
+            // Handle errors for JDBC and pool exhaustion
+        } catch (SQLException e) {
+            CONNECT_TIMER.failed(e);
+        } finally {
+            CONNECT_TIMER.stop(start);
+        }
 
-            // Open a connection
-            connection = DriverManager.getConnection(DB_URL);
+        return connection;
+    }
 
-            // Set auto-commit to true
-            connection.setAutoCommit(true);
+    /**
+     * Sets the size limits of the connection pool, which every shard gets one of. Takes effect the next time
+     * {@link #create(String)} is called.
+     *
+     * @param minSize       the number of connections kept open once the pool is warmed up
+     * @param maxSize       the maximum number of connections open at the same time
+     * @param borrowTimeout how long a caller waits for a free connection, in milliseconds
+     * @param leakThreshold how long a connection may be held before it is reported as leaked, 0 to disable
+     */
+    public static void configurePool(int minSize, int maxSize, long borrowTimeout, long leakThreshold) {
+        minPoolSize = minSize;
+        maxPoolSize = maxSize;
+        borrowTimeoutMillis = borrowTimeout;
+        leakThresholdMillis = leakThreshold;
+    }
 
-            // Handle errors for JDBC and Class.forName
-        } catch (ClassNotFoundException | SQLException e) {
-            e.printStackTrace();
+    /**
+     * Sets how many prepared statements each pooled connection keeps. Takes effect the next time
+     * {@link #create(String)} is called.
+     *
+     * @param size the number of statements cached per connection, 0 to disable the cache
+     */
+    public static void configureStatementCache(int size) {
+        statementCacheSize = size;
+    }
+
+    /**
+     * Sets where the database lives and how its storage is tuned. Takes effect the next time
+     * {@link #create(String)} is called.
+     *
+     * @param databaseConfig the database configuration
+     */
+    public static void configure(DatabaseConfig databaseConfig) {
+        config = databaseConfig;
+    }
+
+    /**
+     * Returns the database configuration used by {@link #create(String)}.
+     *
+     * @return the database configuration
+     */
+    public static DatabaseConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Returns the active connection pool of shard 0. A new pool means a new database.
+     *
+     * @return the connection pool
+     * @throws IllegalStateException if {@link #create(String)} has not been called yet
+     */
+    public static ConnectionPool getPool() {
+        return getPool(0);
+    }
+
+    /**
+     * Returns the active connection pool of a shard.
+     *
+     * @param shard the number of the shard, from 0
+     * @return the connection pool
+     * @throws IllegalStateException if {@link #create(String)} has not been called yet
+     */
+    public static ConnectionPool getPool(int shard) {
+        ConnectionPool[] current = pools;
+
+        if (current == null) {
+            throw new IllegalStateException("Database has not been created yet");
         }
 
-        return connection;
+        return current[shard];
+    }
+
+    /**
+     * Returns the number of shards of the open database, or of the next one if none is open.
+     *
+     * @return the number of shards, at least 1
+     */
+    public static int getShardCount() {
+        ConnectionPool[] current = pools;
+
+        return current != null ? current.length : config.shards();
+    }
+
+    /**
+     * Closes the connection pools and every idle connection in them.
+     */
+    public static synchronized void close() {
+        if (pools != null) {
+            for (ConnectionPool pool : pools) {
+                pool.close();
+            }
+
+            pools = null;
+        }
     }
 }
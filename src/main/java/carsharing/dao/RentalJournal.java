@@ -0,0 +1,558 @@
+package carsharing.dao;
+
+import carsharing.metrics.Metrics;
+import carsharing.metrics.Timer;
+import carsharing.model.RentalEvent;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * The RentalJournal class is an append-only log of rent and return events in a memory-mapped file, written ahead
+ * of the CUSTOMER table. An event is acknowledged as soon as it is in the journal, and a background thread applies
+ * the events to the database in batches of one transaction each, so many rents share one commit.
+ * <p>
+ * With {@link Durability#GROUP} an event is acknowledged once the file has been forced to disk. A flusher thread
+ * forces every event appended since its last force at once, so concurrent callers share one disk sync: a group
+ * commit. Waiting a little before each force ({@code groupCommitMicros}) lets more events share it, at the cost
+ * of latency. With {@link Durability#ASYNC} an event is acknowledged once it is in the mapped file; the operating
+ * system writes it back later, so it survives a crash of the process but not of the machine.
+ * <p>
+ * Every event is a 32-byte record holding its sequence number and a CRC32 checksum. The sequence number of the
+ * last applied event is stored in the JOURNAL_STATE table in the same transaction as the event itself, so opening
+ * the journal replays exactly the events the database has not seen yet. When the file is full, the journal waits
+ * until every event is applied and the database is synced, then starts again at the beginning of the file.
+ * <p>
+ * A batch that fails to apply is retried until it succeeds, and the events after it wait, so the database never
+ * falls behind the journal for good. Only an event the database rejects for breaking a constraint is skipped and
+ * logged, since it would be rejected again on every retry.
+ */
+public class RentalJournal {
+    private static final Timer FORCE_TIMER = Metrics.timer("RentalJournal.force");
+    private static final Timer CHECKPOINT_TIMER = Metrics.timer("RentalJournal.checkpoint");
+    private static final LongAdder EVENTS = Metrics.counter("RentalJournal.events");
+    private static final LongAdder GROUP_COMMITS = Metrics.counter("RentalJournal.groupCommits");
+    private static final LongAdder SKIPPED_EVENTS = Metrics.counter("RentalJournal.skippedEvents");
+    private static final LongAdder APPLY_RETRIES = Metrics.counter("RentalJournal.applyRetries");
+
+    // The pause before the next attempt to apply a failed batch doubles from 1 ms up to 2^10 ms
+    private static final int MAX_RETRY_SHIFT = 10;
+
+    private static final int MAGIC = 0x524A4E4C;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int RECORD_SIZE = 32;
+    private static final int CHECKSUMMED_SIZE = RECORD_SIZE - Integer.BYTES;
+
+    /**
+     * When an event is acknowledged.
+     */
+    public enum Durability {
+        /**
+         * No journal: every rent and return is its own database transaction.
+         */
+        OFF,
+        /**
+         * Once the event is in the mapped file.
+         */
+        ASYNC,
+        /**
+         * Once the event has been forced to disk together with the other events of its group.
+         */
+        GROUP
+    }
+
+    /**
+     * The journal settings, read from the {@code carsharing.journal.*} system properties.
+     *
+     * @param durability        when an event is acknowledged ({@code mode}, "off" by default)
+     * @param groupCommitMicros how long the flusher waits for more events before forcing the file
+     * @param applyBatch        the maximum number of events applied in one database transaction
+     * @param sizeMB            the size of the journal file in MB
+     */
+    public record Settings(Durability durability, int groupCommitMicros, int applyBatch, int sizeMB) {
+        /**
+         * Reads the settings from the system properties.
+         *
+         * @return the settings
+         */
+        public static Settings fromSystemProperties() {
+            return new Settings(
+                    Durability.valueOf(System.getProperty("carsharing.journal.mode", "off").toUpperCase(Locale.ROOT)),
+                    Integer.getInteger("carsharing.journal.groupCommitMicros", 0),
+                    Integer.getInteger("carsharing.journal.applyBatch", 512),
+                    Integer.getInteger("carsharing.journal.sizeMB", 64));
+        }
+
+        /**
+         * Returns a copy of these settings with another durability.
+         *
+         * @param durability the new durability
+         * @return the new settings
+         */
+        public Settings withDurability(Durability durability) {
+            return new Settings(durability, groupCommitMicros, applyBatch, sizeMB);
+        }
+    }
+
+    private final Settings settings;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition progress = lock.newCondition();
+
+    // Guarded by lock. Sequence numbers of the last appended, forced and applied events, and where they end
+    private long appendedSequence;
+    private long flushedSequence;
+    private long appliedSequence;
+    private int appendPosition = HEADER_SIZE;
+    private int flushedPosition = HEADER_SIZE;
+    private int appliedPosition = HEADER_SIZE;
+    private boolean closed;
+
+    private final Thread flusher;
+    private final Thread applier;
+
+    private RentalJournal(Settings settings, FileChannel channel, MappedByteBuffer buffer) {
+        this.settings = settings;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.flusher = new Thread(this::flushLoop, "rental-journal-flusher");
+        this.applier = new Thread(this::applyLoop, "rental-journal-applier");
+    }
+
+    /**
+     * Opens the journal file, creating it if needed, and applies every event the database has not seen yet
+     * before returning. With {@link Durability#OFF} the file is only replayed and then closed, so no events
+     * are lost when the journal is switched off.
+     *
+     * @param file     the journal file
+     * @param settings the journal settings
+     * @return the open journal, or null for {@link Durability#OFF}
+     * @throws IOException  if the file cannot be opened
+     * @throws SQLException if the applied sequence number cannot be read
+     */
+    public static RentalJournal open(Path file, Settings settings) throws IOException, SQLException {
+        if (settings.durability() == Durability.OFF && !file.toFile().exists()) {
+            return null;
+        }
+
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+
+        try {
+            long size = Math.max(channel.size(), (long) settings.sizeMB() * 1024 * 1024);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            RentalJournal journal = new RentalJournal(settings, channel, buffer);
+
+            journal.replay();
+
+            if (settings.durability() == Durability.OFF) {
+                channel.close();
+                return null;
+            }
+
+            if (settings.durability() == Durability.GROUP) {
+                journal.flusher.setDaemon(true);
+                journal.flusher.start();
+            }
+
+            journal.applier.setDaemon(true);
+            journal.applier.start();
+
+            return journal;
+        } catch (IOException | SQLException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Appends an event to the journal. When the file is full, waits until every event is applied and starts
+     * again at the beginning of the file.
+     *
+     * @param type       whether the car was rented or returned
+     * @param customerID the ID of the customer
+     * @param carID      the ID of the car
+     * @return the sequence number of the event, to pass to {@link #awaitDurable(long)}
+     */
+    public long append(RentalEvent.Type type, int customerID, int carID) {
+        lock.lock();
+
+        try {
+            if (closed) {
+                throw new IllegalStateException("The rental journal is closed");
+            }
+
+            while (appendPosition + RECORD_SIZE > buffer.capacity()) {
+                wrap();
+            }
+
+            long sequence = appendedSequence + 1;
+
+            write(appendPosition, new RentalEvent(sequence, type, customerID, carID, System.currentTimeMillis()));
+
+            appendPosition += RECORD_SIZE;
+            appendedSequence = sequence;
+            EVENTS.increment();
+            progress.signalAll();
+
+            return sequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until an event is durable: forced to disk with {@link Durability#GROUP}, at once with
+     * {@link Durability#ASYNC}.
+     *
+     * @param sequence the sequence number returned by {@link #append(RentalEvent.Type, int, int)}
+     */
+    public void awaitDurable(long sequence) {
+        if (settings.durability() != Durability.GROUP) {
+            return;
+        }
+
+        lock.lock();
+
+        try {
+            while (flushedSequence < sequence) {
+                progress.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until every event appended so far has been applied to the database.
+     */
+    public void awaitApplied() {
+        lock.lock();
+
+        try {
+            long target = appendedSequence;
+
+            while (appliedSequence < target) {
+                progress.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Applies the remaining events, stops the background threads and closes the file.
+     */
+    public void close() {
+        lock.lock();
+
+        try {
+            closed = true;
+            progress.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            flusher.join();
+            applier.join();
+            channel.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Reads the chain of valid records from the start of the file and applies those newer than the database.
+     * A record ends the chain if its checksum is wrong or its sequence number does not follow the previous one,
+     * which is how the records of an earlier pass through the file are told apart.
+     */
+    private void replay() throws SQLException {
+        if (buffer.getInt(0) != MAGIC) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(Integer.BYTES, VERSION);
+            buffer.force(0, HEADER_SIZE);
+        }
+
+        long applied = CustomerTable.findAppliedSequence();
+        long last = applied;
+        List<RentalEvent> events = new ArrayList<>();
+
+        for (int position = HEADER_SIZE; position + RECORD_SIZE <= buffer.capacity(); position += RECORD_SIZE) {
+            RentalEvent event = read(position);
+
+            if (event == null || (position > HEADER_SIZE && event.sequence() != last + 1)) {
+                break;
+            }
+
+            last = event.sequence();
+
+            if (event.sequence() > applied) {
+                events.add(event);
+            }
+        }
+
+        for (int from = 0; from < events.size(); from += settings.applyBatch()) {
+            List<RentalEvent> batch = events.subList(from, Math.min(events.size(), from + settings.applyBatch()));
+
+            apply(batch);
+        }
+
+        last = Math.max(last, applied);
+
+        // Everything is applied, so the next pass through the file can start at the beginning once the database is on disk
+        checkpoint();
+
+        appendedSequence = last;
+        flushedSequence = last;
+        appliedSequence = last;
+    }
+
+    /**
+     * Waits until every event has been applied, syncs the database and starts again at the beginning of the file.
+     * Called with the lock held; another caller may have wrapped while this one waited.
+     */
+    private void wrap() {
+        while (appliedSequence < appendedSequence) {
+            progress.awaitUninterruptibly();
+        }
+
+        if (appendPosition + RECORD_SIZE <= buffer.capacity()) {
+            return;
+        }
+
+        checkpoint();
+
+        appendPosition = HEADER_SIZE;
+        flushedPosition = HEADER_SIZE;
+        appliedPosition = HEADER_SIZE;
+    }
+
+    /**
+     * Makes the applied events durable in the database file of every shard, so their records may be overwritten.
+     */
+    private static void checkpoint() {
+        long start = System.nanoTime();
+
+        for (int shard = 0; shard < Shards.count(); shard++) {
+            try (Connection connection = H2Database.connect(shard);
+                 Statement statement = connection.createStatement()) {
+
+                statement.execute("CHECKPOINT SYNC");
+            } catch (SQLException e) {
+                CHECKPOINT_TIMER.failed(e);
+            }
+        }
+
+        CHECKPOINT_TIMER.stop(start);
+    }
+
+    /**
+     * Forces the appended events to disk, all that arrived since the previous force at once.
+     */
+    private void flushLoop() {
+        long windowNanos = settings.groupCommitMicros() * 1_000L;
+
+        while (true) {
+            long sequence;
+            int from;
+            int to;
+
+            lock.lock();
+
+            try {
+                while (!closed && flushedSequence == appendedSequence) {
+                    progress.awaitUninterruptibly();
+                }
+
+                if (flushedSequence == appendedSequence) {
+                    return;
+                }
+
+                // Give more callers the chance to join this group
+                for (long remaining = windowNanos; remaining > 0 && !closed; ) {
+                    try {
+                        remaining = progress.awaitNanos(remaining);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+
+                sequence = appendedSequence;
+                from = flushedPosition;
+                to = appendPosition;
+            } finally {
+                lock.unlock();
+            }
+
+            long start = System.nanoTime();
+
+            try {
+                buffer.force(from, to - from);
+            } catch (UncheckedIOException e) {
+                // Nobody is acknowledged until the force succeeds
+                FORCE_TIMER.failed(e);
+                LockSupport.parkNanos(100_000_000L);
+                continue;
+            } finally {
+                FORCE_TIMER.stop(start);
+            }
+
+            lock.lock();
+
+            try {
+                flushedSequence = sequence;
+                flushedPosition = to;
+                GROUP_COMMITS.increment();
+                progress.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Applies the durable events to the database in batches, in journal order.
+     */
+    private void applyLoop() {
+        while (true) {
+            List<RentalEvent> events = new ArrayList<>();
+            int from;
+            int to;
+
+            lock.lock();
+
+            try {
+                long available;
+
+                while (true) {
+                    available = settings.durability() == Durability.GROUP ? flushedSequence : appendedSequence;
+
+                    if (appliedSequence < available) {
+                        break;
+                    }
+
+                    if (closed && appliedSequence == appendedSequence) {
+                        return;
+                    }
+
+                    progress.awaitUninterruptibly();
+                }
+
+                from = appliedPosition;
+                to = Math.min(from + (int) (available - appliedSequence) * RECORD_SIZE,
+                        from + settings.applyBatch() * RECORD_SIZE);
+            } finally {
+                lock.unlock();
+            }
+
+            // Applied records are not overwritten before they are applied, so they are read without the lock
+            for (int position = from; position < to; position += RECORD_SIZE) {
+                events.add(read(position));
+            }
+
+            apply(events);
+
+            lock.lock();
+
+            try {
+                appliedSequence = events.get(events.size() - 1).sequence();
+                appliedPosition = to;
+                progress.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Applies a batch of events and returns once every event is applied or skipped. While the database fails for
+     * a reason that may pass, the batch is retried; if the database rejects the batch, its events are applied one
+     * at a time and only the events the database rejects are skipped.
+     */
+    private static void apply(List<RentalEvent> events) {
+        if (applyRetrying(events) != CustomerTable.ApplyResult.REJECTED) {
+            return;
+        }
+
+        for (RentalEvent event : events) {
+            if (applyRetrying(List.of(event)) == CustomerTable.ApplyResult.REJECTED) {
+                SKIPPED_EVENTS.increment();
+                System.err.println("Skipped journal event " + event + ": the database rejected it");
+            }
+        }
+    }
+
+    /**
+     * Applies events in one transaction, retrying after a pause that doubles up to a second as long as it fails.
+     */
+    private static CustomerTable.ApplyResult applyRetrying(List<RentalEvent> events) {
+        CustomerTable.ApplyResult result;
+
+        for (int attempt = 0; (result = CustomerTable.apply(events)) == CustomerTable.ApplyResult.FAILED; attempt++) {
+            APPLY_RETRIES.increment();
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1L << Math.min(attempt, MAX_RETRY_SHIFT)));
+        }
+
+        return result;
+    }
+
+    private void write(int position, RentalEvent event) {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE)
+                .putLong(event.sequence())
+                .put((byte) event.type().ordinal())
+                .put(new byte[3])
+                .putInt(event.customerID())
+                .putInt(event.carID())
+                .putLong(event.time());
+
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, CHECKSUMMED_SIZE);
+        record.putInt((int) crc.getValue());
+
+        buffer.put(position, record.array());
+    }
+
+    /**
+     * Decodes the record at a position of the file.
+     *
+     * @return the event, or null if the position holds no valid record
+     */
+    private RentalEvent read(int position) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(position, CHECKSUMMED_SIZE));
+
+        long sequence = buffer.getLong(position);
+        int type = buffer.get(position + Long.BYTES);
+
+        if (sequence <= 0 || type < 0 || type >= RentalEvent.Type.values().length
+                || (int) crc.getValue() != buffer.getInt(position + CHECKSUMMED_SIZE)) {
+            return null;
+        }
+
+        return new RentalEvent(sequence, RentalEvent.Type.values()[type], buffer.getInt(position + 12),
+                buffer.getInt(position + 16), buffer.getLong(position + 20));
+    }
+}
@@ -0,0 +1,357 @@
+package carsharing.dao;
+
+import carsharing.metrics.Metrics;
+import carsharing.metrics.Timer;
+import carsharing.model.Page;
+import carsharing.model.RentalPeriod;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * The RentalTable class provides methods for interacting with the RENTAL table, the history of every rental.
+ * A row is inserted when a car is rented and gets its end time when the car is returned, in the same
+ * transaction as the change to the CUSTOMER table. Open rentals have no end time.
+ * <p>
+ * Both writes go through an index, so rent and return cost the same however long the history is:
+ * IDX_RENTAL_CAR (CAR_ID, ENDED_AT, STARTED_AT) finds the open rental of a car, and IDX_RENTAL_CUSTOMER
+ * (CUSTOMER_ID, STARTED_AT) serves the history of a customer. STARTED_AT in IDX_RENTAL_CAR lets the per-car
+ * statistics of the fleet report read the index alone. Finished rentals can be moved to one
+ * archive table per year, RENTAL_ARCHIVE_&lt;year&gt;, to keep the live table small.
+ */
+public class RentalTable {
+    private static final String ARCHIVE_PREFIX = "RENTAL_ARCHIVE_";
+
+    private static final Timer FIND_BY_CUSTOMER_TIMER = Metrics.timer("RentalTable.findByCustomer");
+    private static final Timer FIND_OPEN_BY_CAR_TIMER = Metrics.timer("RentalTable.findOpenByCar");
+    private static final Timer ARCHIVE_TIMER = Metrics.timer("RentalTable.archive");
+
+    /**
+     * Maps a row selected as ID, CUSTOMER_ID, CAR_ID, STARTED_AT, ENDED_AT.
+     */
+    public static final RowMapper<RentalPeriod> ROW_MAPPER = resultSet -> {
+        Timestamp endedAt = resultSet.getTimestamp(5);
+
+        return new RentalPeriod(resultSet.getLong(1), resultSet.getInt(2), resultSet.getInt(3),
+                resultSet.getTimestamp(4).toLocalDateTime(), endedAt == null ? null : endedAt.toLocalDateTime());
+    };
+
+    /**
+     * Creates the RENTAL table and its indexes in every shard if they don't exist in the database.
+     * The table has no foreign keys: H2 would add an index on CAR_ID alone for one, and the planner then
+     * prefers it to IDX_RENTAL_CAR, so closing a rental would scan the car's whole history.
+     */
+    public static void create() {
+        String sqlQuery = "CREATE TABLE IF NOT EXISTS RENTAL " +
+                "(ID BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY, " +
+                "CUSTOMER_ID INT NOT NULL, " +
+                "CAR_ID INT NOT NULL, " +
+                "STARTED_AT TIMESTAMP NOT NULL, " +
+                "ENDED_AT TIMESTAMP DEFAULT NULL" +
+                ")";
+
+        for (int shard = 0; shard < Shards.count(); shard++) {
+            try (Connection connection = H2Database.connect(shard);
+                 Statement statement = connection.createStatement()) {
+
+                statement.executeUpdate(sqlQuery);
+                statement.executeUpdate("CREATE INDEX IF NOT EXISTS IDX_RENTAL_CAR ON RENTAL(CAR_ID, ENDED_AT, STARTED_AT)");
+                statement.executeUpdate("CREATE INDEX IF NOT EXISTS IDX_RENTAL_CUSTOMER ON RENTAL(CUSTOMER_ID, STARTED_AT)");
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Records the start of a rental on the given connection, as part of the caller's transaction.
+     *
+     * @param connection the connection of the rent transaction
+     * @param customerID the ID of the customer
+     * @param carID      the ID of the rented car
+     * @throws SQLException if the row cannot be inserted
+     */
+    static void start(Connection connection, int customerID, int carID) throws SQLException {
+        String sqlQuery = "INSERT INTO RENTAL (CUSTOMER_ID, CAR_ID, STARTED_AT) VALUES (?, ?, LOCALTIMESTAMP)";
+
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery)) {
+            preparedStatement.setInt(1, customerID);
+            preparedStatement.setInt(2, carID);
+            preparedStatement.executeUpdate();
+        }
+    }
+
+    /**
+     * Records the end of the open rental of a car on the given connection, as part of the caller's transaction.
+     *
+     * @param connection the connection of the return transaction
+     * @param carID      the ID of the returned car
+     * @throws SQLException if the row cannot be updated
+     */
+    static void end(Connection connection, int carID) throws SQLException {
+        String sqlQuery = "UPDATE RENTAL SET ENDED_AT = LOCALTIMESTAMP WHERE CAR_ID = ? AND ENDED_AT IS NULL";
+
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery)) {
+            preparedStatement.setInt(1, carID);
+            preparedStatement.executeUpdate();
+        }
+    }
+
+    /**
+     * Inserts rentals on the given connection in one batch, as part of the caller's transaction.
+     * Rentals without an end time are inserted as open.
+     *
+     * @param connection the connection of the transaction
+     * @param rentals    the rentals to insert; their IDs are ignored
+     * @throws SQLException if the rows cannot be inserted
+     */
+    static void insertAll(Connection connection, List<RentalPeriod> rentals) throws SQLException {
+        String sqlQuery = "INSERT INTO RENTAL (CUSTOMER_ID, CAR_ID, STARTED_AT, ENDED_AT) VALUES (?, ?, ?, ?)";
+
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery)) {
+            for (RentalPeriod rental : rentals) {
+                preparedStatement.setInt(1, rental.customerID());
+                preparedStatement.setInt(2, rental.carID());
+                preparedStatement.setTimestamp(3, Timestamp.valueOf(rental.startedAt()));
+                preparedStatement.setTimestamp(4, rental.isOpen() ? null : Timestamp.valueOf(rental.endedAt()));
+                preparedStatement.addBatch();
+            }
+
+            preparedStatement.executeBatch();
+        }
+    }
+
+    /**
+     * Records the end of the open rentals of cars on the given connection in one batch, as part of the caller's
+     * transaction.
+     *
+     * @param connection the connection of the transaction
+     * @param rentals    the rentals to close, identified by car ID, with their end times
+     * @throws SQLException if the rows cannot be updated
+     */
+    static void endAll(Connection connection, List<RentalPeriod> rentals) throws SQLException {
+        String sqlQuery = "UPDATE RENTAL SET ENDED_AT = ? WHERE CAR_ID = ? AND ENDED_AT IS NULL";
+
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery)) {
+            for (RentalPeriod rental : rentals) {
+                preparedStatement.setTimestamp(1, Timestamp.valueOf(rental.endedAt()));
+                preparedStatement.setInt(2, rental.carID());
+                preparedStatement.addBatch();
+            }
+
+            preparedStatement.executeBatch();
+        }
+    }
+
+    /**
+     * Retrieves one page of the rental history of a customer, newest first.
+     * Archived rentals are not included.
+     *
+     * @param customerID the ID of the customer
+     * @param offset     the number of rentals to skip
+     * @param limit      the maximum number of rentals to return
+     * @return the page, empty if the customer has no rentals or the query failed
+     */
+    public static Page<RentalPeriod> findByCustomer(int customerID, int offset, int limit) {
+        long start = System.nanoTime();
+
+        String sqlQuery = "SELECT ID, CUSTOMER_ID, CAR_ID, STARTED_AT, ENDED_AT FROM RENTAL " +
+                "WHERE CUSTOMER_ID = ? ORDER BY STARTED_AT DESC, ID DESC LIMIT ? OFFSET ?";
+
+        try (Connection connection = H2Database.connect(Shards.ofCustomer(customerID));
+             PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery)) {
+
+            // One extra row tells whether there is a next page
+            preparedStatement.setInt(1, customerID);
+            preparedStatement.setInt(2, limit + 1);
+            preparedStatement.setInt(3, offset);
+
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                return RowMapper.page(resultSet, offset, limit, ROW_MAPPER);
+            }
+        } catch (SQLException e) {
+            FIND_BY_CUSTOMER_TIMER.failed(e);
+        } finally {
+            FIND_BY_CUSTOMER_TIMER.stop(start);
+        }
+
+        return new Page<>(List.of(), offset, false);
+    }
+
+    /**
+     * Retrieves the open rental of a car from every shard.
+     *
+     * @param carID the ID of the car
+     * @return the open rental, or null if the car is not rented or the query failed
+     */
+    public static RentalPeriod findOpenByCar(int carID) {
+        long start = System.nanoTime();
+
+        RentalPeriod open = Shards.map(shard -> findOpenByCar(shard, carID)).stream()
+                .filter(Objects::nonNull)
+                .findFirst()
+                .orElse(null);
+
+        FIND_OPEN_BY_CAR_TIMER.stop(start);
+
+        return open;
+    }
+
+    private static RentalPeriod findOpenByCar(int shard, int carID) {
+        String sqlQuery = "SELECT ID, CUSTOMER_ID, CAR_ID, STARTED_AT, ENDED_AT FROM RENTAL " +
+                "WHERE CAR_ID = ? AND ENDED_AT IS NULL";
+
+        try (Connection connection = H2Database.connect(shard);
+             PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery)) {
+
+            preparedStatement.setInt(1, carID);
+
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                if (resultSet.next()) {
+                    return ROW_MAPPER.map(resultSet);
+                }
+            }
+        } catch (SQLException e) {
+            FIND_OPEN_BY_CAR_TIMER.failed(e);
+        }
+
+        return null;
+    }
+
+    /**
+     * Moves every rental that ended before the given day into the archive table of the year it ended in.
+     * Rows are moved in chunks in ID order, one transaction per chunk, so the live table stays usable
+     * while a large history is archived and an interrupted run can simply be started again.
+     *
+     * Every shard archives its own rentals into its own archive tables, all shards at the same time.
+     *
+     * @param before    the first day that is kept in the RENTAL table
+     * @param chunkSize the number of rentals moved per transaction
+     * @return the number of archived rentals per year
+     */
+    public static Map<Integer, Long> archive(LocalDate before, int chunkSize) {
+        long start = System.nanoTime();
+
+        Map<Integer, Long> archived = new TreeMap<>();
+
+        for (Map<Integer, Long> shardArchived : Shards.map(shard -> archive(shard, before, chunkSize))) {
+            shardArchived.forEach((year, rows) -> archived.merge(year, rows, Long::sum));
+        }
+
+        ARCHIVE_TIMER.stop(start);
+
+        return archived;
+    }
+
+    private static Map<Integer, Long> archive(int shard, LocalDate before, int chunkSize) {
+        String sqlSelectQuery = "SELECT ID, CUSTOMER_ID, CAR_ID, STARTED_AT, ENDED_AT FROM RENTAL " +
+                "WHERE ID > ? AND ENDED_AT < ? ORDER BY ID LIMIT ?";
+        String sqlDeleteQuery = "DELETE FROM RENTAL WHERE ID = ?";
+
+        Map<Integer, Long> archived = new TreeMap<>();
+
+        try (Connection connection = H2Database.connect(shard)) {
+            connection.setAutoCommit(false);
+
+            Map<Integer, PreparedStatement> inserts = new HashMap<>();
+
+            try (PreparedStatement select = connection.prepareStatement(sqlSelectQuery);
+                 PreparedStatement delete = connection.prepareStatement(sqlDeleteQuery)) {
+
+                long lastID = 0;
+
+                while (true) {
+                    select.setLong(1, lastID);
+                    select.setTimestamp(2, Timestamp.valueOf(before.atStartOfDay()));
+                    select.setInt(3, chunkSize);
+
+                    int rows = 0;
+
+                    try (ResultSet resultSet = select.executeQuery()) {
+                        while (resultSet.next()) {
+                            RentalPeriod rental = ROW_MAPPER.map(resultSet);
+                            int year = rental.endedAt().getYear();
+
+                            PreparedStatement insert = inserts.get(year);
+
+                            if (insert == null) {
+                                insert = prepareArchive(connection, year);
+                                inserts.put(year, insert);
+                            }
+
+                            insert.setLong(1, rental.id());
+                            insert.setInt(2, rental.customerID());
+                            insert.setInt(3, rental.carID());
+                            insert.setTimestamp(4, Timestamp.valueOf(rental.startedAt()));
+                            insert.setTimestamp(5, Timestamp.valueOf(rental.endedAt()));
+                            insert.addBatch();
+
+                            delete.setLong(1, rental.id());
+                            delete.addBatch();
+
+                            archived.merge(year, 1L, Long::sum);
+                            lastID = rental.id();
+                            rows++;
+                        }
+                    }
+
+                    if (rows == 0) {
+                        break;
+                    }
+
+                    for (PreparedStatement insert : inserts.values()) {
+                        insert.executeBatch();
+                    }
+
+                    delete.executeBatch();
+                    connection.commit();
+                }
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                for (PreparedStatement insert : inserts.values()) {
+                    insert.close();
+                }
+            }
+        } catch (SQLException e) {
+            ARCHIVE_TIMER.failed(e);
+        }
+
+        return archived;
+    }
+
+    /**
+     * Creates the archive table of a year if needed and prepares the insert into it.
+     * H2 commits DDL implicitly, so this is only called between chunks, before any row of a chunk is written.
+     * Archive tables have no foreign keys, so archived rentals never block changes to the live tables.
+     */
+    private static PreparedStatement prepareArchive(Connection connection, int year) throws SQLException {
+        String table = ARCHIVE_PREFIX + year;
+
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS " + table + " " +
+                    "(ID BIGINT PRIMARY KEY, " +
+                    "CUSTOMER_ID INT NOT NULL, " +
+                    "CAR_ID INT NOT NULL, " +
+                    "STARTED_AT TIMESTAMP NOT NULL, " +
+                    "ENDED_AT TIMESTAMP NOT NULL" +
+                    ")");
+            statement.executeUpdate("CREATE INDEX IF NOT EXISTS IDX_" + table + "_CUSTOMER ON " + table +
+                    "(CUSTOMER_ID, STARTED_AT)");
+        }
+
+        return connection.prepareStatement("INSERT INTO " + table +
+                " (ID, CUSTOMER_ID, CAR_ID, STARTED_AT, ENDED_AT) VALUES (?, ?, ?, ?, ?)");
+    }
+}
@@ -0,0 +1,78 @@
+package carsharing.dao;
+
+import carsharing.model.Page;
+import carsharing.model.PageCursor;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+/**
+ * The RowMapper interface turns the current row of a result set into a record.
+ * Mappers read columns by position, so a query's select list must match the mapper it is used with.
+ *
+ * @param <T> the record type
+ */
+@FunctionalInterface
+public interface RowMapper<T> {
+    /**
+     * Maps the current row. Must not move the cursor.
+     *
+     * @param resultSet the result set positioned on a row
+     * @return the record for the row
+     * @throws SQLException if a column cannot be read
+     */
+    T map(ResultSet resultSet) throws SQLException;
+
+    /**
+     * Reads one page from a result set that was queried with {@code LIMIT limit + 1}.
+     * The extra row only tells whether a next page exists and is not mapped.
+     *
+     * @param resultSet the result set of the page query
+     * @param offset    the offset the page was queried with
+     * @param limit     the page size
+     * @param mapper    the mapper for the rows
+     * @param <T>       the record type
+     * @return the page
+     * @throws SQLException if a row cannot be read
+     */
+    static <T> Page<T> page(ResultSet resultSet, int offset, int limit, RowMapper<T> mapper) throws SQLException {
+        List<T> items = new ArrayList<>(Math.min(limit, 128));
+
+        while (resultSet.next()) {
+            if (items.size() == limit) {
+                return new Page<>(items, offset, true);
+            }
+
+            items.add(mapper.map(resultSet));
+        }
+
+        return new Page<>(items, offset, false);
+    }
+
+    /**
+     * Reads one page of a listing ordered by ID from a result set that was queried for a cursor with
+     * {@code LIMIT limit + 1}, in ascending ID order for a forward cursor and descending for a backward one.
+     *
+     * @param resultSet the result set of the page query
+     * @param cursor    the cursor the page was queried for
+     * @param limit     the page size
+     * @param mapper    the mapper for the rows
+     * @param id        returns the ID of a record
+     * @param <T>       the record type
+     * @return the page, in ascending ID order
+     * @throws SQLException if a row cannot be read
+     */
+    static <T> Page<T> page(ResultSet resultSet, PageCursor cursor, int limit, RowMapper<T> mapper,
+                            ToIntFunction<? super T> id) throws SQLException {
+        List<T> rows = new ArrayList<>(Math.min(limit + 1, 128));
+
+        while (resultSet.next()) {
+            rows.add(mapper.map(resultSet));
+        }
+
+        return Page.of(rows, id, cursor, limit);
+    }
+}
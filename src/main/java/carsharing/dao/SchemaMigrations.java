@@ -0,0 +1,157 @@
+package carsharing.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * The SchemaMigrations class upgrades the database schema after the tables have been created.
+ * Applied versions are recorded in the SCHEMA_VERSION table, so each migration runs once per database file.
+ * Every {@link Shards shard} is a database file of its own and is migrated on its own.
+ */
+public class SchemaMigrations {
+    /**
+     * A numbered schema change made of one or more SQL statements.
+     *
+     * @param version     the version the schema has after this migration
+     * @param description a short description of the change
+     * @param statements  the SQL statements to run, in order
+     */
+    private record Migration(int version, String description, String... statements) {
+    }
+
+    private static final List<Migration> MIGRATIONS = List.of(
+            new Migration(1, "Index CAR by company",
+                    "CREATE INDEX IF NOT EXISTS IDX_CAR_COMPANY_ID ON CAR(COMPANY_ID)"),
+            new Migration(2, "Index CUSTOMER by rented car",
+                    "CREATE INDEX IF NOT EXISTS IDX_CUSTOMER_RENTED_CAR_ID ON CUSTOMER(RENTED_CAR_ID)"),
+            new Migration(3, "Allow each car to be rented by one customer only",
+                    "DROP INDEX IF EXISTS IDX_CUSTOMER_RENTED_CAR_ID",
+                    "CREATE UNIQUE INDEX IF NOT EXISTS UQ_CUSTOMER_RENTED_CAR_ID ON CUSTOMER(RENTED_CAR_ID)"),
+            new Migration(4, "Record the current rentals in the RENTAL history",
+                    "INSERT INTO RENTAL (CUSTOMER_ID, CAR_ID, STARTED_AT) " +
+                            "SELECT ID, RENTED_CAR_ID, LOCALTIMESTAMP FROM CUSTOMER cust " +
+                            "WHERE RENTED_CAR_ID IS NOT NULL AND NOT EXISTS " +
+                            "(SELECT 1 FROM RENTAL r WHERE r.CAR_ID = cust.RENTED_CAR_ID AND r.ENDED_AT IS NULL)"),
+            new Migration(5, "Cover the rental ranking of the fleet report with IDX_RENTAL_CAR",
+                    "DROP INDEX IF EXISTS IDX_RENTAL_CAR",
+                    "CREATE INDEX IF NOT EXISTS IDX_RENTAL_CAR ON RENTAL(CAR_ID, ENDED_AT, STARTED_AT)"),
+            new Migration(6, "Record how far the rental journal has been applied",
+                    "CREATE TABLE IF NOT EXISTS JOURNAL_STATE " +
+                            "(ID INT PRIMARY KEY, APPLIED_SEQUENCE BIGINT NOT NULL)",
+                    "MERGE INTO JOURNAL_STATE KEY (ID) VALUES (1, 0)"),
+            new Migration(7, "Record which startup snapshot matches the database",
+                    "CREATE TABLE IF NOT EXISTS SNAPSHOT_STATE (ID INT PRIMARY KEY, TOKEN BIGINT)",
+                    "MERGE INTO SNAPSHOT_STATE KEY (ID) VALUES (1, NULL)"),
+            new Migration(8, "Record which shard of how many shards the database is",
+                    "CREATE TABLE IF NOT EXISTS SHARD_STATE (ID INT PRIMARY KEY, SHARD INT NOT NULL, SHARDS INT NOT NULL)",
+                    "MERGE INTO SHARD_STATE KEY (ID) VALUES (1, 0, 1)"),
+            new Migration(9, "Claim every rented car in the shard it belongs to",
+                    "CREATE TABLE IF NOT EXISTS CAR_CLAIM " +
+                            "(CAR_ID INT PRIMARY KEY, " +
+                            "CUSTOMER_ID INT NOT NULL, " +
+                            "CLAIMED_AT TIMESTAMP WITH TIME ZONE DEFAULT CURRENT_TIMESTAMP NOT NULL, " +
+                            "CONSTRAINT FK_CLAIM_CAR FOREIGN KEY (CAR_ID) REFERENCES CAR(ID))")
+    );
+
+    /**
+     * Creates the SCHEMA_VERSION table if needed and applies every migration newer than the recorded version,
+     * in every shard.
+     * H2 commits DDL implicitly, so every migration statement must be safe to run again.
+     */
+    public static void migrate() {
+        for (int shard = 0; shard < Shards.count(); shard++) {
+            migrate(shard);
+        }
+    }
+
+    private static void migrate(int shard) {
+        String sqlCreateQuery = "CREATE TABLE IF NOT EXISTS SCHEMA_VERSION " +
+                "(VERSION INT PRIMARY KEY, " +
+                "DESCRIPTION VARCHAR NOT NULL, " +
+                "APPLIED_AT TIMESTAMP DEFAULT CURRENT_TIMESTAMP" +
+                ")";
+
+        String sqlInsertQuery = "INSERT INTO SCHEMA_VERSION (VERSION, DESCRIPTION) VALUES (?,?)";
+
+        try (Connection connection = H2Database.connect(shard)) {
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate(sqlCreateQuery);
+            }
+
+            int currentVersion = currentVersion(connection);
+
+            for (Migration migration : MIGRATIONS) {
+                if (migration.version() <= currentVersion) {
+                    continue;
+                }
+
+                connection.setAutoCommit(false);
+
+                try (Statement statement = connection.createStatement();
+                     PreparedStatement preparedStatement = connection.prepareStatement(sqlInsertQuery)) {
+
+                    for (String sql : migration.statements()) {
+                        statement.executeUpdate(sql);
+                    }
+
+                    preparedStatement.setInt(1, migration.version());
+                    preparedStatement.setString(2, migration.description());
+                    preparedStatement.executeUpdate();
+
+                    connection.commit();
+                } catch (SQLException e) {
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(true);
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Checks with a single query per shard if the database already has every table and the latest schema version,
+     * so startup can skip creating tables and migrating.
+     *
+     * @return true if the schema of every shard is up to date, false if one is missing, older, or could not be read
+     */
+    public static boolean isCurrent() {
+        for (int shard = 0; shard < Shards.count(); shard++) {
+            try (Connection connection = H2Database.connect(shard)) {
+                if (currentVersion(connection) < latestVersion()) {
+                    return false;
+                }
+            } catch (SQLException e) {
+                // A new database has no SCHEMA_VERSION table yet
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the latest schema version known to this build.
+     *
+     * @return the target schema version
+     */
+    public static int latestVersion() {
+        return MIGRATIONS.get(MIGRATIONS.size() - 1).version();
+    }
+
+    private static int currentVersion(Connection connection) throws SQLException {
+        String sqlQuery = "SELECT COALESCE(MAX(VERSION), 0) FROM SCHEMA_VERSION";
+
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery);
+             ResultSet resultSet = preparedStatement.executeQuery()) {
+
+            return resultSet.next() ? resultSet.getInt(1) : 0;
+        }
+    }
+}
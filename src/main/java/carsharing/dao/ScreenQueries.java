@@ -0,0 +1,91 @@
+package carsharing.dao;
+
+import carsharing.metrics.Metrics;
+import carsharing.metrics.Timer;
+import carsharing.model.Company;
+import carsharing.model.CompanyAvailability;
+import carsharing.model.Customer;
+import carsharing.model.Page;
+import carsharing.model.PageCursor;
+import carsharing.model.RentScreen;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * The ScreenQueries class loads everything a menu screen needs in a single query,
+ * where the table classes would take one query per piece.
+ * Every shard holds all companies, so a screen is read from the shard of its customer.
+ */
+public class ScreenQueries {
+    private static final Timer FIND_RENT_SCREEN_TIMER = Metrics.timer("ScreenQueries.findRentScreen");
+
+    /**
+     * Retrieves a customer together with one page of companies, ordered by ID.
+     * The available car count of each company comes from the given function, so it can be served from memory.
+     *
+     * @param customerID    the ID of the customer
+     * @param cursor        the page of companies to read
+     * @param limit         the maximum number of companies to return
+     * @param availableCars maps a company ID to its number of available cars
+     * @return the screen, or null if there is no such customer or the query failed
+     */
+    public static RentScreen findRentScreen(int customerID, PageCursor cursor, int limit,
+                                            IntUnaryOperator availableCars) {
+        long start = System.nanoTime();
+
+        // The derived table pages the companies by key; LEFT JOIN keeps the customer row when there are none
+        String sqlQuery = cursor.isBackward()
+                ? "SELECT cust.ID, cust.NAME, cust.RENTED_CAR_ID, comp.ID, comp.NAME " +
+                "FROM CUSTOMER cust " +
+                "LEFT JOIN (SELECT ID, NAME FROM COMPANY WHERE ID < ? ORDER BY ID DESC LIMIT ?) comp ON TRUE " +
+                "WHERE cust.ID = ? " +
+                "ORDER BY comp.ID DESC"
+                : "SELECT cust.ID, cust.NAME, cust.RENTED_CAR_ID, comp.ID, comp.NAME " +
+                "FROM CUSTOMER cust " +
+                "LEFT JOIN (SELECT ID, NAME FROM COMPANY WHERE ID > ? ORDER BY ID LIMIT ?) comp ON TRUE " +
+                "WHERE cust.ID = ? " +
+                "ORDER BY comp.ID";
+
+        try (Connection connection = H2Database.connect(Shards.ofCustomer(customerID));
+             PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery)) {
+
+            // One extra row tells whether there is another page in the direction of reading
+            preparedStatement.setInt(1, cursor.boundID());
+            preparedStatement.setInt(2, limit + 1);
+            preparedStatement.setInt(3, customerID);
+
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                if (!resultSet.next()) {
+                    return null;
+                }
+
+                Customer customer = CustomerTable.ROW_MAPPER.map(resultSet);
+                List<CompanyAvailability> companies = new ArrayList<>(Math.min(limit + 1, 128));
+
+                if (resultSet.getInt(4) != 0) {
+                    do {
+                        int companyID = resultSet.getInt(4);
+
+                        companies.add(new CompanyAvailability(new Company(companyID, resultSet.getString(5)),
+                                availableCars.applyAsInt(companyID)));
+                    } while (resultSet.next());
+                }
+
+                return new RentScreen(customer,
+                        Page.of(companies, company -> company.company().id(), cursor, limit));
+            }
+        } catch (SQLException e) {
+            FIND_RENT_SCREEN_TIMER.failed(e);
+        } finally {
+            FIND_RENT_SCREEN_TIMER.stop(start);
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,332 @@
+package carsharing.dao;
+
+import carsharing.metrics.Metrics;
+import carsharing.metrics.Timer;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.IntFunction;
+
+/**
+ * The Shards class spreads the customers over several H2 database files, so the rents and returns of different
+ * customers are written to different databases, each with its own locks, commits and files.
+ * <p>
+ * Every shard holds the whole schema. A customer lives in one shard together with its rental history, so the
+ * joins and constraints between CUSTOMER, RENTAL and CAR stay inside that shard. COMPANY and CAR rows are added
+ * to shard 0 and copied to the other shards with the same IDs, and {@link #open()} copies any row a shard missed.
+ * Customer IDs are interleaved: shard {@code k} of {@code n} hands out {@code k + 1}, {@code k + 1 + n}, ... so the
+ * shard of a customer follows from its ID. A new customer goes to the shard picked by its name, so two customers
+ * with the same name always meet the unique index of the same shard.
+ * <p>
+ * The unique index on CUSTOMER.RENTED_CAR_ID only keeps a car from being rented twice within one shard. Across
+ * shards every car also belongs to one shard by its ID, and a rent claims the car in the {@link CarClaimTable} of
+ * that shard before it is written to the customer's shard, so the database guards every car whichever process
+ * rents it. Listings and counts over all customers query every shard in parallel and merge the results.
+ * <p>
+ * The number of shards is set with {@code carsharing.db.shards} and recorded in the SHARD_STATE table of every
+ * shard. A database that has customers can only be opened with the number of shards it was created with.
+ */
+public class Shards {
+    private static final Timer OPEN_TIMER = Metrics.timer("Shards.open");
+    private static final Timer REPLICATE_TIMER = Metrics.timer("Shards.replicate");
+
+    // Queries the shards after the first one, which the calling thread queries itself
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "shard-query");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Returns the number of shards of the open database.
+     *
+     * @return the number of shards, 1 if the database is not sharded
+     */
+    public static int count() {
+        return H2Database.getShardCount();
+    }
+
+    /**
+     * Returns the shard a customer lives in.
+     *
+     * @param customerID the ID of the customer
+     * @return the number of the shard, from 0
+     */
+    public static int ofCustomer(int customerID) {
+        return customerID > 0 ? (customerID - 1) % count() : 0;
+    }
+
+    /**
+     * Returns the shard whose CAR_CLAIM table guards a car.
+     *
+     * @param carID the ID of the car
+     * @return the number of the shard, from 0
+     */
+    public static int ofCar(int carID) {
+        return carID > 0 ? (carID - 1) % count() : 0;
+    }
+
+    /**
+     * Returns the shard a new customer with the given name is added to.
+     * Names are folded one character at a time like VARCHAR_IGNORECASE compares them, so names that only
+     * differ in case go to the same shard.
+     *
+     * @param name the name of the customer
+     * @return the number of the shard, from 0
+     */
+    static int ofName(String name) {
+        int hash = 0;
+
+        for (int i = 0; i < name.length(); i++) {
+            hash = 31 * hash + Character.toLowerCase(Character.toUpperCase(name.charAt(i)));
+        }
+
+        return Math.floorMod(hash, count());
+    }
+
+    /**
+     * Runs a function for every shard at the same time, the calling thread taking shard 0.
+     * With one shard the function just runs on the calling thread.
+     *
+     * @param function the function, given the number of the shard
+     * @param <T>      the result type
+     * @return the results, in shard order
+     */
+    public static <T> List<T> map(IntFunction<T> function) {
+        int count = count();
+
+        if (count == 1) {
+            return Collections.singletonList(function.apply(0));
+        }
+
+        List<CompletableFuture<T>> others = new ArrayList<>(count - 1);
+
+        for (int shard = 1; shard < count; shard++) {
+            int current = shard;
+            others.add(CompletableFuture.supplyAsync(() -> function.apply(current), EXECUTOR));
+        }
+
+        List<T> results = new ArrayList<>(count);
+        results.add(function.apply(0));
+
+        for (CompletableFuture<T> other : others) {
+            results.add(other.join());
+        }
+
+        return results;
+    }
+
+    /**
+     * Checks that every shard was laid out for the current number of shards, lays out the shards that have no
+     * customers yet, copies the COMPANY and CAR rows that a shard is missing from shard 0, and makes the car
+     * claims match the rented cars.
+     * Called once the schema of every shard is up to date.
+     *
+     * @throws IllegalStateException if a shard with customers was laid out for another number of shards
+     */
+    public static void open() {
+        long start = System.nanoTime();
+
+        int count = count();
+
+        try {
+            boolean[] laidOut = new boolean[count];
+
+            // Every shard is checked before any is changed, so a wrong number of shards leaves the files as they were
+            for (int shard = 0; shard < count; shard++) {
+                laidOut[shard] = checkLayout(shard, count);
+            }
+
+            for (int shard = 0; shard < count; shard++) {
+                if (!laidOut[shard]) {
+                    layOut(shard, count);
+                }
+            }
+
+            copyCatalogs();
+        } catch (SQLException e) {
+            OPEN_TIMER.failed(e);
+        } finally {
+            OPEN_TIMER.stop(start);
+        }
+
+        CarClaimTable.repair();
+    }
+
+    /**
+     * Copies the COMPANY and CAR rows that a shard is missing from shard 0, as after a bulk import into shard 0.
+     *
+     * @throws SQLException if a shard cannot be read or written
+     */
+    static void copyCatalogs() throws SQLException {
+        for (int shard = 1; shard < count(); shard++) {
+            copyCatalog(shard, "COMPANY", "ID, NAME");
+            copyCatalog(shard, "CAR", "ID, NAME, COMPANY_ID");
+        }
+    }
+
+    /**
+     * Writes a COMPANY or CAR row that was just added to shard 0 to every other shard.
+     * A shard the row cannot be written to gets it from {@link #open()} the next time the database is opened.
+     *
+     * @param sqlQuery the MERGE statement keyed by ID, with the ID as its first parameter, so a row that another
+     *                 process copied already is not an error
+     * @param values   the values of the parameters
+     */
+    static void replicate(String sqlQuery, Object... values) {
+        if (count() == 1) {
+            return;
+        }
+
+        long start = System.nanoTime();
+
+        map(shard -> {
+            if (shard == 0) {
+                return null;
+            }
+
+            try (Connection connection = H2Database.connect(shard);
+                 PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery)) {
+
+                for (int i = 0; i < values.length; i++) {
+                    preparedStatement.setObject(i + 1, values[i]);
+                }
+
+                preparedStatement.executeUpdate();
+            } catch (SQLException e) {
+                REPLICATE_TIMER.failed(e);
+            }
+
+            return null;
+        });
+
+        REPLICATE_TIMER.stop(start);
+    }
+
+    /**
+     * Checks the layout recorded in a shard.
+     *
+     * @return true if the shard is laid out for this number of shards, false if it has no customers and must be
+     * laid out again
+     */
+    private static boolean checkLayout(int shard, int count) throws SQLException {
+        String sqlQuery = "SELECT SHARD, SHARDS, EXISTS (SELECT 1 FROM CUSTOMER) FROM SHARD_STATE WHERE ID = 1";
+
+        try (Connection connection = H2Database.connect(shard);
+             PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery);
+             ResultSet resultSet = preparedStatement.executeQuery()) {
+
+            if (!resultSet.next()) {
+                throw new SQLException("SHARD_STATE of shard " + shard + " is empty");
+            }
+
+            if (resultSet.getInt(1) == shard && resultSet.getInt(2) == count) {
+                return true;
+            }
+
+            if (resultSet.getBoolean(3)) {
+                throw new IllegalStateException("Shard " + shard + " has customers placed as shard " +
+                        resultSet.getInt(1) + " of " + resultSet.getInt(2) + " and cannot be opened as shard " +
+                        shard + " of " + count + "; set carsharing.db.shards=" + resultSet.getInt(2));
+            }
+
+            return false;
+        }
+    }
+
+    /**
+     * Makes an empty CUSTOMER table of a shard hand out the IDs of that shard, and records the layout.
+     */
+    private static void layOut(int shard, int count) throws SQLException {
+        try (Connection connection = H2Database.connect(shard);
+             Statement statement = connection.createStatement()) {
+
+            statement.executeUpdate("ALTER TABLE CUSTOMER ALTER COLUMN ID SET INCREMENT BY " + count);
+            statement.executeUpdate("ALTER TABLE CUSTOMER ALTER COLUMN ID RESTART WITH " + (shard + 1));
+            statement.executeUpdate("UPDATE SHARD_STATE SET SHARD = " + shard + ", SHARDS = " + count + " WHERE ID = 1");
+        }
+    }
+
+    /**
+     * Copies the rows of a catalog table that a shard is missing from shard 0. Rows are only ever added, so equal
+     * row counts mean the shard has every row and nothing else is read. The rows are merged by ID, so a row copied
+     * at the same time by {@link #replicate(String, Object...)} is not an error.
+     */
+    private static void copyCatalog(int shard, String table, String columns) throws SQLException {
+        String sqlCountQuery = "SELECT COUNT(*) FROM " + table;
+        String sqlIDQuery = "SELECT ID FROM " + table;
+        String sqlSelectQuery = "SELECT " + columns + " FROM " + table + " ORDER BY ID";
+        String sqlInsertQuery = "MERGE INTO " + table + " (" + columns + ") KEY (ID) VALUES (" +
+                "?,".repeat(columns.split(",").length - 1) + "?)";
+
+        try (Connection source = H2Database.connect();
+             Connection target = H2Database.connect(shard)) {
+
+            if (count(source, sqlCountQuery) == count(target, sqlCountQuery)) {
+                return;
+            }
+
+            BitSet present = new BitSet();
+
+            try (PreparedStatement preparedStatement = target.prepareStatement(sqlIDQuery);
+                 ResultSet resultSet = preparedStatement.executeQuery()) {
+
+                while (resultSet.next()) {
+                    present.set(resultSet.getInt(1));
+                }
+            }
+
+            target.setAutoCommit(false);
+
+            try (PreparedStatement select = source.prepareStatement(sqlSelectQuery);
+                 PreparedStatement insert = target.prepareStatement(sqlInsertQuery);
+                 ResultSet resultSet = select.executeQuery()) {
+
+                int columnCount = resultSet.getMetaData().getColumnCount();
+                int pending = 0;
+
+                while (resultSet.next()) {
+                    if (present.get(resultSet.getInt(1))) {
+                        continue;
+                    }
+
+                    for (int column = 1; column <= columnCount; column++) {
+                        insert.setObject(column, resultSet.getObject(column));
+                    }
+
+                    insert.addBatch();
+
+                    if (++pending % 5_000 == 0) {
+                        insert.executeBatch();
+                    }
+                }
+
+                insert.executeBatch();
+                target.commit();
+            } catch (SQLException e) {
+                target.rollback();
+                throw e;
+            } finally {
+                target.setAutoCommit(true);
+            }
+        }
+    }
+
+    private static long count(Connection connection, String sqlQuery) throws SQLException {
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery);
+             ResultSet resultSet = preparedStatement.executeQuery()) {
+
+            return resultSet.next() ? resultSet.getLong(1) : 0;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package carsharing.dao;
+
+import carsharing.metrics.Metrics;
+import carsharing.metrics.Timer;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * The SnapshotTable class provides methods for the SNAPSHOT_STATE table, which holds the token of the startup
+ * snapshot written at the last clean shutdown. A snapshot file is only trusted if it carries the same token.
+ * The token is cleared again when the database is opened, so a run that ends without writing a new snapshot,
+ * such as a crash, leaves no token behind and the old snapshot file is ignored.
+ */
+public class SnapshotTable {
+    private static final Timer TAKE_TOKEN_TIMER = Metrics.timer("SnapshotTable.takeToken");
+    private static final Timer SAVE_TOKEN_TIMER = Metrics.timer("SnapshotTable.saveToken");
+
+    /**
+     * Reads the snapshot token and clears it in the same transaction.
+     *
+     * @return the token, or 0 if there was none or it could not be read
+     */
+    public static long takeToken() {
+        long start = System.nanoTime();
+
+        String sqlSelectQuery = "SELECT COALESCE(TOKEN, 0) FROM SNAPSHOT_STATE WHERE ID = 1 FOR UPDATE";
+        String sqlClearQuery = "UPDATE SNAPSHOT_STATE SET TOKEN = NULL WHERE ID = 1";
+
+        try (Connection connection = H2Database.connect()) {
+            connection.setAutoCommit(false);
+
+            try (PreparedStatement selectStatement = connection.prepareStatement(sqlSelectQuery);
+                 PreparedStatement clearStatement = connection.prepareStatement(sqlClearQuery);
+                 ResultSet resultSet = selectStatement.executeQuery()) {
+
+                long token = resultSet.next() ? resultSet.getLong(1) : 0;
+
+                if (token != 0) {
+                    clearStatement.executeUpdate();
+                }
+
+                connection.commit();
+
+                return token;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            TAKE_TOKEN_TIMER.failed(e);
+        } finally {
+            TAKE_TOKEN_TIMER.stop(start);
+        }
+
+        return 0;
+    }
+
+    /**
+     * Stores the token of a snapshot that was just written.
+     *
+     * @param token the token, not 0
+     * @return true if the token was stored
+     */
+    public static boolean saveToken(long token) {
+        long start = System.nanoTime();
+
+        String sqlQuery = "UPDATE SNAPSHOT_STATE SET TOKEN = ? WHERE ID = 1";
+
+        try (Connection connection = H2Database.connect();
+             PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery)) {
+
+            preparedStatement.setLong(1, token);
+
+            return preparedStatement.executeUpdate() == 1;
+        } catch (SQLException e) {
+            SAVE_TOKEN_TIMER.failed(e);
+        } finally {
+            SAVE_TOKEN_TIMER.stop(start);
+        }
+
+        return false;
+    }
+}
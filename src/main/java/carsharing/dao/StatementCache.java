@@ -0,0 +1,258 @@
+package carsharing.dao;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The StatementCache class keeps the prepared statements of one physical connection, keyed by their SQL text.
+ * It evicts the least recently used statement once it holds more than its maximum size.
+ * Closing a statement handed out by the cache keeps it prepared for the next caller, with its parameters, batch,
+ * fetch size, row limit and timeout reset.
+ */
+public class StatementCache {
+    /**
+     * Hit, miss and eviction counters shared by all caches of a pool.
+     */
+    public static final class Counters {
+        final LongAdder hits = new LongAdder();
+        final LongAdder misses = new LongAdder();
+        final LongAdder evictions = new LongAdder();
+
+        /**
+         * Returns the number of prepares served from a cache.
+         *
+         * @return the hit count
+         */
+        public long getHits() {
+            return hits.sum();
+        }
+
+        /**
+         * Returns the number of prepares that had to be parsed by the database.
+         *
+         * @return the miss count
+         */
+        public long getMisses() {
+            return misses.sum();
+        }
+
+        /**
+         * Returns the number of statements closed to make room for newer ones.
+         *
+         * @return the eviction count
+         */
+        public long getEvictions() {
+            return evictions.sum();
+        }
+
+        /**
+         * Returns a one-line summary of the counters.
+         *
+         * @return the counters as text
+         */
+        public String stats() {
+            long hits = getHits();
+            long total = hits + getMisses();
+
+            return String.format("statements[hits=%d, misses=%d, evictions=%d, hitRatio=%.3f]",
+                    hits, getMisses(), getEvictions(), total == 0 ? 0 : (double) hits / total);
+        }
+    }
+
+    /**
+     * A prepared statement held by the cache and whether a caller is currently using it.
+     */
+    private static final class Entry {
+        final PreparedStatement statement;
+        final int defaultFetchSize;
+        boolean inUse;
+        boolean evicted;
+        // Set when a caller changed the fetch size, row limit or timeout, which the next caller must not inherit
+        boolean limitsChanged;
+
+        Entry(PreparedStatement statement) throws SQLException {
+            this.statement = statement;
+            this.defaultFetchSize = statement.getFetchSize();
+        }
+    }
+
+    private final Connection physical;
+    private final Counters counters;
+    private final LinkedHashMap<String, Entry> entries;
+
+    /**
+     * Creates an empty cache for the given physical connection.
+     *
+     * @param physical the connection the statements are prepared on
+     * @param maxSize  the maximum number of statements kept prepared
+     * @param counters the counters to update
+     */
+    public StatementCache(Connection physical, int maxSize, Counters counters) {
+        this.physical = physical;
+        this.counters = counters;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() <= maxSize) {
+                    return false;
+                }
+
+                evict(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Returns a prepared statement for the given SQL, reusing a cached one when it is free.
+     *
+     * @param logical           the pooled connection the caller sees
+     * @param sql               the SQL text
+     * @param autoGeneratedKeys {@link Statement#RETURN_GENERATED_KEYS} or {@link Statement#NO_GENERATED_KEYS}
+     * @return a statement whose close keeps it cached
+     * @throws SQLException if the statement cannot be prepared
+     */
+    public PreparedStatement prepare(Connection logical, String sql, int autoGeneratedKeys) throws SQLException {
+        String key = autoGeneratedKeys == Statement.RETURN_GENERATED_KEYS ? "K:" + sql : sql;
+        Entry entry = entries.get(key);
+
+        if (entry != null && !entry.inUse) {
+            counters.hits.increment();
+        } else {
+            counters.misses.increment();
+            PreparedStatement statement = physical.prepareStatement(sql, autoGeneratedKeys);
+
+            if (entry != null) {
+                // The cached statement is still open in the same borrow, so this one is used once and closed
+                return statement;
+            }
+
+            entry = new Entry(statement);
+            entries.put(key, entry);
+        }
+
+        entry.inUse = true;
+
+        return wrap(logical, entry);
+    }
+
+    /**
+     * Closes every cached statement.
+     */
+    public void close() {
+        List<Entry> all = new ArrayList<>(entries.values());
+        entries.clear();
+
+        for (Entry entry : all) {
+            closeQuietly(entry.statement);
+        }
+    }
+
+    private void evict(Entry entry) {
+        counters.evictions.increment();
+        entry.evicted = true;
+
+        if (!entry.inUse) {
+            closeQuietly(entry.statement);
+        }
+    }
+
+    private void giveBack(Entry entry) throws SQLException {
+        entry.inUse = false;
+
+        if (entry.evicted || entry.statement.isClosed()) {
+            closeQuietly(entry.statement);
+            return;
+        }
+
+        ResultSet resultSet = entry.statement.getResultSet();
+
+        if (resultSet != null) {
+            resultSet.close();
+        }
+
+        entry.statement.clearParameters();
+        entry.statement.clearBatch();
+
+        if (entry.limitsChanged) {
+            entry.limitsChanged = false;
+            entry.statement.setFetchSize(entry.defaultFetchSize);
+            entry.statement.setMaxRows(0);
+            entry.statement.setQueryTimeout(0);
+        }
+    }
+
+    private static void closeQuietly(Statement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Wraps a cached statement so that closing it hands it back to the cache.
+     */
+    private PreparedStatement wrap(Connection logical, Entry entry) {
+        InvocationHandler handler = new InvocationHandler() {
+            private boolean closed;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "close" -> {
+                        if (!closed) {
+                            closed = true;
+                            giveBack(entry);
+                        }
+                        return null;
+                    }
+                    case "isClosed" -> {
+                        return closed || entry.statement.isClosed();
+                    }
+                    case "getConnection" -> {
+                        return logical;
+                    }
+                    case "equals" -> {
+                        return proxy == args[0];
+                    }
+                    case "hashCode" -> {
+                        return System.identityHashCode(proxy);
+                    }
+                    case "toString" -> {
+                        return "Cached" + entry.statement;
+                    }
+                }
+
+                if (closed) {
+                    throw new SQLException("Statement is closed");
+                }
+
+                switch (method.getName()) {
+                    case "setFetchSize", "setMaxRows", "setLargeMaxRows", "setQueryTimeout" -> entry.limitsChanged = true;
+                }
+
+                try {
+                    return method.invoke(entry.statement, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+        };
+
+        return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, handler);
+    }
+}
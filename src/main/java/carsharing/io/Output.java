@@ -0,0 +1,81 @@
+package carsharing.io;
+
+import java.io.PrintStream;
+
+/**
+ * The Output class renders a listing into a single buffer and writes it out in one call.
+ * Listings with thousands of rows then cost one write instead of one synchronized println per row.
+ * The page size used by paginated listings can be set with the carsharing.pageSize system property.
+ */
+public class Output {
+    /**
+     * The number of rows shown per page in paginated listings.
+     */
+    public static final int PAGE_SIZE = Integer.getInteger("carsharing.pageSize", 100);
+
+    private final StringBuilder buffer = new StringBuilder(1024);
+
+    /**
+     * Appends a line of text.
+     *
+     * @param line the text to append
+     * @return this output
+     */
+    public Output line(String line) {
+        buffer.append(line).append('\n');
+        return this;
+    }
+
+    /**
+     * Appends an empty line.
+     *
+     * @return this output
+     */
+    public Output line() {
+        buffer.append('\n');
+        return this;
+    }
+
+    /**
+     * Appends a numbered menu item such as "1. Audi".
+     *
+     * @param number the item number
+     * @param text   the item text
+     * @return this output
+     */
+    public Output item(int number, String text) {
+        buffer.append(number).append(". ").append(text).append('\n');
+        return this;
+    }
+
+    /**
+     * Appends the options for moving between pages, if there is more than one page.
+     *
+     * @param hasPrevious true if a previous page exists
+     * @param hasNext     true if a next page exists
+     * @return this output
+     */
+    public Output pageOptions(boolean hasPrevious, boolean hasNext) {
+        if (hasNext) {
+            line("n. Next page");
+        }
+
+        if (hasPrevious) {
+            line("p. Previous page");
+        }
+
+        return this;
+    }
+
+    /**
+     * Writes the buffered text to {@link System#out} in one call, flushes it and clears the buffer.
+     */
+    public void flush() {
+        PrintStream out = System.out;
+
+        out.append(buffer);
+        out.flush();
+
+        buffer.setLength(0);
+    }
+}
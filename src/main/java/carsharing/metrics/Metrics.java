@@ -0,0 +1,143 @@
+package carsharing.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The Metrics class is the registry of the timers and counters of the application.
+ * Metrics are created on first use and kept for the life of the process; callers keep the returned
+ * timer or counter in a static field, so recording never looks up the registry.
+ * The registry can be dumped as a text report, and with the carsharing.metrics.jmx system property set to true
+ * every metric is also registered in the platform MBean server under the "carsharing" domain.
+ */
+public class Metrics {
+    private static final String DOMAIN = "carsharing";
+
+    private static final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private static final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    private static volatile boolean jmxEnabled;
+
+    static {
+        if (Boolean.getBoolean("carsharing.metrics.jmx")) {
+            enableJmx();
+        }
+    }
+
+    /**
+     * Returns the timer with the given name, creating it if needed.
+     *
+     * @param name the name of the timed operation, such as "CarTable.add"
+     * @return the timer
+     */
+    public static Timer timer(String name) {
+        return timers.computeIfAbsent(name, key -> {
+            Timer timer = new Timer(key);
+
+            if (jmxEnabled) {
+                register("Timer", key, timer);
+            }
+
+            return timer;
+        });
+    }
+
+    /**
+     * Returns the counter with the given name, creating it if needed.
+     *
+     * @param name the name of the counter, such as "CustomerTable.addCarToCustomer.retries"
+     * @return the counter
+     */
+    public static LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, key -> new LongAdder());
+    }
+
+    /**
+     * Registers the registry and every timer in the platform MBean server.
+     * Timers created later are registered as they are created.
+     */
+    public static synchronized void enableJmx() {
+        if (jmxEnabled) {
+            return;
+        }
+
+        jmxEnabled = true;
+
+        register("Metrics", "registry", new MetricsMXBean() {
+            @Override
+            public String getReport() {
+                return report();
+            }
+
+            @Override
+            public void reset() {
+                Metrics.reset();
+            }
+        });
+
+        timers.forEach((name, timer) -> register("Timer", name, timer));
+    }
+
+    /**
+     * Returns a text report of every timer and counter, ordered by name.
+     * Latencies are in microseconds.
+     *
+     * @return the report
+     */
+    public static String report() {
+        StringBuilder report = new StringBuilder();
+
+        report.append(String.format("%-44s %9s %7s %10s %10s %10s %10s%n",
+                "operation", "count", "errors", "mean (us)", "p50 (us)", "p99 (us)", "max (us)"));
+
+        for (Timer timer : new TreeMap<>(timers).values()) {
+            if (timer.getCount() == 0 && timer.getErrors() == 0) {
+                continue;
+            }
+
+            report.append(String.format("%-44s %9d %7d %10.1f %10.1f %10.1f %10.1f%n",
+                    timer.getName(), timer.getCount(), timer.getErrors(), timer.getMeanMicros(),
+                    timer.getP50Micros(), timer.getP99Micros(), timer.getMaxMicros()));
+        }
+
+        for (Map.Entry<String, LongAdder> counter : new TreeMap<>(counters).entrySet()) {
+            report.append(String.format("%-44s %9d%n", counter.getKey(), counter.getValue().sum()));
+        }
+
+        for (Timer timer : new TreeMap<>(timers).values()) {
+            if (!timer.getLastError().isEmpty()) {
+                report.append("last error of ").append(timer.getName()).append(": ")
+                        .append(timer.getLastError()).append('\n');
+            }
+        }
+
+        return report.toString();
+    }
+
+    /**
+     * Clears every timer and counter.
+     */
+    public static void reset() {
+        timers.values().forEach(Timer::reset);
+        counters.values().forEach(LongAdder::reset);
+    }
+
+    private static void register(String type, String name, Object bean) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(bean, objectName);
+            }
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package carsharing.metrics;
+
+/**
+ * The management interface of the metrics registry, for dumping or clearing every metric from a JMX client.
+ */
+public interface MetricsMXBean {
+    /**
+     * Returns the text report of every timer and counter.
+     *
+     * @return the report
+     */
+    String getReport();
+
+    /**
+     * Clears every timer and counter.
+     */
+    void reset();
+}
@@ -0,0 +1,51 @@
+package carsharing.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The RoundTrips class counts the database work done by each thread: connections borrowed from the pool
+ * and statements prepared on them. Every DAO call borrows one connection and prepares one statement per query,
+ * so the difference between two readings on the same thread is the number of round trips in between.
+ * Totals over all threads are also kept as the "db.connections" and "db.statements" counters.
+ */
+public class RoundTrips {
+    private static final LongAdder CONNECTIONS = Metrics.counter("db.connections");
+    private static final LongAdder STATEMENTS = Metrics.counter("db.statements");
+
+    // [0] connections, [1] statements of the current thread
+    private static final ThreadLocal<long[]> COUNTS = ThreadLocal.withInitial(() -> new long[2]);
+
+    /**
+     * Records a connection borrowed by the current thread.
+     */
+    public static void connectionBorrowed() {
+        COUNTS.get()[0]++;
+        CONNECTIONS.increment();
+    }
+
+    /**
+     * Records a statement prepared by the current thread.
+     */
+    public static void statementPrepared() {
+        COUNTS.get()[1]++;
+        STATEMENTS.increment();
+    }
+
+    /**
+     * Returns the number of connections the current thread has borrowed so far.
+     *
+     * @return the connection count of the current thread
+     */
+    public static long connections() {
+        return COUNTS.get()[0];
+    }
+
+    /**
+     * Returns the number of statements the current thread has prepared so far.
+     *
+     * @return the statement count of the current thread
+     */
+    public static long statements() {
+        return COUNTS.get()[1];
+    }
+}
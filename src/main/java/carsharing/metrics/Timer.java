@@ -0,0 +1,105 @@
+package carsharing.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The Timer class records the latency and the failures of one operation, such as a DAO method or a service call.
+ * A timed call reads the clock once before and once after the operation:
+ * <pre>{@code
+ * long start = System.nanoTime();
+ * try { ... } catch (SQLException e) { TIMER.failed(e); } finally { TIMER.stop(start); }
+ * }</pre>
+ */
+public class Timer implements TimerMXBean {
+    private final String name;
+    private final Histogram histogram = new Histogram();
+    private final LongAdder errors = new LongAdder();
+    private volatile String lastError = "";
+
+    Timer(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the name of the timed operation.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Records the time since the given start.
+     *
+     * @param startNanos the value of {@link System#nanoTime()} when the operation started
+     */
+    public void stop(long startNanos) {
+        histogram.record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Counts a failure of the operation, keeps it as the last error and prints its stack trace.
+     *
+     * @param e the failure
+     */
+    public void failed(Exception e) {
+        errors.increment();
+        lastError = e.toString();
+
+        e.printStackTrace();
+    }
+
+    /**
+     * Returns the latency histogram of the operation, in nanoseconds.
+     *
+     * @return the histogram
+     */
+    public Histogram getHistogram() {
+        return histogram;
+    }
+
+    @Override
+    public long getCount() {
+        return histogram.getCount();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    @Override
+    public String getLastError() {
+        return lastError;
+    }
+
+    @Override
+    public double getMeanMicros() {
+        return histogram.getMean() / 1_000.0;
+    }
+
+    @Override
+    public double getP50Micros() {
+        return histogram.getValueAtPercentile(50) / 1_000.0;
+    }
+
+    @Override
+    public double getP99Micros() {
+        return histogram.getValueAtPercentile(99) / 1_000.0;
+    }
+
+    @Override
+    public double getMaxMicros() {
+        return histogram.getMax() / 1_000.0;
+    }
+
+    /**
+     * Clears the recorded latencies and errors.
+     */
+    public void reset() {
+        histogram.reset();
+        errors.reset();
+        lastError = "";
+    }
+}
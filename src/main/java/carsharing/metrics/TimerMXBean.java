@@ -0,0 +1,55 @@
+package carsharing.metrics;
+
+/**
+ * The management interface of a {@link Timer}, as it is shown in JMX clients such as JConsole.
+ */
+public interface TimerMXBean {
+    /**
+     * Returns the number of timed calls.
+     *
+     * @return the number of calls
+     */
+    long getCount();
+
+    /**
+     * Returns the number of calls that failed.
+     *
+     * @return the number of errors
+     */
+    long getErrors();
+
+    /**
+     * Returns the last error, or an empty string if there was none.
+     *
+     * @return the last error
+     */
+    String getLastError();
+
+    /**
+     * Returns the mean latency.
+     *
+     * @return the mean latency in microseconds
+     */
+    double getMeanMicros();
+
+    /**
+     * Returns the median latency.
+     *
+     * @return the median latency in microseconds
+     */
+    double getP50Micros();
+
+    /**
+     * Returns the 99th percentile latency.
+     *
+     * @return the 99th percentile latency in microseconds
+     */
+    double getP99Micros();
+
+    /**
+     * Returns the highest latency.
+     *
+     * @return the highest latency in microseconds
+     */
+    double getMaxMicros();
+}
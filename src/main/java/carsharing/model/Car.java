@@ -0,0 +1,11 @@
+package carsharing.model;
+
+/**
+ * The Car record is one car of a company's fleet.
+ *
+ * @param id        the ID of the car
+ * @param name      the name of the car
+ * @param companyID the ID of the company owning the car
+ */
+public record Car(int id, String name, int companyID) {
+}
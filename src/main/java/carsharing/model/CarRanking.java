@@ -0,0 +1,12 @@
+package carsharing.model;
+
+/**
+ * The CarRanking record is a car with its rank among the cars of its company, by number of rentals.
+ *
+ * @param rank          the rank of the car within its company, starting at 1
+ * @param car           the car
+ * @param rentals       the number of rentals of the car
+ * @param rentedSeconds the total time the car was rented, in seconds
+ */
+public record CarRanking(int rank, Car car, long rentals, long rentedSeconds) {
+}
@@ -0,0 +1,10 @@
+package carsharing.model;
+
+/**
+ * The Company record is one car sharing company.
+ *
+ * @param id   the ID of the company
+ * @param name the name of the company
+ */
+public record Company(int id, String name) {
+}
@@ -0,0 +1,10 @@
+package carsharing.model;
+
+/**
+ * The CompanyAvailability record is a company with the number of its cars that are not rented.
+ *
+ * @param company       the company
+ * @param availableCars the number of available cars
+ */
+public record CompanyAvailability(Company company, int availableCars) {
+}
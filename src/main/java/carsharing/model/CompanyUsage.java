@@ -0,0 +1,19 @@
+package carsharing.model;
+
+/**
+ * The CompanyUsage record is a company with the size of its fleet and the number of cars rented right now.
+ *
+ * @param company the company
+ * @param cars    the number of cars of the company
+ * @param rented  the number of those cars that are rented
+ */
+public record CompanyUsage(Company company, int cars, int rented) {
+    /**
+     * Returns the number of cars that are not rented.
+     *
+     * @return the number of idle cars
+     */
+    public int idle() {
+        return cars - rented;
+    }
+}
@@ -0,0 +1,19 @@
+package carsharing.model;
+
+/**
+ * The Customer record is one customer with the car they currently rent.
+ *
+ * @param id          the ID of the customer
+ * @param name        the name of the customer
+ * @param rentedCarID the ID of the rented car, or 0 if the customer has no car
+ */
+public record Customer(int id, String name, int rentedCarID) {
+    /**
+     * Checks if the customer currently rents a car.
+     *
+     * @return true if the customer has a car
+     */
+    public boolean hasCar() {
+        return rentedCarID != 0;
+    }
+}
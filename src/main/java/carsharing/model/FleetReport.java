@@ -0,0 +1,71 @@
+package carsharing.model;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * The FleetReport record is the utilization report of every company over a period split into equal windows.
+ * The last window ends with the period and may be shorter than the others.
+ * Per-window values are stored company by company, so the value of company {@code c} in window {@code w}
+ * is at index {@code c * windowCount() + w}, with companies in the order of {@code companies}.
+ *
+ * @param from          the start of the period
+ * @param to            the end of the period
+ * @param window        the length of a window
+ * @param companies     every company with its fleet size and rented cars, ordered by ID
+ * @param rentedSeconds the time cars of each company were rented in each window, in seconds
+ * @param rentals       the number of rentals started in the period, per company
+ * @param topCars       the most rented cars of each company, ordered by company ID and rank
+ */
+public record FleetReport(LocalDateTime from, LocalDateTime to, Duration window, List<CompanyUsage> companies,
+                          long[] rentedSeconds, long[] rentals, List<CarRanking> topCars) {
+    /**
+     * Returns the number of windows in the period.
+     *
+     * @return the number of windows
+     */
+    public int windowCount() {
+        return windowCount(from, to, window);
+    }
+
+    /**
+     * Returns the number of windows a period is split into.
+     *
+     * @param from   the start of the period
+     * @param to     the end of the period
+     * @param window the length of a window
+     * @return the number of windows, at least 1
+     */
+    public static int windowCount(LocalDateTime from, LocalDateTime to, Duration window) {
+        long span = Duration.between(from, to).toSeconds();
+        long length = window.toSeconds();
+
+        return (int) Math.max(1, (span + length - 1) / length);
+    }
+
+    /**
+     * Returns the start of a window.
+     *
+     * @param window the index of the window
+     * @return the time the window starts
+     */
+    public LocalDateTime windowStart(int window) {
+        return from.plus(this.window.multipliedBy(window));
+    }
+
+    /**
+     * Returns the share of the fleet time of a company that its cars were rented during a window.
+     *
+     * @param company the index of the company in {@code companies}
+     * @param window  the index of the window
+     * @return the utilization between 0 and 1, or 0 if the company has no cars
+     */
+    public double utilization(int company, int window) {
+        int cars = companies.get(company).cars();
+        LocalDateTime end = windowStart(window + 1).isBefore(to) ? windowStart(window + 1) : to;
+        long seconds = Duration.between(windowStart(window), end).toSeconds();
+
+        return cars == 0 || seconds <= 0 ? 0 : (double) rentedSeconds[company * windowCount() + window] / (cars * seconds);
+    }
+}
@@ -0,0 +1,135 @@
+package carsharing.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+
+/**
+ * The Page record is one page of a listing, with enough context to offer the next and previous pages.
+ * Items are numbered across pages, so the first item of a page is number {@code offset + 1}.
+ * <p>
+ * Pages of listings ordered by ID also carry the IDs of their items in a primitive array, which maps the
+ * numbers shown on the page to IDs and gives the keys of the {@link PageCursor}s to the neighbouring pages.
+ *
+ * @param items       the items of this page, in listing order
+ * @param ids         the ID of every item, or an empty array for a listing that is not ordered by ID
+ * @param offset      the number of items before this page
+ * @param hasPrevious true if items come before this page
+ * @param hasMore     true if more items follow this page
+ * @param <T>         the item type
+ */
+public record Page<T>(List<T> items, int[] ids, int offset, boolean hasPrevious, boolean hasMore) {
+    /**
+     * Creates a page of a listing that is paged by offset.
+     *
+     * @param items   the items of this page, in listing order
+     * @param offset  the number of items before this page
+     * @param hasMore true if more items follow this page
+     */
+    public Page(List<T> items, int offset, boolean hasMore) {
+        this(items, new int[0], offset, offset > 0, hasMore);
+    }
+
+    /**
+     * Builds a page of a listing ordered by ID from the rows read for a cursor.
+     * The rows are in the order they were read: ascending IDs for a forward cursor and descending IDs for a
+     * backward one. They may hold one row more than the page size, which only tells that another page exists
+     * in the direction of reading.
+     *
+     * @param rows   the rows, at most {@code limit + 1}
+     * @param id     returns the ID of a row
+     * @param cursor the cursor the rows were read for
+     * @param limit  the page size
+     * @param <T>    the item type
+     * @return the page, in ascending ID order
+     */
+    public static <T> Page<T> of(List<T> rows, ToIntFunction<? super T> id, PageCursor cursor, int limit) {
+        boolean extra = rows.size() > limit;
+        List<T> items = new ArrayList<>(extra ? rows.subList(0, limit) : rows);
+
+        if (cursor.isBackward()) {
+            Collections.reverse(items);
+        }
+
+        int[] ids = new int[items.size()];
+
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = id.applyAsInt(items.get(i));
+        }
+
+        // Going back always leaves the page that was shown before behind; the first page starts at number 1
+        return cursor.isBackward()
+                ? new Page<>(items, ids, extra ? cursor.offset() : 0, extra, true)
+                : new Page<>(items, ids, cursor.offset(), cursor.afterID() > 0, extra);
+    }
+
+    /**
+     * Checks if the page has no items.
+     *
+     * @return true if the page is empty
+     */
+    public boolean isEmpty() {
+        return items.isEmpty();
+    }
+
+    /**
+     * Returns the item with the given listing number.
+     *
+     * @param number the number shown next to the item
+     * @return the item, or null if the number is not on this page
+     */
+    public T get(int number) {
+        int index = number - offset - 1;
+
+        return index >= 0 && index < items.size() ? items.get(index) : null;
+    }
+
+    /**
+     * Returns the ID of the item with the given listing number.
+     *
+     * @param number the number shown next to the item
+     * @return the ID, or 0 if the number is not on this page
+     */
+    public int idAt(int number) {
+        int index = number - offset - 1;
+
+        return index >= 0 && index < ids.length ? ids[index] : 0;
+    }
+
+    /**
+     * Returns the cursor to the page after this one.
+     *
+     * @return the cursor starting after the last item of this page
+     */
+    public PageCursor next() {
+        return new PageCursor(ids.length == 0 ? 0 : ids[ids.length - 1], 0, offset + items.size());
+    }
+
+    /**
+     * Returns the cursor to the page before this one.
+     *
+     * @param limit the page size, which every page before the last one has
+     * @return the cursor ending before the first item of this page
+     */
+    public PageCursor previous(int limit) {
+        return ids.length == 0 ? PageCursor.FIRST : new PageCursor(0, ids[0], Math.max(0, offset - limit));
+    }
+
+    /**
+     * Returns the first item on this page that matches a condition.
+     *
+     * @param condition the condition to test
+     * @return the matching item, or null if no item on this page matches
+     */
+    public T find(Predicate<? super T> condition) {
+        for (T item : items) {
+            if (condition.test(item)) {
+                return item;
+            }
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,36 @@
+package carsharing.model;
+
+/**
+ * The PageCursor record asks for one page of a listing ordered by ID, next to a page that was already shown.
+ * The page starts right after a known ID, or ends right before one when going back, so reading it costs the
+ * same however deep into the listing it is, where an offset would skip every row in front of it.
+ * The offset is only carried along to number the items across pages.
+ *
+ * @param afterID  list the IDs greater than this one, 0 to start at the beginning
+ * @param beforeID if not 0, list the IDs right before this one instead, going backwards
+ * @param offset   the number of items in front of the requested page
+ */
+public record PageCursor(int afterID, int beforeID, int offset) {
+    /**
+     * The first page of a listing.
+     */
+    public static final PageCursor FIRST = new PageCursor(0, 0, 0);
+
+    /**
+     * Checks if the page ends before an ID rather than starting after one.
+     *
+     * @return true for a cursor to a previous page
+     */
+    public boolean isBackward() {
+        return beforeID > 0;
+    }
+
+    /**
+     * Returns the ID the page starts after, or ends before when going backwards.
+     *
+     * @return the bounding ID, 0 for the first page
+     */
+    public int boundID() {
+        return isBackward() ? beforeID : afterID;
+    }
+}
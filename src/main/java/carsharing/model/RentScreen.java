@@ -0,0 +1,11 @@
+package carsharing.model;
+
+/**
+ * The RentScreen record is everything the "Rent a car" screen shows: the customer, to tell whether they
+ * already have a car, and one page of companies with their available car counts.
+ *
+ * @param customer  the customer
+ * @param companies the page of companies
+ */
+public record RentScreen(Customer customer, Page<CompanyAvailability> companies) {
+}
@@ -0,0 +1,11 @@
+package carsharing.model;
+
+/**
+ * The Rental record is a customer's current rental: the customer, the rented car and the company owning it.
+ *
+ * @param customer the customer
+ * @param car      the rented car
+ * @param company  the company owning the car
+ */
+public record Rental(Customer customer, Car car, Company company) {
+}
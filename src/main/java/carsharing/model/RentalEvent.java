@@ -0,0 +1,26 @@
+package carsharing.model;
+
+/**
+ * The RentalEvent record is one entry of the rental journal: a car rented or returned by a customer.
+ *
+ * @param sequence   the position of the event in the journal, starting at 1
+ * @param type       whether the car was rented or returned
+ * @param customerID the ID of the customer
+ * @param carID      the ID of the car
+ * @param time       when it happened, in milliseconds since the epoch
+ */
+public record RentalEvent(long sequence, Type type, int customerID, int carID, long time) {
+    /**
+     * What happened to the car.
+     */
+    public enum Type {
+        /**
+         * The customer rented the car.
+         */
+        RENT,
+        /**
+         * The customer returned the car.
+         */
+        RETURN
+    }
+}
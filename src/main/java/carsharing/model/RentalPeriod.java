@@ -0,0 +1,23 @@
+package carsharing.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * The RentalPeriod record is one entry of the rental history: who rented which car, and when.
+ *
+ * @param id         the ID of the rental
+ * @param customerID the ID of the customer
+ * @param carID      the ID of the car
+ * @param startedAt  when the car was rented
+ * @param endedAt    when the car was returned, or null while the rental is open
+ */
+public record RentalPeriod(long id, int customerID, int carID, LocalDateTime startedAt, LocalDateTime endedAt) {
+    /**
+     * Checks if the car has not been returned yet.
+     *
+     * @return true if the rental is open
+     */
+    public boolean isOpen() {
+        return endedAt == null;
+    }
+}
@@ -0,0 +1,18 @@
+package carsharing.model;
+
+/**
+ * The RentalResult record is the outcome of an attempt to rent a car, with the car that was asked for.
+ *
+ * @param status the outcome of the attempt
+ * @param car    the car the customer asked for
+ */
+public record RentalResult(RentalStatus status, Car car) {
+    /**
+     * Checks if the car was rented.
+     *
+     * @return true if the status is {@link RentalStatus#RENTED}
+     */
+    public boolean rented() {
+        return status == RentalStatus.RENTED;
+    }
+}
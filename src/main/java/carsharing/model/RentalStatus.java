@@ -0,0 +1,27 @@
+package carsharing.model;
+
+/**
+ * The RentalStatus enum is the outcome of an attempt to rent a car.
+ */
+public enum RentalStatus {
+    /**
+     * The car was rented.
+     */
+    RENTED,
+    /**
+     * The customer already has a car.
+     */
+    CUSTOMER_HAS_CAR,
+    /**
+     * There is no such customer.
+     */
+    NOT_FOUND,
+    /**
+     * Another customer rented the car first.
+     */
+    CAR_TAKEN,
+    /**
+     * The rental failed with a database error.
+     */
+    FAILED
+}
@@ -0,0 +1,394 @@
+package carsharing.server;
+
+import carsharing.dao.H2Database;
+import carsharing.metrics.Metrics;
+import carsharing.metrics.Timer;
+import carsharing.model.Car;
+import carsharing.model.Company;
+import carsharing.model.CompanyUsage;
+import carsharing.model.RentalPeriod;
+import carsharing.service.CustomerService;
+import carsharing.service.ManagerService;
+import carsharing.service.NameCache;
+import carsharing.service.NameSearch;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The CarSharingServer class serves the customer and manager operations over HTTP, so many customers can
+ * rent and return cars at the same time. It runs on the JDK's built-in HTTP server; every request is handled
+ * on its own virtual thread when the JVM supports them (Java 21 and later), otherwise on a bounded pool of
+ * platform threads sized by the carsharing.server.threads system property. Each DAO call a request makes
+ * borrows a connection from the connection pool.
+ * <p>
+ * Requests and responses are plain text, one record per line with comma-separated fields:
+ * <pre>
+ * GET  /companies                      id,name of every company
+ * POST /companies?name=N               creates a company, returns its id
+ * GET  /companies/{id}/cars            id,name of the available cars of a company, up to 1000
+ * GET  /companies/{id}/cars?after=C    id,name of the available cars of a company that follow car C
+ * POST /companies/{id}/cars?name=N     creates a car, returns its id
+ * GET  /companies/{id}/summary         cars,rented,free counts of a company
+ * POST /customers?name=N               creates a customer, returns its id
+ * GET  /customers/{id}/car             id,name of the rented car, 404 if there is none
+ * GET  /customers/{id}/rentals         id,carId,startedAt,endedAt of the latest rentals, newest first
+ * POST /customers/{id}/rent?car=C      rents a car, 404 if there is no such customer, 409 if the car is taken
+ *                                      or the customer has a car
+ * POST /customers/{id}/return          returns the rented car, 409 if there is none
+ * GET  /search/cars?q=T&mode=M         id,name,companyId of the available cars whose names match T, up to 100
+ * GET  /search/companies?q=T&mode=M    id,name of the companies whose names match T, up to 100
+ * GET  /metrics                        the metrics report
+ * </pre>
+ * The search mode is prefix, substring (the default) or fuzzy, see {@link NameSearch.Mode}.
+ * On SIGINT or SIGTERM the server stops accepting connections, lets running requests finish for up to
+ * carsharing.server.shutdownGraceSeconds seconds and then returns from {@link #serve(int)}.
+ */
+public class CarSharingServer {
+    private static final int PLATFORM_THREADS = Integer.getInteger("carsharing.server.threads", 64);
+    private static final int SHUTDOWN_GRACE_SECONDS = Integer.getInteger("carsharing.server.shutdownGraceSeconds", 5);
+    private static final int MAX_CARS_PER_RESPONSE = 1_000;
+    private static final int MAX_RENTALS_PER_RESPONSE = 100;
+    private static final int MAX_SEARCH_RESULTS = 100;
+
+    private static final Timer REQUEST_TIMER = Metrics.timer("server.request");
+
+    /**
+     * Starts the server on the given port and blocks until the process is asked to stop.
+     * Log lines go to standard error.
+     *
+     * @param port the TCP port to listen on
+     */
+    public static void serve(int port) {
+        // Small responses otherwise wait for delayed ACKs, adding about 40 ms to every request
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+
+        HttpServer server;
+
+        try {
+            server = HttpServer.create(new InetSocketAddress(port), 0);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        ExecutorService executor = newExecutor();
+        CountDownLatch stopped = new CountDownLatch(1);
+        Thread mainThread = Thread.currentThread();
+
+        server.setExecutor(executor);
+        server.createContext("/companies", exchange -> handle(exchange, CarSharingServer::companies));
+        server.createContext("/customers", exchange -> handle(exchange, CarSharingServer::customers));
+        server.createContext("/search", exchange -> handle(exchange, CarSharingServer::search));
+        server.createContext("/metrics", exchange -> handle(exchange, request -> Response.ok(
+                Metrics.report() + "pool: " + H2Database.getPool().stats() + "\n"
+                        + NameCache.stats() + NameSearch.stats())));
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            System.err.println("Stopping the server, waiting up to " + SHUTDOWN_GRACE_SECONDS + " s for running requests");
+
+            server.stop(SHUTDOWN_GRACE_SECONDS);
+            executor.shutdown();
+
+            try {
+                executor.awaitTermination(SHUTDOWN_GRACE_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            stopped.countDown();
+
+            // Let the main thread close the database before the JVM halts
+            try {
+                mainThread.join(TimeUnit.SECONDS.toMillis(SHUTDOWN_GRACE_SECONDS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "carsharing-server-shutdown"));
+
+        server.start();
+        System.err.println("Serving on port " + server.getAddress().getPort() + " with " + describe(executor));
+
+        try {
+            stopped.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Creates a virtual-thread-per-task executor if the JVM has one, otherwise a fixed pool of platform threads.
+     */
+    private static ExecutorService newExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger threads = new AtomicInteger();
+            ThreadFactory factory = task -> {
+                Thread thread = new Thread(task, "carsharing-server-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+
+            return Executors.newFixedThreadPool(PLATFORM_THREADS, factory);
+        }
+    }
+
+    private static String describe(ExecutorService executor) {
+        return executor.getClass().getSimpleName().contains("ThreadPerTask")
+                ? "virtual threads"
+                : PLATFORM_THREADS + " platform threads";
+    }
+
+    /**
+     * A parsed request: the method, the path split into segments and the query parameters.
+     */
+    private record Request(String method, String[] path, Map<String, String> query) {
+        int pathInt(int index) {
+            return index < path.length ? parseInt(path[index]) : -1;
+        }
+
+        int queryInt(String name) {
+            return parseInt(query.getOrDefault(name, ""));
+        }
+
+        private static int parseInt(String value) {
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * A response: the HTTP status and the plain text body.
+     */
+    private record Response(int status, String body) {
+        static Response ok(String body) {
+            return new Response(200, body);
+        }
+
+        static Response created(int id) {
+            return id > 0 ? new Response(201, id + "\n") : new Response(409, "Could not create, the name may be taken\n");
+        }
+
+        static Response error(int status, String message) {
+            return new Response(status, message + "\n");
+        }
+    }
+
+    @FunctionalInterface
+    private interface Handler {
+        Response handle(Request request);
+    }
+
+    private static void handle(HttpExchange exchange, Handler handler) throws IOException {
+        long start = System.nanoTime();
+
+        Response response;
+
+        try {
+            response = handler.handle(parse(exchange));
+        } catch (RuntimeException e) {
+            REQUEST_TIMER.failed(e);
+            response = Response.error(500, "Internal error");
+        }
+
+        byte[] body = response.body().getBytes(StandardCharsets.UTF_8);
+
+        try (exchange) {
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(response.status(), body.length == 0 ? -1 : body.length);
+
+            if (body.length > 0) {
+                exchange.getResponseBody().write(body);
+            }
+        } finally {
+            REQUEST_TIMER.stop(start);
+        }
+    }
+
+    private static Request parse(HttpExchange exchange) {
+        String path = exchange.getRequestURI().getPath();
+        String rawQuery = exchange.getRequestURI().getRawQuery();
+        Map<String, String> query = new HashMap<>();
+
+        if (rawQuery != null) {
+            for (String pair : rawQuery.split("&")) {
+                int equals = pair.indexOf('=');
+
+                if (equals > 0) {
+                    query.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                            URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+                }
+            }
+        }
+
+        return new Request(exchange.getRequestMethod(), path.substring(1).split("/"), query);
+    }
+
+    private static Response companies(Request request) {
+        String[] path = request.path();
+        boolean get = request.method().equals("GET");
+        boolean post = request.method().equals("POST");
+
+        if (path.length == 1 && get) {
+            StringBuilder body = new StringBuilder();
+            ManagerService.forEachCompany((id, name) -> body.append(id).append(',').append(name).append('\n'));
+
+            return Response.ok(body.toString());
+        }
+
+        if (path.length == 1 && post) {
+            String name = request.query().getOrDefault("name", "");
+
+            return name.isBlank() ? Response.error(400, "Missing name") : Response.created(ManagerService.addCompany(name));
+        }
+
+        int companyID = request.pathInt(1);
+
+        if (path.length != 3 || NameCache.companyName(companyID).isEmpty()) {
+            return Response.error(404, "No such company");
+        }
+
+        if (path[2].equals("summary") && get) {
+            CompanyUsage summary = ManagerService.getCompanySummary(companyID);
+
+            return Response.ok(summary.cars() + "," + summary.rented() + "," + summary.idle() + "\n");
+        }
+
+        if (!path[2].equals("cars")) {
+            return Response.error(404, "Not found");
+        }
+
+        if (get) {
+            StringBuilder body = new StringBuilder();
+            CustomerService.forEachAvailableCar(companyID, Math.max(0, request.queryInt("after")), MAX_CARS_PER_RESPONSE,
+                    (id, name) -> body.append(id).append(',').append(name).append('\n'));
+
+            return Response.ok(body.toString());
+        }
+
+        if (post) {
+            String name = request.query().getOrDefault("name", "");
+
+            return name.isBlank() ? Response.error(400, "Missing name") : Response.created(ManagerService.addCar(name, companyID));
+        }
+
+        return Response.error(405, "Method not allowed");
+    }
+
+    private static Response search(Request request) {
+        String[] path = request.path();
+
+        if (path.length != 2 || !request.method().equals("GET")) {
+            return Response.error(404, "Not found");
+        }
+
+        String query = request.query().getOrDefault("q", "");
+        NameSearch.Mode mode;
+
+        try {
+            mode = NameSearch.Mode.valueOf(request.query().getOrDefault("mode", "substring").toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return Response.error(400, "Unknown mode");
+        }
+
+        StringBuilder body = new StringBuilder();
+
+        if (path[1].equals("cars")) {
+            for (Car car : CustomerService.searchAvailableCars(query, mode, MAX_SEARCH_RESULTS)) {
+                body.append(car.id()).append(',').append(car.name()).append(',').append(car.companyID()).append('\n');
+            }
+        } else if (path[1].equals("companies")) {
+            for (Company company : ManagerService.searchCompanies(query, mode, MAX_SEARCH_RESULTS)) {
+                body.append(company.id()).append(',').append(company.name()).append('\n');
+            }
+        } else {
+            return Response.error(404, "Not found");
+        }
+
+        return Response.ok(body.toString());
+    }
+
+    private static Response customers(Request request) {
+        String[] path = request.path();
+        String method = request.method();
+
+        if (path.length == 1 && method.equals("POST")) {
+            String name = request.query().getOrDefault("name", "");
+
+            return name.isBlank() ? Response.error(400, "Missing name") : Response.created(CustomerService.add(name));
+        }
+
+        int customerID = request.pathInt(1);
+
+        if (path.length != 3 || customerID <= 0) {
+            return Response.error(404, "Not found");
+        }
+
+        switch (method + " " + path[2]) {
+            case "GET car" -> {
+                int carID = CustomerService.getRentedCarID(customerID);
+
+                return carID > 0
+                        ? Response.ok(carID + "," + NameCache.carName(carID) + "\n")
+                        : Response.error(404, "No rented car");
+            }
+            case "GET rentals" -> {
+                StringBuilder body = new StringBuilder();
+
+                for (RentalPeriod rental : CustomerService.getRentalHistory(customerID, 0, MAX_RENTALS_PER_RESPONSE).items()) {
+                    body.append(rental.id()).append(',').append(rental.carID()).append(',')
+                            .append(rental.startedAt()).append(',').append(rental.isOpen() ? "" : rental.endedAt())
+                            .append('\n');
+                }
+
+                return Response.ok(body.toString());
+            }
+            case "POST rent" -> {
+                int carID = request.queryInt("car");
+
+                if (carID <= 0 || NameCache.carName(carID).isEmpty()) {
+                    return Response.error(404, "No such car");
+                }
+
+                return switch (CustomerService.tryRentCar(customerID, carID)) {
+                    case RENTED -> Response.ok("Rented " + carID + "\n");
+                    case CUSTOMER_HAS_CAR -> Response.error(409, "The customer already has a car");
+                    case NOT_FOUND -> Response.error(404, "No such customer");
+                    case CAR_TAKEN -> Response.error(409, "The car is taken");
+                    case FAILED -> Response.error(500, "Internal error");
+                };
+            }
+            case "POST return" -> {
+                return switch (Integer.signum(CustomerService.tryReturnCar(customerID))) {
+                    case 1 -> Response.ok("Returned\n");
+                    case 0 -> Response.error(409, "No rented car");
+                    default -> Response.error(500, "Internal error");
+                };
+            }
+            default -> {
+                return Response.error(404, "Not found");
+            }
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package carsharing.service;
+
+import carsharing.dao.ConnectionPool;
+import carsharing.dao.H2Database;
+import carsharing.model.Car;
+import carsharing.model.RentalResult;
+import carsharing.model.RentalStatus;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * The AsyncService class offers the customer and manager operations as non-blocking calls returning
+ * {@link CompletableFuture}s, so callers can fan out lookups and pipeline rentals instead of running them one by one.
+ * Nothing is printed; results are returned as values.
+ * <p>
+ * Operations run on a dedicated executor with one thread per connection of the connection pool, so the executor
+ * alone never asks for more connections than the pool holds. The pool is shared with the server, the rental journal
+ * and the menu, so an operation may still wait for a connection, up to the borrow timeout of the pool.
+ * At most carsharing.async.queuePerThread operations per thread may wait in line (4 by default). Once that many
+ * are queued, callers block until a slot frees up, for at most carsharing.async.submitTimeoutMillis milliseconds
+ * (5000 by default), after which the returned future fails with a {@link RejectedExecutionException}. Callbacks
+ * attached to the futures run on the executor threads and must not block on other futures of this class.
+ */
+public class AsyncService {
+    private static final int QUEUE_PER_THREAD = Integer.getInteger("carsharing.async.queuePerThread", 4);
+    private static final long SUBMIT_TIMEOUT_MILLIS = Long.getLong("carsharing.async.submitTimeoutMillis", 5_000L);
+
+    // The executor and its admission slots, built for the current connection pool
+    private record Lane(ConnectionPool pool, ExecutorService executor, Semaphore slots) {
+    }
+
+    private static Lane lane;
+
+    /**
+     * Rents a car for a customer.
+     *
+     * @param customerID the ID of the customer
+     * @param carID      the ID of the car
+     * @return the outcome of the rental with the car that was asked for
+     */
+    public static CompletableFuture<RentalResult> rentCarAsync(int customerID, int carID) {
+        return submit(() -> {
+            RentalStatus status = CustomerService.tryRentCar(customerID, carID);
+
+            return new RentalResult(status, new Car(carID, NameCache.carName(carID), NameCache.carCompanyID(carID)));
+        });
+    }
+
+    /**
+     * Returns the car rented by a customer.
+     *
+     * @param customerID the ID of the customer
+     * @return the ID of the returned car, 0 if the customer had no car, or -1 if the update failed
+     */
+    public static CompletableFuture<Integer> returnCarAsync(int customerID) {
+        return submit(() -> CustomerService.tryReturnCar(customerID));
+    }
+
+    /**
+     * Lists the cars of a company that are not rented, in ID order.
+     *
+     * @param companyID the ID of the company
+     * @return the available cars
+     */
+    public static CompletableFuture<List<Car>> availableCarsAsync(int companyID) {
+        return submit(() -> {
+            List<Car> cars = new ArrayList<>();
+
+            CustomerService.forEachAvailableCar(companyID, 0, Integer.MAX_VALUE,
+                    (id, name) -> cars.add(new Car(id, name, companyID)));
+
+            return cars;
+        });
+    }
+
+    /**
+     * Looks up the car rented by a customer.
+     *
+     * @param customerID the ID of the customer
+     * @return the rented car, or an empty optional if the customer has no car
+     */
+    public static CompletableFuture<Optional<Car>> rentedCarAsync(int customerID) {
+        return submit(() -> {
+            int carID = CustomerService.getRentedCarID(customerID);
+
+            return carID > 0
+                    ? Optional.of(new Car(carID, NameCache.carName(carID), NameCache.carCompanyID(carID)))
+                    : Optional.empty();
+        });
+    }
+
+    /**
+     * Looks up the name of a company.
+     *
+     * @param companyID the ID of the company
+     * @return the company name, or an empty string if there is no such company
+     */
+    public static CompletableFuture<String> companyNameAsync(int companyID) {
+        return submit(() -> NameCache.companyName(companyID));
+    }
+
+    /**
+     * Adds a company.
+     *
+     * @param name the name of the company
+     * @return the ID of the new company, or 0 if it could not be added
+     */
+    public static CompletableFuture<Integer> addCompanyAsync(String name) {
+        return submit(() -> ManagerService.addCompany(name));
+    }
+
+    /**
+     * Adds a car to a company.
+     *
+     * @param name      the name of the car
+     * @param companyID the ID of the company
+     * @return the ID of the new car, or 0 if it could not be added
+     */
+    public static CompletableFuture<Integer> addCarAsync(String name, int companyID) {
+        return submit(() -> ManagerService.addCar(name, companyID));
+    }
+
+    /**
+     * Adds a customer.
+     *
+     * @param name the name of the customer
+     * @return the ID of the new customer, or 0 if it could not be added
+     */
+    public static CompletableFuture<Integer> addCustomerAsync(String name) {
+        return submit(() -> CustomerService.add(name));
+    }
+
+    /**
+     * Stops the executor after the operations already submitted have finished.
+     */
+    public static synchronized void shutdown() {
+        if (lane != null) {
+            lane.executor().shutdown();
+            lane = null;
+        }
+    }
+
+    private static <T> CompletableFuture<T> submit(Supplier<T> operation) {
+        Lane current = lane();
+
+        try {
+            if (!current.slots().tryAcquire(SUBMIT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                return CompletableFuture.failedFuture(new RejectedExecutionException(
+                        "Timed out after " + SUBMIT_TIMEOUT_MILLIS + " ms waiting to submit an operation"));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(e);
+        }
+
+        try {
+            return CompletableFuture.supplyAsync(operation, current.executor())
+                    .whenComplete((result, failure) -> current.slots().release());
+        } catch (RejectedExecutionException e) {
+            current.slots().release();
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Returns the lane for the current connection pool, replacing the lane of a previous pool.
+     */
+    private static synchronized Lane lane() {
+        ConnectionPool pool = H2Database.getPool();
+
+        if (lane == null || lane.pool() != pool) {
+            if (lane != null) {
+                lane.executor().shutdown();
+            }
+
+            int threads = pool.getMaxSize();
+            AtomicInteger count = new AtomicInteger();
+
+            ExecutorService executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), task -> {
+                        Thread thread = new Thread(task, "carsharing-async-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+
+            lane = new Lane(pool, executor, new Semaphore(threads * (1 + QUEUE_PER_THREAD)));
+        }
+
+        return lane;
+    }
+}
@@ -0,0 +1,347 @@
+package carsharing.service;
+
+import carsharing.dao.CarTable;
+import carsharing.dao.ConnectionPool;
+import carsharing.dao.H2Database;
+import carsharing.model.Car;
+import carsharing.model.Page;
+import carsharing.model.PageCursor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * The AvailabilityIndex class keeps the set of free cars of every company in memory.
+ * Free cars are stored as one bitset per company, keyed by car ID, next to arrays of car names and companies.
+ * The index is built from the database the first time it is used, or restored from the {@link StartupSnapshot},
+ * and is then kept up to date by the rent, return and add-car operations of the service layer, which are the only
+ * writers of these tables.
+ * <p>
+ * The index also maintains the {@link FleetCounters}: they are seeded by every rebuild and updated under the
+ * write lock whenever a car is added or its bit changes, so a rent recorded twice is only counted once.
+ * A rebuild that cannot read every car leaves the index empty and unbuilt, so it is tried again on next use
+ * instead of serving a partial fleet.
+ */
+public class AvailabilityIndex {
+    private static final ReadWriteLock LOCK = new ReentrantReadWriteLock();
+
+    private static final Map<Integer, BitSet> freeCarsByCompany = new HashMap<>();
+    private static String[] carNames = new String[0];
+    private static int[] carCompanies = new int[0];
+
+    // The pool the index was built from, so a new database is indexed again
+    private static ConnectionPool loadedFrom;
+
+    /**
+     * Receives the available cars of a company in ID order.
+     */
+    @FunctionalInterface
+    public interface CarVisitor {
+        /**
+         * Handles one available car.
+         *
+         * @param id   the ID of the car
+         * @param name the name of the car
+         */
+        void accept(int id, String name);
+    }
+
+    /**
+     * Rebuilds the index from the CAR and CUSTOMER tables.
+     */
+    public static void load() {
+        load(CarTable::forEach);
+    }
+
+    /**
+     * Rebuilds the index from another source of cars than the database, such as the startup snapshot.
+     * The source must describe the current state of the database.
+     *
+     * @param cars calls its handler for every car, in any order, and returns false if it could not read them all
+     */
+    static void load(Predicate<CarTable.CarRowHandler> cars) {
+        LOCK.writeLock().lock();
+
+        try {
+            rebuild(cars);
+        } finally {
+            LOCK.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Visits every car of the index in ID order, without building the index if it is missing.
+     *
+     * @param handler the handler called for each car
+     * @return false if the index is not built for the current database, in which case nothing is visited
+     */
+    static boolean forEachCar(CarTable.CarRowHandler handler) {
+        LOCK.readLock().lock();
+
+        try {
+            if (loadedFrom != H2Database.getPool()) {
+                return false;
+            }
+
+            for (int id = 1; id < carNames.length; id++) {
+                if (carNames[id] != null) {
+                    handler.accept(id, carNames[id], carCompanies[id], !freeCarsByCompany.get(carCompanies[id]).get(id));
+                }
+            }
+
+            return true;
+        } finally {
+            LOCK.readLock().unlock();
+        }
+    }
+
+    /**
+     * Visits the available cars of a company in ID order, starting after a given car.
+     * The bitset is entered at that car, so a deep page costs the same as the first one.
+     *
+     * @param companyID the ID of the company
+     * @param afterID   the ID the visited cars follow, 0 to start with the first car
+     * @param limit     the maximum number of cars to visit
+     * @param visitor   the visitor called for each available car
+     * @return true if more available cars follow the visited ones, false otherwise
+     */
+    public static boolean forEachAvailableCar(int companyID, int afterID, int limit, CarVisitor visitor) {
+        readLock();
+
+        try {
+            BitSet free = freeCarsByCompany.get(companyID);
+
+            if (free == null) {
+                return false;
+            }
+
+            for (int id = free.nextSetBit(afterID + 1), visited = 0; id >= 0; id = free.nextSetBit(id + 1)) {
+                if (visited++ == limit) {
+                    return true;
+                }
+
+                visitor.accept(id, carNames[id]);
+            }
+
+            return false;
+        } finally {
+            LOCK.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns one page of the available cars of a company, in ID order.
+     *
+     * @param companyID the ID of the company
+     * @param cursor    the page to read
+     * @param limit     the maximum number of cars to return
+     * @return the page of available cars
+     */
+    public static Page<Car> availableCarPage(int companyID, PageCursor cursor, int limit) {
+        readLock();
+
+        try {
+            BitSet free = freeCarsByCompany.get(companyID);
+            List<Car> rows = new ArrayList<>(Math.min(limit + 1, 128));
+
+            if (free != null && cursor.isBackward()) {
+                for (int id = free.previousSetBit(cursor.beforeID() - 1); id >= 0 && rows.size() <= limit;
+                     id = free.previousSetBit(id - 1)) {
+                    rows.add(new Car(id, carNames[id], companyID));
+                }
+            } else if (free != null) {
+                for (int id = free.nextSetBit(cursor.afterID() + 1); id >= 0 && rows.size() <= limit;
+                     id = free.nextSetBit(id + 1)) {
+                    rows.add(new Car(id, carNames[id], companyID));
+                }
+            }
+
+            return Page.of(rows, Car::id, cursor, limit);
+        } finally {
+            LOCK.readLock().unlock();
+        }
+    }
+
+    /**
+     * Checks if a car is in the index, that is, if there is such a car.
+     *
+     * @param carID the ID of the car
+     * @return true if the car exists
+     */
+    public static boolean contains(int carID) {
+        readLock();
+
+        try {
+            return carID > 0 && carID < carNames.length && carNames[carID] != null;
+        } finally {
+            LOCK.readLock().unlock();
+        }
+    }
+
+    /**
+     * Checks if a car exists and is not rented.
+     *
+     * @param carID the ID of the car
+     * @return true if the car is available
+     */
+    public static boolean isAvailable(int carID) {
+        readLock();
+
+        try {
+            return carID > 0 && carID < carNames.length && carNames[carID] != null
+                    && freeCarsByCompany.get(carCompanies[carID]).get(carID);
+        } finally {
+            LOCK.readLock().unlock();
+        }
+    }
+
+    /**
+     * Records a newly added car as available.
+     *
+     * @param carID     the ID of the car
+     * @param name      the name of the car
+     * @param companyID the ID of the company owning the car
+     */
+    public static void carAdded(int carID, String name, int companyID) {
+        writeLock();
+
+        try {
+            // An index that could not be built reads the car with the next rebuild
+            if (loadedFrom == null) {
+                return;
+            }
+
+            if (carID >= carNames.length || carNames[carID] == null) {
+                FleetCounters.carAdded(companyID);
+            }
+
+            put(carID, name, companyID, false);
+        } finally {
+            LOCK.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Records a car as rented.
+     *
+     * @param carID the ID of the car
+     */
+    public static void carRented(int carID) {
+        setAvailable(carID, false);
+    }
+
+    /**
+     * Records a car as returned and available again.
+     *
+     * @param carID the ID of the car
+     */
+    public static void carReturned(int carID) {
+        setAvailable(carID, true);
+    }
+
+    /**
+     * Builds the index if it is missing or belongs to another database.
+     */
+    static void ensureLoaded() {
+        writeLock();
+        LOCK.writeLock().unlock();
+    }
+
+    private static void setAvailable(int carID, boolean available) {
+        writeLock();
+
+        try {
+            if (loadedFrom != null && carID < carCompanies.length && carNames[carID] != null) {
+                BitSet free = freeCarsByCompany.get(carCompanies[carID]);
+
+                // A rebuild after the database change may already show the new state, which must not count twice
+                if (free.get(carID) != available) {
+                    free.set(carID, available);
+                    FleetCounters.carRented(carCompanies[carID], available ? -1 : 1);
+                }
+            }
+        } finally {
+            LOCK.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Takes the read lock, building the index first if it is missing or belongs to another database.
+     */
+    private static void readLock() {
+        LOCK.readLock().lock();
+
+        if (loadedFrom != H2Database.getPool()) {
+            LOCK.readLock().unlock();
+            writeLock();
+
+            try {
+                LOCK.readLock().lock();
+            } finally {
+                LOCK.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Takes the write lock, building the index first if it is missing or belongs to another database.
+     */
+    private static void writeLock() {
+        LOCK.writeLock().lock();
+
+        if (loadedFrom != H2Database.getPool()) {
+            rebuild(CarTable::forEach);
+        }
+    }
+
+    private static void rebuild(Predicate<CarTable.CarRowHandler> cars) {
+        clear();
+
+        Map<Integer, int[]> counts = new HashMap<>();
+
+        boolean complete = cars.test((id, name, companyID, rented) -> {
+            put(id, name, companyID, rented);
+
+            int[] companyCounts = counts.computeIfAbsent(companyID, company -> new int[2]);
+            companyCounts[0]++;
+            companyCounts[1] += rented ? 1 : 0;
+        });
+
+        if (!complete) {
+            clear();
+            return;
+        }
+
+        loadedFrom = H2Database.getPool();
+        FleetCounters.seed(loadedFrom, counts);
+    }
+
+    private static void clear() {
+        freeCarsByCompany.clear();
+        carNames = new String[0];
+        carCompanies = new int[0];
+        loadedFrom = null;
+        FleetCounters.clear();
+    }
+
+    private static void put(int carID, String name, int companyID, boolean rented) {
+        if (carID >= carNames.length) {
+            int capacity = Math.max(carID + 1, carNames.length * 2);
+
+            carNames = Arrays.copyOf(carNames, capacity);
+            carCompanies = Arrays.copyOf(carCompanies, capacity);
+        }
+
+        carNames[carID] = name;
+        carCompanies[carID] = companyID;
+
+        freeCarsByCompany.computeIfAbsent(companyID, id -> new BitSet()).set(carID, !rented);
+    }
+}
@@ -1,29 +1,47 @@
 package carsharing.service;
 
+import carsharing.dao.CarClaimTable;
 import carsharing.dao.CustomerTable;
-import carsharing.view.CustomerMenu;
-import carsharing.view.Menu;
+import carsharing.dao.RentalTable;
+import carsharing.dao.ScreenQueries;
+import carsharing.dao.Shards;
+import carsharing.metrics.Metrics;
+import carsharing.metrics.Timer;
+import carsharing.model.Car;
+import carsharing.model.Customer;
+import carsharing.model.Page;
+import carsharing.model.PageCursor;
+import carsharing.model.Rental;
+import carsharing.model.RentalPeriod;
+import carsharing.model.RentScreen;
+import carsharing.model.RentalStatus;
 
-import java.util.Map;
+import java.util.List;
 
 /**
  * The CustomerService class provides methods for managing customers and their rented cars in the car sharing application.
  * It interacts with the DAO classes to perform CRUD operations on customer and car data.
  */
 public class CustomerService {
+    private static final Timer RENT_CAR_TIMER = Metrics.timer("CustomerService.rentCar");
+    private static final Timer RETURN_CAR_TIMER = Metrics.timer("CustomerService.returnCar");
+    private static final Timer GET_AVAILABLE_CAR_PAGE_TIMER = Metrics.timer("CustomerService.getAvailableCarPage");
+
     /**
-     * Creates a customer table by initializing the CustomerTable.
+     * Creates a customer table by initializing the CustomerTable, and the rental history table next to it.
      */
     public static void createCustomer() {
         CustomerTable.create();
+        RentalTable.create();
     }
     /**
      * Adds a new customer to the customer table.
      *
      * @param name the name of the customer to add
+     * @return the ID of the new customer, or 0 if it could not be added
      */
-    public static void add(String name) {
-        CustomerTable.add(name);
+    public static int add(String name) {
+        return CustomerTable.add(name);
     }
     /**
      * Returns the ID of the last customer in the customer table.
@@ -34,45 +52,254 @@ public class CustomerService {
         return CustomerTable.checkID();
     }
     /**
-     * Prints the list of customers from the customer table.
+     * Checks if a customer exists. With several shards the customer IDs have gaps, so an ID up to the last
+     * customer ID may still belong to nobody.
+     *
+     * @param customerID the ID of the customer
+     * @return true if there is a customer with this ID
+     */
+    public static boolean customerExists(int customerID) {
+        return customerID > 0 && CustomerTable.findRentedCarID(customerID) >= 0;
+    }
+    /**
+     * Returns everything the "Rent a car" screen needs in one query: the customer and one page of companies
+     * with their available car counts, which are read from the in-memory availability index.
+     *
+     * @param customerID the ID of the customer
+     * @param cursor     the page of companies to read
+     * @param limit      the maximum number of companies to return
+     * @return the screen, or null if there is no such customer
      */
-    public static void printCustomerList() {
-        CustomerTable.print();
+    public static RentScreen getRentScreen(int customerID, PageCursor cursor, int limit) {
+        return ScreenQueries.findRentScreen(customerID, cursor, limit, FleetCounters::freeCars);
+    }
+    /**
+     * Returns one page of the customers from the customer table.
+     *
+     * @param cursor the page to read
+     * @param limit  the maximum number of customers to return
+     * @return the page of customers
+     */
+    public static Page<Customer> getCustomerPage(PageCursor cursor, int limit) {
+        return CustomerTable.findPage(cursor, limit);
     }
 
     /**
      * Rents a car for the specified customer.
+     * Safe to call concurrently: a car is never rented to two customers at once.
      *
      * @param customerID   the ID of the customer
      * @param rentedCarID  the ID of the rented car
+     * @return true if the car was rented, false if it was taken or the customer already has a car
+     */
+    public static boolean rentCar(int customerID, int rentedCarID) {
+        RentalStatus status = tryRentCar(customerID, rentedCarID);
+
+        printRentalStatus(status, status == RentalStatus.RENTED ? NameCache.carName(rentedCarID) : "");
+
+        return status == RentalStatus.RENTED;
+    }
+    /**
+     * Rents a car the customer picked from a listing.
+     * The confirmation uses the name from the listing, so no name lookup is needed.
+     *
+     * @param customerID  the ID of the customer
+     * @param car         the car to rent
+     * @return true if the car was rented, false if it was taken or the customer already has a car
      */
-    public static void rentCar(int customerID, int rentedCarID) {
-        CustomerTable.addCarToCustomer(customerID, rentedCarID);
+    public static boolean rentCar(int customerID, Car car) {
+        RentalStatus status = tryRentCar(customerID, car.id());
+
+        printRentalStatus(status, car.name());
+
+        return status == RentalStatus.RENTED;
+    }
+    /**
+     * Rents a car for the specified customer without printing anything.
+     * Safe to call concurrently: a car is never rented to two customers at once, also not with customers in
+     * different shards. With the rental journal open the rent is journaled and applied to the database later.
+     *
+     * @param customerID   the ID of the customer
+     * @param rentedCarID  the ID of the rented car
+     * @return the outcome of the rental
+     */
+    public static RentalStatus tryRentCar(int customerID, int rentedCarID) {
+        long start = System.nanoTime();
+
+        try {
+            if (JournaledRentals.isEnabled()) {
+                return JournaledRentals.rent(customerID, rentedCarID);
+            }
+
+            // Each shard only guards its own customers, so with several shards the car is claimed in the shard it belongs to
+            boolean sharded = Shards.count() > 1;
+
+            if (sharded) {
+                RentalStatus claim = CarClaimTable.claim(rentedCarID, customerID);
+
+                if (claim != RentalStatus.RENTED) {
+                    return claim;
+                }
+            }
+
+            // The index is updated under the lock of the car, so a concurrent return cannot overtake the rent
+            RentalStatus status = CustomerTable.addCarToCustomer(customerID, rentedCarID, AvailabilityIndex::carRented);
+
+            if (status != RentalStatus.RENTED && sharded) {
+                CarClaimTable.release(rentedCarID, customerID);
+            }
+
+            return status;
+        } finally {
+            RENT_CAR_TIMER.stop(start);
+        }
     }
     /**
      * Returns a rented car for the specified customer.
      *
      * @param customerID  the ID of the customer
+     * @return true if a car was returned, false if the customer had no car
      */
-    public static void returnCar(int customerID) {
-        CustomerTable.delete(customerID);
+    public static boolean returnCar(int customerID) {
+        int returnedCarID = tryReturnCar(customerID);
+
+        if (returnedCarID > 0) {
+            System.out.println("\nYou've returned a rented car!");
+        } else if (returnedCarID == 0) {
+            System.out.println("\nYou didn't rent a car!");
+        }
+
+        return returnedCarID > 0;
     }
     /**
-     * Prints the list of available cars for a specific company and returns the car list.
+     * Returns a rented car for the specified customer without printing anything.
+     * With the rental journal open the return is journaled and applied to the database later.
+     *
+     * @param customerID  the ID of the customer
+     * @return the ID of the returned car, 0 if the customer had no car, or -1 if the update failed
+     */
+    public static int tryReturnCar(int customerID) {
+        long start = System.nanoTime();
+
+        try {
+            if (JournaledRentals.isEnabled()) {
+                return JournaledRentals.returnCar(customerID);
+            }
+
+            int returnedCarID = CustomerTable.delete(customerID, AvailabilityIndex::carReturned);
+
+            // The claim goes only after the customer let go of the car, so nobody can rent a car that is still held
+            if (returnedCarID > 0 && Shards.count() > 1) {
+                CarClaimTable.release(returnedCarID, customerID);
+            }
+
+            return returnedCarID;
+        } finally {
+            RETURN_CAR_TIMER.stop(start);
+        }
+    }
+    /**
+     * Builds the in-memory index of available cars and the per-company car counters from the database,
+     * once every journaled rental has been applied to it.
+     */
+    public static void loadAvailableCars() {
+        JournaledRentals.awaitApplied();
+        AvailabilityIndex.load();
+    }
+    /**
+     * Returns one page of the available cars for a specific company.
+     * The page is read from the in-memory availability index instead of the database.
+     *
+     * @param companyID  the ID of the company
+     * @param cursor     the page to read
+     * @param limit      the maximum number of cars to return
+     * @return the page of available cars
+     */
+    public static Page<Car> getAvailableCarPage(int companyID, PageCursor cursor, int limit) {
+        long start = System.nanoTime();
+
+        Page<Car> cars = AvailabilityIndex.availableCarPage(companyID, cursor, limit);
+
+        GET_AVAILABLE_CAR_PAGE_TIMER.stop(start);
+
+        return cars;
+    }
+    /**
+     * Finds the available cars whose names match a text, across all companies.
+     * The cars are read from the in-memory name search index instead of the database.
+     *
+     * @param query the text to look for
+     * @param mode  how the names must match the text
+     * @param limit the maximum number of cars to return
+     * @return the matching available cars, in ID order
+     */
+    public static List<Car> searchAvailableCars(String query, NameSearch.Mode mode, int limit) {
+        return NameSearch.searchAvailableCars(query, mode, limit);
+    }
+    /**
+     * Returns the number of cars of a company that are not rented.
+     *
+     * @param companyID  the ID of the company
+     * @return the number of available cars
+     */
+    public static int countAvailableCars(int companyID) {
+        return FleetCounters.freeCars(companyID);
+    }
+    /**
+     * Visits the available cars of a company in ID order, starting after a given car, without printing them.
      *
      * @param companyID  the ID of the company
-     * @return a map containing the available cars with their corresponding IDs
+     * @param afterID    the ID the visited cars follow, 0 to start with the first car
+     * @param limit      the maximum number of cars to visit
+     * @param visitor    the visitor called for each available car
+     * @return true if more available cars follow the visited ones, false otherwise
      */
-    public static Map<Integer, Integer> printCarListOfCompany(int companyID) {
-        return CustomerTable.printCarListOfCompany(companyID);
+    public static boolean forEachAvailableCar(int companyID, int afterID, int limit, AvailabilityIndex.CarVisitor visitor) {
+        return AvailabilityIndex.forEachAvailableCar(companyID, afterID, limit, visitor);
     }
     /**
-     * Prints the list of cars rented by the specified customer.
+     * Returns the ID of the car rented by the specified customer, including journaled rentals.
      *
      * @param customerID  the ID of the customer
+     * @return the ID of the rented car, or 0 if the customer has no car
      */
-    public static void printCarListOfCustomer(int customerID) {
-        CustomerTable.printCarListOfCustomer(customerID);
+    public static int getRentedCarID(int customerID) {
+        return JournaledRentals.isEnabled()
+                ? JournaledRentals.rentedCarID(customerID)
+                : CustomerTable.getRentedCarID(customerID);
+    }
+    /**
+     * Checks if a company has at least one car that is not rented.
+     *
+     * @param companyID  the ID of the company
+     * @return true if the company has an available car, false otherwise
+     */
+    public static boolean hasAvailableCars(int companyID) {
+        return FleetCounters.freeCars(companyID) > 0;
+    }
+    /**
+     * Returns the current rental of the specified customer with the car and its company.
+     * Waits for the journaled rentals to be applied first.
+     *
+     * @param customerID  the ID of the customer
+     * @return the rental, or null if the customer has no car
+     */
+    public static Rental getRental(int customerID) {
+        JournaledRentals.awaitApplied();
+        return CustomerTable.findRental(customerID);
+    }
+    /**
+     * Returns one page of the rental history of the specified customer, newest first.
+     * Waits for the journaled rentals to be applied first.
+     *
+     * @param customerID  the ID of the customer
+     * @param offset      the number of rentals to skip
+     * @param limit       the maximum number of rentals to return
+     * @return the page of rentals
+     */
+    public static Page<RentalPeriod> getRentalHistory(int customerID, int offset, int limit) {
+        JournaledRentals.awaitApplied();
+        return RentalTable.findByCustomer(customerID, offset, limit);
     }
 
     /**
@@ -85,22 +312,23 @@ public class CustomerService {
     }
     /**
      * Checks if the car list for the specified customer is empty.
+     * Waits for the journaled rentals to be applied first.
      *
      * @param customerID  the ID of the customer
      * @return true if the car list is empty for the given customer, false otherwise
      */
     public static boolean isCustomerCarListEmpty(int customerID) {
+        JournaledRentals.awaitApplied();
         return CustomerTable.isCustomerCarListEmpty(customerID);
     }
-    /**
-     * Displays the customer menu if the user is logged in as a customer, or the main menu otherwise.
-     *
-     * @param loggedIn true if the user is logged in as a customer, false otherwise
-     */
-    public static void isLoggedIn(boolean loggedIn) {
-        switch (loggedIn ? "true" : "false") {
-            case "true" -> CustomerMenu.printCustomerList();
-            case "false" -> Menu.show();
+
+    private static void printRentalStatus(RentalStatus status, String carName) {
+        switch (status) {
+            case RENTED -> System.out.println("\nYou rented '" + carName + "'");
+            case CUSTOMER_HAS_CAR -> System.out.println("\nYou've already rented a car!");
+            case NOT_FOUND -> System.out.println("\nThere is no such customer!");
+            case CAR_TAKEN -> System.out.println("\nThis car has just been rented by someone else!");
+            case FAILED -> { }
         }
     }
 }
@@ -0,0 +1,223 @@
+package carsharing.service;
+
+import carsharing.dao.FleetStatistics;
+import carsharing.dao.H2Database;
+import carsharing.dao.Shards;
+import carsharing.metrics.Metrics;
+import carsharing.metrics.Timer;
+import carsharing.model.CarRanking;
+import carsharing.model.CompanyUsage;
+import carsharing.model.FleetReport;
+import carsharing.view.Reports;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * The FleetAnalytics class builds the fleet utilization report: how many cars of each company are rented
+ * or idle, how much of each company's fleet time was rented per time window, and the most rented cars.
+ * <p>
+ * Fleet counts and the car ranking are aggregated by H2. Utilization needs every rental split at window
+ * boundaries, which SQL does poorly, so the rentals of the period are loaded once into snapshots of
+ * primitive arrays, one per ID range read in parallel, and summed in parallel by the common fork/join pool.
+ * The number of cars ranked per company can be set with the carsharing.report.top system property (3 by default).
+ */
+public class FleetAnalytics {
+    private static final int TOP_CARS = Integer.getInteger("carsharing.report.top", 3);
+
+    // Rentals per task of the parallel aggregation
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    private static final Timer REPORT_TIMER = Metrics.timer("FleetAnalytics.report");
+
+    /**
+     * The rentals of a period as parallel arrays: the company index of the car and the start and end
+     * second within the period. Ends are clipped to the period; rentals that started before it start at -1.
+     */
+    private static final class RentalSnapshot {
+        private int[] companies = new int[CHUNK_SIZE];
+        private int[] starts = new int[CHUNK_SIZE];
+        private int[] ends = new int[CHUNK_SIZE];
+        private int size;
+
+        void add(int company, int start, int end) {
+            if (size == companies.length) {
+                int capacity = size + (size >> 1);
+
+                companies = Arrays.copyOf(companies, capacity);
+                starts = Arrays.copyOf(starts, capacity);
+                ends = Arrays.copyOf(ends, capacity);
+            }
+
+            companies[size] = company;
+            starts[size] = start;
+            ends[size] = end;
+            size++;
+        }
+    }
+
+    /**
+     * Partial sums of the rented seconds per company and window and of the rentals started per company.
+     */
+    private static final class Totals {
+        private final long[] rentedSeconds;
+        private final long[] rentals;
+
+        Totals(int companies, int windows) {
+            rentedSeconds = new long[companies * windows];
+            rentals = new long[companies];
+        }
+
+        Totals merge(Totals other) {
+            Arrays.setAll(rentedSeconds, i -> rentedSeconds[i] + other.rentedSeconds[i]);
+            Arrays.setAll(rentals, i -> rentals[i] + other.rentals[i]);
+            return this;
+        }
+    }
+
+    /**
+     * Prints the report of the last days, in daily windows for up to two weeks, weekly windows for up to
+     * 14 weeks and 30-day windows beyond that. The period starts at midnight and ends now.
+     *
+     * @param days the number of days covered, including today
+     */
+    public static void printReport(int days) {
+        long start = System.nanoTime();
+
+        Duration window = Duration.ofDays(days <= 14 ? 1 : days <= 98 ? 7 : 30);
+        LocalDateTime to = LocalDateTime.now().withNano(0);
+        LocalDateTime from = LocalDate.now().minusDays(Math.max(1, days) - 1L).atStartOfDay();
+
+        FleetReport report = report(from, to, window, TOP_CARS);
+
+        Reports.fleet(report);
+        System.out.printf("%nReport over %d rentals computed in %.2f s%n",
+                Arrays.stream(report.rentals()).sum(), (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Builds the utilization report of a period.
+     *
+     * @param from   the start of the period
+     * @param to     the end of the period
+     * @param window the length of the windows the period is split into
+     * @param topN   the number of most rented cars listed per company
+     * @return the report
+     */
+    public static FleetReport report(LocalDateTime from, LocalDateTime to, Duration window, int topN) {
+        long start = System.nanoTime();
+
+        try {
+            // The ranking is one H2 query; it runs while the snapshot is loaded
+            CompletableFuture<List<CarRanking>> topCars =
+                    CompletableFuture.supplyAsync(() -> FleetStatistics.findTopCars(from, to, topN));
+
+            List<CompanyUsage> companies = FleetStatistics.findCompanyUsage();
+            int windows = FleetReport.windowCount(from, to, window);
+
+            Totals totals = loadSnapshots(from, to, companies).stream()
+                    .map(snapshot -> aggregate(snapshot, companies.size(), windows, (int) window.toSeconds()))
+                    .reduce(Totals::merge)
+                    .orElseGet(() -> new Totals(companies.size(), windows));
+
+            return new FleetReport(from, to, window, companies, totals.rentedSeconds, totals.rentals, topCars.join());
+        } finally {
+            REPORT_TIMER.stop(start);
+        }
+    }
+
+    /**
+     * Loads the rentals overlapping the period, with each car replaced by the index of its company in the report.
+     * The RENTAL table of every shard is split into one ID range per worker of the common fork/join pool, and each
+     * range is read on its own connection into its own snapshot. Rentals of cars that no longer exist are skipped.
+     */
+    private static List<RentalSnapshot> loadSnapshots(LocalDateTime from, LocalDateTime to,
+                                                      List<CompanyUsage> companies) {
+        int maxCompanyID = companies.stream().mapToInt(usage -> usage.company().id()).max().orElse(0);
+        int[] companyIndexes = new int[maxCompanyID + 1];
+        Arrays.fill(companyIndexes, -1);
+
+        for (int i = 0; i < companies.size(); i++) {
+            companyIndexes[companies.get(i).company().id()] = i;
+        }
+
+        int[] carCompanies = FleetStatistics.findCarCompanies();
+        long span = Duration.between(from, to).toSeconds();
+
+        // One connection stays free for the ranking query
+        int connections = H2Database.getPool().getMaxSize() - 1;
+        long rangeCount = Math.max(1, Math.min(ForkJoinPool.getCommonPoolParallelism(), connections));
+        // Each range is a shard followed by its first and last rental ID, as every shard numbers its rentals itself
+        List<long[]> ranges = new ArrayList<>();
+
+        for (int shard = 0; shard < Shards.count(); shard++) {
+            long[] idRange = FleetStatistics.findRentalIDRange(shard);
+            long rangeSize = (idRange[1] - idRange[0]) / rangeCount + 1;
+
+            for (long range = 0; range < rangeCount; range++) {
+                long rangeFirstID = idRange[0] + range * rangeSize;
+                ranges.add(new long[]{shard, rangeFirstID, rangeFirstID + rangeSize - 1});
+            }
+        }
+
+        return ranges.parallelStream().map(range -> {
+            RentalSnapshot snapshot = new RentalSnapshot();
+            int shard = (int) range[0];
+
+            FleetStatistics.forEachRental(shard, from, to, range[1], range[2], (carID, startSecond, endSecond) -> {
+                int companyID = carID < carCompanies.length ? carCompanies[carID] : 0;
+                int company = companyID > 0 && companyID < companyIndexes.length ? companyIndexes[companyID] : -1;
+
+                if (company >= 0) {
+                    snapshot.add(company, (int) Math.max(-1, startSecond), (int) Math.min(span, endSecond));
+                }
+            });
+
+            return snapshot;
+        }).toList();
+    }
+
+    /**
+     * Sums the rented seconds per company and window over the snapshot. The snapshot is split into chunks that
+     * the workers of the common fork/join pool sum into their own totals, which are merged at the end.
+     */
+    private static Totals aggregate(RentalSnapshot snapshot, int companies, int windows, int windowSeconds) {
+        int[] companyIndexes = snapshot.companies;
+        int[] starts = snapshot.starts;
+        int[] ends = snapshot.ends;
+        int size = snapshot.size;
+        int chunks = (size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+
+        return IntStream.range(0, chunks).parallel().collect(() -> new Totals(companies, windows), (totals, chunk) -> {
+            long[] rentedSeconds = totals.rentedSeconds;
+            int end = Math.min(size, (chunk + 1) * CHUNK_SIZE);
+
+            for (int i = chunk * CHUNK_SIZE; i < end; i++) {
+                int company = companyIndexes[i];
+                int base = company * windows;
+                int from = Math.max(0, starts[i]);
+                int to = ends[i];
+
+                if (starts[i] >= 0) {
+                    totals.rentals[company]++;
+                }
+
+                // A rental adds its overlap with every window it touches, usually just one
+                for (int window = from / windowSeconds; window < windows && to > from; window++) {
+                    int windowEnd = (window + 1) * windowSeconds;
+                    int overlapEnd = Math.min(to, windowEnd);
+
+                    rentedSeconds[base + window] += overlapEnd - from;
+                    from = overlapEnd;
+                }
+            }
+        }, Totals::merge);
+    }
+}
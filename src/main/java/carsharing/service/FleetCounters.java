@@ -0,0 +1,175 @@
+package carsharing.service;
+
+import carsharing.dao.ConnectionPool;
+import carsharing.dao.H2Database;
+import carsharing.model.Company;
+import carsharing.model.CompanyUsage;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The FleetCounters class keeps the number of cars and rented cars of every company in memory, so emptiness
+ * checks and fleet summaries never query the database. No lock is taken to read a count.
+ * <p>
+ * The counters are seeded and updated only by the {@link AvailabilityIndex}, from the same data and under the
+ * same write lock as its bitsets, so both always agree. That lock serializes every update, so each count is a
+ * plain volatile field that one writer at a time changes and readers see without locking. Cars are never deleted
+ * and a car is only rented after it was added, so the number of free cars is read as rented first and cars second,
+ * which never goes below zero while updates are running.
+ */
+public class FleetCounters {
+    // The counts of one company, changed only under the write lock of the availability index
+    private static final class CompanyCounters {
+        volatile int cars;
+        volatile int rented;
+
+        CompanyCounters(int cars, int rented) {
+            this.cars = cars;
+            this.rented = rented;
+        }
+    }
+
+    // The counts of every company and of the whole fleet, seeded from one connection pool
+    private record Counters(ConnectionPool pool, ConcurrentHashMap<Integer, CompanyCounters> companies,
+                            CompanyCounters fleet) {
+    }
+
+    // Read while the availability index cannot be built, so every count is zero
+    private static final Counters EMPTY = new Counters(null, new ConcurrentHashMap<>(), new CompanyCounters(0, 0));
+
+    private static volatile Counters counters;
+
+    /**
+     * Returns the number of cars of a company.
+     *
+     * @param companyID the ID of the company
+     * @return the number of cars, 0 for an unknown company
+     */
+    public static int cars(int companyID) {
+        CompanyCounters company = current().companies().get(companyID);
+
+        return company == null ? 0 : company.cars;
+    }
+
+    /**
+     * Returns the number of cars of a company that are not rented.
+     *
+     * @param companyID the ID of the company
+     * @return the number of free cars, 0 for an unknown company
+     */
+    public static int freeCars(int companyID) {
+        CompanyCounters company = current().companies().get(companyID);
+
+        if (company == null) {
+            return 0;
+        }
+
+        int rented = company.rented;
+
+        return company.cars - rented;
+    }
+
+    /**
+     * Returns the number of cars of all companies.
+     *
+     * @return the number of cars
+     */
+    public static int totalCars() {
+        return current().fleet().cars;
+    }
+
+    /**
+     * Returns the fleet summary of a company: its number of cars and how many of them are rented.
+     *
+     * @param company the company
+     * @return the summary, with no cars for an unknown company
+     */
+    public static CompanyUsage summary(Company company) {
+        CompanyCounters counts = current().companies().get(company.id());
+
+        if (counts == null) {
+            return new CompanyUsage(company, 0, 0);
+        }
+
+        int rented = counts.rented;
+
+        return new CompanyUsage(company, counts.cars, rented);
+    }
+
+    /**
+     * Replaces the counters with the counts of a freshly built availability index.
+     *
+     * @param pool   the pool of the database the counts were read from
+     * @param counts the number of cars and rented cars, keyed by company ID
+     */
+    static void seed(ConnectionPool pool, Map<Integer, int[]> counts) {
+        ConcurrentHashMap<Integer, CompanyCounters> companies = new ConcurrentHashMap<>();
+        int cars = 0;
+        int rented = 0;
+
+        for (Map.Entry<Integer, int[]> entry : counts.entrySet()) {
+            int[] companyCounts = entry.getValue();
+
+            companies.put(entry.getKey(), new CompanyCounters(companyCounts[0], companyCounts[1]));
+            cars += companyCounts[0];
+            rented += companyCounts[1];
+        }
+
+        CompanyCounters fleet = new CompanyCounters(cars, rented);
+
+        counters = new Counters(pool, companies, fleet);
+    }
+
+    /**
+     * Drops the counters, so they are seeded again with the next rebuild of the availability index.
+     */
+    static void clear() {
+        counters = null;
+    }
+
+    /**
+     * Counts a newly added car.
+     *
+     * @param companyID the ID of the company owning the car
+     */
+    static void carAdded(int companyID) {
+        Counters current = counters;
+
+        current.companies().computeIfAbsent(companyID, id -> new CompanyCounters(0, 0)).cars++;
+        current.fleet().cars++;
+    }
+
+    /**
+     * Changes the number of rented cars of a company.
+     *
+     * @param companyID the ID of the company owning the car
+     * @param delta     1 for a rented car, -1 for a returned one
+     */
+    static void carRented(int companyID, int delta) {
+        Counters current = counters;
+        CompanyCounters company = current.companies().get(companyID);
+
+        if (company != null) {
+            company.rented += delta;
+            current.fleet().rented += delta;
+        }
+    }
+
+    /**
+     * Returns the counters, building the availability index first if they are missing or belong to another database.
+     * Returns empty counters if the index could not be built.
+     */
+    private static Counters current() {
+        Counters current = counters;
+
+        if (current != null && current.pool() == H2Database.getPool()) {
+            return current;
+        }
+
+        AvailabilityIndex.ensureLoaded();
+        current = counters;
+
+        return current != null && current.pool() == H2Database.getPool() ? current : EMPTY;
+    }
+}
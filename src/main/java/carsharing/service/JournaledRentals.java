@@ -0,0 +1,189 @@
+package carsharing.service;
+
+import carsharing.dao.CarClaimTable;
+import carsharing.dao.CustomerTable;
+import carsharing.dao.DatabaseConfig;
+import carsharing.dao.H2Database;
+import carsharing.dao.RentalJournal;
+import carsharing.dao.Shards;
+import carsharing.model.RentalEvent;
+import carsharing.model.RentalStatus;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The JournaledRentals class rents and returns cars through the {@link RentalJournal} instead of a database
+ * transaction per call. Whether a customer may rent a car is decided in memory: the car must be free in the
+ * {@link AvailabilityIndex}, and the customer's current car is taken from the journaled events, or read from the
+ * CUSTOMER table for a customer without any. The decision and the append happen under one lock, which is held for
+ * a few memory writes only; waiting for the group commit happens outside of it.
+ * <p>
+ * The CUSTOMER and RENTAL tables trail the journal by one apply batch, so code reading them directly may see a
+ * rental a few milliseconds late. {@link #rentedCarID(int)} always returns the current car.
+ */
+public class JournaledRentals {
+    private static final ReentrantLock LOCK = new ReentrantLock();
+
+    // The current car of every customer with a journaled event since the journal was opened, 0 for none
+    private static final Map<Integer, Integer> rentedCars = new ConcurrentHashMap<>();
+
+    private static volatile RentalJournal journal;
+
+    /**
+     * Opens the journal of a database file and replays the events the database has not applied yet.
+     * The journal is only used for databases in a file; with the journal off, a journal left by an earlier run
+     * is still replayed. With several shards the journal is only replayed too: it decides rents in memory, and
+     * across shards only the car claims in the database keep a car from being rented twice.
+     *
+     * @param fileName the name of the database file
+     * @param settings the journal settings
+     */
+    public static synchronized void open(String fileName, RentalJournal.Settings settings) {
+        close();
+
+        DatabaseConfig config = H2Database.getConfig();
+
+        if (config.mode() != DatabaseConfig.Mode.FILE) {
+            return;
+        }
+
+        Path file = Path.of(config.directory(), fileName + ".journal");
+        boolean sharded = Shards.count() > 1;
+
+        try {
+            journal = RentalJournal.open(file, sharded ? settings.withDurability(RentalJournal.Durability.OFF) : settings);
+        } catch (IOException | SQLException e) {
+            e.printStackTrace();
+        }
+
+        // The replayed rentals are written without claims
+        if (sharded && Files.exists(file)) {
+            CarClaimTable.repair();
+        }
+    }
+
+    /**
+     * Checks if rents and returns go through the journal.
+     *
+     * @return true if a journal is open
+     */
+    public static boolean isEnabled() {
+        return journal != null;
+    }
+
+    /**
+     * Rents a car for a customer by appending a rent event to the journal.
+     *
+     * @param customerID the ID of the customer
+     * @param carID      the ID of the car
+     * @return the outcome of the rental
+     */
+    public static RentalStatus rent(int customerID, int carID) {
+        RentalJournal current = journal;
+        // Read before taking the lock; only used if the customer has no journaled event, so it cannot be stale
+        int storedCarID = rentedCars.containsKey(customerID) ? 0 : CustomerTable.findRentedCarID(customerID);
+        long sequence;
+
+        LOCK.lock();
+
+        try {
+            int rentedCarID = rentedCars.getOrDefault(customerID, storedCarID);
+
+            if (rentedCarID < 0) {
+                return RentalStatus.NOT_FOUND;
+            }
+
+            if (rentedCarID != 0) {
+                return RentalStatus.CUSTOMER_HAS_CAR;
+            }
+
+            if (!AvailabilityIndex.isAvailable(carID)) {
+                return AvailabilityIndex.contains(carID) ? RentalStatus.CAR_TAKEN : RentalStatus.FAILED;
+            }
+
+            sequence = current.append(RentalEvent.Type.RENT, customerID, carID);
+            rentedCars.put(customerID, carID);
+            AvailabilityIndex.carRented(carID);
+        } finally {
+            LOCK.unlock();
+        }
+
+        current.awaitDurable(sequence);
+
+        return RentalStatus.RENTED;
+    }
+
+    /**
+     * Returns the car of a customer by appending a return event to the journal.
+     *
+     * @param customerID the ID of the customer
+     * @return the ID of the returned car, or 0 if the customer had no car
+     */
+    public static int returnCar(int customerID) {
+        RentalJournal current = journal;
+        int storedCarID = rentedCars.containsKey(customerID) ? 0 : CustomerTable.findRentedCarID(customerID);
+        int rentedCarID;
+        long sequence;
+
+        LOCK.lock();
+
+        try {
+            rentedCarID = rentedCars.getOrDefault(customerID, storedCarID);
+
+            if (rentedCarID <= 0) {
+                return 0;
+            }
+
+            sequence = current.append(RentalEvent.Type.RETURN, customerID, rentedCarID);
+            rentedCars.put(customerID, 0);
+            AvailabilityIndex.carReturned(rentedCarID);
+        } finally {
+            LOCK.unlock();
+        }
+
+        current.awaitDurable(sequence);
+
+        return rentedCarID;
+    }
+
+    /**
+     * Returns the ID of the car a customer has rented, including rentals not applied to the database yet.
+     *
+     * @param customerID the ID of the customer
+     * @return the ID of the rented car, or 0 if the customer has no car
+     */
+    public static int rentedCarID(int customerID) {
+        Integer rentedCarID = rentedCars.get(customerID);
+
+        return rentedCarID != null ? rentedCarID : CustomerTable.getRentedCarID(customerID);
+    }
+
+    /**
+     * Waits until every journaled event has been applied to the database, so the tables can be read directly.
+     */
+    public static void awaitApplied() {
+        RentalJournal current = journal;
+
+        if (current != null) {
+            current.awaitApplied();
+        }
+    }
+
+    /**
+     * Applies the remaining events and closes the journal.
+     */
+    public static synchronized void close() {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+
+        rentedCars.clear();
+    }
+}
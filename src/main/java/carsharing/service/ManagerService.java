@@ -1,15 +1,38 @@
 package carsharing.service;
 
+import carsharing.dao.BulkExporter;
+import carsharing.dao.BulkImporter;
 import carsharing.dao.CarTable;
 import carsharing.dao.CompanyTable;
-import carsharing.view.ManagerMenu;
-import carsharing.view.Menu;
+import carsharing.dao.RentalTable;
+import carsharing.metrics.Metrics;
+import carsharing.metrics.Timer;
+import carsharing.model.Car;
+import carsharing.model.Company;
+import carsharing.model.CompanyUsage;
+import carsharing.model.Page;
+import carsharing.model.PageCursor;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
 
 /**
  * The ManagerService class provides methods for managing companies and cars in the car sharing application.
  * It interacts with the DAO classes to perform CRUD operations on company and car data.
  */
 public class ManagerService {
+    private static final int IMPORT_CHUNK_SIZE = Integer.getInteger("carsharing.import.chunkSize", 5_000);
+    private static final int ARCHIVE_CHUNK_SIZE = Integer.getInteger("carsharing.archive.chunkSize", 10_000);
+
+    private static final Timer ADD_COMPANY_TIMER = Metrics.timer("ManagerService.addCompany");
+    private static final Timer ADD_CAR_TIMER = Metrics.timer("ManagerService.addCar");
+    private static final Timer IMPORT_FLEET_TIMER = Metrics.timer("ManagerService.importFleet");
+    private static final Timer EXPORT_FLEET_TIMER = Metrics.timer("ManagerService.exportFleet");
+
     /**
      * Creates a company table by initializing the CompanyTable.
      *
@@ -18,30 +41,71 @@ public class ManagerService {
     public static void createCompany(String fileName) {
         CompanyTable.create(fileName);
     }
+
+    /**
+     * Creates the company table in the database that is already open.
+     */
+    public static void createCompany() {
+        CompanyTable.create();
+    }
     /**
      * Adds a new company to the company table.
-     * After adding the company, displays the manager menu.
      *
      * @param company the name of the company to add
+     * @return the ID of the new company, or 0 if it could not be added
      */
-    public static void addCompany(String company) {
-        CompanyTable.add(company);
-        ManagerMenu.show();
+    public static int addCompany(String company) {
+        long start = System.nanoTime();
+
+        int companyID = CompanyTable.add(company);
+
+        if (companyID > 0) {
+            NameCache.companyChanged(companyID);
+            NameSearch.companyAdded(companyID, company);
+        }
+
+        ADD_COMPANY_TIMER.stop(start);
+
+        return companyID;
     }
     /**
-     * Prints the list of companies from the company table.
+     * Returns one page of the companies from the company table.
+     *
+     * @param cursor the page to read
+     * @param limit  the maximum number of companies to return
+     * @return the page of companies
      */
-    public static void printCompanyList() {
-        CompanyTable.print();
+    public static Page<Company> getCompanyPage(PageCursor cursor, int limit) {
+        return CompanyTable.findPage(cursor, limit);
+    }
+    /**
+     * Finds the companies whose names match a text.
+     *
+     * @param query the text to look for
+     * @param mode  how the names must match the text
+     * @param limit the maximum number of companies to return
+     * @return the matching companies, in ID order
+     */
+    public static List<Company> searchCompanies(String query, NameSearch.Mode mode, int limit) {
+        return NameSearch.searchCompanies(query, mode, limit);
     }
     /**
      * Retrieves the company name based on the given company ID.
+     * The name is served from the name cache and only read from the database on a miss.
      *
      * @param companyID the ID of the company
      * @return the name of the company
      */
     public static String getCompanyByID(int companyID) {
-        return CompanyTable.getCompany(companyID);
+        return NameCache.companyName(companyID);
+    }
+    /**
+     * Visits every company in ID order, without printing them.
+     *
+     * @param handler the handler called for each company
+     */
+    public static void forEachCompany(CompanyTable.CompanyRowHandler handler) {
+        CompanyTable.forEach(handler);
     }
     /**
      * Returns the ID of the last company in the company table.
@@ -52,12 +116,15 @@ public class ManagerService {
         return CompanyTable.checkID();
     }
     /**
-     * Prints the list of cars for a specific company.
+     * Returns one page of the cars of a specific company.
      *
      * @param companyID the ID of the company
+     * @param cursor    the page to read
+     * @param limit     the maximum number of cars to return
+     * @return the page of cars
      */
-    public static void printCarList(int companyID) {
-        CarTable.print(companyID);
+    public static Page<Car> getCarPage(int companyID, PageCursor cursor, int limit) {
+        return CarTable.findPage(companyID, cursor, limit);
     }
 
     /**
@@ -71,9 +138,104 @@ public class ManagerService {
      *
      * @param car       the name of the car to add
      * @param companyID the ID of the company
+     * @return the ID of the new car, or 0 if it could not be added
      */
-    public static void addCar(String car, int companyID) {
-        CarTable.add(car, companyID);
+    public static int addCar(String car, int companyID) {
+        long start = System.nanoTime();
+
+        int carID = CarTable.add(car, companyID);
+
+        if (carID > 0) {
+            NameCache.carChanged(carID);
+            AvailabilityIndex.carAdded(carID, car, companyID);
+            NameSearch.carAdded(carID, car, companyID);
+        }
+
+        ADD_CAR_TIMER.stop(start);
+
+        return carID;
+    }
+
+    /**
+     * Imports companies, cars and customers from a CSV file and prints the import statistics.
+     * The availability index, fleet counters and name caches are refreshed afterwards.
+     *
+     * @param fileName the path of the CSV file
+     */
+    public static void importFleet(String fileName) {
+        long start = System.nanoTime();
+
+        try {
+            BulkImporter.Result result = BulkImporter.importCsv(Path.of(fileName), IMPORT_CHUNK_SIZE);
+
+            System.out.printf("Imported %d companies, %d cars and %d customers, skipped %d lines " +
+                            "in %.2f s (%.0f rows/s)%n",
+                    result.companies(), result.cars(), result.customers(), result.rejected(),
+                    result.elapsedNanos() / 1e9, result.rowsPerSecond());
+        } catch (IOException | SQLException e) {
+            IMPORT_FLEET_TIMER.failed(e);
+        }
+
+        AvailabilityIndex.load();
+        NameCache.clear();
+        NameSearch.clear();
+
+        IMPORT_FLEET_TIMER.stop(start);
+    }
+
+    /**
+     * Exports companies, cars and customers with their current rentals into the given directory.
+     * The format is "csv" or "jsonl", optionally followed by ".gz" for gzip-compressed files.
+     *
+     * @param directory the directory to write the files to
+     * @param format    the output format
+     * @param companyID the ID of the only company to export, or 0 to export every company
+     */
+    public static void exportFleet(String directory, String format, int companyID) {
+        boolean gzip = format.endsWith(".gz");
+        String baseFormat = gzip ? format.substring(0, format.length() - 3) : format;
+
+        BulkExporter.Format exportFormat = switch (baseFormat.toLowerCase()) {
+            case "csv" -> BulkExporter.Format.CSV;
+            case "jsonl", "json" -> BulkExporter.Format.JSON_LINES;
+            default -> null;
+        };
+
+        if (exportFormat == null) {
+            System.out.println("Unknown export format '" + format + "', expected csv, jsonl, csv.gz or jsonl.gz");
+            return;
+        }
+
+        long start = System.nanoTime();
+
+        try {
+            Map<Path, Long> rowCounts = BulkExporter.export(Path.of(directory), exportFormat, gzip, companyID);
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            rowCounts.forEach((file, rows) -> System.out.println("Exported " + rows + " rows to " + file));
+            System.out.printf("Export finished in %.2f s%n", seconds);
+        } catch (IOException | SQLException e) {
+            EXPORT_FLEET_TIMER.failed(e);
+        } finally {
+            EXPORT_FLEET_TIMER.stop(start);
+        }
+    }
+
+    /**
+     * Moves the rentals that ended before the given day to one archive table per year and prints how many
+     * rentals went to each table.
+     *
+     * @param before the first day that is kept in the rental history
+     */
+    public static void archiveRentals(LocalDate before) {
+        long start = System.nanoTime();
+
+        Map<Integer, Long> archived = RentalTable.archive(before, ARCHIVE_CHUNK_SIZE);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        archived.forEach((year, rows) -> System.out.println("Archived " + rows + " rentals to RENTAL_ARCHIVE_" + year));
+        System.out.printf("Archived %d rentals ended before %s in %.2f s%n",
+                archived.values().stream().mapToLong(Long::longValue).sum(), before, seconds);
     }
 
     /**
@@ -86,30 +248,30 @@ public class ManagerService {
     }
     /**
      * Checks if the car list for a specific company is empty.
+     * The answer comes from the in-memory fleet counters, without a query.
      *
      * @param companyID the ID of the company
      * @return true if the car list is empty for the given company, false otherwise
      */
     public static boolean isCompanyCarListEmpty(int companyID) {
-        return CarTable.isCompanyCarListEmpty(companyID);
+        return FleetCounters.cars(companyID) == 0;
     }
     /**
      * Checks if the car table is empty.
+     * The answer comes from the in-memory fleet counters, without a query.
      *
      * @return true if the car table is empty, false otherwise
      */
     public static boolean isCarTableEmpty() {
-        return CarTable.isEmpty();
+        return FleetCounters.totalCars() == 0;
     }
     /**
-     * Displays the manager menu if the user is logged in, or the main menu otherwise.
+     * Returns the number of cars of a company and how many of them are rented, from the in-memory fleet counters.
      *
-     * @param loggedIn true if the user is logged in as a manager, false otherwise
+     * @param companyID the ID of the company
+     * @return the fleet summary of the company
      */
-    public static void isLoggedIn(boolean loggedIn) {
-        switch (loggedIn ? "true" : "false") {
-            case "true" -> ManagerMenu.show();
-            case "false" -> Menu.show();
-        }
+    public static CompanyUsage getCompanySummary(int companyID) {
+        return FleetCounters.summary(new Company(companyID, NameCache.companyName(companyID)));
     }
 }
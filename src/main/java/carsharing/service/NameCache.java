@@ -0,0 +1,140 @@
+package carsharing.service;
+
+import carsharing.dao.CarTable;
+import carsharing.dao.CompanyTable;
+import carsharing.dao.ConnectionPool;
+import carsharing.dao.H2Database;
+
+import java.util.List;
+
+/**
+ * The NameCache class holds the read-through caches for company and car names used by the service layer.
+ * Names almost never change, so lookups are served from memory and only reach the database on a miss.
+ * Cache size and time to live can be set with the carsharing.cache.maxSize and carsharing.cache.ttlSeconds
+ * system properties.
+ */
+public class NameCache {
+    private static final int MAX_SIZE = Integer.getInteger("carsharing.cache.maxSize", 10_000);
+    private static final long TTL_MILLIS = Long.getLong("carsharing.cache.ttlSeconds", 600L) * 1_000L;
+
+    // The table methods return "" or 0 both for a missing row and a failed query, so those are never cached
+    private static final ReadThroughCache<Integer, String> companyNames = new ReadThroughCache<>("companyNames",
+            MAX_SIZE, TTL_MILLIS, CompanyTable::getCompany, name -> !name.isEmpty());
+    private static final ReadThroughCache<Integer, String> carNames = new ReadThroughCache<>("carNames",
+            MAX_SIZE, TTL_MILLIS, CarTable::getName, name -> !name.isEmpty());
+    private static final ReadThroughCache<Integer, Integer> carCompanies = new ReadThroughCache<>("carCompanies",
+            MAX_SIZE, TTL_MILLIS, CarTable::getCompanyID, companyID -> companyID > 0);
+
+    private static final List<ReadThroughCache<Integer, ?>> ALL = List.of(companyNames, carNames, carCompanies);
+
+    // The pool the cached values were read from, so switching databases starts with empty caches
+    private static volatile ConnectionPool cachedFrom;
+
+    /**
+     * Returns the name of a company.
+     *
+     * @param companyID the ID of the company
+     * @return the company name, or an empty string if there is no such company
+     */
+    public static String companyName(int companyID) {
+        checkDatabase();
+        return companyNames.get(companyID);
+    }
+
+    /**
+     * Returns the name of a car.
+     *
+     * @param carID the ID of the car
+     * @return the car name, or an empty string if there is no such car
+     */
+    public static String carName(int carID) {
+        checkDatabase();
+        return carNames.get(carID);
+    }
+
+    /**
+     * Returns the ID of the company owning a car.
+     *
+     * @param carID the ID of the car
+     * @return the company ID, or 0 if there is no such car
+     */
+    public static int carCompanyID(int carID) {
+        checkDatabase();
+        return carCompanies.get(carID);
+    }
+
+    /**
+     * Drops the cached name of a company, called when a company is added.
+     *
+     * @param companyID the ID of the company
+     */
+    public static void companyChanged(int companyID) {
+        companyNames.invalidate(companyID);
+    }
+
+    /**
+     * Drops the cached name and company of a car, called when a car is added.
+     *
+     * @param carID the ID of the car
+     */
+    public static void carChanged(int carID) {
+        carNames.invalidate(carID);
+        carCompanies.invalidate(carID);
+    }
+
+    /**
+     * Caches the name of a company read from the startup snapshot, as long as there is room.
+     *
+     * @param companyID the ID of the company
+     * @param name      the name of the company
+     */
+    static void companyLoaded(int companyID, String name) {
+        checkDatabase();
+        companyNames.putIfRoom(companyID, name);
+    }
+
+    /**
+     * Caches the name and company of a car read from the startup snapshot, as long as there is room.
+     *
+     * @param carID     the ID of the car
+     * @param name      the name of the car
+     * @param companyID the ID of the company owning the car
+     * @return false if the cache is full
+     */
+    static boolean carLoaded(int carID, String name, int companyID) {
+        checkDatabase();
+
+        return carNames.putIfRoom(carID, name) && carCompanies.putIfRoom(carID, companyID);
+    }
+
+    /**
+     * Drops every cached name, called after changes made outside the service layer such as a bulk import.
+     */
+    public static void clear() {
+        ALL.forEach(ReadThroughCache::invalidateAll);
+    }
+
+    /**
+     * Returns the statistics of every name cache, one per line.
+     *
+     * @return the cache statistics as text
+     */
+    public static String stats() {
+        StringBuilder stats = new StringBuilder();
+
+        for (ReadThroughCache<Integer, ?> cache : ALL) {
+            stats.append(cache.stats()).append('\n');
+        }
+
+        return stats.toString();
+    }
+
+    private static void checkDatabase() {
+        ConnectionPool pool = H2Database.getPool();
+
+        if (cachedFrom != pool) {
+            ALL.forEach(ReadThroughCache::invalidateAll);
+            cachedFrom = pool;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package carsharing.service;
+
+import carsharing.dao.CarTable;
+import carsharing.dao.CompanyTable;
+import carsharing.dao.ConnectionPool;
+import carsharing.dao.H2Database;
+import carsharing.metrics.Metrics;
+import carsharing.metrics.Timer;
+import carsharing.model.Car;
+import carsharing.model.Company;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The NameSearch class finds cars and companies by name, by prefix, by substring or by substring with a few
+ * typing errors, through one {@link NgramIndex} for car names and one for company names.
+ * The indexes are built from memory or the database on the first search, then kept up to date by the add-car
+ * and add-company operations of the service layer, like the {@link AvailabilityIndex}.
+ */
+public class NameSearch {
+    private static final Timer SEARCH_CARS_TIMER = Metrics.timer("NameSearch.searchAvailableCars");
+    private static final Timer SEARCH_COMPANIES_TIMER = Metrics.timer("NameSearch.searchCompanies");
+    private static final Timer BUILD_TIMER = Metrics.timer("NameSearch.build");
+
+    private static final ReadWriteLock LOCK = new ReentrantReadWriteLock();
+
+    private static NgramIndex cars = new NgramIndex();
+    private static NgramIndex companies = new NgramIndex();
+
+    // The pool the indexes were built from, so a new database is indexed again
+    private static ConnectionPool loadedFrom;
+
+    /**
+     * How a name must match the text searched for. Every mode ignores case.
+     */
+    public enum Mode {
+        /**
+         * The name starts with the text.
+         */
+        PREFIX,
+        /**
+         * The name contains the text.
+         */
+        SUBSTRING,
+        /**
+         * The name contains the text with up to one typing error for 4 to 8 characters and two from 9 characters.
+         * An error is a missing, extra or wrong character.
+         */
+        FUZZY
+    }
+
+    /**
+     * Finds the available cars whose names match a text, in ID order.
+     *
+     * @param query the text to look for
+     * @param mode  how the names must match the text
+     * @param limit the maximum number of cars to return
+     * @return the matching available cars
+     */
+    public static List<Car> searchAvailableCars(String query, Mode mode, int limit) {
+        long start = System.nanoTime();
+
+        readLock();
+
+        try {
+            int[] ids = cars.search(query, mode, limit, AvailabilityIndex::isAvailable);
+            List<Car> found = new ArrayList<>(ids.length);
+
+            for (int id : ids) {
+                found.add(new Car(id, cars.name(id), cars.owner(id)));
+            }
+
+            return found;
+        } finally {
+            LOCK.readLock().unlock();
+            SEARCH_CARS_TIMER.stop(start);
+        }
+    }
+
+    /**
+     * Finds the companies whose names match a text, in ID order.
+     *
+     * @param query the text to look for
+     * @param mode  how the names must match the text
+     * @param limit the maximum number of companies to return
+     * @return the matching companies
+     */
+    public static List<Company> searchCompanies(String query, Mode mode, int limit) {
+        long start = System.nanoTime();
+
+        readLock();
+
+        try {
+            int[] ids = companies.search(query, mode, limit, id -> true);
+            List<Company> found = new ArrayList<>(ids.length);
+
+            for (int id : ids) {
+                found.add(new Company(id, companies.name(id)));
+            }
+
+            return found;
+        } finally {
+            LOCK.readLock().unlock();
+            SEARCH_COMPANIES_TIMER.stop(start);
+        }
+    }
+
+    /**
+     * Adds a new car to the index. A car added before the first search is picked up when the index is built.
+     *
+     * @param carID     the ID of the car
+     * @param name      the name of the car
+     * @param companyID the ID of the company owning the car
+     */
+    public static void carAdded(int carID, String name, int companyID) {
+        LOCK.writeLock().lock();
+
+        try {
+            if (loadedFrom == H2Database.getPool()) {
+                cars.add(carID, name, companyID);
+            }
+        } finally {
+            LOCK.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds a new company to the index. A company added before the first search is picked up when the index
+     * is built.
+     *
+     * @param companyID the ID of the company
+     * @param name      the name of the company
+     */
+    public static void companyAdded(int companyID, String name) {
+        LOCK.writeLock().lock();
+
+        try {
+            if (loadedFrom == H2Database.getPool()) {
+                companies.add(companyID, name, 0);
+            }
+        } finally {
+            LOCK.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Drops the indexes, so the next search builds them again. Used after changes made outside the service
+     * layer, such as a bulk import.
+     */
+    public static void clear() {
+        LOCK.writeLock().lock();
+
+        try {
+            cars = new NgramIndex();
+            companies = new NgramIndex();
+            loadedFrom = null;
+        } finally {
+            LOCK.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the sizes of the indexes for the metrics report, such as "search cars: 15234 trigrams, 24000000 entries".
+     *
+     * @return one line per index, or an empty string if the indexes are not built
+     */
+    public static String stats() {
+        LOCK.readLock().lock();
+
+        try {
+            return loadedFrom == null ? "" : stats("cars", cars) + stats("companies", companies);
+        } finally {
+            LOCK.readLock().unlock();
+        }
+    }
+
+    private static String stats(String name, NgramIndex index) {
+        long[] size = index.size();
+
+        return String.format("search %s: %d trigrams, %d entries%n", name, size[0], size[1]);
+    }
+
+    /**
+     * Takes the read lock, building the indexes first if they are missing or belong to another database.
+     */
+    private static void readLock() {
+        LOCK.readLock().lock();
+
+        if (loadedFrom != H2Database.getPool()) {
+            LOCK.readLock().unlock();
+            LOCK.writeLock().lock();
+
+            try {
+                if (loadedFrom != H2Database.getPool()) {
+                    rebuild();
+                }
+
+                LOCK.readLock().lock();
+            } finally {
+                LOCK.writeLock().unlock();
+            }
+        }
+    }
+
+    private static void rebuild() {
+        long start = System.nanoTime();
+
+        NgramIndex carIndex = new NgramIndex();
+        NgramIndex companyIndex = new NgramIndex();
+        CarTable.CarRowHandler addCar = (id, name, companyID, rented) -> carIndex.add(id, name, companyID);
+
+        // The availability index is needed by every car search anyway and saves reading the cars again
+        AvailabilityIndex.ensureLoaded();
+
+        boolean complete = AvailabilityIndex.forEachCar(addCar) || CarTable.forEach(addCar);
+
+        CompanyTable.forEach((id, name) -> companyIndex.add(id, name, 0));
+
+        cars = carIndex;
+        companies = companyIndex;
+        // Without every car the indexes are built again on next use
+        loadedFrom = complete ? H2Database.getPool() : null;
+
+        BUILD_TIMER.stop(start);
+    }
+}
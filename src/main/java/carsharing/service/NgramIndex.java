@@ -0,0 +1,464 @@
+package carsharing.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * The NgramIndex class finds names by prefix, by substring and by substring with a few typing errors.
+ * Every name is split into its overlapping sequences of three characters (trigrams), after a start marker so
+ * prefixes have trigrams of their own, and each trigram keeps the sorted list of IDs whose names contain it.
+ * <p>
+ * A query walks the lists of its trigrams together in ID order, jumping ahead in the longer lists, and checks
+ * each ID found in all of them against the name itself. The walk stops once enough matches are found, so a
+ * query costs about as much as the shortest list it reads up to the last match. Queries of fewer than three
+ * characters (two for a prefix) have no trigrams and check the names one by one instead.
+ * <p>
+ * Names are compared ignoring case, like the VARCHAR_IGNORECASE columns they come from. The class is not
+ * thread-safe; {@link NameSearch} guards every index with a lock.
+ */
+class NgramIndex {
+    private static final char START = '\u0002';
+    private static final int MAX_LISTS = 4;
+
+    // Open addressing on the packed trigram: a name adds about one lookup per character, and boxed keys
+    // made these lookups most of the cost of building the index
+    private long[] keys = new long[1024];
+    private Postings[] postings = new Postings[1024];
+    private int trigrams;
+
+    private String[] names = new String[0];
+    private int[] owners = new int[0];
+
+    /**
+     * Adds a name to the index. An ID that is already indexed keeps its name.
+     *
+     * @param id    the ID of the named row, greater than 0
+     * @param name  the name
+     * @param owner an ID stored with the name, such as the company of a car
+     */
+    void add(int id, String name, int owner) {
+        if (id >= names.length) {
+            int capacity = Math.max(id + 1, names.length * 2);
+
+            names = Arrays.copyOf(names, capacity);
+            owners = Arrays.copyOf(owners, capacity);
+        }
+
+        if (names[id] != null) {
+            return;
+        }
+
+        names[id] = name;
+        owners[id] = owner;
+
+        String padded = START + fold(name);
+
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            postingsOf(trigram(padded, i), true).add(id);
+        }
+    }
+
+    /**
+     * Returns the name of an ID.
+     *
+     * @param id the ID
+     * @return the name, or null if the ID is not indexed
+     */
+    String name(int id) {
+        return id > 0 && id < names.length ? names[id] : null;
+    }
+
+    /**
+     * Returns the ID stored with the name of an ID.
+     *
+     * @param id the ID
+     * @return the owner, or 0 if the ID is not indexed
+     */
+    int owner(int id) {
+        return id > 0 && id < owners.length ? owners[id] : 0;
+    }
+
+    /**
+     * Returns the number of distinct trigrams and the number of IDs in all their lists, for the metrics report.
+     *
+     * @return the trigram count and the total list length
+     */
+    long[] size() {
+        long entries = 0;
+
+        for (Postings list : postings) {
+            entries += list == null ? 0 : list.size;
+        }
+
+        return new long[]{trigrams, entries};
+    }
+
+    /**
+     * Finds the IDs whose names match a query, in ID order.
+     *
+     * @param query  the text to look for
+     * @param mode   how the names must match the text
+     * @param limit  the maximum number of IDs to return
+     * @param filter accepts the IDs that may be returned, such as the available cars
+     * @return the matching IDs, at most limit of them
+     */
+    int[] search(String query, NameSearch.Mode mode, int limit, IntPredicate filter) {
+        String pattern = fold(query);
+        int edits = mode == NameSearch.Mode.FUZZY ? allowedEdits(pattern.length()) : 0;
+
+        List<Intersection> candidates = new ArrayList<>();
+
+        if (mode == NameSearch.Mode.PREFIX) {
+            candidates.add(intersection(START + pattern));
+        } else if (edits == 0) {
+            candidates.add(intersection(pattern));
+        } else {
+            // A name within k edits of the pattern contains at least one of k + 1 pieces of it unchanged
+            int pieceLength = pattern.length() / (edits + 1);
+
+            if (pieceLength < 3) {
+                candidates.add(intersection(""));
+            }
+
+            for (int piece = 0; piece <= edits && pieceLength >= 3; piece++) {
+                int end = piece == edits ? pattern.length() : (piece + 1) * pieceLength;
+
+                candidates.add(intersection(pattern.substring(piece * pieceLength, end)));
+            }
+        }
+
+        candidates.removeIf(intersection -> intersection == null);
+
+        int[] found = new int[Math.min(limit, 64)];
+        int count = 0;
+
+        for (int id = next(candidates, 1); id > 0 && count < limit; id = next(candidates, id + 1)) {
+            if (matches(names[id], pattern, mode, edits) && filter.test(id)) {
+                if (count == found.length) {
+                    found = Arrays.copyOf(found, Math.min(limit, count * 2));
+                }
+
+                found[count++] = id;
+            }
+        }
+
+        return Arrays.copyOf(found, count);
+    }
+
+    /**
+     * Returns the number of typing errors a fuzzy query of the given length may contain.
+     *
+     * @param length the length of the query
+     * @return 0 for fewer than 4 characters, 1 for fewer than 9 and 2 otherwise
+     */
+    static int allowedEdits(int length) {
+        return length < 4 ? 0 : length < 9 ? 1 : 2;
+    }
+
+    /**
+     * Returns the smallest ID at or after an ID that any of the candidate lists produces.
+     */
+    private int next(List<Intersection> candidates, int from) {
+        int next = -1;
+
+        for (Intersection intersection : candidates) {
+            int id = intersection.next(from);
+
+            if (id > 0 && (next < 0 || id < next)) {
+                next = id;
+            }
+        }
+
+        return next;
+    }
+
+    /**
+     * Creates the walk over the lists of every trigram of a pattern, or over every ID if it has no trigrams.
+     *
+     * @return the walk, or null if some trigram of the pattern is in no name
+     */
+    private Intersection intersection(String pattern) {
+        if (pattern.length() < 3) {
+            return new Intersection(new Postings[0]);
+        }
+
+        List<Postings> lists = new ArrayList<>();
+
+        for (int i = 0; i + 3 <= pattern.length(); i++) {
+            Postings list = postingsOf(trigram(pattern, i), false);
+
+            if (list == null) {
+                return null;
+            }
+
+            if (!lists.contains(list)) {
+                lists.add(list);
+            }
+        }
+
+        lists.sort((a, b) -> Integer.compare(a.size, b.size));
+
+        // Every candidate is checked against the whole pattern, so the shortest lists narrow it down enough
+        return new Intersection(lists.subList(0, Math.min(lists.size(), MAX_LISTS)).toArray(Postings[]::new));
+    }
+
+    /**
+     * Returns the list of a trigram, optionally adding an empty one if the trigram is new.
+     *
+     * @return the list, or null if the trigram is new and create is false
+     */
+    private Postings postingsOf(long key, boolean create) {
+        int mask = keys.length - 1;
+
+        for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            if (postings[slot] == null) {
+                if (!create) {
+                    return null;
+                }
+
+                if (trigrams * 2 >= keys.length) {
+                    grow();
+                    return postingsOf(key, true);
+                }
+
+                keys[slot] = key;
+                postings[slot] = new Postings();
+                trigrams++;
+
+                return postings[slot];
+            }
+
+            if (keys[slot] == key) {
+                return postings[slot];
+            }
+        }
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        Postings[] oldPostings = postings;
+
+        keys = new long[oldKeys.length * 2];
+        postings = new Postings[oldKeys.length * 2];
+
+        int mask = keys.length - 1;
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldPostings[i] != null) {
+                int slot = hash(oldKeys[i]) & mask;
+
+                while (postings[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+
+                keys[slot] = oldKeys[i];
+                postings[slot] = oldPostings[i];
+            }
+        }
+    }
+
+    private static int hash(long key) {
+        long mixed = key * 0x9E3779B97F4A7C15L;
+
+        return (int) (mixed ^ mixed >>> 32);
+    }
+
+    private static boolean matches(String name, String pattern, NameSearch.Mode mode, int edits) {
+        return switch (mode) {
+            case PREFIX -> name.length() >= pattern.length() && indexOf(name, pattern, 0) == 0;
+            case SUBSTRING -> indexOf(name, pattern, name.length() - pattern.length()) >= 0;
+            case FUZZY -> edits == 0
+                    ? indexOf(name, pattern, name.length() - pattern.length()) >= 0
+                    : withinEdits(name, pattern, edits);
+        };
+    }
+
+    /**
+     * Returns the first position up to lastStart where the folded pattern occurs in the name, or -1.
+     */
+    private static int indexOf(String name, String pattern, int lastStart) {
+        for (int start = 0; start <= lastStart; start++) {
+            int i = 0;
+
+            while (i < pattern.length() && fold(name.charAt(start + i)) == pattern.charAt(i)) {
+                i++;
+            }
+
+            if (i == pattern.length()) {
+                return start;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Checks if some part of the name is within the given number of insertions, deletions and substitutions
+     * of the folded pattern, computing the edit distances one column of the name at a time.
+     */
+    private static boolean withinEdits(String name, String pattern, int edits) {
+        int[] column = new int[pattern.length() + 1];
+
+        for (int i = 0; i < column.length; i++) {
+            column[i] = i;
+        }
+
+        if (column[pattern.length()] <= edits) {
+            return true;
+        }
+
+        for (int j = 0; j < name.length(); j++) {
+            char c = fold(name.charAt(j));
+
+            // A match may start anywhere in the name, so the empty prefix of the pattern always costs nothing
+            int diagonal = 0;
+
+            for (int i = 1; i < column.length; i++) {
+                int above = column[i];
+
+                column[i] = Math.min(Math.min(column[i] + 1, column[i - 1] + 1),
+                        diagonal + (pattern.charAt(i - 1) == c ? 0 : 1));
+                diagonal = above;
+            }
+
+            if (column[pattern.length()] <= edits) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static long trigram(String text, int start) {
+        return (long) text.charAt(start) << 32 | (long) text.charAt(start + 1) << 16 | text.charAt(start + 2);
+    }
+
+    private static String fold(String text) {
+        StringBuilder folded = new StringBuilder(text.length());
+
+        for (int i = 0; i < text.length(); i++) {
+            folded.append(fold(text.charAt(i)));
+        }
+
+        return folded.toString();
+    }
+
+    private static char fold(char c) {
+        if (c < 128) {
+            return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        }
+
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    /**
+     * The sorted IDs of the names containing one trigram.
+     */
+    private static final class Postings {
+        private int[] ids = new int[4];
+        private int size;
+
+        void add(int id) {
+            if (size > 0 && ids[size - 1] >= id) {
+                // IDs normally arrive in ascending order; keep the list sorted when one does not
+                int position = Arrays.binarySearch(ids, 0, size, id);
+
+                if (position >= 0) {
+                    return;
+                }
+
+                insert(-position - 1, id);
+                return;
+            }
+
+            insert(size, id);
+        }
+
+        private void insert(int position, int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+
+            System.arraycopy(ids, position, ids, position + 1, size - position);
+            ids[position] = id;
+            size++;
+        }
+
+        /**
+         * Returns the position of the first ID at or after an ID, searching from a known position with
+         * steps of growing length and then by halving, or size if there is none.
+         */
+        int seek(int from, int id) {
+            if (from >= size || ids[from] >= id) {
+                return from;
+            }
+
+            int low = from;
+            int step = 1;
+
+            while (low + step < size && ids[low + step] < id) {
+                low += step;
+                step <<= 1;
+            }
+
+            int position = Arrays.binarySearch(ids, low + 1, Math.min(low + step + 1, size), id);
+
+            return position >= 0 ? position : -position - 1;
+        }
+    }
+
+    /**
+     * The IDs found in all of a set of lists, produced in ascending order. With no lists, every indexed ID
+     * is produced.
+     */
+    private final class Intersection {
+        private final Postings[] lists;
+        private final int[] positions;
+
+        Intersection(Postings[] lists) {
+            this.lists = lists;
+            this.positions = new int[lists.length];
+        }
+
+        /**
+         * Returns the smallest ID at or after an ID that is in every list, or -1 if there is none.
+         * The IDs asked for must not decrease from one call to the next.
+         */
+        int next(int from) {
+            if (lists.length == 0) {
+                for (int id = from; id < names.length; id++) {
+                    if (names[id] != null) {
+                        return id;
+                    }
+                }
+
+                return -1;
+            }
+
+            int candidate = from;
+            int agreeing = 0;
+
+            for (int list = 0; agreeing < lists.length; list = (list + 1) % lists.length) {
+                int position = lists[list].seek(positions[list], candidate);
+                positions[list] = position;
+
+                if (position == lists[list].size) {
+                    return -1;
+                }
+
+                int id = lists[list].ids[position];
+
+                if (id == candidate) {
+                    agreeing++;
+                } else {
+                    candidate = id;
+                    agreeing = 1;
+                }
+            }
+
+            return candidate;
+        }
+    }
+}
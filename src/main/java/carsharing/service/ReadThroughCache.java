@@ -0,0 +1,178 @@
+package carsharing.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * The ReadThroughCache class is a bounded cache that loads missing values with a loader function.
+ * Entries are evicted in least recently used order once the cache is full, and reloaded after their time to live.
+ * Values are loaded outside the cache lock, so a slow load never blocks lookups of other keys. A load that
+ * overlaps an invalidation is returned but not stored, so it cannot bring back a value that was just replaced.
+ * Values the loader returns for a missing row or a failed query are not cached at all.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class ReadThroughCache<K, V> {
+    /**
+     * A cached value and the time it expires.
+     */
+    private record Entry<V>(V value, long expiresAt) {
+    }
+
+    private final String name;
+    private final int maxSize;
+    private final long ttlNanos;
+    private final Function<K, V> loader;
+    private final Predicate<V> cacheable;
+    private final LinkedHashMap<K, Entry<V>> entries;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    // Counts the invalidations, so a load that started before one knows its value may be stale; guarded by entries
+    private long generation;
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param name      the name shown in the statistics
+     * @param maxSize   the maximum number of entries
+     * @param ttlMillis how long an entry stays valid after it was loaded, in milliseconds
+     * @param loader    the function that loads a value missing from the cache
+     * @param cacheable tells a value worth caching from one that stands for a missing row or a failed load
+     */
+    public ReadThroughCache(String name, int maxSize, long ttlMillis, Function<K, V> loader, Predicate<V> cacheable) {
+        this.name = name;
+        this.maxSize = maxSize;
+        this.ttlNanos = ttlMillis * 1_000_000L;
+        this.loader = loader;
+        this.cacheable = cacheable;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                if (size() <= maxSize) {
+                    return false;
+                }
+
+                evictions.increment();
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached value for the key, loading it if it is missing or expired.
+     *
+     * @param key the key to look up
+     * @return the value for the key
+     */
+    public V get(K key) {
+        long now = System.nanoTime();
+        long loadGeneration;
+
+        synchronized (entries) {
+            loadGeneration = generation;
+            Entry<V> entry = entries.get(key);
+
+            if (entry != null) {
+                if (now - entry.expiresAt() < 0) {
+                    hits.increment();
+                    return entry.value();
+                }
+
+                entries.remove(key);
+                expirations.increment();
+            }
+        }
+
+        misses.increment();
+        V value = loader.apply(key);
+
+        if (cacheable.test(value)) {
+            synchronized (entries) {
+                if (generation == loadGeneration) {
+                    entries.put(key, new Entry<>(value, now + ttlNanos));
+                }
+            }
+        }
+
+        return value;
+    }
+
+    /**
+     * Stores a value loaded elsewhere, such as from a snapshot, unless the cache is already full.
+     * Values already cached are replaced, and the stored value expires after the usual time to live.
+     *
+     * @param key   the key
+     * @param value the value for the key
+     * @return true if the value was stored, false if the cache is full
+     */
+    public boolean putIfRoom(K key, V value) {
+        long now = System.nanoTime();
+
+        synchronized (entries) {
+            if (entries.size() >= maxSize && !entries.containsKey(key)) {
+                return false;
+            }
+
+            entries.put(key, new Entry<>(value, now + ttlNanos));
+            return true;
+        }
+    }
+
+    /**
+     * Removes the value for a key, so the next lookup loads it again.
+     *
+     * @param key the key to remove
+     */
+    public void invalidate(K key) {
+        synchronized (entries) {
+            entries.remove(key);
+            generation++;
+        }
+    }
+
+    /**
+     * Removes every value from the cache.
+     */
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+            generation++;
+        }
+    }
+
+    /**
+     * Returns the share of lookups served from the cache.
+     *
+     * @return the hit ratio between 0 and 1
+     */
+    public double hitRatio() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    /**
+     * Returns a one-line summary of the cache statistics.
+     *
+     * @return the statistics as text
+     */
+    public String stats() {
+        int size;
+
+        synchronized (entries) {
+            size = entries.size();
+        }
+
+        return String.format("%s[size=%d, hits=%d, misses=%d, evictions=%d, expirations=%d, hitRatio=%.3f]",
+                name, size, hits.sum(), misses.sum(), evictions.sum(), expirations.sum(), hitRatio());
+    }
+}
@@ -0,0 +1,138 @@
+package carsharing.service;
+
+import carsharing.dao.H2Database;
+import carsharing.dao.RentalJournal;
+import carsharing.dao.SchemaMigrations;
+import carsharing.dao.Shards;
+import carsharing.metrics.Metrics;
+import carsharing.metrics.Timer;
+
+import java.lang.management.ManagementFactory;
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The Startup class opens the database and gets the application ready for its first command.
+ * <ol>
+ * <li>The database is opened and the schema version is read with one query. The tables are only created and
+ * migrated if the schema is missing or older than this build. With several shards the layout of every shard is
+ * checked and the companies and cars a shard missed are copied to it.</li>
+ * <li>The rental journal is replayed while another thread takes the {@link StartupSnapshot} token and reads the
+ * snapshot file.</li>
+ * <li>If caches are wanted, the availability index and name caches are filled from the snapshot, or the index is
+ * built from the database if there is no valid snapshot.</li>
+ * </ol>
+ * Every phase is recorded in a Startup.* timer, and {@link #ready()} records the time from the start of the JVM
+ * to the first menu.
+ */
+public class Startup {
+    private static final Timer SCHEMA_TIMER = Metrics.timer("Startup.schema");
+    private static final Timer JOURNAL_TIMER = Metrics.timer("Startup.journal");
+    private static final Timer CACHES_TIMER = Metrics.timer("Startup.caches");
+    private static final Timer OPEN_TIMER = Metrics.timer("Startup.open");
+    private static final Timer TIME_TO_FIRST_MENU_TIMER = Metrics.timer("Startup.timeToFirstMenu");
+
+    // The durations of the last startup, for the report
+    private record Phases(long schemaNanos, long journalNanos, long cachesNanos, String cacheSource) {
+    }
+
+    private static volatile Phases phases = new Phases(0, 0, 0, "none");
+
+    /**
+     * Opens the database, brings its schema up to date, replays the rental journal and optionally fills the caches.
+     *
+     * @param fileName        the name of the database file
+     * @param journalSettings the rental journal settings
+     * @param loadCaches      true to fill the availability index and name caches before returning
+     */
+    public static void open(String fileName, RentalJournal.Settings journalSettings, boolean loadCaches) {
+        long start = System.nanoTime();
+
+        try {
+            H2Database.create(fileName).close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+
+        if (!SchemaMigrations.isCurrent()) {
+            ManagerService.createCompany();
+            ManagerService.createCar();
+            CustomerService.createCustomer();
+            SchemaMigrations.migrate();
+        }
+
+        Shards.open();
+
+        long schemaDone = System.nanoTime();
+        SCHEMA_TIMER.stop(start);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "startup-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            CompletableFuture<StartupSnapshot.Contents> snapshot =
+                    CompletableFuture.supplyAsync(() -> StartupSnapshot.read(fileName), executor);
+
+            JournaledRentals.open(fileName, journalSettings);
+
+            long journalDone = System.nanoTime();
+            JOURNAL_TIMER.stop(schemaDone);
+
+            StartupSnapshot.Contents contents = snapshot.join();
+            String cacheSource = "none";
+
+            if (loadCaches) {
+                if (contents != null) {
+                    StartupSnapshot.install(contents);
+                    cacheSource = "snapshot";
+                } else {
+                    CustomerService.loadAvailableCars();
+                    cacheSource = "database";
+                }
+
+                CACHES_TIMER.stop(journalDone);
+            }
+
+            phases = new Phases(schemaDone - start, journalDone - schemaDone, System.nanoTime() - journalDone,
+                    cacheSource);
+        } finally {
+            executor.shutdown();
+        }
+
+        OPEN_TIMER.stop(start);
+    }
+
+    /**
+     * Records that the first menu is about to be shown, measured from the start of the JVM.
+     *
+     * @return the time to the first menu in milliseconds
+     */
+    public static double ready() {
+        long elapsedMillis = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+        long elapsedNanos = elapsedMillis * 1_000_000L;
+
+        TIME_TO_FIRST_MENU_TIMER.stop(System.nanoTime() - elapsedNanos);
+
+        return elapsedNanos / 1e6;
+    }
+
+    /**
+     * Returns a one-line summary of the last startup, such as
+     * "startup: 412.3 ms to first menu (schema 3.1 ms, journal 0.4 ms, caches 21.7 ms from snapshot)".
+     *
+     * @param timeToFirstMenuMillis the time to the first menu, as returned by {@link #ready()}
+     * @return the summary
+     */
+    public static String report(double timeToFirstMenuMillis) {
+        Phases last = phases;
+
+        return String.format("startup: %.1f ms to first menu (schema %.1f ms, journal %.1f ms, caches %.1f ms from %s)%n",
+                timeToFirstMenuMillis, last.schemaNanos() / 1e6, last.journalNanos() / 1e6,
+                last.cachesNanos() / 1e6, last.cacheSource());
+    }
+}
@@ -0,0 +1,255 @@
+package carsharing.service;
+
+import carsharing.dao.CompanyTable;
+import carsharing.dao.DatabaseConfig;
+import carsharing.dao.H2Database;
+import carsharing.dao.SchemaMigrations;
+import carsharing.dao.SnapshotTable;
+import carsharing.metrics.Metrics;
+import carsharing.metrics.Timer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * The StartupSnapshot class saves the availability index and the company names to a binary file at shutdown,
+ * so the next start can fill its caches from the file instead of querying every car.
+ * Snapshots are used with a database file only and are switched on with the carsharing.snapshot.enabled
+ * system property.
+ * <p>
+ * The file is {@code <databaseFileName>.snapshot} next to the database. It holds a header with a random token
+ * and the schema version, the companies and the cars, each list ended by an ID of 0, and a CRC32 of everything
+ * before it. The token is stored in SNAPSHOT_STATE once the file is complete and is cleared on every start,
+ * whether snapshots are enabled or not, so only a snapshot written by the last clean shutdown is trusted.
+ * A database changed by other tools while the application is stopped must have its snapshot file deleted.
+ */
+public class StartupSnapshot {
+    private static final int MAGIC = 0x43534E50;
+    private static final int VERSION = 1;
+
+    private static final Timer READ_TIMER = Metrics.timer("StartupSnapshot.read");
+    private static final Timer SAVE_TIMER = Metrics.timer("StartupSnapshot.save");
+
+    /**
+     * The companies and cars of a snapshot, in ID order.
+     *
+     * @param companyIDs   the IDs of the companies
+     * @param companyNames the names of the companies
+     * @param carIDs       the IDs of the cars
+     * @param carNames     the names of the cars
+     * @param carCompanies the company of every car
+     * @param rented       the positions of the rented cars in carIDs
+     */
+    record Contents(int[] companyIDs, String[] companyNames, int[] carIDs, String[] carNames, int[] carCompanies,
+                    BitSet rented) {
+    }
+
+    /**
+     * Checks if snapshots are written at shutdown and read at startup.
+     *
+     * @return true if the carsharing.snapshot.enabled system property is true and the database is a file
+     */
+    public static boolean isEnabled() {
+        return Boolean.getBoolean("carsharing.snapshot.enabled")
+                && H2Database.getConfig().mode() == DatabaseConfig.Mode.FILE;
+    }
+
+    /**
+     * Takes the snapshot token from the database and reads the snapshot file if it carries the same token.
+     * The token is taken even with snapshots disabled, so a snapshot never outlives a run that did not save one.
+     *
+     * @param fileName the name of the database file
+     * @return the contents of the snapshot, or null if there is no valid snapshot for the database
+     */
+    static Contents read(String fileName) {
+        if (H2Database.getConfig().mode() != DatabaseConfig.Mode.FILE) {
+            return null;
+        }
+
+        long token = SnapshotTable.takeToken();
+
+        if (token == 0 || !isEnabled()) {
+            return null;
+        }
+
+        long start = System.nanoTime();
+        CRC32 crc = new CRC32();
+
+        try (DataInputStream input = new DataInputStream(new CheckedInputStream(
+                new BufferedInputStream(Files.newInputStream(file(fileName)), 1 << 16), crc))) {
+
+            if (input.readInt() != MAGIC || input.readInt() != VERSION || input.readLong() != token
+                    || input.readInt() != SchemaMigrations.latestVersion()) {
+                return null;
+            }
+
+            List<Integer> companyIDs = new ArrayList<>();
+            List<String> companyNames = new ArrayList<>();
+
+            for (int id = input.readInt(); id != 0; id = input.readInt()) {
+                companyIDs.add(id);
+                companyNames.add(input.readUTF());
+            }
+
+            int[] carIDs = new int[16];
+            String[] carNames = new String[16];
+            int[] carCompanies = new int[16];
+            BitSet rented = new BitSet();
+            int cars = 0;
+
+            for (int id = input.readInt(); id != 0; id = input.readInt(), cars++) {
+                if (cars == carIDs.length) {
+                    carIDs = Arrays.copyOf(carIDs, cars * 2);
+                    carNames = Arrays.copyOf(carNames, cars * 2);
+                    carCompanies = Arrays.copyOf(carCompanies, cars * 2);
+                }
+
+                carIDs[cars] = id;
+                carCompanies[cars] = input.readInt();
+                rented.set(cars, input.readBoolean());
+                carNames[cars] = input.readUTF();
+            }
+
+            long expected = crc.getValue();
+
+            if (input.readLong() != expected) {
+                return null;
+            }
+
+            return new Contents(companyIDs.stream().mapToInt(Integer::intValue).toArray(),
+                    companyNames.toArray(String[]::new), Arrays.copyOf(carIDs, cars),
+                    Arrays.copyOf(carNames, cars), Arrays.copyOf(carCompanies, cars), rented);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            READ_TIMER.failed(e);
+            return null;
+        } finally {
+            READ_TIMER.stop(start);
+        }
+    }
+
+    /**
+     * Fills the availability index and the name caches from a snapshot.
+     *
+     * @param contents the contents of the snapshot
+     */
+    static void install(Contents contents) {
+        AvailabilityIndex.load(handler -> {
+            for (int i = 0; i < contents.carIDs().length; i++) {
+                handler.accept(contents.carIDs()[i], contents.carNames()[i], contents.carCompanies()[i],
+                        contents.rented().get(i));
+            }
+
+            return true;
+        });
+
+        for (int i = 0; i < contents.companyIDs().length; i++) {
+            NameCache.companyLoaded(contents.companyIDs()[i], contents.companyNames()[i]);
+        }
+
+        for (int i = 0; i < contents.carIDs().length; i++) {
+            if (!NameCache.carLoaded(contents.carIDs()[i], contents.carNames()[i], contents.carCompanies()[i])) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Writes the snapshot of the current availability index and company names, then records its token.
+     * Does nothing if snapshots are disabled or the index was never built in this run.
+     *
+     * @param fileName the name of the database file
+     */
+    public static void save(String fileName) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        long start = System.nanoTime();
+
+        Path file = file(fileName);
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        long token = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+        CRC32 crc = new CRC32();
+
+        try {
+            boolean indexed;
+
+            try (DataOutputStream output = new DataOutputStream(new CheckedOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16), crc))) {
+
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+                output.writeLong(token);
+                output.writeInt(SchemaMigrations.latestVersion());
+
+                IOException[] failure = new IOException[1];
+
+                CompanyTable.forEach((id, name) -> {
+                    if (failure[0] == null) {
+                        try {
+                            output.writeInt(id);
+                            output.writeUTF(name);
+                        } catch (IOException e) {
+                            failure[0] = e;
+                        }
+                    }
+                });
+
+                output.writeInt(0);
+
+                indexed = AvailabilityIndex.forEachCar((id, name, companyID, rented) -> {
+                    if (failure[0] == null) {
+                        try {
+                            output.writeInt(id);
+                            output.writeInt(companyID);
+                            output.writeBoolean(rented);
+                            output.writeUTF(name);
+                        } catch (IOException e) {
+                            failure[0] = e;
+                        }
+                    }
+                });
+
+                if (failure[0] != null) {
+                    throw failure[0];
+                }
+
+                output.writeInt(0);
+                output.writeLong(crc.getValue());
+            }
+
+            if (!indexed) {
+                Files.delete(temporary);
+                return;
+            }
+
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            SnapshotTable.saveToken(token);
+        } catch (IOException e) {
+            SAVE_TIMER.failed(e);
+        } finally {
+            SAVE_TIMER.stop(start);
+        }
+    }
+
+    private static Path file(String fileName) {
+        return Path.of(H2Database.getConfig().directory(), fileName + ".snapshot");
+    }
+}
@@ -0,0 +1,91 @@
+package carsharing.view;
+
+import carsharing.metrics.Metrics;
+import carsharing.metrics.RoundTrips;
+import carsharing.metrics.Timer;
+
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The CommandEngine class drives the menus as a loop over {@link Screen} steps.
+ * The stack depth stays constant however long the session is, and each step can be timed.
+ * Timings exclude the time spent waiting for input and are written to standard error,
+ * together with the number of database statements and connections each step needed.
+ */
+public class CommandEngine {
+    private static final Timer COMMAND_TIMER = Metrics.timer("menu.command");
+
+    private static boolean timingsEnabled;
+
+    /**
+     * Turns per-command timings on or off.
+     *
+     * @param enabled true to print the time every command took
+     */
+    public static void setTimingsEnabled(boolean enabled) {
+        timingsEnabled = enabled;
+    }
+
+    /**
+     * Runs screens starting from the given one until a screen returns null or the input ends.
+     *
+     * @param start the first screen
+     */
+    public static void run(Screen start) {
+        Console.install();
+
+        Writer timings = timingsEnabled
+                ? new BufferedWriter(new OutputStreamWriter(new FileOutputStream(FileDescriptor.err), StandardCharsets.UTF_8))
+                : Writer.nullWriter();
+
+        long steps = 0;
+        long totalNanos = 0;
+        long maxNanos = 0;
+        long firstStatements = RoundTrips.statements();
+        long firstConnections = RoundTrips.connections();
+
+        try (timings) {
+            Screen screen = start;
+
+            while (screen != null) {
+                long readBefore = Console.readNanos();
+                long statementsBefore = RoundTrips.statements();
+                long connectionsBefore = RoundTrips.connections();
+                long before = System.nanoTime();
+
+                screen = screen.next();
+
+                long elapsed = System.nanoTime() - before - (Console.readNanos() - readBefore);
+
+                COMMAND_TIMER.getHistogram().record(elapsed);
+
+                steps++;
+                totalNanos += elapsed;
+                maxNanos = Math.max(maxNanos, elapsed);
+
+                if (timingsEnabled) {
+                    timings.write(String.format("[%d] '%s' %.3f ms, %d statements, %d connections%n",
+                            steps, Console.lastInput(), elapsed / 1e6,
+                            RoundTrips.statements() - statementsBefore, RoundTrips.connections() - connectionsBefore));
+                }
+            }
+
+            Console.flush();
+
+            if (timingsEnabled) {
+                timings.write(String.format("%d commands, total %.3f ms, average %.3f ms, max %.3f ms, " +
+                                "%d statements, %d connections%n",
+                        steps, totalNanos / 1e6, steps == 0 ? 0 : totalNanos / 1e6 / steps, maxNanos / 1e6,
+                        RoundTrips.statements() - firstStatements, RoundTrips.connections() - firstConnections));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
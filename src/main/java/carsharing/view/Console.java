@@ -0,0 +1,117 @@
+package carsharing.view;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * The Console class owns the single input reader and the single buffered output stream of the application.
+ * Input comes from standard input or from a script file. Output is collected in a buffer that is installed
+ * as {@link System#out} and flushed whenever input is read, so every prompt is visible before the program waits.
+ */
+public class Console {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+    private static PrintStream out;
+    private static String lastInput = "";
+    private static long readNanos;
+
+    /**
+     * Replaces {@link System#out} with a buffered stream that only flushes when input is read or the session ends.
+     */
+    public static void install() {
+        if (out == null) {
+            out = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), BUFFER_SIZE),
+                    false, StandardCharsets.UTF_8);
+            System.setOut(out);
+        }
+    }
+
+    /**
+     * Reads input from a script file instead of standard input.
+     *
+     * @param script the path of the script file, or "-" for standard input
+     */
+    public static void useScript(String script) {
+        if (script.equals("-")) {
+            return;
+        }
+
+        try {
+            in = Files.newBufferedReader(Path.of(script), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Flushes pending output and reads the next line of input.
+     *
+     * @return the trimmed line, or null at the end of the input
+     */
+    public static String readLine() {
+        System.out.flush();
+
+        long start = System.nanoTime();
+
+        try {
+            String line = in.readLine();
+            lastInput = line == null ? "" : line.trim();
+
+            return line == null ? null : lastInput;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            readNanos += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Parses a menu choice.
+     *
+     * @param line the input line
+     * @return the number entered, or -1 if the line is not a number
+     */
+    public static int parseInt(String line) {
+        try {
+            return Integer.parseInt(line);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the last line read, used to label command timings.
+     *
+     * @return the last input line, or an empty string if nothing was read
+     */
+    public static String lastInput() {
+        return lastInput;
+    }
+
+    /**
+     * Returns the total time spent waiting for input.
+     *
+     * @return the read time in nanoseconds
+     */
+    public static long readNanos() {
+        return readNanos;
+    }
+
+    /**
+     * Flushes any pending output.
+     */
+    public static void flush() {
+        System.out.flush();
+    }
+}
@@ -1,202 +1,281 @@
 package carsharing.view;
 
+import carsharing.io.Output;
+import carsharing.model.Car;
+import carsharing.model.Company;
+import carsharing.model.CompanyAvailability;
+import carsharing.model.Customer;
+import carsharing.model.Page;
+import carsharing.model.PageCursor;
+import carsharing.model.Rental;
+import carsharing.model.RentScreen;
 import carsharing.service.CustomerService;
 import carsharing.service.ManagerService;
 
-import java.util.Collections;
-import java.util.Map;
-import java.util.Scanner;
-
 /**
  * The CustomerMenu class represents the user interface for the customer operations in the car sharing application.
  * It provides methods for displaying menus and interacting with the customer.
  */
 public class CustomerMenu {
     /**
-     * Prints the list of customers.
-     * If the customer list is empty, prompts the user to go back to the previous menu.
-     * Otherwise, prompts the user to enter the customer ID to show its details.
-     * Recursively calls itself if an invalid customer ID is provided.
+     * Prints one page of the list of customers.
+     * If the customer list is empty, goes back to the main menu.
+     * Otherwise, prompts the user to enter the customer ID to show its details,
+     * or "n" and "p" to move to the next or previous page.
+     * Shows the list again if an invalid customer ID is provided.
+     *
+     * @param cursor the page to show
+     * @return the next screen, or null to exit
      */
-    public static void printCustomerList() {
+    public static Screen printCustomerList(PageCursor cursor) {
+        Page<Customer> customers = CustomerService.getCustomerPage(cursor, Output.PAGE_SIZE);
 
-        if (CustomerService.isCustomerTableEmpty()) {
+        if (customers.isEmpty() && !customers.hasPrevious()) {
             System.out.println("\nThe customer list is empty!");
 
-            Menu.show();
-        } else {
-            CustomerService.printCustomerList();
-
-            Scanner scanner = new Scanner(System.in);
-            int customerID = scanner.nextInt();
-
-            if (customerID == 0) {
-                Menu.show();
-            } else {
-                if (customerID > 0 && customerID <= CustomerService.getLastCustomerID()) {
-                    show(customerID);
-                } else {
-                    printCustomerList();
-                }
-            }
+            return Menu::mainMenu;
+        }
+
+        Listings.customers(customers);
+
+        String input = Console.readLine();
+
+        if (input == null) {
+            return null;
+        }
 
-            scanner.close();
+        if (input.equals("n") && customers.hasMore()) {
+            return () -> printCustomerList(customers.next());
         }
 
+        if (input.equals("p") && customers.hasPrevious()) {
+            return () -> printCustomerList(customers.previous(Output.PAGE_SIZE));
+        }
+
+        int customerID = Console.parseInt(input);
+
+        if (customerID == 0) {
+            return Menu::mainMenu;
+        }
+
+        if (customers.find(customer -> customer.id() == customerID) != null
+                || CustomerService.customerExists(customerID)) {
+            return () -> show(customerID);
+        }
+
+        return () -> printCustomerList(cursor);
     }
 
     /**
      * Displays the menu for a specific customer and prompts the customer for input.
-     * Based on the customer's choice, performs the corresponding action:
+     * Based on the customer's choice, returns the corresponding screen:
      * - Rent a car
      * - Return a rented car
      * - Display the rented car
      * - Go back to the previous menu
      *
      * @param customerID the ID of the customer
+     * @return the next screen, or null to exit
      */
-    public static void show(int customerID) {
-        Scanner scanner = new Scanner(System.in);
-
+    public static Screen show(int customerID) {
         System.out.println("\n1. Rent a car");
         System.out.println("2. Return a rented car");
         System.out.println("3. My rented car");
         System.out.println("0. Back");
 
-        char action = scanner.nextLine()
-                .trim()
-                .charAt(0);
+        String action = Console.readLine();
 
-        switch (action) {
-            case '0' -> Menu.show();
-            case '1' -> rentCar(customerID);
-            case '2' -> returnCar(customerID);
-            case '3' -> showCustomerCar(customerID);
+        if (action == null) {
+            return null;
         }
 
-        scanner.close();
+        return switch (action) {
+            case "0" -> Menu::mainMenu;
+            case "1" -> () -> rentCar(customerID, PageCursor.FIRST);
+            case "2" -> () -> returnCar(customerID);
+            case "3" -> () -> showCustomerCar(customerID);
+            default -> () -> show(customerID);
+        };
     }
 
     /**
      * Prompts the user to enter the name of a new customer and adds it to the system.
+     *
+     * @return the next screen, or null to exit
      */
-    public static void add() {
-        Scanner scanner = new Scanner(System.in);
-
+    public static Screen add() {
         System.out.println("\nEnter the customer name:");
-        String name = scanner.nextLine()
-                .trim();
+        String name = Console.readLine();
+
+        if (name == null) {
+            return null;
+        }
 
-        CustomerService.add(name);
-        Menu.show();
+        if (CustomerService.add(name) > 0) {
+            System.out.println("The customer was added!");
+        }
 
-        scanner.close();
+        return Menu::mainMenu;
     }
 
     /**
      * Allows the customer to rent a car.
      * Displays the list of available companies and prompts the customer to select a company.
      * If the selected company has no available cars, prompts the customer to make another choice.
-     * Once the customer selects a car, the car is rented and the customer menu is shown.
+     * Otherwise, continues with the car list of the selected company.
+     * The company list is paginated; "n" and "p" move to the next or previous page.
      *
      * @param customerID the ID of the customer
+     * @param cursor     the page of the company list to show
+     * @return the next screen, or null to exit
      */
-    public static void rentCar(int customerID) {
+    public static Screen rentCar(int customerID, PageCursor cursor) {
+        RentScreen screen = CustomerService.getRentScreen(customerID, cursor, Output.PAGE_SIZE);
 
-        if (!CustomerService.isCustomerCarListEmpty(customerID)) {
-            System.out.println("\nYou've already rented a car!");
+        if (screen == null) {
+            return () -> show(customerID);
+        }
 
-            show(customerID);
-        } else {
+        if (screen.customer().hasCar()) {
+            System.out.println("\nYou've already rented a car!");
 
-            if (ManagerService.isCompanyTableEmpty()) {
-                System.out.println("\nThe company list is empty!");
+            return () -> show(customerID);
+        }
 
-                show(customerID);
-            } else {
-                Scanner scanner = new Scanner(System.in);
+        Page<CompanyAvailability> companies = screen.companies();
 
-                ManagerService.printCompanyList();
+        if (companies.isEmpty() && !companies.hasPrevious()) {
+            System.out.println("\nThe company list is empty!");
 
-                int companyID = scanner.nextInt();
+            return () -> show(customerID);
+        }
 
-                if (companyID == 0) {
-                    show(customerID);
-                } else {
-                    if (companyID > 0 && companyID <= ManagerService.getLastCompanyID()) {
+        Listings.availableCompanies(companies);
 
-                        String company = ManagerService.getCompanyByID(companyID);
+        String input = Console.readLine();
 
-                        if (ManagerService.isCarTableEmpty() || ManagerService.isCompanyCarListEmpty(companyID)) {
-                            System.out.println("\nNo available cars in the '" + company + "' company\n");
+        if (input == null) {
+            return null;
+        }
 
-                            rentCar(customerID);
-                        } else {
-                            Map<Integer, Integer> carList;
+        if (input.equals("n") && companies.hasMore()) {
+            return () -> rentCar(customerID, companies.next());
+        }
 
-                            carList = CustomerService.printCarListOfCompany(companyID);
+        if (input.equals("p") && companies.hasPrevious()) {
+            return () -> rentCar(customerID, companies.previous(Output.PAGE_SIZE));
+        }
 
-                            int carToRent = scanner.nextInt();
+        int companyID = Console.parseInt(input);
 
-                            if (carToRent == 0) {
-                                rentCar(customerID);
-                            } else {
-                                if (carToRent > 0 && carToRent <= Collections.max(carList.keySet())) {
-                                    int rentedCarID = carList.get(carToRent);
+        if (companyID == 0) {
+            return () -> show(customerID);
+        }
 
-                                    CustomerService.rentCar(customerID, rentedCarID);
-                                    show(companyID);
-                                } else {
-                                    rentCar(customerID);
-                                }
-                            }
-                        }
+        CompanyAvailability chosen = findCompany(companies, companyID);
 
-                    } else {
-                        rentCar(customerID);
-                    }
-                }
+        if (chosen != null) {
+            if (chosen.availableCars() == 0) {
+                System.out.println("\nNo available cars in the '" + chosen.company().name() + "' company\n");
 
-                scanner.close();
+                return () -> rentCar(customerID, cursor);
             }
 
+            return () -> chooseCar(customerID, companyID, PageCursor.FIRST);
         }
 
+        return () -> rentCar(customerID, cursor);
     }
 
     /**
-     * Allows the customer to return a rented car.
-     * If the customer hasn't rented a car yet, displays a message and shows the customer menu.
-     * Otherwise, returns the car and shows the customer menu.
+     * Displays the available cars of a company and rents the one the customer selects.
+     * Once the car is rented, the customer menu is shown; otherwise the customer chooses a company again.
+     * The car list is paginated; "n" and "p" move to the next or previous page.
      *
      * @param customerID the ID of the customer
+     * @param companyID  the ID of the selected company
+     * @param cursor     the page of the car list to show
+     * @return the next screen, or null to exit
      */
-    public static void returnCar(int customerID) {
-        if (CustomerService.isCustomerTableEmpty() || CustomerService.isCustomerCarListEmpty(customerID)) {
-            System.out.println("\nYou didn't rent a car!");
+    public static Screen chooseCar(int customerID, int companyID, PageCursor cursor) {
+        Page<Car> cars = CustomerService.getAvailableCarPage(companyID, cursor, Output.PAGE_SIZE);
 
-            show(customerID);
-        } else {
-            CustomerService.returnCar(customerID);
-            show(customerID);
+        Listings.availableCars(cars);
+
+        String input = Console.readLine();
+
+        if (input == null) {
+            return null;
+        }
+
+        if (input.equals("n") && cars.hasMore()) {
+            return () -> chooseCar(customerID, companyID, cars.next());
+        }
+
+        if (input.equals("p") && cars.hasPrevious()) {
+            return () -> chooseCar(customerID, companyID, cars.previous(Output.PAGE_SIZE));
         }
+
+        Car carToRent = cars.get(Console.parseInt(input));
+
+        if (carToRent != null && CustomerService.rentCar(customerID, carToRent)) {
+            return () -> show(customerID);
+        }
+
+        return () -> rentCar(customerID, PageCursor.FIRST);
     }
 
     /**
-     * Displays the list of cars rented by a specific customer.
-     * If the customer hasn't rented a car, displays a message and shows the customer menu.
-     * Otherwise, prints the list of rented cars and shows the customer menu.
+     * Allows the customer to return a rented car.
+     * If the customer hasn't rented a car yet, the service displays a message. Shows the customer menu afterwards.
      *
      * @param customerID the ID of the customer
+     * @return the next screen
      */
-    public static void showCustomerCar(int customerID) {
-        if (CustomerService.isCustomerTableEmpty() || CustomerService.isCustomerCarListEmpty(customerID)) {
-            System.out.println("\nYou didn't rent a car!");
+    public static Screen returnCar(int customerID) {
+        CustomerService.returnCar(customerID);
+
+        return () -> show(customerID);
+    }
 
-            show(customerID);
+    /**
+     * Displays the car rented by a specific customer.
+     * If the customer hasn't rented a car, displays a message instead. Shows the customer menu afterwards.
+     *
+     * @param customerID the ID of the customer
+     * @return the next screen
+     */
+    public static Screen showCustomerCar(int customerID) {
+        Rental rental = CustomerService.getRental(customerID);
+
+        if (rental == null) {
+            System.out.println("\nYou didn't rent a car!");
         } else {
-            CustomerService.printCarListOfCustomer(customerID);
-            show(customerID);
+            Listings.rental(rental);
+        }
+
+        return () -> show(customerID);
+    }
+
+    /**
+     * Finds a company by ID, on the shown page first and then through the service layer,
+     * so an ID from another page can still be entered.
+     *
+     * @param companies the page shown to the customer
+     * @param companyID the entered company ID
+     * @return the company with its available car count, or null if there is no such company
+     */
+    private static CompanyAvailability findCompany(Page<CompanyAvailability> companies, int companyID) {
+        CompanyAvailability shown = companies.find(company -> company.company().id() == companyID);
+
+        if (shown != null || companyID < 0) {
+            return shown;
         }
+
+        String name = ManagerService.getCompanyByID(companyID);
+
+        return name.isEmpty()
+                ? null
+                : new CompanyAvailability(new Company(companyID, name), CustomerService.countAvailableCars(companyID));
     }
 }
@@ -0,0 +1,152 @@
+package carsharing.view;
+
+import carsharing.io.Output;
+import carsharing.model.Car;
+import carsharing.model.Company;
+import carsharing.model.CompanyAvailability;
+import carsharing.model.CompanyUsage;
+import carsharing.model.Customer;
+import carsharing.model.Page;
+import carsharing.model.Rental;
+
+/**
+ * The Listings class renders the pages and records returned by the service layer.
+ * Each listing is written out at once through {@link Output}.
+ */
+public class Listings {
+    /**
+     * Prints a page of companies for the manager to choose from.
+     *
+     * @param page the page of companies
+     */
+    public static void companies(Page<Company> page) {
+        Output output = companyHeader();
+
+        for (Company company : page.items()) {
+            output.item(company.id(), company.name());
+        }
+
+        backOptions(output, page);
+    }
+
+    /**
+     * Prints a page of companies for a customer to choose from when renting a car.
+     *
+     * @param page the page of companies with their available car counts
+     */
+    public static void availableCompanies(Page<CompanyAvailability> page) {
+        Output output = companyHeader();
+
+        for (CompanyAvailability availability : page.items()) {
+            output.item(availability.company().id(), availability.company().name());
+        }
+
+        backOptions(output, page);
+    }
+
+    /**
+     * Prints a page of customers to choose from.
+     *
+     * @param page the page of customers
+     */
+    public static void customers(Page<Customer> page) {
+        Output output = new Output()
+                .line()
+                .line("Customer list:");
+
+        for (Customer customer : page.items()) {
+            output.item(customer.id(), customer.name());
+        }
+
+        backOptions(output, page);
+    }
+
+    /**
+     * Prints a page of the cars of a company for the manager.
+     * The page options and "0. Back" are only shown when the list has more than one page.
+     *
+     * @param page the page of cars
+     */
+    public static void fleet(Page<Car> page) {
+        Output output = new Output()
+                .line()
+                .line("Car list:");
+
+        int number = page.offset();
+
+        for (Car car : page.items()) {
+            output.item(++number, car.name());
+        }
+
+        if (page.hasPrevious() || page.hasMore()) {
+            output.pageOptions(page.hasPrevious(), page.hasMore())
+                    .line("0. Back");
+        }
+
+        output.line()
+                .flush();
+    }
+
+    /**
+     * Prints a page of available cars for a customer to choose from.
+     * Cars are numbered across pages, so the numbers on the second page continue after the first.
+     *
+     * @param page the page of available cars
+     */
+    public static void availableCars(Page<Car> page) {
+        Output output = new Output()
+                .line()
+                .line("Choose a car:");
+
+        int number = page.offset();
+
+        for (Car car : page.items()) {
+            output.item(++number, car.name());
+        }
+
+        backOptions(output, page);
+    }
+
+    /**
+     * Prints the car rented by a customer and the company owning it.
+     *
+     * @param rental the rental
+     */
+    public static void rental(Rental rental) {
+        new Output()
+                .line()
+                .line("Your rented car:")
+                .line(rental.car().name())
+                .line("Company:")
+                .line(rental.company().name())
+                .flush();
+    }
+
+    /**
+     * Prints the fleet summary of a company: its cars, and how many of them are rented and free.
+     *
+     * @param summary the fleet summary of the company
+     */
+    public static void companySummary(CompanyUsage summary) {
+        new Output()
+                .line()
+                .line("Company summary:")
+                .line("Cars: " + summary.cars())
+                .line("Rented: " + summary.rented())
+                .line("Free: " + summary.idle())
+                .line()
+                .flush();
+    }
+
+    private static Output companyHeader() {
+        return new Output()
+                .line()
+                .line("Choose a company:");
+    }
+
+    private static void backOptions(Output output, Page<?> page) {
+        output.pageOptions(page.hasPrevious(), page.hasMore())
+                .line("0. Back")
+                .flush();
+    }
+}
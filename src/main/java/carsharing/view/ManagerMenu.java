@@ -1,9 +1,12 @@
 package carsharing.view;
 
+import carsharing.io.Output;
+import carsharing.model.Car;
+import carsharing.model.Company;
+import carsharing.model.Page;
+import carsharing.model.PageCursor;
 import carsharing.service.ManagerService;
 
-import java.util.Scanner;
-
 /**
  * The ManagerMenu class represents the user interface for the manager operations in the car sharing application.
  * It provides methods for displaying menus and interacting with the manager.
@@ -11,147 +14,213 @@ import java.util.Scanner;
 public class ManagerMenu {
     /**
      * Displays the manager menu options and prompts the manager for input.
-     * Based on the manager's choice, performs the corresponding action:
+     * Based on the manager's choice, returns the corresponding screen:
      * - Display the company list
      * - Create a new company
      * - Go back to the previous menu
-     * Recursively calls itself if an invalid input is provided.
+     * Shows the manager menu again if an invalid input is provided.
+     *
+     * @return the next screen, or null to exit
      */
-    public static void show() {
-        Scanner scanner = new Scanner(System.in);
-
+    public static Screen show() {
         System.out.println("\n1. Company list");
         System.out.println("2. Create a company");
         System.out.println("0. Back");
 
-        char action = scanner.nextLine()
-                .trim()
-                .charAt(0);
+        String action = Console.readLine();
 
-        switch (action) {
-            case '0' -> ManagerService.isLoggedIn(false);
-            case '1' -> printCompanyList();
-            case '2' -> addCompany();
-            default ->  show();
+        if (action == null) {
+            return null;
         }
 
-        scanner.close();
+        return switch (action) {
+            case "0" -> Menu::mainMenu;
+            case "1" -> () -> printCompanyList(PageCursor.FIRST);
+            case "2" -> ManagerMenu::addCompany;
+            default -> ManagerMenu::show;
+        };
     }
 
     /**
-     * Prints the list of companies.
-     * If the company list is empty, prompts the manager to go back to the previous menu.
-     * Otherwise, prompts the manager to enter the company ID to show its details.
-     * Recursively calls itself if an invalid company ID is provided.
+     * Prints one page of the list of companies.
+     * If the company list is empty, goes back to the manager menu.
+     * Otherwise, prompts the manager to enter the company ID to show its details,
+     * or "n" and "p" to move to the next or previous page.
+     * Shows the list again if an invalid company ID is provided.
+     *
+     * @param cursor the page to show
+     * @return the next screen, or null to exit
      */
-    public static void printCompanyList() {
-        if (ManagerService.isCompanyTableEmpty()) {
+    public static Screen printCompanyList(PageCursor cursor) {
+        Page<Company> companies = ManagerService.getCompanyPage(cursor, Output.PAGE_SIZE);
+
+        if (companies.isEmpty() && !companies.hasPrevious()) {
             System.out.println("\nThe company list is empty!");
 
-            show();
-        } else {
-            ManagerService.printCompanyList();
+            return ManagerMenu::show;
+        }
+
+        Listings.companies(companies);
+
+        String input = Console.readLine();
+
+        if (input == null) {
+            return null;
+        }
+
+        if (input.equals("n") && companies.hasMore()) {
+            return () -> printCompanyList(companies.next());
+        }
 
-            Scanner scanner = new Scanner(System.in);
-            int companyID = scanner.nextInt();
+        if (input.equals("p") && companies.hasPrevious()) {
+            return () -> printCompanyList(companies.previous(Output.PAGE_SIZE));
+        }
 
-            if (companyID == 0) {
-                show();
-            } else {
+        int companyID = Console.parseInt(input);
 
-                if (companyID > 0 && companyID <= ManagerService.getLastCompanyID()) {
-                    String company = ManagerService.getCompanyByID(companyID);
-                    System.out.println("\n'" + company + "' company:");
+        if (companyID == 0) {
+            return ManagerMenu::show;
+        }
 
-                    showCompanyMenu(companyID);
-                } else {
-                    printCompanyList();
-                }
+        // The name is on the page unless the ID belongs to another page
+        Company shown = companies.find(company -> company.id() == companyID);
+        String company = shown != null ? shown.name() : companyID > 0 ? ManagerService.getCompanyByID(companyID) : "";
 
-            }
+        if (!company.isEmpty()) {
+            System.out.println("\n'" + company + "' company:");
 
-            scanner.close();
+            return () -> showCompanyMenu(companyID);
         }
+
+        return () -> printCompanyList(cursor);
     }
 
     /**
      * Displays the menu for a specific company and prompts the manager for input.
-     * Based on the manager's choice, performs the corresponding action:
+     * Based on the manager's choice, returns the corresponding screen:
      * - Display the car list for the company
      * - Create a new car for the company
+     * - Display the number of cars of the company and how many are rented
      * - Go back to the previous menu
      *
      * @param companyID the ID of the company
+     * @return the next screen, or null to exit
      */
-    public static void showCompanyMenu(int companyID) {
-        Scanner scanner = new Scanner(System.in);
-
+    public static Screen showCompanyMenu(int companyID) {
         System.out.println("1. Car list");
         System.out.println("2. Create a car");
+        System.out.println("3. Company summary");
         System.out.println("0. Back");
 
-        char action = scanner.nextLine()
-                .trim()
-                .charAt(0);
+        String action = Console.readLine();
 
-        switch (action) {
-            case '0' -> show();
-            case '1' -> printCarList(companyID);
-            case '2' -> addCar(companyID);
+        if (action == null) {
+            return null;
         }
 
-        scanner.close();
+        return switch (action) {
+            case "0" -> ManagerMenu::show;
+            case "1" -> () -> printCarList(companyID, PageCursor.FIRST);
+            case "2" -> () -> addCar(companyID);
+            case "3" -> () -> printCompanySummary(companyID);
+            default -> () -> showCompanyMenu(companyID);
+        };
     }
 
     /**
      * Prompts the manager to enter the name of a new company and adds it to the system.
+     *
+     * @return the next screen, or null to exit
      */
-    public static void addCompany() {
-        Scanner scanner = new Scanner(System.in);
-
+    public static Screen addCompany() {
         System.out.println("\nEnter the company name:");
-        String company = scanner.nextLine()
-                .trim();
+        String company = Console.readLine();
 
-        ManagerService.addCompany(company);
+        if (company == null) {
+            return null;
+        }
 
-        scanner.close();
+        if (ManagerService.addCompany(company) > 0) {
+            System.out.println("The company was created!");
+        }
+
+        return ManagerMenu::show;
     }
 
     /**
-     * Prints the list of cars for a specific company.
-     * If the car list is empty, prompts the manager to go back to the company menu.
+     * Prints one page of the list of cars for a specific company.
+     * If the car list is empty, prints a message instead. Goes back to the company menu afterwards.
+     * When the list has more than one page, prompts the manager for "n" or "p" to move between pages
+     * and goes back to the company menu on any other input.
      *
      * @param companyID the ID of the company
+     * @param cursor    the page to show
+     * @return the next screen, or null to exit
      */
-    public static void printCarList(int companyID) {
-
-        if (ManagerService.isCarTableEmpty() || ManagerService.isCompanyCarListEmpty(companyID)) {
+    public static Screen printCarList(int companyID, PageCursor cursor) {
+        // An empty fleet is known from the counters, so it costs no query
+        if (cursor.offset() == 0 && ManagerService.isCompanyCarListEmpty(companyID)) {
             System.out.println("\nThe car list is empty!\n");
 
-            showCompanyMenu(companyID);
-        } else {
-            ManagerService.printCarList(companyID);
-            ManagerMenu.showCompanyMenu(companyID);
+            return () -> showCompanyMenu(companyID);
         }
 
+        Page<Car> cars = ManagerService.getCarPage(companyID, cursor, Output.PAGE_SIZE);
+
+        Listings.fleet(cars);
+
+        if (!cars.hasMore() && !cars.hasPrevious()) {
+            return () -> showCompanyMenu(companyID);
+        }
+
+        String input = Console.readLine();
+
+        if (input == null) {
+            return null;
+        }
+
+        if (input.equals("n") && cars.hasMore()) {
+            return () -> printCarList(companyID, cars.next());
+        }
+
+        if (input.equals("p") && cars.hasPrevious()) {
+            return () -> printCarList(companyID, cars.previous(Output.PAGE_SIZE));
+        }
+
+        return () -> showCompanyMenu(companyID);
     }
 
     /**
-     * Prompts the manager to enter the name of a new car for a specific company and adds it to the system.
+     * Prints the number of cars of a company and how many of them are rented and free.
+     * The numbers come from the in-memory fleet counters. Goes back to the company menu afterwards.
      *
      * @param companyID the ID of the company
+     * @return the next screen
      */
-    public static void addCar(int companyID) {
-        Scanner scanner = new Scanner(System.in);
+    public static Screen printCompanySummary(int companyID) {
+        Listings.companySummary(ManagerService.getCompanySummary(companyID));
+
+        return () -> showCompanyMenu(companyID);
+    }
 
+    /**
+     * Prompts the manager to enter the name of a new car for a specific company and adds it to the system.
+     *
+     * @param companyID the ID of the company
+     * @return the next screen, or null to exit
+     */
+    public static Screen addCar(int companyID) {
         System.out.println("\nEnter the car name:");
-        String car = scanner.nextLine()
-                .trim();
+        String car = Console.readLine();
 
-        ManagerService.addCar(car, companyID);
-        showCompanyMenu(companyID);
+        if (car == null) {
+            return null;
+        }
+
+        if (ManagerService.addCar(car, companyID) > 0) {
+            System.out.println("The car was added!\n");
+        }
 
-        scanner.close();
+        return () -> showCompanyMenu(companyID);
     }
 }
@@ -1,46 +1,48 @@
 package carsharing.view;
 
-import carsharing.service.CustomerService;
-import carsharing.service.ManagerService;
-
-import java.util.Scanner;
+import carsharing.model.PageCursor;
 
 /**
  * The Menu class represents the user interface of the car sharing application.
  * It provides methods for displaying menus and interacting with the user.
  */
 public class Menu {
+    /**
+     * Runs the menu session, starting from the main menu, until the user exits or the input ends.
+     */
+    public static void show() {
+        CommandEngine.run(Menu::mainMenu);
+    }
+
     /**
      * Displays the main menu options and prompts the user for input.
-     * Based on the user's choice, performs the corresponding action:
+     * Based on the user's choice, returns the corresponding screen:
      * - Log in as a manager
      * - Log in as a customer
      * - Create a customer
      * - Exit the application
-     * Recursively calls itself if an invalid input is provided.
+     * Shows the main menu again if an invalid input is provided.
+     *
+     * @return the next screen, or null to exit
      */
-    public static void show() {
-        Scanner scanner = new Scanner(System.in);
-
+    public static Screen mainMenu() {
         System.out.println("\n1. Log in as a manager");
         System.out.println("2. Log in as a customer");
         System.out.println("3. Create a customer");
         System.out.println("0. Exit");
 
-        char action = scanner.nextLine()
-                .trim()
-                .charAt(0);
+        String action = Console.readLine();
 
-        switch (action) {
-            case '0' -> {
-                return;
-            }
-            case '1' -> ManagerService.isLoggedIn(true);
-            case '2' -> CustomerService.isLoggedIn(true);
-            case '3' -> CustomerMenu.add();
-            default -> show();
+        if (action == null) {
+            return null;
         }
 
-        scanner.close();
+        return switch (action) {
+            case "0" -> null;
+            case "1" -> ManagerMenu::show;
+            case "2" -> () -> CustomerMenu.printCustomerList(PageCursor.FIRST);
+            case "3" -> CustomerMenu::add;
+            default -> Menu::mainMenu;
+        };
     }
 }
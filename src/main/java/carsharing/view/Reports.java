@@ -0,0 +1,90 @@
+package carsharing.view;
+
+import carsharing.io.Output;
+import carsharing.model.CarRanking;
+import carsharing.model.CompanyUsage;
+import carsharing.model.FleetReport;
+
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+/**
+ * The Reports class renders the reports built by the service layer as plain text tables.
+ * Each report is written out at once through {@link Output}.
+ */
+public class Reports {
+    private static final DateTimeFormatter PERIOD_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+    private static final DateTimeFormatter WINDOW_FORMAT = DateTimeFormatter.ofPattern("MM-dd");
+
+    /**
+     * Prints the fleet utilization report: the current fleet of every company, its utilization per window
+     * and its most rented cars.
+     *
+     * @param report the report
+     */
+    public static void fleet(FleetReport report) {
+        List<CompanyUsage> companies = report.companies();
+        int windows = report.windowCount();
+
+        Output output = new Output()
+                .line(String.format("Fleet report from %s to %s in %d-day windows",
+                        PERIOD_FORMAT.format(report.from()), PERIOD_FORMAT.format(report.to()), report.window().toDays()))
+                .line()
+                .line(String.format("%-24s %8s %8s %8s %10s", "Company", "Cars", "Rented", "Idle", "Rentals"));
+
+        for (int company = 0; company < companies.size(); company++) {
+            CompanyUsage usage = companies.get(company);
+
+            output.line(String.format("%-24.24s %8d %8d %8d %10d", usage.company().name(),
+                    usage.cars(), usage.rented(), usage.idle(), report.rentals()[company]));
+        }
+
+        StringBuilder header = new StringBuilder(String.format("%-24s", "Company"));
+
+        for (int window = 0; window < windows; window++) {
+            header.append(String.format(" %6s", WINDOW_FORMAT.format(report.windowStart(window))));
+        }
+
+        output.line()
+                .line("Utilization, % of fleet time rented:")
+                .line(header.toString());
+
+        for (int company = 0; company < companies.size(); company++) {
+            StringBuilder row = new StringBuilder(String.format("%-24.24s", companies.get(company).company().name()));
+
+            for (int window = 0; window < windows; window++) {
+                row.append(String.format(" %6.1f", report.utilization(company, window) * 100));
+            }
+
+            output.line(row.toString());
+        }
+
+        output.line()
+                .line("Most rented cars:");
+
+        // Both lists are ordered by company ID, so the company of each group is found by walking forward
+        int company = 0;
+        int companyID = 0;
+
+        for (CarRanking ranking : report.topCars()) {
+            if (ranking.car().companyID() != companyID) {
+                companyID = ranking.car().companyID();
+
+                while (company < companies.size() - 1 && companies.get(company).company().id() != companyID) {
+                    company++;
+                }
+
+                output.line(companies.get(company).company().name() + ":");
+            }
+
+            output.line(String.format("  %d. %s, %d rentals, %.1f h", ranking.rank(), ranking.car().name(),
+                    ranking.rentals(), ranking.rentedSeconds() / 3600.0));
+        }
+
+        if (report.topCars().isEmpty()) {
+            output.line("No rentals in this period");
+        }
+
+        output.flush();
+    }
+}
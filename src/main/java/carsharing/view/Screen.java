@@ -0,0 +1,16 @@
+package carsharing.view;
+
+/**
+ * The Screen interface represents one step of the menu flow.
+ * A screen prints its options, reads at most one line of input and returns the screen to show next,
+ * so the {@link CommandEngine} can drive the whole session from a single loop.
+ */
+@FunctionalInterface
+public interface Screen {
+    /**
+     * Shows this screen and handles the user's input.
+     *
+     * @return the next screen, or null to exit the application
+     */
+    Screen next();
+}